@@ -0,0 +1,159 @@
+/*
+   Copyright 2011 icedrake
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+       http://www.apache.org/licenses/LICENSE-2.0
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.github.icedrake.jsmaz;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A Smaz codebook: up to 254 ASCII strings of one to seven characters, code i
+ * standing for entry i. Codes 254 and 255 are the verbatim escapes. The
+ * entries are compiled once, when the codebook is made, into the tables
+ * {@link Smaz} looks matches up in.
+ * <p>
+ * {@link #STOCK} is the codebook of the original smaz. {@link SmazTrainer}
+ * makes codebooks for other text. This class is immutable.
+ */
+public final class SmazCodebook {
+
+    /** The most entries a codebook can have */
+    public static final int MAX_ENTRIES = 254;
+
+    /** The longest entry a codebook can have */
+    public static final int MAX_ENTRY_LENGTH = 7;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* The codebook of the original smaz, for English and web text */
+    private static final String STOCK_ENTRIES[] = {
+            " ", "the", "e", "t", "a", "of", "o", "and", "i", "n", "s", "e ", "r", " th",
+            " t", "in", "he", "th", "h", "he ", "to", "\r\n", "l", "s ", "d", " a", "an",
+            "er", "c", " o", "d ", "on", " of", "re", "of ", "t ", ", ", "is", "u", "at",
+            "   ", "n ", "or", "which", "f", "m", "as", "it", "that", "\n", "was", "en",
+            "  ", " w", "es", " an", " i", "\r", "f ", "g", "p", "nd", " s", "nd ", "ed ",
+            "w", "ed", "http://", "for", "te", "ing", "y ", "The", " c", "ti", "r ", "his",
+            "st", " in", "ar", "nt", ",", " to", "y", "ng", " h", "with", "le", "al", "to ",
+            "b", "ou", "be", "were", " b", "se", "o ", "ent", "ha", "ng ", "their", "\"",
+            "hi", "from", " f", "in ", "de", "ion", "me", "v", ".", "ve", "all", "re ",
+            "ri", "ro", "is ", "co", "f t", "are", "ea", ". ", "her", " m", "er ", " p",
+            "es ", "by", "they", "di", "ra", "ic", "not", "s, ", "d t", "at ", "ce", "la",
+            "h ", "ne", "as ", "tio", "on ", "n t", "io", "we", " a ", "om", ", a", "s o",
+            "ur", "li", "ll", "ch", "had", "this", "e t", "g ", "e\r\n", " wh", "ere",
+            " co", "e o", "a ", "us", " d", "ss", "\n\r\n", "\r\n\r", "=\"", " be", " e",
+            "s a", "ma", "one", "t t", "or ", "but", "el", "so", "l ", "e s", "s,", "no",
+            "ter", " wa", "iv", "ho", "e a", " r", "hat", "s t", "ns", "ch ", "wh", "tr",
+            "ut", "/", "have", "ly ", "ta", " ha", " on", "tha", "-", " l", "ati", "en ",
+            "pe", " re", "there", "ass", "si", " fo", "wa", "ec", "our", "who", "its", "z",
+            "fo", "rs", ">", "ot", "un", "<", "im", "th ", "nc", "ate", "><", "ver", "ad",
+            " we", "ly", "ee", " n", "id", " cl", "ac", "il", "</", "rt", " wi", "div",
+            "e, ", " it", "whi", " ma", "ge", "x", "e c", "men", ".com"
+    };
+
+    /** The codebook of the original smaz, which Smaz uses by default */
+    public static final SmazCodebook STOCK = new SmazCodebook(STOCK_ENTRIES);
+
+    private final String entries[];
+
+    /* The entries of hash slot i (of 241) with length j, in entry order, are
+     * keys[offset[i * 8 + j]] up to keys[offset[i * 8 + j + 1]]: their bytes
+     * packed into a long, first byte lowest. codes holds their codes */
+    final long keys[];
+    final int codes[];
+    final int offset[];
+
+    /* The slot a hash picks, h % 241, as an index into offset, and the lengths
+     * that have entries in it: bit j of hashLengths[h] is set if length j has.
+     * The hashes of unsigned bytes stay below 4096 */
+    final int hashSlot[];
+    final int hashLengths[];
+
+    /* The entries as the bytes the decompressor writes */
+    final byte reverse[][];
+
+    /**
+     * @param entries the strings for codes 0 and up
+     * @throws IllegalArgumentException if there are more than MAX_ENTRIES, or
+     *             an entry is empty, longer than MAX_ENTRY_LENGTH, not ASCII
+     *             or repeated
+     */
+    public SmazCodebook(String... entries) {
+        if (entries.length > MAX_ENTRIES) throw new IllegalArgumentException("A codebook has at most " + MAX_ENTRIES + " entries");
+        this.entries = entries.clone();
+
+        // the slot of each entry, found the way compress hashes the input
+        int slots[] = new int[entries.length];
+        offset = new int[241 * 8 + 1];
+        for (int code = 0; code < entries.length; code++) {
+            String entry = entries[code];
+            int j = entry.length();
+            if (j == 0 || j > MAX_ENTRY_LENGTH) throw new IllegalArgumentException("Codebook entry " + code + " is not 1 to " + MAX_ENTRY_LENGTH + " characters");
+            for (int k = 0; k < j; k++) {
+                if (entry.charAt(k) > 127) throw new IllegalArgumentException("Codebook entry " + code + " is not ASCII");
+            }
+            for (int other = 0; other < code; other++) {
+                if (entries[other].equals(entry)) throw new IllegalArgumentException("Codebook entry " + code + " repeats entry " + other);
+            }
+
+            int h1, h2, h3;
+            h1 = h2 = entry.charAt(0) << 3;
+            if (j > 1) h2 += entry.charAt(1);
+            h3 = j > 2 ? h2 ^ entry.charAt(2) : 0;
+            slots[code] = (j == 1 ? h1 : j == 2 ? h2 : h3) % 241;
+            offset[slots[code] * 8 + j + 1]++;
+        }
+
+        // counts to offsets, then fill each slot and length in entry order
+        for (int i = 1; i < offset.length; i++) offset[i] += offset[i - 1];
+        keys = new long[entries.length];
+        codes = new int[entries.length];
+        int next[] = Arrays.copyOf(offset, offset.length);
+        int slotLengths[] = new int[241];
+        for (int code = 0; code < entries.length; code++) {
+            String entry = entries[code];
+            long key = 0;
+            for (int k = entry.length() - 1; k >= 0; k--) key = key << 8 | entry.charAt(k);
+
+            int m = next[slots[code] * 8 + entry.length()]++;
+            keys[m] = key;
+            codes[m] = code;
+            slotLengths[slots[code]] |= 1 << entry.length();
+        }
+
+        hashSlot = new int[4096];
+        hashLengths = new int[4096];
+        for (int h = 0; h < hashSlot.length; h++) {
+            hashSlot[h] = h % 241 * 8;
+            hashLengths[h] = slotLengths[h % 241];
+        }
+
+        reverse = new byte[entries.length][];
+        for (int code = 0; code < entries.length; code++) {
+            reverse[code] = entries[code].getBytes(UTF8);
+        }
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @param code
+     * @return the string code stands for
+     */
+    public String getEntry(int code) {
+        return entries[code];
+    }
+}
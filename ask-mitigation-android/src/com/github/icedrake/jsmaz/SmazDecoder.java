@@ -0,0 +1,147 @@
+/*
+   Copyright 2011 icedrake
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+       http://www.apache.org/licenses/LICENSE-2.0
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.github.icedrake.jsmaz;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that decompresses the Smaz data written to it into another
+ * output stream. The data may arrive in pieces of any size: an escape or a
+ * verbatim run split between two writes is carried over, so bytes can be
+ * written as they are received. Verbatim bytes are passed through unchanged,
+ * which is how text outside ASCII comes back.
+ * <p>
+ * A decoder can be reused for another message after {@link #reset()}.
+ *
+ * @see Smaz#compress(byte[], int, int)
+ */
+public class SmazDecoder extends OutputStream {
+    private static final int OPCODE = 0; // expecting a code or an escape
+    private static final int VERBATIM_BYTE = 1; // after 254
+    private static final int VERBATIM_LENGTH = 2; // after 255
+    private static final int VERBATIM_RUN = 3; // inside the run after 255
+
+    private final OutputStream out;
+    private final byte[][] codebook;
+
+    private int state = OPCODE;
+    private int remaining; // bytes left of a verbatim run
+
+    /**
+     * Decompresses with the codebook of the original smaz
+     *
+     * @param out where the decompressed bytes go
+     */
+    public SmazDecoder(OutputStream out) {
+        this(out, SmazCodebook.STOCK);
+    }
+
+    /**
+     * @param out where the decompressed bytes go
+     * @param codebook the codebook the data was compressed with
+     */
+    public SmazDecoder(OutputStream out, SmazCodebook codebook) {
+        this.out = out;
+        this.codebook = codebook.reverse;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        switch (state) {
+            case OPCODE:
+                b &= 0xFF;
+                if (b == 254) {
+                    state = VERBATIM_BYTE;
+                } else if (b == 255) {
+                    state = VERBATIM_LENGTH;
+                } else if (b < codebook.length) {
+                    out.write(codebook[b]);
+                } else {
+                    throw new IOException("Smaz code " + b + " is not in the codebook");
+                }
+                break;
+            case VERBATIM_BYTE:
+                out.write(b);
+                state = OPCODE;
+                break;
+            case VERBATIM_LENGTH:
+                remaining = b & 0xFF;
+                state = remaining > 0 ? VERBATIM_RUN : OPCODE;
+                break;
+            default:
+                out.write(b);
+                if (--remaining == 0) state = OPCODE;
+                break;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            if (state == VERBATIM_RUN) {
+                // copy the run, or as much of it as has arrived, in one go
+                int n = Math.min(remaining, end - off);
+                out.write(b, off, n);
+                off += n;
+                remaining -= n;
+                if (remaining == 0) state = OPCODE;
+            } else {
+                write(b[off++]);
+            }
+        }
+    }
+
+    /**
+     * @return true if the data written so far ends on a whole code or run,
+     *         so all of it has been decompressed
+     */
+    public boolean isComplete() {
+        return state == OPCODE;
+    }
+
+    /**
+     * Checks that the data written so far ends on a whole code or run and
+     * flushes the output stream, without closing it.
+     *
+     * @throws EOFException if the data ends inside a verbatim run
+     */
+    public void finish() throws IOException {
+        if (!isComplete()) throw new EOFException("Smaz data ends inside a verbatim run");
+        out.flush();
+    }
+
+    /**
+     * Forgets any partial escape or verbatim run, ready for another message.
+     */
+    public void reset() {
+        state = OPCODE;
+        remaining = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
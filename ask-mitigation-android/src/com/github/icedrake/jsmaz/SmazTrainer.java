@@ -0,0 +1,323 @@
+/*
+   Copyright 2011 icedrake
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+       http://www.apache.org/licenses/LICENSE-2.0
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.github.icedrake.jsmaz;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trains a Smaz codebook on a corpus of messages and writes it out as a Java
+ * class, for text the stock codebook does poorly on. The corpus is a UTF-8
+ * text file with one message per line.
+ * <p>
+ * The entries are picked greedily by the bytes they save: each round takes the
+ * substring of two to seven ASCII characters whose occurrences, outside the
+ * text the entries so far already cover, save the most, then marks those
+ * occurrences covered. Room is kept for every character of the corpus on its
+ * own, since a character with no entry costs two bytes when it is alone.
+ * <p>
+ * Usage: SmazTrainer &lt;corpus&gt; &lt;class name&gt; [&lt;package&gt;]
+ * <p>
+ * The class goes to standard output, how it compresses the corpus next to the
+ * stock codebook to standard error.
+ */
+public class SmazTrainer {
+
+    /* A substring has to occur this often to be worth an entry */
+    private static final int MIN_OCCURRENCES = 2;
+
+    private final List<byte[]> messages;
+    private final List<boolean[]> covered;
+
+    /* The uncovered occurrences of each substring of two or more characters, by key */
+    private final Map<Long, int[]> counts = new HashMap<Long, int[]>();
+
+    private final List<String> entries = new ArrayList<String>();
+
+    /**
+     * @param messages the corpus, as UTF-8 text
+     */
+    public SmazTrainer(List<byte[]> messages) {
+        this.messages = messages;
+        this.covered = new ArrayList<boolean[]>(messages.size());
+        for (byte[] message : messages) {
+            covered.add(new boolean[message.length]);
+            for (int p = 0; p < message.length; p++) {
+                for (int len = 2; len <= SmazCodebook.MAX_ENTRY_LENGTH && p + len <= message.length; len++) {
+                    long key = key(message, p, len);
+                    if (key < 0) break;
+                    int[] count = counts.get(key);
+                    if (count == null) counts.put(key, count = new int[1]);
+                    count[0]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a codebook for the corpus
+     */
+    public SmazCodebook train() {
+        // keep room for each character
+        boolean[] seen = new boolean[128];
+        int characters = 0;
+        for (byte[] message : messages) {
+            for (byte b : message) {
+                if (b >= 0 && !seen[b]) {
+                    seen[b] = true;
+                    characters++;
+                }
+            }
+        }
+
+        pickSubstrings(SmazCodebook.MAX_ENTRIES - Math.min(characters, SmazCodebook.MAX_ENTRIES));
+        pickCharacters();
+        pickSubstrings(SmazCodebook.MAX_ENTRIES);
+
+        return new SmazCodebook(entries.toArray(new String[entries.size()]));
+    }
+
+    /**
+     * Adds substrings, the one that saves the most first, until there are
+     * limit entries or none saves enough.
+     */
+    private void pickSubstrings(int limit) {
+        while (entries.size() < limit) {
+            long best = -1;
+            int bestSavings = 0;
+            for (Map.Entry<Long, int[]> e : counts.entrySet()) {
+                long key = e.getKey();
+                int count = e.getValue()[0];
+                if (count < MIN_OCCURRENCES) continue;
+
+                // an occurrence is replaced by one code byte
+                int savings = count * (length(key) - 1);
+                if (savings > bestSavings || savings == bestSavings && best >= 0 && key < best) {
+                    best = key;
+                    bestSavings = savings;
+                }
+            }
+            if (best < 0) return;
+
+            cover(best);
+            counts.remove(best);
+            entries.add(string(best));
+        }
+    }
+
+    /**
+     * Adds the characters still left uncovered, the most frequent first.
+     */
+    private void pickCharacters() {
+        final int[] frequency = new int[128];
+        for (int i = 0; i < messages.size(); i++) {
+            byte[] message = messages.get(i);
+            boolean[] done = covered.get(i);
+            for (int p = 0; p < message.length; p++) {
+                if (message[p] >= 0 && !done[p]) frequency[message[p]]++;
+            }
+        }
+
+        Integer[] characters = new Integer[128];
+        for (int c = 0; c < characters.length; c++) characters[c] = c;
+        Arrays.sort(characters, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return frequency[b] != frequency[a] ? frequency[b] - frequency[a] : a - b;
+            }
+        });
+        for (int c : characters) {
+            if (frequency[c] == 0 || entries.size() == SmazCodebook.MAX_ENTRIES) break;
+            entries.add(String.valueOf((char) c));
+        }
+    }
+
+    /**
+     * Marks the uncovered occurrences of a substring covered, leftmost first,
+     * and takes every substring they overlap out of the counts.
+     */
+    private void cover(long key) {
+        int len = length(key);
+        for (int i = 0; i < messages.size(); i++) {
+            byte[] message = messages.get(i);
+            boolean[] done = covered.get(i);
+            for (int p = 0; p + len <= message.length; p++) {
+                if (key(message, p, len) != key || !uncovered(done, p, len)) continue;
+
+                for (int q = Math.max(0, p - SmazCodebook.MAX_ENTRY_LENGTH + 1); q < p + len; q++) {
+                    for (int l = 2; l <= SmazCodebook.MAX_ENTRY_LENGTH && q + l <= message.length; l++) {
+                        if (q + l <= p) continue;
+                        long other = key(message, q, l);
+                        if (other < 0) break;
+                        if (!uncovered(done, q, l)) continue;
+                        int[] count = counts.get(other);
+                        if (count != null) count[0]--;
+                    }
+                }
+                Arrays.fill(done, p, p + len, true);
+                p += len - 1;
+            }
+        }
+    }
+
+    private static boolean uncovered(boolean[] done, int p, int len) {
+        for (int k = p; k < p + len; k++) {
+            if (done[k]) return false;
+        }
+        return true;
+    }
+
+    /* The len bytes at p packed into a long, first byte lowest and the length
+     * on top, or -1 if they are not all ASCII */
+    private static long key(byte[] message, int p, int len) {
+        long key = 0;
+        for (int k = len - 1; k >= 0; k--) {
+            if (message[p + k] < 0) return -1;
+            key = key << 8 | message[p + k];
+        }
+        return key | (long) len << 56;
+    }
+
+    private static int length(long key) {
+        return (int) (key >>> 56);
+    }
+
+    private static String string(long key) {
+        char[] chars = new char[length(key)];
+        for (int k = 0; k < chars.length; k++) chars[k] = (char) (key >>> (8 * k) & 0x7F);
+        return new String(chars);
+    }
+
+    /**
+     * @param messages
+     * @param smaz
+     * @return the bytes smaz compresses the messages to
+     */
+    public static long compressedLength(List<byte[]> messages, Smaz smaz) {
+        long length = 0;
+        for (byte[] message : messages) {
+            byte[] compressed = smaz.compress(message, 0, message.length);
+            if (!Arrays.equals(smaz.decompress(compressed).getBytes(SmazCodebook.UTF8), message)) {
+                throw new IllegalStateException("Codebook does not round trip " + new String(message, SmazCodebook.UTF8));
+            }
+            length += compressed.length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the source of a class holding the codebook as CODEBOOK.
+     */
+    public static void writeClass(PrintStream out, SmazCodebook codebook, String packageName,
+            String className, String comment) {
+        out.println("package " + packageName + ";");
+        out.println();
+        if (!packageName.equals(SmazTrainer.class.getPackage().getName())) {
+            out.println("import " + SmazCodebook.class.getName() + ";");
+            out.println();
+        }
+        out.println("/**");
+        StringBuilder line = new StringBuilder(" *");
+        for (String word : comment.split(" ")) {
+            if (line.length() + 1 + word.length() > 80) {
+                out.println(line);
+                line.setLength(0);
+                line.append(" *");
+            }
+            line.append(' ').append(word);
+        }
+        out.println(line);
+        out.println(" */");
+        out.println("public final class " + className + " {");
+        out.println();
+        out.println("\tpublic static final SmazCodebook CODEBOOK = new SmazCodebook(");
+        line.setLength(0);
+        line.append("\t\t\t");
+        for (int code = 0; code < codebook.size(); code++) {
+            String literal = literal(codebook.getEntry(code)) + (code + 1 < codebook.size() ? "," : ");");
+            if (line.length() + literal.length() > 76) {
+                out.println(line.toString().replaceAll(" +$", ""));
+                line.setLength(0);
+                line.append("\t\t\t");
+            }
+            line.append(literal).append(' ');
+        }
+        out.println(line.toString().replaceAll(" +$", ""));
+        out.println();
+        out.println("\tprivate " + className + "() {");
+        out.println("\t}");
+        out.println("}");
+    }
+
+    /* A Java string literal, with octal escapes like CODEBOOK had */
+    private static String literal(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c >= ' ' && c < 127) {
+                sb.append(c);
+            } else {
+                sb.append('\\').append(Integer.toOctalString(c | 0x200).substring(1));
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SmazTrainer <corpus> <class name> [<package>]");
+            System.exit(1);
+        }
+        String packageName = args.length > 2 ? args[2] : SmazTrainer.class.getPackage().getName();
+
+        List<byte[]> messages = new ArrayList<byte[]>();
+        long length = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), SmazCodebook.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) continue;
+                byte[] message = line.getBytes(SmazCodebook.UTF8);
+                messages.add(message);
+                length += message.length;
+            }
+        } finally {
+            reader.close();
+        }
+        if (messages.isEmpty()) {
+            System.err.println(args[0] + " has no messages");
+            System.exit(1);
+        }
+
+        SmazCodebook codebook = new SmazTrainer(messages).train();
+        long stock = compressedLength(messages, new Smaz());
+        long trained = compressedLength(messages, new Smaz(codebook));
+
+        String report = String.format("%d messages, %d bytes: stock codebook %d bytes (%.1f%%), trained %d bytes (%.1f%%)",
+                messages.size(), length, stock, 100.0 * stock / length, trained, 100.0 * trained / length);
+        writeClass(System.out, codebook, packageName, args[1], "A Smaz codebook made by SmazTrainer from "
+                + new java.io.File(args[0]).getName() + ". " + report.substring(0, 1).toUpperCase() + report.substring(1) + ".");
+        System.err.println(report);
+        System.err.printf("%.2f bytes saved per message%n", (double) (stock - trained) / messages.size());
+    }
+}
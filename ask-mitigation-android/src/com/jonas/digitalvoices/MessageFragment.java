@@ -61,7 +61,7 @@ public class MessageFragment extends Fragment {
 	/** UI elements. */
 	private EditText mEditTextToPlay;
 	private CheckBox mCheckBoxUseCompression, mCheckBoxUseChecksum,
-			mCheckBoxUseFEC;
+			mCheckBoxUseFEC, mCheckBoxUseInterleaving, mCheckBoxUseArq;
 	private Button mButtonPlay, mButtonListen;
 	private TextView mTextViewStatus, mTextViewListen;
 
@@ -106,6 +106,27 @@ public class MessageFragment extends Fragment {
 					}
 				});
 
+		mCheckBoxUseInterleaving = (CheckBox) rootView
+				.findViewById(R.id.CheckBoxUseInterleaving);
+		mCheckBoxUseInterleaving
+				.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+					@Override
+					public void onCheckedChanged(CompoundButton buttonView,
+							boolean isChecked) {
+						mModemService.setUseInterleaving(isChecked);
+					}
+				});
+
+		mCheckBoxUseArq = (CheckBox) rootView.findViewById(R.id.CheckBoxUseArq);
+		mCheckBoxUseArq
+				.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+					@Override
+					public void onCheckedChanged(CompoundButton buttonView,
+							boolean isChecked) {
+						mModemService.setUseArq(isChecked);
+					}
+				});
+
 		mButtonPlay = (Button) rootView.findViewById(R.id.ButtonPlay);
 		mButtonPlay.setOnClickListener(new View.OnClickListener() {
 			public void onClick(View v) {
@@ -0,0 +1,164 @@
+package com.jonas.digitalvoices.modem;
+
+import com.jonas.reedsolomon.CRC16;
+
+/**
+ * The header at the start of the payload of each frame of an ARQ session, a
+ * frame with the ARQ flag set. Lengths and indices are sent seven bits to a
+ * byte, as in the FrameHeader; bit j of a bitmap is bit j % 8 of its byte
+ * j / 8 and stands for segment base + j.
+ *
+ * DATA, from the sender: the type, the message id, the message flags, the
+ * message length, the CRC-16 of the message, the segment length, base, the
+ * bitmap length and the bitmap of the segments that follow the header, in
+ * order.
+ *
+ * FEEDBACK, from the receiver: the type, the message id, base, the first
+ * segment it is missing, and the bitmap of the segments it is missing from
+ * there up to the last it has heard of, to the end of the header.
+ *
+ * Either ends with the CRC-16 of the header: a block that could not be
+ * corrected is now and then miscorrected instead, and a wrong bitmap would
+ * have the sender skip a segment for good.
+ */
+class ArqPdu {
+	static final int DATA = 0;
+	static final int FEEDBACK = 1;
+
+	int type;
+	int messageId;
+
+	// DATA only
+	byte messageFlags;
+	int messageLength;
+	int messageCrc;
+	int segmentLength;
+
+	int base;
+	byte[] bitmap;
+
+	// the number of bytes of the header, once parsed
+	int length;
+
+	/**
+	 * @param data
+	 *            the payload of a frame with the ARQ flag set
+	 * @throws IllegalArgumentException
+	 *             if the header is cut short or of no known type
+	 */
+	static ArqPdu parse(byte[] data) {
+		ArqPdu pdu = new ArqPdu();
+		int[] at = { 0 };
+		pdu.type = readByte(data, at);
+		pdu.messageId = readByte(data, at);
+		if (pdu.type == DATA) {
+			pdu.messageFlags = (byte) readByte(data, at);
+			pdu.messageLength = readVarint(data, at);
+			pdu.messageCrc = (readByte(data, at) << 8) | readByte(data, at);
+			pdu.segmentLength = readByte(data, at);
+			pdu.base = readVarint(data, at);
+			pdu.bitmap = new byte[readByte(data, at)];
+		} else if (pdu.type == FEEDBACK) {
+			pdu.base = readVarint(data, at);
+			pdu.bitmap = new byte[Math.max(0, data.length - at[0] - 2)];
+		} else {
+			throw new IllegalArgumentException("No ARQ frame type " + pdu.type);
+		}
+
+		if (at[0] + pdu.bitmap.length + 2 > data.length)
+			throw new IllegalArgumentException("ARQ header cut short");
+		System.arraycopy(data, at[0], pdu.bitmap, 0, pdu.bitmap.length);
+		at[0] += pdu.bitmap.length;
+		int crc = CRC16.compute(data, 0, at[0]);
+		if (readByte(data, at) != crc >> 8 || readByte(data, at) != (crc & 0xFF))
+			throw new IllegalArgumentException("ARQ header checksum is wrong");
+
+		pdu.length = at[0];
+		return pdu;
+	}
+
+	byte[] toByteArray() {
+		byte[] data = new byte[16 + bitmap.length];
+		int[] at = { 0 };
+		data[at[0]++] = (byte) type;
+		data[at[0]++] = (byte) messageId;
+		if (type == DATA) {
+			data[at[0]++] = messageFlags;
+			writeVarint(data, at, messageLength);
+			data[at[0]++] = (byte) (messageCrc >> 8);
+			data[at[0]++] = (byte) messageCrc;
+			data[at[0]++] = (byte) segmentLength;
+			writeVarint(data, at, base);
+			data[at[0]++] = (byte) bitmap.length;
+		} else {
+			writeVarint(data, at, base);
+		}
+		System.arraycopy(bitmap, 0, data, at[0], bitmap.length);
+		at[0] += bitmap.length;
+		int crc = CRC16.compute(data, 0, at[0]);
+		data[at[0]++] = (byte) (crc >> 8);
+		data[at[0]++] = (byte) crc;
+		return ArrayUtils.subarray(data, 0, at[0]);
+	}
+
+	/**
+	 * @return whether the bitmap marks the segment
+	 */
+	boolean isMarked(int segment) {
+		int bit = segment - base;
+		if (bit < 0 || bit >= bitmap.length * 8)
+			return false;
+
+		return ((bitmap[bit >> 3] >> (bit & 7)) & 1) == 1;
+	}
+
+	/**
+	 * @return whether the bitmap stands for the segment, marked or not
+	 */
+	boolean covers(int segment) {
+		return segment >= base && segment < base + bitmap.length * 8;
+	}
+
+	static void mark(byte[] bitmap, int bit) {
+		bitmap[bit >> 3] |= 1 << (bit & 7);
+	}
+
+	/**
+	 * @return a frame carrying the payload, with FEC and the ARQ flag set
+	 */
+	static FrameEncoder toFrame(byte[] payload, boolean interleave) {
+		byte flags = (byte) 0xFF;
+		flags &= ~(1 << Constants.FEC_FLAG_BIT);
+		flags &= ~(1 << Constants.ARQ_FLAG_BIT);
+		if (interleave && payload.length > 1)
+			flags &= ~(1 << Constants.INTERLEAVE_FLAG_BIT);
+
+		return new FrameEncoder(new FrameHeader(flags, payload.length), payload);
+	}
+
+	private static int readByte(byte[] data, int[] at) {
+		if (at[0] >= data.length)
+			throw new IllegalArgumentException("ARQ header cut short");
+
+		return data[at[0]++] & 0xFF;
+	}
+
+	private static int readVarint(byte[] data, int[] at) {
+		int value = 0;
+		for (int shift = 0; shift < 21; shift += 7) {
+			int b = readByte(data, at);
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("ARQ header number too long");
+	}
+
+	private static void writeVarint(byte[] data, int[] at, int value) {
+		while (value >= 0x80) {
+			data[at[0]++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data[at[0]++] = (byte) value;
+	}
+}
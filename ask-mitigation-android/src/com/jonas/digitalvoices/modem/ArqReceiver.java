@@ -0,0 +1,150 @@
+package com.jonas.digitalvoices.modem;
+
+import com.jonas.reedsolomon.CRC16;
+
+/**
+ * Receives a message over an ARQ session, segment by segment as DATA frames
+ * bring them, and answers each DATA frame with FEEDBACK marking the segments
+ * still missing: those not received yet and those that came in blocks that
+ * could not be corrected. A DATA frame for another message starts on that
+ * message. FEEDBACK is interleaved if the DATA it answers was, as the sender
+ * expects in its timeout.
+ */
+public class ArqReceiver {
+	// the message being received, messageId -1 until a DATA frame has been
+	private int messageId = -1;
+	private byte messageFlags;
+	private int messageCrc;
+	private int segmentLength;
+	private byte[] message;
+
+	private boolean[] received;
+	private int receivedCount;
+
+	// the segment past the last one a DATA frame has carried
+	private int heard;
+
+	/**
+	 * @param frame
+	 *            a complete frame received with the ARQ flag set
+	 * @return the FEEDBACK to send back, or null if the frame was no DATA or
+	 *         its ARQ header was lost, which the sender times out on
+	 */
+	public FrameEncoder received(FrameDecoder frame) {
+		byte[] payload = frame.getPayload();
+		ArqPdu pdu;
+		try {
+			pdu = ArqPdu.parse(payload);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (!frame.isPayloadValid(0, pdu.length) || pdu.type != ArqPdu.DATA
+				|| pdu.segmentLength == 0)
+			return null;
+
+		if (pdu.messageId != messageId
+				|| pdu.messageLength != message.length
+				|| pdu.messageCrc != messageCrc
+				|| pdu.segmentLength != segmentLength)
+			start(pdu);
+
+		int at = pdu.length;
+		for (int segment = pdu.base; pdu.covers(segment)
+				&& segment < received.length; segment++) {
+			if (!pdu.isMarked(segment))
+				continue;
+
+			int length = getLength(segment);
+			if (at + length > payload.length)
+				break;
+
+			if (!received[segment] && frame.isPayloadValid(at, length)) {
+				System.arraycopy(payload, at, message, segment
+						* segmentLength, length);
+				received[segment] = true;
+				receivedCount++;
+			}
+			heard = Math.max(heard, segment + 1);
+			at += length;
+		}
+
+		if (receivedCount == received.length
+				&& CRC16.compute(message, 0, message.length) != messageCrc) {
+			// a block was miscorrected, so have all of it sent again
+			for (int segment = 0; segment < received.length; segment++)
+				received[segment] = false;
+			receivedCount = 0;
+			heard = received.length;
+		}
+
+		return getFeedback(frame.getHeader().useInterleaving());
+	}
+
+	private void start(ArqPdu pdu) {
+		messageId = pdu.messageId;
+		messageFlags = pdu.messageFlags;
+		messageCrc = pdu.messageCrc;
+		segmentLength = pdu.segmentLength;
+		message = new byte[pdu.messageLength];
+		received = new boolean[Math.max(1,
+				(message.length + segmentLength - 1) / segmentLength)];
+		receivedCount = 0;
+		heard = 0;
+	}
+
+	private int getLength(int segment) {
+		return Math.min(segmentLength, message.length - segment
+				* segmentLength);
+	}
+
+	private FrameEncoder getFeedback(boolean interleave) {
+		int base = 0;
+		while (base < received.length && received[base])
+			base++;
+		int end = Math.max(base, heard);
+
+		ArqPdu pdu = new ArqPdu();
+		pdu.type = ArqPdu.FEEDBACK;
+		pdu.messageId = messageId;
+		pdu.base = base;
+		pdu.bitmap = new byte[(end - base + 7) / 8];
+
+		// the bits past heard that fill out the last byte are marked too
+		end = Math.min(base + pdu.bitmap.length * 8, received.length);
+		for (int segment = base; segment < end; segment++) {
+			if (!received[segment])
+				ArqPdu.mark(pdu.bitmap, segment - base);
+		}
+
+		return ArqPdu.toFrame(pdu.toByteArray(), interleave);
+	}
+
+	/**
+	 * @return whether all of the message has been received
+	 */
+	public boolean isComplete() {
+		return messageId >= 0 && receivedCount == received.length;
+	}
+
+	/**
+	 * @return the message, whole once isComplete()
+	 */
+	public byte[] getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the flags and length of the message, for its compression and
+	 *         codebook, or null before a DATA frame has been received
+	 */
+	public FrameHeader getMessageHeader() {
+		if (messageId < 0)
+			return null;
+
+		return new FrameHeader(messageFlags, message.length);
+	}
+
+	public int getMessageId() {
+		return messageId;
+	}
+}
@@ -0,0 +1,211 @@
+package com.jonas.digitalvoices.modem;
+
+import com.jonas.reedsolomon.CRC16;
+
+/**
+ * Sends a message over an ARQ session. The message is cut into segments and
+ * each transmission carries the segments of the window, from the first not
+ * acknowledged, that have not been acknowledged. The receiver's FEEDBACK
+ * marks the segments it is missing, so only those are sent again; with no
+ * FEEDBACK within getTimeout() durations the window is sent again as it was.
+ * The latest FEEDBACK stands, so a receiver that found the whole message
+ * wrong can have all of it sent again.
+ *
+ * A session alternates: nextTransmission(), then received() with the
+ * FEEDBACK or timedOut(), until isComplete() or hasFailed().
+ */
+public class ArqSender {
+	private final int messageId;
+	private final byte messageFlags;
+	private final byte[] message;
+	private final int messageCrc;
+	private final boolean interleave;
+	private final int segmentLength;
+	private final int window;
+
+	private final boolean[] acknowledged;
+
+	// the first segment not acknowledged
+	private int base = 0;
+
+	// the transmissions made since a segment was last acknowledged
+	private int retries = 0;
+	private int transmissions = 0;
+
+	/**
+	 * @param messageId
+	 *            tells this message from the one sent before it, 0 to 255
+	 * @param messageFlags
+	 *            the flags of the message, for its compression and codebook
+	 * @param message
+	 * @param interleave
+	 *            whether the blocks of each transmission are interleaved
+	 */
+	public ArqSender(int messageId, byte messageFlags, byte[] message,
+			boolean interleave) {
+		this(messageId, messageFlags, message, interleave,
+				Constants.ARQ_SEGMENT, Constants.ARQ_WINDOW);
+	}
+
+	/**
+	 * @param segmentLength
+	 *            the bytes of the message in a segment, 1 to 255
+	 * @param window
+	 *            the most segments a transmission carries, 1 to 2040
+	 */
+	public ArqSender(int messageId, byte messageFlags, byte[] message,
+			boolean interleave, int segmentLength, int window) {
+		if (message.length > Constants.MAX_PAYLOAD)
+			throw new IllegalArgumentException("Message of " + message.length
+					+ " bytes is too long to send");
+		if (segmentLength < 1 || segmentLength > 255 || window < 1
+				|| window > 2040)
+			throw new IllegalArgumentException("No ARQ window of " + window
+					+ " segments of " + segmentLength + " bytes");
+
+		this.messageId = messageId & 0xFF;
+		this.messageFlags = messageFlags;
+		this.message = message;
+		this.interleave = interleave;
+		this.segmentLength = segmentLength;
+		this.window = window;
+		messageCrc = CRC16.compute(message, 0, message.length);
+		acknowledged = new boolean[Math.max(1,
+				(message.length + segmentLength - 1) / segmentLength)];
+	}
+
+	public int getSegmentCount() {
+		return acknowledged.length;
+	}
+
+	/**
+	 * @return the next transmission, or null once isComplete() or
+	 *         hasFailed()
+	 */
+	public FrameEncoder nextTransmission() {
+		if (isComplete() || hasFailed())
+			return null;
+
+		int end = Math.min(base + window, acknowledged.length);
+		ArqPdu pdu = new ArqPdu();
+		pdu.type = ArqPdu.DATA;
+		pdu.messageId = messageId;
+		pdu.messageFlags = messageFlags;
+		pdu.messageLength = message.length;
+		pdu.messageCrc = messageCrc;
+		pdu.segmentLength = segmentLength;
+		pdu.base = base;
+		pdu.bitmap = new byte[(end - base + 7) / 8];
+
+		int length = 0;
+		for (int segment = base; segment < end; segment++) {
+			if (!acknowledged[segment]) {
+				ArqPdu.mark(pdu.bitmap, segment - base);
+				length += getLength(segment);
+			}
+		}
+
+		byte[] header = pdu.toByteArray();
+		byte[] payload = new byte[header.length + length];
+		System.arraycopy(header, 0, payload, 0, header.length);
+		int at = header.length;
+		for (int segment = base; segment < end; segment++) {
+			if (!acknowledged[segment]) {
+				System.arraycopy(message, segment * segmentLength, payload,
+						at, getLength(segment));
+				at += getLength(segment);
+			}
+		}
+
+		transmissions++;
+		return ArqPdu.toFrame(payload, interleave);
+	}
+
+	private int getLength(int segment) {
+		return Math.min(segmentLength, message.length - segment
+				* segmentLength);
+	}
+
+	/**
+	 * @param frame
+	 *            a complete frame received with the ARQ flag set
+	 * @return whether it was FEEDBACK on this message
+	 */
+	public boolean received(FrameDecoder frame) {
+		// a bit wrong in the bitmap would lose a segment for good
+		if (frame.getInvalidBlockCount() > 0)
+			return false;
+
+		ArqPdu pdu;
+		try {
+			pdu = ArqPdu.parse(frame.getPayload());
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if (pdu.type != ArqPdu.FEEDBACK || pdu.messageId != messageId)
+			return false;
+
+		boolean progress = false;
+		for (int segment = 0; segment < acknowledged.length; segment++) {
+			if (segment < pdu.base || pdu.covers(segment)) {
+				boolean missing = pdu.isMarked(segment);
+				progress |= !missing && !acknowledged[segment];
+				acknowledged[segment] = !missing;
+			}
+		}
+		base = 0;
+		while (base < acknowledged.length && acknowledged[base])
+			base++;
+
+		retries = progress ? 0 : retries + 1;
+		return true;
+	}
+
+	/**
+	 * No FEEDBACK came within getTimeout() durations of the last
+	 * transmission.
+	 */
+	public void timedOut() {
+		retries++;
+	}
+
+	/**
+	 * @return the durations to wait for FEEDBACK once a transmission has been
+	 *         played: the longest FEEDBACK there can be, with its hail, and
+	 *         the time the receiver takes to turn around
+	 */
+	public int getTimeout() {
+		ArqPdu pdu = new ArqPdu();
+		pdu.type = ArqPdu.FEEDBACK;
+		pdu.messageId = messageId;
+		pdu.base = acknowledged.length;
+		pdu.bitmap = new byte[(window + 7) / 8];
+		int bytes = ArqPdu.toFrame(pdu.toByteArray(), interleave).getHeader()
+				.getFrameLength();
+
+		return Constants.kSetupJitter + Constants.kPlayJitter
+				+ Constants.kDurationsPerHail + 1
+				+ (bytes + Constants.kBytesPerDuration - 1)
+				/ Constants.kBytesPerDuration;
+	}
+
+	public boolean isComplete() {
+		return base == acknowledged.length;
+	}
+
+	/**
+	 * @return whether Constants.ARQ_MAX_RETRIES transmissions in a row went
+	 *         without a segment being acknowledged
+	 */
+	public boolean hasFailed() {
+		return retries >= Constants.ARQ_MAX_RETRIES;
+	}
+
+	public int getTransmissionCount() {
+		return transmissions;
+	}
+
+	public int getMessageId() {
+		return messageId;
+	}
+}
@@ -101,10 +101,24 @@ public class ArrayUtils {
 	 */
 	public static byte[] getByteArrayFromDoubleArray(double[] sequence) {
 		byte[] result = new byte[sequence.length];
+		getByteArrayFromDoubleArray(sequence, result);
+		return result;
+	}
+
+	/**
+	 * Same as getByteArrayFromDoubleArray(sequence), but into a caller
+	 * supplied array
+	 * 
+	 * @param sequence
+	 *            the array of floats to shift and clip
+	 * @param result
+	 *            receives the first result.length converted values
+	 */
+	public static void getByteArrayFromDoubleArray(double[] sequence,
+			byte[] result) {
 		for (int i = 0; i < result.length; i++) {
 			result[i] = (byte) ((sequence[i] * Constants.kFloatToByteShift) - 1);
 		}
-		return result;
 	}
 
 	/**
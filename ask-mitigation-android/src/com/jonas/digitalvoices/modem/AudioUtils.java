@@ -11,6 +11,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 import net.fec.openrq.ArrayDataDecoder;
@@ -144,9 +145,26 @@ public class AudioUtils {
 	}
 
 	public static void performArray(byte[] array) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(
+				Encoder.getEncodedLength(array.length));
 		Encoder.encodeStream(new ByteArrayInputStream(array), baos);
 		performData(baos.toByteArray());
 	}
 
+	/**
+	 * Plays a transmission as it is encoded, so it starts to sound after its
+	 * first group of blocks rather than once all of it has been encoded, and
+	 * only the samples not yet played are kept. Returns once the last
+	 * samples have been handed to the PlayThread.
+	 */
+	public static void performFrame(FrameEncoder frame) throws IOException {
+		PlayThread p = new PlayThread();
+		OutputStream samples = p.getOutputStream();
+		try {
+			Encoder.encodeStream(frame, samples);
+		} finally {
+			samples.close();
+		}
+	}
+
 }
@@ -1,5 +1,7 @@
 package com.jonas.digitalvoices.modem;
 
+import com.github.icedrake.jsmaz.SmazCodebook;
+
 /**
  * Copyright 2002 by the authors. All rights reserved.
  * 
@@ -11,9 +13,44 @@ public interface Constants {
 	public static final int CHECKSUM_FLAG_BIT = 7;
 	public static final int COMPRESSION_FLAG_BIT = 6;
 	public static final int FEC_FLAG_BIT = 5;
+	public static final int CRC16_FLAG_BIT = 4; // checksum is CRC-16, not CRC-8
+	public static final int INTERLEAVE_FLAG_BIT = 3; // FEC codewords are interleaved
+	public static final int ARQ_FLAG_BIT = 2; // the payload belongs to an ARQ session
+	public static final int CODEBOOK_FLAG_BITS = 0x03; // the Smaz codebook ID, active low too
 	
 	public static final int FEC_ERRORS = 4;
 	
+	// the number of codewords an interleaved payload is split between, each
+	// with its own parity, so a burst of up to INTERLEAVE_DEPTH * FEC_ERRORS
+	// bytes can be corrected
+	public static final int INTERLEAVE_DEPTH = 4;
+	
+	// payloads longer than this are checked with a CRC-16 rather than a CRC-8
+	public static final int CRC16_MIN_PAYLOAD = 16;
+	
+	// the payload bytes in a block: with FEC, a block is an RS(255, k)
+	// codeword of its sequence number, these bytes and 2 * FEC_ERRORS parity
+	public static final int BLOCK_PAYLOAD = 255 - 1 - 2 * FEC_ERRORS;
+	
+	// the most blocks a transmission is split between, as many as the one
+	// byte sequence number of a block tells apart, and so the longest payload
+	// a FrameHeader can give and a receiver decodes
+	public static final int MAX_BLOCKS = 256;
+	public static final int MAX_PAYLOAD = MAX_BLOCKS * BLOCK_PAYLOAD;
+	
+	// an ARQ session resends what was lost of a message in segments of this
+	// many bytes, and a transmission carries up to ARQ_WINDOW of them
+	public static final int ARQ_SEGMENT = 64;
+	public static final int ARQ_WINDOW = 16;
+	
+	// the transmissions an ARQ sender makes in a row without a segment being
+	// acknowledged before it gives up
+	public static final int ARQ_MAX_RETRIES = 4;
+	
+	// the codebooks a compressed message may name in the CODEBOOK_FLAG_BITS:
+	// add a class written by SmazTrainer at the end, never reorder
+	public static final SmazCodebook[] SMAZ_CODEBOOKS = { SmazCodebook.STOCK };
+	
 	public static final double kLowFrequency = 600; // the lowest frequency used
 	public static final double kFrequencyStep = 50; // the distance between
 													// frequencies
@@ -48,6 +85,10 @@ public interface Constants {
 	// The length, in durations, of the hail sequence
 	public static final int kDurationsPerHail = 3;
 
+	// The number of samples the AudioBuffer can hold, a power of two (about 6
+	// seconds)
+	public static final int kAudioBufferCapacity = 1 << 17;
+
 	// The frequency used in the initial hail of the key
 	public static final int kHailFrequency = 3000;
 
@@ -0,0 +1,217 @@
+package com.jonas.digitalvoices.modem;
+
+import java.util.zip.Checksum;
+
+import com.jonas.reedsolomon.CRC16;
+import com.jonas.reedsolomon.CRC8;
+import com.jonas.reedsolomon.Interleaver;
+import com.jonas.reedsolomon.RS;
+
+/**
+ * Takes the bytes that follow a FrameHeader as they are received. Each group
+ * of blocks is corrected, and its payload added to the checksum, as soon as
+ * the group is whole, so a long transmission has mostly been verified by the
+ * time its last byte arrives.
+ */
+public class FrameDecoder {
+	private final FrameHeader header;
+	private final byte[] payload;
+
+	// the group being received, with how reliable each of its bytes was
+	private final byte[] group;
+	private final byte[] groupReliabilities;
+	private boolean haveReliabilities = true;
+	private int received = 0;
+	private int nextGroup = 0;
+
+	private final byte[] receivedChecksum;
+	private int checksumReceived = 0;
+	private final Checksum checksum;
+
+	// whether each block decoded to itself once corrected
+	private final boolean[] validBlocks;
+	private int invalidBlockCount = 0;
+	private int damagedBlockCount = 0;
+
+	public FrameDecoder(FrameHeader header) {
+		this.header = header;
+		payload = new byte[header.getPayloadLength()];
+
+		// the first group is the longest, holding the longest blocks
+		group = new byte[header.getGroupLength(0)];
+		groupReliabilities = new byte[group.length];
+
+		receivedChecksum = new byte[header.getChecksumLength()];
+		if (!header.useChecksum())
+			checksum = null;
+		else
+			checksum = header.useCRC16() ? new CRC16() : new CRC8();
+
+		validBlocks = new boolean[header.getBlockCount()];
+	}
+
+	public FrameHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @param data
+	 * @param reliabilities
+	 *            how sure the Decoder was of each byte of data, as an unsigned
+	 *            byte, or null to correct errors only
+	 * @param offset
+	 *            the index in data of the first byte to take
+	 * @param length
+	 *            the number of bytes to take
+	 * @return the number of bytes taken, fewer than length only if the
+	 *         transmission is complete
+	 */
+	public int write(byte[] data, byte[] reliabilities, int offset, int length) {
+		int taken = 0;
+		while (nextGroup < header.getGroupCount()) {
+			int groupLength = header.getGroupLength(nextGroup);
+			if (taken == length && groupLength > 0)
+				break;
+
+			int n = Math.min(length - taken, groupLength - received);
+			System.arraycopy(data, offset + taken, group, received, n);
+			if (reliabilities != null)
+				System.arraycopy(reliabilities, offset + taken,
+						groupReliabilities, received, n);
+			else
+				haveReliabilities = false;
+			received += n;
+			taken += n;
+
+			if (received == groupLength) {
+				decodeGroup(nextGroup);
+				nextGroup++;
+				received = 0;
+				haveReliabilities = true;
+			}
+		}
+
+		int n = Math.min(length - taken, receivedChecksum.length
+				- checksumReceived);
+		System.arraycopy(data, offset + taken, receivedChecksum,
+				checksumReceived, n);
+		checksumReceived += n;
+		return taken + n;
+	}
+
+	private void decodeGroup(int g) {
+		int first = header.getGroupFirstBlock(g);
+		int blocks = header.getGroupBlockCount(g);
+		Interleaver interleaver = Interleaver.forLength(
+				header.getGroupLength(g), blocks);
+		interleaver.deinterleave(group, 0);
+		if (haveReliabilities)
+			interleaver.deinterleave(groupReliabilities, 0);
+
+		// each row of the interleaver is a block
+		for (int row = 0; row < blocks; row++) {
+			int block = first + row;
+			byte[] data = ArrayUtils.subarray(group,
+					interleaver.getRowOffset(row), interleaver.getRowLength(row));
+			boolean valid = true;
+
+			if (header.useFEC()) {
+				RS rs = RS.forParity(Constants.FEC_ERRORS * 2);
+				rs.decode_data(data, data.length);
+				if (rs.check_syndrome() != 0) {
+					damagedBlockCount++;
+
+					byte[] reliability = null;
+					if (haveReliabilities)
+						reliability = ArrayUtils.subarray(groupReliabilities,
+								interleaver.getRowOffset(row), data.length);
+					valid = rs.correct_unreliable(data, data.length,
+							reliability) == 1;
+				}
+
+				// a block of the wrong number was miscorrected, or is not
+				// where the header has it
+				valid = valid && (data[0] & 0xFF) == (block & 0xFF);
+				data = ArrayUtils.subarray(data, 1,
+						header.getBlockPayloadLength(block));
+			}
+
+			System.arraycopy(data, 0, payload,
+					header.getBlockPayloadOffset(block), data.length);
+			if (checksum != null)
+				checksum.update(data, 0, data.length);
+
+			validBlocks[block] = valid;
+			if (!valid)
+				invalidBlockCount++;
+		}
+	}
+
+	/**
+	 * @return whether every byte of the transmission has been received
+	 */
+	public boolean isComplete() {
+		return nextGroup == header.getGroupCount()
+				&& checksumReceived == receivedChecksum.length;
+	}
+
+	/**
+	 * @return the payload decoded so far, each block in place once its group
+	 *         is whole
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return whether the block has been received and, with FEC, was valid or
+	 *         could be corrected
+	 */
+	public boolean isBlockValid(int block) {
+		return validBlocks[block];
+	}
+
+	/**
+	 * @return whether every block holding a byte of the range of the payload
+	 *         is valid
+	 */
+	public boolean isPayloadValid(int offset, int length) {
+		for (int block = 0; block < validBlocks.length; block++) {
+			int from = header.getBlockPayloadOffset(block);
+			int to = from + header.getBlockPayloadLength(block);
+			if (from < offset + length && to > offset && !validBlocks[block])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of blocks received that were not valid and could not
+	 *         be corrected
+	 */
+	public int getInvalidBlockCount() {
+		return invalidBlockCount;
+	}
+
+	/**
+	 * @return the number of blocks received with errors, corrected or not
+	 */
+	public int getDamagedBlockCount() {
+		return damagedBlockCount;
+	}
+
+	/**
+	 * @return whether the checksum received matches the payload, true if the
+	 *         header has no checksum; meaningful once isComplete()
+	 */
+	public boolean isChecksumValid() {
+		if (checksum == null)
+			return true;
+
+		int crc = (int) checksum.getValue();
+		if (header.useCRC16())
+			return crc == (((receivedChecksum[0] & 0xFF) << 8) | (receivedChecksum[1] & 0xFF));
+		else
+			return (byte) crc == receivedChecksum[0];
+	}
+}
@@ -0,0 +1,172 @@
+package com.jonas.digitalvoices.modem;
+
+import java.io.InputStream;
+import java.util.zip.Checksum;
+
+import com.jonas.reedsolomon.CRC16;
+import com.jonas.reedsolomon.CRC8;
+import com.jonas.reedsolomon.Interleaver;
+import com.jonas.reedsolomon.RS;
+
+/**
+ * Reads as the bytes of a transmission laid out by its FrameHeader: the
+ * header, the payload a group of blocks at a time, then the checksum. A group
+ * is encoded when the reading reaches it, so a long payload can start playing
+ * while the rest of it is still to be encoded.
+ */
+public class FrameEncoder extends InputStream {
+	private final FrameHeader header;
+	private final byte[] payload;
+
+	// the bytes being read, and the index of the next one
+	private byte[] pending;
+	private int position = 0;
+
+	// the group to encode once pending has been read, getGroupCount() for the
+	// checksum and past it for the end
+	private int nextGroup = 0;
+
+	/**
+	 * @param header
+	 * @param payload
+	 *            as many bytes as header gives
+	 */
+	public FrameEncoder(FrameHeader header, byte[] payload) {
+		if (payload.length != header.getPayloadLength())
+			throw new IllegalArgumentException("Payload of " + payload.length
+					+ " bytes for a header of " + header.getPayloadLength());
+
+		this.header = header;
+		this.payload = payload;
+		pending = header.toByteArray();
+	}
+
+	public FrameHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the block as it is sent, before interleaving: with FEC, a
+	 *         codeword of its sequence number, its payload and its parity
+	 */
+	public byte[] encodeBlock(int block) {
+		int offset = header.getBlockPayloadOffset(block);
+		int length = header.getBlockPayloadLength(block);
+		byte[] data = new byte[length + header.getBlockOverhead()];
+		if (!header.useFEC()) {
+			System.arraycopy(payload, offset, data, 0, length);
+			return data;
+		}
+
+		byte[] message = new byte[1 + length];
+		message[0] = (byte) block;
+		System.arraycopy(payload, offset, message, 1, length);
+		RS.forParity(Constants.FEC_ERRORS * 2).encode_data(message,
+				message.length, data);
+		return data;
+	}
+
+	/**
+	 * @return the blocks of the group as they are sent, a byte of each at a
+	 *         time if the group has more than one
+	 */
+	public byte[] encodeGroup(int group) {
+		int first = header.getGroupFirstBlock(group);
+		int blocks = header.getGroupBlockCount(group);
+		Interleaver interleaver = Interleaver.forLength(
+				header.getGroupLength(group), blocks);
+
+		// each row of the interleaver is a block
+		byte[] data = new byte[interleaver.getLength()];
+		for (int row = 0; row < blocks; row++) {
+			byte[] block = encodeBlock(first + row);
+			System.arraycopy(block, 0, data, interleaver.getRowOffset(row),
+					block.length);
+		}
+		interleaver.interleave(data, 0);
+		return data;
+	}
+
+	/**
+	 * @return the checksum of the payload as it is sent, no bytes if the
+	 *         header has none
+	 */
+	public byte[] getChecksum() {
+		if (!header.useChecksum())
+			return new byte[0];
+
+		Checksum checksum = header.useCRC16() ? new CRC16() : new CRC8();
+		checksum.update(payload, 0, payload.length);
+		int crc = (int) checksum.getValue();
+		if (header.useCRC16())
+			return new byte[] { (byte) (crc >> 8), (byte) crc };
+		else
+			return new byte[] { (byte) crc };
+	}
+
+	/**
+	 * @return the whole transmission, header included
+	 */
+	public byte[] toByteArray() {
+		byte[] data = new byte[header.getFrameLength()];
+		byte[] bytes = header.toByteArray();
+		System.arraycopy(bytes, 0, data, 0, bytes.length);
+		for (int group = 0; group < header.getGroupCount(); group++) {
+			bytes = encodeGroup(group);
+			System.arraycopy(bytes, 0, data,
+					header.getLength() + header.getGroupOffset(group),
+					bytes.length);
+		}
+		bytes = getChecksum();
+		System.arraycopy(bytes, 0, data, data.length - bytes.length,
+				bytes.length);
+		return data;
+	}
+
+	/**
+	 * @return whether there is a byte left to read, encoding the next group
+	 *         if the last has been read
+	 */
+	private boolean fill() {
+		while (position == pending.length) {
+			if (nextGroup > header.getGroupCount())
+				return false;
+
+			pending = nextGroup < header.getGroupCount() ? encodeGroup(nextGroup)
+					: getChecksum();
+			position = 0;
+			nextGroup++;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() {
+		if (!fill())
+			return -1;
+
+		return pending[position++] & 0xFF;
+	}
+
+	/**
+	 * Reads no further than the end of the group being read, so the reader
+	 * gets each group as soon as it has been encoded.
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+
+		int n = Math.min(len, pending.length - position);
+		System.arraycopy(pending, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return pending.length - position;
+	}
+}
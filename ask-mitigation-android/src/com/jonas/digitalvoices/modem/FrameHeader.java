@@ -0,0 +1,266 @@
+package com.jonas.digitalvoices.modem;
+
+import com.jonas.reedsolomon.CRC8;
+
+/**
+ * The bytes that lead every transmission: the flags, each active low, the
+ * length of the payload, seven bits to a byte with the lowest first and the
+ * top bit set on all but the last byte, and a CRC-8 of the bytes before it.
+ * Together they tell how many bytes follow, so a receiver knows where a
+ * transmission ends without waiting for silence; the CRC keeps a false hail,
+ * or a bit flipped in the length, from setting it to decode a long run of
+ * noise.
+ *
+ * A transmission is: the header, then the payload (optionally compressed) in
+ * blocks of up to Constants.BLOCK_PAYLOAD bytes, then the checksum
+ * (optional). With FEC each block is a codeword of its sequence number, its
+ * payload and its error correction bytes; blocks are sent in groups of
+ * getInterleaveDepth(), interleaved within the group when that is over one.
+ * A group can be encoded, sent and corrected without the ones after it.
+ */
+public class FrameHeader {
+	// the longest a header can be: the flags, a three byte length and the CRC
+	public static final int MAX_LENGTH = 5;
+
+	private final byte flags;
+	private final int payloadLength;
+
+	/**
+	 * @param flags
+	 *            the flag byte, active low
+	 * @param payloadLength
+	 *            the length of the payload, 0 to Constants.MAX_PAYLOAD
+	 */
+	public FrameHeader(byte flags, int payloadLength) {
+		if (payloadLength < 0 || payloadLength > Constants.MAX_PAYLOAD)
+			throw new IllegalArgumentException("Payload length "
+					+ payloadLength + " does not fit the header");
+
+		this.flags = flags;
+		this.payloadLength = payloadLength;
+	}
+
+	/**
+	 * @param data
+	 * @param offset
+	 *            the index in data of the first byte of the header
+	 * @param length
+	 *            the number of bytes received from offset
+	 * @return the header at offset in data, or null if it is not whole yet
+	 * @throws IllegalArgumentException
+	 *             if the bytes cannot be a header: its CRC does not match,
+	 *             or its length runs past Constants.MAX_PAYLOAD, more blocks
+	 *             than a receiver can tell apart
+	 */
+	public static FrameHeader parse(byte[] data, int offset, int length) {
+		int payloadLength = 0;
+		for (int i = 1; i < MAX_LENGTH - 1; i++) {
+			if (i >= length)
+				return null;
+
+			int b = data[offset + i] & 0xFF;
+			payloadLength |= (b & 0x7F) << (7 * (i - 1));
+			if (b == 0 && i > 1)
+				// a length is sent in as few bytes as it fits, as getLength()
+				// counts on
+				throw new IllegalArgumentException("Payload length has a "
+						+ "trailing zero byte");
+			if ((b & 0x80) == 0) {
+				if (i + 1 >= length)
+					return null;
+				if ((data[offset + i + 1] & 0xFF) != CRC8.compute(data,
+						offset, i + 1))
+					throw new IllegalArgumentException("Header CRC does not "
+							+ "match");
+				return new FrameHeader(data[offset], payloadLength);
+			}
+		}
+
+		throw new IllegalArgumentException("Payload length runs past "
+				+ (MAX_LENGTH - 1) + " header bytes");
+	}
+
+	/**
+	 * @return the header as it is sent
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[getLength()];
+		bytes[0] = flags;
+		int rest = payloadLength;
+		int crc = bytes.length - 1;
+		for (int i = 1; i < crc; i++) {
+			bytes[i] = (byte) ((rest & 0x7F) | (i < crc - 1 ? 0x80 : 0));
+			rest >>>= 7;
+		}
+		bytes[crc] = (byte) CRC8.compute(bytes, 0, crc);
+		return bytes;
+	}
+
+	/**
+	 * @return the number of bytes of this header
+	 */
+	public int getLength() {
+		int length = 3;
+		for (int rest = payloadLength >>> 7; rest > 0; rest >>>= 7)
+			length++;
+		return length;
+	}
+
+	private boolean isSet(int bit) {
+		return (~(flags >> bit) & 1) == 1;
+	}
+
+	public byte getFlags() {
+		return flags;
+	}
+
+	public boolean useChecksum() {
+		return isSet(Constants.CHECKSUM_FLAG_BIT);
+	}
+
+	public boolean useCompression() {
+		return isSet(Constants.COMPRESSION_FLAG_BIT);
+	}
+
+	public boolean useFEC() {
+		return isSet(Constants.FEC_FLAG_BIT);
+	}
+
+	public boolean useCRC16() {
+		return isSet(Constants.CRC16_FLAG_BIT);
+	}
+
+	public boolean useInterleaving() {
+		return isSet(Constants.INTERLEAVE_FLAG_BIT);
+	}
+
+	public boolean useArq() {
+		return isSet(Constants.ARQ_FLAG_BIT);
+	}
+
+	public int getCodebookId() {
+		return ~flags & Constants.CODEBOOK_FLAG_BITS;
+	}
+
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	/**
+	 * @return the number of blocks in a group, 1 unless they are interleaved
+	 */
+	public int getInterleaveDepth() {
+		if (!useFEC() || !useInterleaving())
+			return 1;
+
+		return Constants.INTERLEAVE_DEPTH;
+	}
+
+	/**
+	 * @return the number of blocks the payload is split between, as evenly
+	 *         as they go; interleaved, every group is whole, so each corrects
+	 *         as long a burst, unless there are too few bytes for a group
+	 */
+	public int getBlockCount() {
+		int blocks = (payloadLength + Constants.BLOCK_PAYLOAD - 1)
+				/ Constants.BLOCK_PAYLOAD;
+		int depth = getInterleaveDepth();
+		if (depth > 1)
+			blocks = Math.min((blocks + depth - 1) / depth * depth,
+					payloadLength);
+
+		return Math.max(1, blocks);
+	}
+
+	/**
+	 * @return the index in the payload of the first byte of the block
+	 */
+	public int getBlockPayloadOffset(int block) {
+		int blocks = getBlockCount();
+		return block * (payloadLength / blocks)
+				+ Math.min(block, payloadLength % blocks);
+	}
+
+	/**
+	 * @return the number of payload bytes in the block, the first blocks
+	 *         holding a byte more than the rest when they cannot be even
+	 */
+	public int getBlockPayloadLength(int block) {
+		int blocks = getBlockCount();
+		return payloadLength / blocks
+				+ (block < payloadLength % blocks ? 1 : 0);
+	}
+
+	/**
+	 * @return the number of bytes the block takes to send
+	 */
+	public int getBlockLength(int block) {
+		return getBlockPayloadLength(block) + getBlockOverhead();
+	}
+
+	/**
+	 * @return the bytes a block takes besides its payload: its sequence
+	 *         number and error correction bytes with FEC, none without
+	 */
+	public int getBlockOverhead() {
+		return useFEC() ? 1 + Constants.FEC_ERRORS * 2 : 0;
+	}
+
+	public int getGroupCount() {
+		return (getBlockCount() + getInterleaveDepth() - 1)
+				/ getInterleaveDepth();
+	}
+
+	public int getGroupFirstBlock(int group) {
+		return group * getInterleaveDepth();
+	}
+
+	/**
+	 * @return the number of blocks in the group, fewer than
+	 *         getInterleaveDepth() only in the last
+	 */
+	public int getGroupBlockCount(int group) {
+		return Math.min(getInterleaveDepth(), getBlockCount()
+				- getGroupFirstBlock(group));
+	}
+
+	/**
+	 * @return the index of the first byte of the group among the coded bytes
+	 */
+	public int getGroupOffset(int group) {
+		int block = getGroupFirstBlock(group);
+		return getBlockPayloadOffset(block) + block * getBlockOverhead();
+	}
+
+	/**
+	 * @return the number of bytes the group takes to send
+	 */
+	public int getGroupLength(int group) {
+		int block = getGroupFirstBlock(group);
+		int blocks = getGroupBlockCount(group);
+		return getBlockPayloadOffset(block + blocks)
+				- getBlockPayloadOffset(block) + blocks * getBlockOverhead();
+	}
+
+	/**
+	 * @return the number of bytes of the payload and its error correction
+	 */
+	public int getCodedLength() {
+		return payloadLength + getBlockCount() * getBlockOverhead();
+	}
+
+	public int getChecksumLength() {
+		if (!useChecksum())
+			return 0;
+
+		return useCRC16() ? 2 : 1;
+	}
+
+	/**
+	 * @return the number of bytes in the whole transmission, this header
+	 *         included
+	 */
+	public int getFrameLength() {
+		return getLength() + getCodedLength() + getChecksumLength();
+	}
+}
@@ -0,0 +1,138 @@
+package com.jonas.digitalvoices.modem;
+
+/**
+ * Copyright 2002 by the authors. All rights reserved.
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * A bank of Goertzel filters that measures the strength of several frequencies
+ * in one pass over a block of samples.
+ * The coefficients are computed once, so the inner loop is a multiply and two adds
+ * per frequency per sample, where complexDetect needs a cosine and a sine.
+ * The result is normalized the same way as complexDetect, the magnitude of the
+ * average of the samples times e^(jui), so either can be used by the Decoder.
+ *
+ * An instance can be shared between threads: each thread runs the filters in
+ * state arrays of its own, made on its first call, so detect() allocates nothing.
+ */
+public class GoertzelBank {
+
+    private final double[] frequencies;
+    private final double[] coefficients; // 2 * cos(u) for each frequency
+    private final double[] cosines;      // cos(u)
+    private final double[] sines;        // sin(u)
+
+    // the filter states of each thread: one sample back for each frequency,
+    // followed by two samples back for each frequency
+    private final ThreadLocal<double[]> states = new ThreadLocal<double[]>() {
+      @Override
+      protected double[] initialValue(){
+	return new double[2 * frequencies.length];
+      }
+    };
+
+    /**
+     * @param _frequencies the frequencies to detect
+     * @param samplingFrequency the sampling frequency of the audio
+     */
+    public GoertzelBank(double[] _frequencies, double samplingFrequency){
+      frequencies = _frequencies.clone();
+      coefficients = new double[frequencies.length];
+      cosines = new double[frequencies.length];
+      sines = new double[frequencies.length];
+      for(int k = 0; k < frequencies.length; k++){
+	double u = 2 * Math.PI * frequencies[k] / samplingFrequency;
+	cosines[k] = Math.cos(u);
+	sines[k] = Math.sin(u);
+	coefficients[k] = 2 * cosines[k];
+      }
+    }
+
+    /**
+     * @return the number of frequencies in the bank
+     */
+    public int size(){
+      return frequencies.length;
+    }
+
+    /**
+     * @param k the index of a frequency in the bank
+     * @return the frequency
+     */
+    public double getFrequency(int k){
+      return frequencies[k];
+    }
+
+    /**
+     * Measures all the frequencies of the bank
+     * @param signal audio samples
+     * @param offset the index in signal of the first sample to measure
+     * @param length the number of samples to measure
+     * @param magnitudes this will be filled in with the strength of each frequency
+     */
+    public void detect(byte[] signal, int offset, int length, double[] magnitudes){
+      detect(signal, offset, length, 0, frequencies.length, magnitudes);
+    }
+
+    /**
+     * Measures the frequencies first to first + count - 1 of the bank, in a single pass over the samples
+     * @param signal audio samples
+     * @param offset the index in signal of the first sample to measure
+     * @param length the number of samples to measure
+     * @param first the index of the first frequency to measure
+     * @param count the number of frequencies to measure
+     * @param magnitudes magnitudes[k] will be filled in with the strength of frequency k
+     */
+    public void detect(byte[] signal, int offset, int length, int first, int count, double[] magnitudes){
+      double[] state = states.get();
+      int back2 = frequencies.length; // where the states two samples back start
+      Arrays.fill(state, first, first + count, 0);
+      Arrays.fill(state, back2 + first, back2 + first + count, 0);
+
+      for(int i = offset; i < offset + length; i++){
+	double x = signal[i] / (float)Constants.kFloatToByteShift;
+	for(int k = first; k < first + count; k++){
+	  double s0 = x + (coefficients[k] * state[k]) - state[back2 + k];
+	  state[back2 + k] = state[k];
+	  state[k] = s0;
+	}
+      }
+
+      for(int k = first; k < first + count; k++){
+	magnitudes[k] = magnitude(k, state[k], state[back2 + k], length);
+      }
+    }
+
+    /**
+     * Measures the frequency k of the bank on its own
+     * @param signal audio samples
+     * @param offset the index in signal of the first sample to measure
+     * @param length the number of samples to measure
+     * @param k the index of the frequency to measure
+     * @return the strength of frequency k
+     */
+    public double detect(byte[] signal, int offset, int length, int k){
+      double c = coefficients[k];
+      double s1 = 0; // the filter state one sample back
+      double s2 = 0; // the filter state two samples back
+      for(int i = offset; i < offset + length; i++){
+	double s0 = (signal[i] / (float)Constants.kFloatToByteShift) + (c * s1) - s2;
+	s2 = s1;
+	s1 = s0;
+      }
+      return magnitude(k, s1, s2, length);
+    }
+
+    /**
+     * The last output of the filter, s1 - e^(-ju) * s2, has the magnitude of the 
+     * correlation with e^(jui) (the sign of its phase is all that differs)
+     */
+    private double magnitude(int k, double s1, double s2, int length){
+      double real = s1 - (cosines[k] * s2);
+      double imaginary = sines[k] * s2;
+      return Math.sqrt((real * real) + (imaginary * imaginary)) / length;
+    }
+}
@@ -4,8 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Random;
 
 import android.app.Service;
 import android.content.Intent;
@@ -19,8 +18,6 @@ import android.widget.Toast;
 
 import com.github.icedrake.jsmaz.Smaz;
 import com.jonas.digitalvoices.R;
-import com.jonas.reedsolomon.CRCGen;
-import com.jonas.reedsolomon.RS;
 
 public class ModemService extends Service {
 	public static final String TAG = ModemService.class.getSimpleName();
@@ -36,6 +33,15 @@ public class ModemService extends Service {
 	private boolean mUseCompression = false;
 	private boolean mUseChecksum = false;
 	private boolean mUseFEC = false;
+	private boolean mUseInterleaving = false;
+	private boolean mUseArq = false;
+	private int mCodebookId = 0;
+
+	// the ARQ session of the message being sent, if any, and the one a
+	// message is being received over
+	private ArqSender mArqSender = null;
+	private ArqReceiver mArqReceiver = new ArqReceiver();
+	private int mNextMessageId = new Random().nextInt(256);
 
 	private String mReceivedText = "";
 
@@ -46,10 +52,21 @@ public class ModemService extends Service {
 	private Handler mHandler = new Handler() {
 		@Override
 		public void handleMessage(Message msg) {
-			byte[] bytes = msg.getData().getByteArray(
-					StreamDecoder.MSG_KEY_RECEIVED_BYTES);
+			receivedFrame((FrameDecoder) msg.obj);
+		}
+	};
 
-			receivedBytes(bytes);
+	/**
+	 * Sends the ARQ window again when no FEEDBACK came in time.
+	 */
+	private Runnable mArqTimeout = new Runnable() {
+		@Override
+		public void run() {
+			if (mArqSender == null)
+				return;
+
+			mArqSender.timedOut();
+			sendArqTransmission();
 		}
 	};
 
@@ -71,6 +88,8 @@ public class ModemService extends Service {
 
 	@Override
 	public void onDestroy() {
+		// the ARQ timeout, and the end of any transmission still playing
+		mHandler.removeCallbacksAndMessages(null);
 		stopListening();
 	}
 
@@ -86,6 +105,38 @@ public class ModemService extends Service {
 		mUseFEC = useFEC;
 	}
 
+	/**
+	 * Sends FEC protected blocks interleaved in groups of INTERLEAVE_DEPTH,
+	 * which corrects longer bursts; a short payload is split between a
+	 * group's blocks, which costs their parity bytes.
+	 */
+	public void setUseInterleaving(boolean useInterleaving) {
+		mUseInterleaving = useInterleaving;
+	}
+
+	/**
+	 * Sends messages over an ARQ session, always with FEC: the receiver
+	 * answers each transmission with the segments it is missing, and only
+	 * those are sent again. The checksum option is not needed, the session
+	 * checks the whole message with a CRC-16.
+	 */
+	public void setUseArq(boolean useArq) {
+		mUseArq = useArq;
+	}
+
+	/**
+	 * Selects the Smaz codebook compressed messages are sent with.
+	 * 
+	 * @param codebookId
+	 *            an index into Constants.SMAZ_CODEBOOKS
+	 */
+	public void setCodebookId(int codebookId) {
+		if (codebookId < 0 || codebookId >= Constants.SMAZ_CODEBOOKS.length)
+			throw new IllegalArgumentException("No Smaz codebook " + codebookId);
+
+		mCodebookId = codebookId;
+	}
+
 	public void setIsPlaying(boolean isPlaying) {
 		synchronized (mIsPlaying) {
 			mIsPlaying = isPlaying;
@@ -121,6 +172,15 @@ public class ModemService extends Service {
 
 	public void listen() {
 		stopListening();
+		resumeListening();
+	}
+
+	/**
+	 * Listens again without clearing the received text, as an ARQ session
+	 * does once it has played a transmission.
+	 */
+	private void resumeListening() {
+		stopDecoding();
 
 		mDecodedStream.reset();
 
@@ -139,6 +199,15 @@ public class ModemService extends Service {
 	}
 
 	public void stopListening() {
+		stopDecoding();
+
+		synchronized (mReceivedText) {
+			// clear the received text
+			mReceivedText = "";
+		}
+	}
+
+	private void stopDecoding() {
 		if (mMicrophoneListener != null)
 			mMicrophoneListener.quit();
 
@@ -148,23 +217,127 @@ public class ModemService extends Service {
 			mStreamDecoder.quit();
 
 		mStreamDecoder = null;
-
-		synchronized (mReceivedText) {
-			// clear the received text
-			mReceivedText = "";
-		}
 	}
 
 	public void playData(String input) {
 		stopListening();
 
+		// a new message ends the session of the last one
+		mHandler.removeCallbacks(mArqTimeout);
+		mArqSender = null;
+
 		// play the text
 		Log.d(TAG, "Playing: " + input);
 		new SendDataTask().execute(ArrayUtils.box(input.getBytes()));
 	}
 
-	private void receivedBytes(byte[] bytes) {
-		new ReceiveDataTask().execute(ArrayUtils.box(bytes));
+	private void receivedFrame(FrameDecoder frame) {
+		if (!frame.getHeader().useArq()) {
+			new ReceiveDataTask().execute(frame);
+			return;
+		}
+
+		if (mArqSender != null && mArqSender.received(frame)) {
+			mHandler.removeCallbacks(mArqTimeout);
+			sendArqTransmission();
+			return;
+		}
+
+		int messageId = mArqReceiver.getMessageId();
+		boolean wasComplete = mArqReceiver.isComplete();
+		FrameEncoder feedback = mArqReceiver.received(frame);
+		if (feedback == null)
+			return;
+
+		// the FEEDBACK was lost if the message is sent again once complete
+		if (mArqReceiver.isComplete()
+				&& !(wasComplete && messageId == mArqReceiver.getMessageId()))
+			new ReceiveMessageTask(mArqReceiver.getMessageHeader())
+					.execute(mArqReceiver.getMessage().clone());
+
+		stopDecoding();
+		new PlayFrameTask(new Runnable() {
+			@Override
+			public void run() {
+				resumeListening();
+			}
+		}).execute(feedback);
+	}
+
+	private void startArqSession(ArqSender sender) {
+		mArqSender = sender;
+		sendArqTransmission();
+	}
+
+	/**
+	 * Plays the next transmission of the ARQ session, then listens for its
+	 * FEEDBACK until the sender's timeout, or ends the session.
+	 */
+	private void sendArqTransmission() {
+		FrameEncoder frame = mArqSender.nextTransmission();
+		if (frame == null) {
+			String result = mArqSender.isComplete() ? "Text was received"
+					: "Gave up on the text after "
+							+ mArqSender.getTransmissionCount()
+							+ " transmissions";
+			Toast.makeText(getApplication(), result, Toast.LENGTH_SHORT)
+					.show();
+
+			mArqSender = null;
+			return;
+		}
+
+		stopDecoding();
+		final ArqSender sender = mArqSender;
+		new PlayFrameTask(new Runnable() {
+			@Override
+			public void run() {
+				if (sender != mArqSender)
+					return;
+
+				resumeListening();
+				mHandler.postDelayed(mArqTimeout,
+						toMillis(sender.getTimeout()));
+			}
+		}).execute(frame);
+	}
+
+	private static long toMillis(int durations) {
+		return (long) durations * Constants.kSamplesPerDuration * 1000
+				/ (long) Constants.kSamplingFrequency;
+	}
+
+	/**
+	 * Plays a transmission, and once it has sounded marks the modem as no
+	 * longer playing and runs whenPlayed, if any, on the main thread. The
+	 * end of the transmission is posted to mHandler, so onDestroy can drop
+	 * it and no thread is left waiting for it.
+	 */
+	private void playFrame(FrameEncoder frame, final Runnable whenPlayed)
+			throws IOException {
+		long millisPlayTime = toMillis(Constants.kPlayJitter
+				+ Constants.kDurationsPerHail + Constants.kBytesPerDuration
+				* frame.getHeader().getFrameLength()
+				+ Constants.kDurationsPerCRC);
+
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				setIsPlaying(false);
+
+				if (whenPlayed != null)
+					whenPlayed.run();
+			}
+		}, millisPlayTime);
+
+		// play the input
+		setIsPlaying(true);
+		AudioUtils.performFrame(frame);
+	}
+
+	private void showToasts(List<String> toastText) {
+		for (String text : toastText)
+			Toast.makeText(getApplication(), text, Toast.LENGTH_SHORT).show();
 	}
 
 	/**
@@ -172,11 +345,16 @@ public class ModemService extends Service {
 	 * be compressed and/or sent with a checksum.
 	 * 
 	 * A transmission sequence consists of: flag byte (compression and checksum
-	 * options), payloadLength, payload (optionally compressed), error
-	 * correction bytes (optional), checksum (optional).
+	 * options), payloadLength, payload (optionally compressed) in blocks with
+	 * error correction bytes (optional), checksum (optional); see
+	 * FrameHeader. It is played as it is encoded, a group of blocks at a time.
+	 * 
+	 * With ARQ the text is sent over a session instead, started once the text
+	 * has been compressed; see ArqSender.
 	 */
 	private class SendDataTask extends AsyncTask<Byte, Void, String> {
 		private boolean showToast = false;
+		private ArqSender arqSender = null;
 
 		@Override
 		protected String doInBackground(Byte... bytes) {
@@ -187,9 +365,11 @@ public class ModemService extends Service {
 			// compress input if necessary
 			if (mUseCompression) {
 				flags &= ~(1 << Constants.COMPRESSION_FLAG_BIT);
+				flags &= ~(mCodebookId & Constants.CODEBOOK_FLAG_BITS);
 
 				int uncompressedLength = data.length;
-				data = new Smaz().compress(new String(data));
+				data = new Smaz(Constants.SMAZ_CODEBOOKS[mCodebookId])
+						.compress(data, 0, data.length);
 
 				int compressionRatio = (int) ((float) data.length
 						/ (float) uncompressedLength * 100);
@@ -199,51 +379,41 @@ public class ModemService extends Service {
 				showToast = true;
 			}
 
-			// set the payload length byte
-			byte payloadLength = (byte) data.length;
+			byte[] payload = data;
+			if (payload.length > Constants.MAX_PAYLOAD) {
+				showToast = true;
+
+				return "Text is too long to send";
+			}
+
+			if (mUseArq) {
+				// FEC and the checksum are the session's to choose
+				arqSender = new ArqSender(mNextMessageId++, flags, payload,
+						mUseInterleaving);
+
+				return toastText;
+			}
 
-			// apply error correction
 			if (mUseFEC) {
 				flags &= ~(1 << Constants.FEC_FLAG_BIT);
 
-				int parityBytes = Constants.FEC_ERRORS * 2;
-				byte[] codeword = new byte[payloadLength + parityBytes];
-
-				RS rs = new RS(parityBytes);
-				rs.encode_data(data, payloadLength, codeword);
-				data = codeword;
+				if (mUseInterleaving && payload.length > 1)
+					flags &= ~(1 << Constants.INTERLEAVE_FLAG_BIT);
 			}
 
-			// apply a checksum if necessary
 			if (mUseChecksum) {
 				flags &= ~(1 << Constants.CHECKSUM_FLAG_BIT);
 
-				byte crc = CRCGen.crc_8_ccitt(data, payloadLength);
-				data = ArrayUtils.concatenate(data, new byte[] { crc });
+				// payloads longer than CRC16_MIN_PAYLOAD get a CRC-16
+				if (payload.length > Constants.CRC16_MIN_PAYLOAD)
+					flags &= ~(1 << Constants.CRC16_FLAG_BIT);
 			}
 
-			// attach header bytes
-			data = ArrayUtils.concatenate(new byte[] { flags, payloadLength },
-					data);
+			FrameHeader header = new FrameHeader(flags, payload.length);
+			FrameEncoder frame = new FrameEncoder(header, payload);
 
 			try {
-				long millisPlayTime = (long) ((Constants.kPlayJitter
-						+ Constants.kDurationsPerHail
-						+ Constants.kBytesPerDuration * data.length + Constants.kDurationsPerCRC)
-						* Constants.kSamplesPerDuration
-						/ Constants.kSamplingFrequency * 1000);
-
-				Executors.newSingleThreadScheduledExecutor().schedule(
-						new Runnable() {
-							@Override
-							public void run() {
-								setIsPlaying(false);
-							}
-						}, millisPlayTime, TimeUnit.MILLISECONDS);
-
-				// play the input
-				setIsPlaying(true);
-				AudioUtils.performArray(data);
+				playFrame(frame, null);
 
 			} catch (IOException e) {
 				Log.d(TAG, "Could not encode data because of " + e);
@@ -255,6 +425,9 @@ public class ModemService extends Service {
 
 		@Override
 		protected void onPostExecute(String result) {
+			if (arqSender != null)
+				startArqSession(arqSender);
+
 			if (!showToast)
 				return;
 
@@ -262,123 +435,165 @@ public class ModemService extends Service {
 		}
 	}
 
+	/**
+	 * An AsyncTask to play a transmission of an ARQ session, then run the
+	 * Runnable it was given on the main thread.
+	 */
+	private class PlayFrameTask extends AsyncTask<FrameEncoder, Void, Void> {
+		private final Runnable whenPlayed;
+
+		PlayFrameTask(Runnable whenPlayed) {
+			this.whenPlayed = whenPlayed;
+		}
+
+		@Override
+		protected Void doInBackground(FrameEncoder... frames) {
+			try {
+				playFrame(frames[0], whenPlayed);
+
+			} catch (IOException e) {
+				Log.d(TAG, "Could not encode data because of " + e);
+
+			}
+
+			return null;
+		}
+	}
+
 	/**
 	 * An AsyncTask to process received sound data converting it back into text.
 	 * If indicated by the received flag byte, the text will be compressed
 	 * and/or sent with a checksum.
 	 * 
 	 * A transmission sequence consists of: flag byte (compression and checksum
-	 * options), payloadLength, payload (optionally compressed), error
-	 * correction bytes (optional), checksum (optional).
+	 * options), payloadLength, payload (optionally compressed) in blocks with
+	 * error correction bytes (optional), checksum (optional); see
+	 * FrameHeader. The StreamDecoder hands over the FrameDecoder that has
+	 * corrected and checked it as it was received.
 	 */
-	private class ReceiveDataTask extends AsyncTask<Byte, Void, List<String>> {
+	private class ReceiveDataTask extends
+			AsyncTask<FrameDecoder, Void, List<String>> {
 		private boolean showToast = false;
 
 		@Override
-		protected List<String> doInBackground(Byte... bytes) {
-			byte[] data = ArrayUtils.unbox(bytes);
+		protected List<String> doInBackground(FrameDecoder... frames) {
+			FrameDecoder frame = frames[0];
+			FrameHeader header = frame.getHeader();
+			byte[] data = frame.getPayload();
 			List<String> toastText = new ArrayList<String>();
 
-			// get header bytes
-			byte flags = data[0];
-			boolean useChecksum = (~(flags >> Constants.CHECKSUM_FLAG_BIT) & 1) == 1;
-			boolean useCompression = (~(flags >> Constants.COMPRESSION_FLAG_BIT) & 1) == 1;
-			boolean useFEC = (~(flags >> Constants.FEC_FLAG_BIT) & 1) == 1;
-			byte payloadLength = data[1];
-
-			// remove header bytes
-			data = ArrayUtils.subarray(data, 2, data.length - 2);
-
-			if (useChecksum) {
-				byte generatedCRC = CRCGen.crc_8_ccitt(data, payloadLength);
-				byte receivedCRC = data[data.length - 1];
-
-				try {
-					if (generatedCRC != receivedCRC) {
-						toastText.add("Received corrupted text");
-						showToast = true;
-
-						return toastText;
-
-					} else {
-						toastText.add("Received valid text");
-						showToast = true;
-					}
-				
-				} catch (ArrayIndexOutOfBoundsException e) {
-					toastText.add("Received corrupted checksum");
-					showToast = true;
-
-					return toastText;
-				}
-
-				// remove checksum byte
-				data = ArrayUtils.subarray(data, 0, data.length - 1);
+			if (frame.getDamagedBlockCount() > 0) {
+				toastText.add("Attempting to correct errors");
+				showToast = true;
 			}
 
-			if (useFEC) {
-				try {
-					int parityBytes = Constants.FEC_ERRORS * 2;
-					RS rs = new RS(parityBytes);
-
-					rs.decode_data(data, payloadLength);
-					if (rs.check_syndrome() != 0) {
-						toastText.add("Attempting to correct errors");
-						showToast = true;
+			if (frame.getInvalidBlockCount() > 0) {
+				toastText.add("Received unrepairable corrupted text");
+				showToast = true;
 
-						rs.correct_errors_erasures(data, payloadLength, 0, null);
-					}
+				return toastText;
+			}
 
-				} catch (ArrayIndexOutOfBoundsException e) {
-					toastText.add("Received unrepairable corrupted text");
+			if (header.useChecksum()) {
+				if (!frame.isChecksumValid()) {
+					toastText.add("Received corrupted text");
 					showToast = true;
 
 					return toastText;
-				}
 
-				// remove parity bytes
-				data = ArrayUtils.subarray(data, 0, payloadLength);
+				} else {
+					toastText.add("Received valid text");
+					showToast = true;
+				}
 			}
 
-			String text = null;
-			if (useCompression) {
-				// decompress data
-				text = new Smaz().decompress(data);
+			receivedPayload(header, data, toastText);
+			showToast |= !toastText.isEmpty();
 
-				int decompressionRatio = (int) ((float) text.length()
-						/ (float) data.length * 100);
+			return toastText;
+		}
 
-				toastText.add("Decompressed text by "
-						+ Integer.toString(decompressionRatio) + "%");
-				showToast = true;
+		@Override
+		protected void onPostExecute(List<String> results) {
+			if (!showToast)
+				return;
 
-			} else {
-				text = new String(data);
-			}
+			showToasts(results);
+		}
 
-			synchronized (mReceivedText) {
-				StringBuilder sb = new StringBuilder(mReceivedText);
+	}
 
-				if (!mReceivedText.equals(""))
-					sb.append("\n");
+	/**
+	 * An AsyncTask to turn a message received whole over an ARQ session into
+	 * text, as the ReceiveDataTask does a frame's payload.
+	 */
+	private class ReceiveMessageTask extends
+			AsyncTask<byte[], Void, List<String>> {
+		private final FrameHeader header;
 
-				sb.append(text);
+		ReceiveMessageTask(FrameHeader header) {
+			this.header = header;
+		}
 
-				mReceivedText = sb.toString();
-			}
+		@Override
+		protected List<String> doInBackground(byte[]... messages) {
+			List<String> toastText = new ArrayList<String>();
+			toastText.add("Received valid text");
+			receivedPayload(header, messages[0], toastText);
 
 			return toastText;
 		}
 
 		@Override
 		protected void onPostExecute(List<String> results) {
-			if (!showToast)
+			showToasts(results);
+		}
+	}
+
+	/**
+	 * Decompresses the payload if the header says to and adds it to the
+	 * received text.
+	 */
+	private void receivedPayload(FrameHeader header, byte[] data,
+			List<String> toastText) {
+		String text = null;
+		if (header.useCompression()) {
+			if (header.getCodebookId() >= Constants.SMAZ_CODEBOOKS.length) {
+				toastText.add("Received text compressed with an unknown codebook");
+
 				return;
+			}
 
-			for (String result : results)
-				Toast.makeText(getApplication(), result, Toast.LENGTH_SHORT)
-						.show();
+			// decompress data
+			try {
+				text = new Smaz(Constants.SMAZ_CODEBOOKS[header.getCodebookId()])
+						.decompress(data);
+
+			} catch (IllegalArgumentException e) {
+				toastText.add("Received corrupted compressed text");
+
+				return;
+			}
+
+			int decompressionRatio = (int) ((float) text.length()
+					/ (float) data.length * 100);
+
+			toastText.add("Decompressed text by "
+					+ Integer.toString(decompressionRatio) + "%");
+
+		} else {
+			text = new String(data);
 		}
 
+		synchronized (mReceivedText) {
+			StringBuilder sb = new StringBuilder(mReceivedText);
+
+			if (!mReceivedText.equals(""))
+				sb.append("\n");
+
+			sb.append(text);
+
+			mReceivedText = sb.toString();
+		}
 	}
 }
@@ -1,29 +1,92 @@
 package com.jonas.digitalvoices.modem;
 
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
 
 public class PlayThread extends Thread{
 
+	// how many writes to getOutputStream() may wait to be played, about a
+	// duration each from the Encoder, so encoding keeps only a little ahead
+	private static final int kQueuedWrites = 32;
+
+	// put on the queue when the OutputStream is closed
+	private static final byte[] kEnd = new byte[0];
+
 	public boolean isPlaying = true;
 	private byte[] buffer;
+
+	// the samples written to getOutputStream(), or null if all are in buffer
+	private BlockingQueue<byte[]> queue;
 	
 	public PlayThread( byte[] b )
 	{
-		buffer = new byte[b.length * 2];
-		
-		// convert from 8 bit per sample to little-endian 16 bit per sample, IOW 16-bit PCM
+		buffer = toPcm16(b, 0, b.length);
+
+		start();
+	}
+
+	/**
+	 * Plays the samples written to getOutputStream() as they come, until it
+	 * is closed.
+	 */
+	public PlayThread()
+	{
+		queue = new ArrayBlockingQueue<byte[]>(kQueuedWrites);
+
+		start();
+	}
+
+	// convert from 8 bit per sample to little-endian 16 bit per sample, IOW 16-bit PCM
+	private static byte[] toPcm16(byte[] b, int off, int len)
+	{
+		byte[] pcm = new byte[len * 2];
 		int i, j;
-		for(i=0, j =0; i < b.length; i++, j += 2)
+		for(i=off, j =0; i < off + len; i++, j += 2)
 		{
-		    buffer[j] = 0;
-		    buffer[j+1] = b[i];
+		    pcm[j] = 0;
+		    pcm[j+1] = b[i];
 		}
+		return pcm;
+	}
 
-		
-		start();
+	/**
+	 * @return a stream taking 8 bit samples to play, whose writes block while
+	 *         too many are waiting to be played
+	 */
+	public OutputStream getOutputStream()
+	{
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				put(toPcm16(b, off, len));
+			}
+
+			@Override
+			public void close() throws IOException {
+				put(kEnd);
+			}
+
+			private void put(byte[] pcm) throws IOException {
+				try {
+					queue.put(pcm);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+		};
 	}
 	
 	public void run()
@@ -32,12 +95,22 @@ public class PlayThread extends Thread{
 		isPlaying = true;
 		
 		android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+		int bufferSize;
+		if (buffer != null)
+			bufferSize = buffer.length;
+		else
+			bufferSize = Math.max(AudioTrack.getMinBufferSize(
+					(int) Encoder.kSamplingFrequency,
+					AudioFormat.CHANNEL_OUT_MONO,
+					AudioFormat.ENCODING_PCM_16BIT),
+					4 * Encoder.kSamplesPerDuration);
 	  
 	    AudioTrack atrack = new AudioTrack(AudioManager.STREAM_MUSIC,
 	    							(int) Encoder.kSamplingFrequency,
 	                                AudioFormat.CHANNEL_OUT_MONO,
 	                                AudioFormat.ENCODING_PCM_16BIT,  // ENCODING_PCM_8BIT sounds very scratchy, so we use 16 bit and double up the data
-	                                buffer.length, 
+	                                bufferSize, 
 	                                AudioTrack.MODE_STREAM);
 
 	    atrack.setPlaybackRate((int) Encoder.kSamplingFrequency);
@@ -47,7 +120,15 @@ public class PlayThread extends Thread{
         atrack.play();
       
         try {
-                atrack.write(buffer, 0, buffer.length);
+                if (buffer != null) {
+                        atrack.write(buffer, 0, buffer.length);
+                } else {
+                        // a write blocks until the track has room, so the
+                        // samples play as they are encoded
+                        byte[] pcm;
+                        while ((pcm = queue.take()) != kEnd)
+                                atrack.write(pcm, 0, pcm.length);
+                }
         } catch (Exception e) {
 
                 e.printStackTrace();
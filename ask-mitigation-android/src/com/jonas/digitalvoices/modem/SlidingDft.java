@@ -0,0 +1,104 @@
+package com.jonas.digitalvoices.modem;
+
+/**
+ * Copyright 2002 by the authors. All rights reserved.
+ */
+
+
+/**
+ * A sliding single bin DFT, which follows the correlation of one frequency
+ * with a window of the signal as the window moves forward one sample at a time.
+ * Moving the window costs O(1): the sample that leaves the window is taken
+ * out of the correlation and the one that enters it is added in,
+ *   C(m + 1) = e^(-ju) * ( C(m) - x[m] + x[m + N] * e^(juN) )
+ * where C(m) is the sum of x[m + i] * e^(jui) over the N samples of the window.
+ * The correlation is recomputed exactly every N steps, so rounding errors 
+ * cannot build up.
+ * The magnitudes are normalized like complexDetect: |C(m)| / N.
+ *
+ * An instance holds no state between calls and can be shared between threads.
+ */
+public class SlidingDft {
+
+    private final int window;      // N, the number of samples correlated
+    private final double stepReal; // e^(-ju)
+    private final double stepImaginary;
+    private final double wrapReal; // e^(juN)
+    private final double wrapImaginary;
+    private final double[] cosines; // cos(ui) for i in the window, for the exact computations
+    private final double[] sines;   // sin(ui)
+
+    /**
+     * @param frequency the frequency to follow
+     * @param _window the number of samples correlated at each position
+     * @param samplingFrequency the sampling frequency of the audio
+     */
+    public SlidingDft(double frequency, int _window, double samplingFrequency){
+      window = _window;
+      double u = 2 * Math.PI * frequency / samplingFrequency;
+      stepReal = Math.cos(u);
+      stepImaginary = -Math.sin(u);
+      wrapReal = Math.cos(u * window);
+      wrapImaginary = Math.sin(u * window);
+      cosines = new double[window];
+      sines = new double[window];
+      for(int i = 0; i < window; i++){
+	cosines[i] = Math.cos(i * u);
+	sines[i] = Math.sin(i * u);
+      }
+    }
+
+    /**
+     * @return the number of samples correlated at each position
+     */
+    public int getWindow(){
+      return window;
+    }
+
+    /**
+     * Finds the window position where the frequency is strongest, looking at every position.
+     * @param signal audio samples
+     * @param offset the index in signal of the first sample to search
+     * @param length the number of samples to search, at least getWindow()
+     * @param peak peak[0] will be filled in with the strength at the returned position
+     * @return the position, relative to offset, of the strongest window, or -1 if length < getWindow()
+     */
+    public int findPeak(byte[] signal, int offset, int length, double[] peak){
+      int positions = length - window + 1;
+      if(positions <= 0){
+	return -1;
+      }
+      double real = 0;
+      double imaginary = 0;
+      double maxMagnitude = -1;
+      int maxIndex = -1;
+      for(int m = 0; m < positions; m++){
+	if(m % window == 0){
+	  //start again from an exact correlation
+	  real = 0;
+	  imaginary = 0;
+	  for(int i = 0; i < window; i++){
+	    double x = signal[offset + m + i];
+	    real += cosines[i] * x;
+	    imaginary += sines[i] * x;
+	  }
+	} else {
+	  //slide the window forward one sample
+	  double leaving = signal[offset + m - 1];
+	  double entering = signal[offset + m - 1 + window];
+	  double r = real - leaving + (entering * wrapReal);
+	  double j = imaginary + (entering * wrapImaginary);
+	  real = (r * stepReal) - (j * stepImaginary);
+	  imaginary = (r * stepImaginary) + (j * stepReal);
+	}
+	double magnitude = (real * real) + (imaginary * imaginary);
+	if(magnitude > maxMagnitude){
+	  maxMagnitude = magnitude;
+	  maxIndex = m;
+	}
+      }
+      //the samples were summed as bytes, so scale them like complexDetect does
+      peak[0] = Math.sqrt(maxMagnitude) / (Constants.kFloatToByteShift * window);
+      return maxIndex;
+    }
+}
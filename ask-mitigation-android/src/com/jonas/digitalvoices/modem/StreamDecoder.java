@@ -10,7 +10,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import android.content.Context;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 
@@ -21,12 +20,16 @@ import com.jonas.digitalvoices.R;
  * OutputStream. StreamDecoder holds the buffer where the MicrophoneListener
  * puts bytes.
  * 
+ * A transmission ends after as many bytes as its FrameHeader gives, so its
+ * payload may hold any byte and the next hail is looked for right away. The
+ * bytes after the header go to a FrameDecoder as they are decoded, which
+ * corrects each group of blocks once it is whole; the FrameDecoder is handed
+ * over, as the obj of a Message, when the transmission is complete.
+ * 
  * @author CVL (Modified by Jonas Michel, 2015)
  */
 public class StreamDecoder implements Runnable {
 
-	public static final String MSG_KEY_RECEIVED_BYTES = "receivedBytes";
-
 	public static String kThreadName = "StreamDecoder";
 
 	private Thread myThread = null;
@@ -45,7 +48,8 @@ public class StreamDecoder implements Runnable {
 	 * This creates and starts the decoding Thread
 	 * 
 	 * @param _out
-	 *            the OutputStream which will receive the decoded data
+	 *            the OutputStream which will receive the decoded data up to
+	 *            the end of each FrameHeader
 	 */
 	public StreamDecoder(ByteArrayOutputStream out, Handler handler) {
 		this.out = out;
@@ -97,133 +101,114 @@ public class StreamDecoder implements Runnable {
 
 		double[] startSignals = new double[Constants.kBitsPerByte
 				* Constants.kBytesPerDuration];
-		boolean notEnoughSamples = true;
-		byte samples[] = null;
+		double[] hailStrength = new double[1];
+		byte samples[] = buffer.getArray(); // the buffer is read in place, at
+											// the offsets returned by peek
+		int offset = -1;
+		int length = 0;
+
+		// the rest of the frame being received, known once its header is in
+		FrameDecoder frame = null;
 
 		hasKey = false;
 
 		while (running) {
-			notEnoughSamples = true;
-			while (notEnoughSamples) {
-				samples = buffer.read(Constants.kSamplesPerDuration
-						* durationsToRead);
-				if (samples != null)
-					notEnoughSamples = false;
-				else
-					Thread.yield();
+			length = Constants.kSamplesPerDuration * durationsToRead;
+			offset = buffer.awaitSamples(length);
+			if (offset < 0) {
+				// the buffer was closed, so there is nothing more to decode
+				break;
 			}
 
 			if (hasKey) { // we found the key, so decode this duration
-				byte[] decoded = Decoder.decode(startSignals, samples);
+				byte[] reliability = new byte[durationsToRead
+						* Constants.kBytesPerDuration];
+				byte[] decoded = Decoder.decode(startSignals, samples, offset,
+						length, reliability);
 				try {
-					buffer.delete(samples.length);
-					deletedSamples += samples.length;
-					out.write(decoded);
+					buffer.delete(length);
+					deletedSamples += length;
 
 					System.out.println("decoded " + decoded.length + " bytes");
 
-					if (decoded[0] == 0) { // we are receiving no signal, so go
-											// back to key detection mode
-						// out.write("EOF\r\n".getBytes()); //this is for
-						// debugging
-						byte[] data = out.toByteArray();
-						// remove the trailing 0
-						data = ArrayUtils.subarray(data, 0, data.length - 1);
+					if (frame == null) {
+						out.write(decoded);
+
+						// the header tells how many bytes are left to decode
+						FrameHeader header = FrameHeader.parse(
+								out.toByteArray(), 0, out.size());
+						if (header != null) {
+							frame = new FrameDecoder(header);
+							int from = header.getLength() - out.size()
+									+ decoded.length;
+							frame.write(decoded, reliability, from,
+									decoded.length - from);
+						}
+					} else {
+						frame.write(decoded, reliability, 0, decoded.length);
+					}
+
+					if (frame != null && frame.isComplete()) {
+						// we have the whole frame, so go back to key
+						// detection mode
 
-						receivedBytes(data); // signal complete reception
+						// signal complete reception
+						receivedFrame(frame);
 
 						out.reset();
+						frame = null;
 						hasKey = false;
 						durationsToRead = Constants.kDurationsPerHail;
 					}
+				} catch (IllegalArgumentException e) {
+					// the header cannot be one, so this was no transmission
+					System.out.println("Bad frame header: " + e.getMessage());
+					out.reset();
+					hasKey = false;
+					durationsToRead = Constants.kDurationsPerHail;
 				} catch (IOException e) {
 					System.out.println("Exception while decoding:" + e);
 					break;
 				}
-
-				try {
-					// this provides the audio sampling mechanism a chance to
-					// maintain continuity
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					System.out.println("Stream Decoding thread interrupted:"
-							+ e);
-					break;
-				}
 				continue;
 			}
 
 			// we don't have the key, so we are in key detection mode from this
 			// point on
-			int initialGranularity = 400;
-			int finalGranularity = 20;
 			// System.out.println("Search Start: " + deletedSamples + " End: " +
-			// (deletedSamples + samples.length));
+			// (deletedSamples + length));
 			// System.out.println("Search Time: " + ((float)deletedSamples /
 			// Constants.kSamplingFrequency) + " End: "
-			// + ((float)(deletedSamples + samples.length) /
+			// + ((float)(deletedSamples + length) /
 			// Constants.kSamplingFrequency));
-			int startIndex = Decoder.findKeySequence(samples, startSignals,
-					initialGranularity);
-			if (startIndex > -1) {
-				System.out.println("\nRough Start Index: "
-						+ (deletedSamples + startIndex));
-				// System.out.println("Rough Start Time: "
-				// + (deletedSamples + startIndex) /
-				// (float)Constants.kSamplingFrequency);
-
-				int shiftAmount = startIndex /* - (Constants.kSamplesPerDuration) */;
-				if (shiftAmount < 0) {
-					shiftAmount = 0;
-				}
-				System.out.println("Shift amount: " + shiftAmount);
+			int startIndex = Decoder.findHail(samples, offset, length,
+					hailStrength);
+			if (startIndex == length - Constants.kSamplesPerDuration) {
+				// the hail may still get stronger past the samples we have,
+				// so search again from here
 				try {
-					buffer.delete(shiftAmount);
+					buffer.delete(startIndex);
 				} catch (IOException e) {
 				}
-				deletedSamples += shiftAmount;
-
-				durationsToRead = Constants.kDurationsPerHail;
-				notEnoughSamples = true;
-				while (notEnoughSamples) {
-					samples = buffer.read(Constants.kSamplesPerDuration
-							* durationsToRead);
-					if (samples != null)
-						notEnoughSamples = false;
-					else
-						Thread.yield();
-				}
-
-				// System.out.println("Search Start: " + deletedSamples +
-				// " End: " + (deletedSamples + samples.length));
-				// System.out.println("Search Time: " + ((float)deletedSamples /
-				// Constants.kSamplesPerDuration) + " End: "
-				// + ((float)(deletedSamples + samples.length) /
-				// Constants.kSamplingFrequency));
-
-				startIndex = Decoder.findKeySequence(samples, startSignals,
-						finalGranularity);
-				System.out.println("Refined Start Index: "
+				deletedSamples += startIndex;
+				continue;
+			}
+			if (startIndex > -1) {
+				System.out.println("\nStart Index: "
 						+ (deletedSamples + startIndex));
 				// System.out.println("Start Time: " +
 				// (deletedSamples + startIndex) /
 				// (float)Constants.kSamplingFrequency);
 				try {
-					notEnoughSamples = true;
-					while (notEnoughSamples) {
-						samples = buffer
-								.read(startIndex
-										+ (Constants.kSamplesPerDuration * Constants.kDurationsPerHail));
-						if (samples != null)
-							notEnoughSamples = false;
-						else
-							Thread.yield();
+					offset = buffer
+							.awaitSamples(startIndex
+									+ (Constants.kSamplesPerDuration * Constants.kDurationsPerHail));
+					if (offset < 0) {
+						break;
 					}
 
-					samples = ArrayUtils.subarray(samples, startIndex
-							+ Constants.kSamplesPerDuration,
-							2 * Constants.kSamplesPerDuration);
-					Decoder.getKeySignalStrengths(samples, startSignals);
+					Decoder.getKeySignalStrengths(samples, offset + startIndex
+							+ Constants.kSamplesPerDuration, startSignals);
 					/*
 					 * System.out.println(" f(0): " + startSignals[0] +
 					 * " f(1): " + startSignals[1] + " f(2): " + startSignals[2]
@@ -245,20 +230,24 @@ public class StreamDecoder implements Runnable {
 
 				durationsToRead = 1;
 			} else {
+				// every position of the hail up to here has been searched
+				int searched = length - Constants.kSamplesPerDuration + 1;
 				try {
-					buffer.delete(Constants.kSamplesPerDuration);
-					deletedSamples += Constants.kSamplesPerDuration;
+					buffer.delete(searched);
+					deletedSamples += searched;
 				} catch (IOException e) {
 				}
 			}
 		}
 	}
 
-	private void receivedBytes(byte[] bytes) {
+	/**
+	 * @param frame
+	 *            a complete transmission
+	 */
+	private void receivedFrame(FrameDecoder frame) {
 		Message msg = handler.obtainMessage();
-		Bundle bundle = new Bundle();
-		bundle.putByteArray(MSG_KEY_RECEIVED_BYTES, bytes);
-		msg.setData(bundle);
+		msg.obj = frame;
 
 		handler.sendMessage(msg);
 	}
@@ -267,5 +256,6 @@ public class StreamDecoder implements Runnable {
 		synchronized (runLock) {
 			running = false;
 		}
+		buffer.close(); // wakes the decoding thread if it is waiting for samples
 	}
 }
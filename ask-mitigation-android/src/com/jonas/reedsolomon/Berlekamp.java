@@ -64,10 +64,27 @@ public class Berlekamp {
 	private int ErrorLocs[] = new int[256];
 	private int NErrors;
 
+	/* the degree of Lambda, which has as many roots if the codeword can be corrected */
+	private int LambdaDegree;
+
 	/* erasure flags */
 	private int ErasureLocs[] = new int[256];
 	private int NErasures;
 
+	/*
+	 * Workspaces, allocated once so that decoding allocates nothing. This
+	 * makes a Berlekamp (and the RS that owns it) usable by one thread at a
+	 * time.
+	 */
+	private int psi[], psi2[], D[], gamma[];
+	private int gammaTmp[];
+	private int product[];
+	private int multTmp[];
+
+	/* chienRows[k] multiplies by a^k, chienTerms[k] is Lambda[k] * a^(k*r) */
+	private byte chienRows[][];
+	private int chienTerms[];
+
 	public Berlekamp(int parityBytes, int[] synBytes) {
 		this.parityBytes = parityBytes;
 		maxDeg = parityBytes * 2;
@@ -76,6 +93,19 @@ public class Berlekamp {
 
 		Lambda = new int[maxDeg];
 		Omega = new int[maxDeg];
+
+		psi = new int[maxDeg];
+		psi2 = new int[maxDeg];
+		D = new int[maxDeg];
+		gamma = new int[maxDeg];
+		gammaTmp = new int[maxDeg];
+		product = new int[maxDeg * 2];
+		multTmp = new int[maxDeg * 2];
+
+		chienRows = new byte[parityBytes + 1][];
+		for (int k = 0; k <= parityBytes; k++)
+			chienRows[k] = Galois.mul_row(Galois.gexp[k % 255]);
+		chienTerms = new int[parityBytes + 1];
 	}
 
 	/*
@@ -84,8 +114,6 @@ public class Berlekamp {
 	 */
 	private void Modified_Berlekamp_Massey() {
 		int n, L, L2, k, d, i;
-		int psi[] = new int[maxDeg], psi2[] = new int[maxDeg], D[] = new int[maxDeg];
-		int gamma[] = new int[maxDeg];
 
 		/* initialize Gamma, the erasure locator polynomial */
 		init_gamma(gamma);
@@ -105,15 +133,17 @@ public class Berlekamp {
 			if (d != 0) {
 
 				/* psi2 = psi - d*D */
+				byte[] dRow = Galois.mul_row(d);
 				for (i = 0; i < maxDeg; i++)
-					psi2[i] = psi[i] ^ Galois.gmult(d, D[i]);
+					psi2[i] = psi[i] ^ (dRow[D[i]] & 0xFF);
 
 				if (L < (n - k)) {
 					L2 = n - k;
 					k = n - L;
 					/* D = scale_poly(Galois.ginv(d), psi); */
+					byte[] invRow = Galois.mul_row(Galois.ginv(d));
 					for (i = 0; i < maxDeg; i++)
-						D[i] = Galois.gmult(psi[i], Galois.ginv(d));
+						D[i] = invRow[psi[i]] & 0xFF;
 					L = L2;
 				}
 
@@ -137,7 +167,6 @@ public class Berlekamp {
 	 */
 	private void compute_modified_omega() {
 		int i;
-		int product[] = new int[maxDeg * 2];
 
 		mult_polys(product, Lambda, synBytes);
 		zero_poly(Omega);
@@ -149,7 +178,7 @@ public class Berlekamp {
 	/* polynomial multiplication */
 	public void mult_polys(int dst[], int p1[], int p2[]) {
 		int i, j;
-		int tmp1[] = new int[maxDeg * 2];
+		int tmp1[] = multTmp;
 
 		for (i = 0; i < (maxDeg * 2); i++)
 			dst[i] = 0;
@@ -159,8 +188,9 @@ public class Berlekamp {
 				tmp1[j] = 0;
 
 			/* scale tmp1 by p1[i] */
+			byte[] row = Galois.mul_row(p1[i]);
 			for (j = 0; j < maxDeg; j++)
-				tmp1[j] = Galois.gmult(p2[j], p1[i]);
+				tmp1[j] = row[p2[j]] & 0xFF;
 			/* and mult (shift) tmp1 right by i */
 			for (j = (maxDeg * 2) - 1; j >= i; j--)
 				tmp1[j] = tmp1[j - i];
@@ -176,7 +206,7 @@ public class Berlekamp {
 	/* gamma = product (1-z*a^Ij) for erasure locs Ij */
 	private void init_gamma(int gamma[]) {
 		int e;
-		int tmp[] = new int[maxDeg];
+		int tmp[] = gammaTmp;
 
 		zero_poly(gamma);
 		zero_poly(tmp);
@@ -192,8 +222,9 @@ public class Berlekamp {
 
 	private void compute_next_omega(int d, int A[], int dst[], int src[]) {
 		int i;
+		byte[] row = Galois.mul_row(d);
 		for (i = 0; i < maxDeg; i++) {
-			dst[i] = src[i] ^ Galois.gmult(d, A[i]);
+			dst[i] = src[i] ^ (row[A[i]] & 0xFF);
 		}
 	}
 
@@ -221,8 +252,9 @@ public class Berlekamp {
 
 	public void scale_poly(int k, int poly[]) {
 		int i;
+		byte[] row = Galois.mul_row(k);
 		for (i = 0; i < maxDeg; i++)
-			poly[i] = Galois.gmult(k, poly[i]);
+			poly[i] = row[poly[i]] & 0xFF;
 	}
 
 	public void zero_poly(int poly[]) {
@@ -243,18 +275,32 @@ public class Berlekamp {
 	 * Finds all the roots of an error-locator polynomial with coefficients
 	 * Lambda[j] by evaluating Lambda at successive values of alpha.
 	 * 
+	 * This is a Chien search: the term Lambda[k] * a^(k*r) at r is the term
+	 * at r - 1 times a^k, so each step costs one table lookup per term. A
+	 * polynomial of degree L has at most L roots, so the search stops once L
+	 * have been found; if it finds fewer, there were more errors than the
+	 * parity can correct.
+	 * 
 	 * This can be tested with the decoder's equations case.
 	 */
 
 	private void Find_Roots() {
-		int sum, r, k;
+		int sum, r, k, degree;
 		NErrors = 0;
 
-		for (r = 1; r < 256; r++) {
+		degree = 0;
+		for (k = 0; k < parityBytes + 1; k++) {
+			chienTerms[k] = Lambda[k];
+			if (Lambda[k] != 0)
+				degree = k;
+		}
+
+		for (r = 1; r < 256 && NErrors < degree; r++) {
 			sum = 0;
 			/* evaluate lambda at r */
-			for (k = 0; k < parityBytes + 1; k++) {
-				sum ^= Galois.gmult(Galois.gexp[(k * r) % 255], Lambda[k]);
+			for (k = 0; k <= degree; k++) {
+				chienTerms[k] = chienRows[k][chienTerms[k]] & 0xFF;
+				sum ^= chienTerms[k];
 			}
 			if (sum == 0) {
 				ErrorLocs[NErrors] = (255 - r);
@@ -264,6 +310,7 @@ public class Berlekamp {
 							+ ", (255-r) = " + (255 - r));
 			}
 		}
+		LambdaDegree = degree;
 	}
 
 	/*
@@ -293,7 +340,7 @@ public class Berlekamp {
 		Modified_Berlekamp_Massey();
 		Find_Roots();
 
-		if ((NErrors <= parityBytes) && NErrors > 0) {
+		if ((NErrors <= parityBytes) && NErrors > 0 && NErrors == LambdaDegree) {
 
 			/* first check for illegal error locs */
 			for (r = 0; r < NErrors; r++) {
@@ -0,0 +1,119 @@
+package com.jonas.reedsolomon;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Copyright Jonas Michel (jonasrmichel@gmail.com) 2012
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Commercial licensing is available under a separate license, please contact
+ * author for details.
+ * 
+ * Source code is available at http://code.google.com/p/mobile-acoustic-modems-in-action/
+ * 
+ * 
+ * Table driven CRC-8 (polynomial x^8 + x^2 + x + 1, initial value 0xFF, no
+ * final xor), the checksum CRCGen.crc_8_ccitt computes a bit at a time.
+ * 
+ * Bytes can be added as they arrive, so a receiver can verify a frame as it
+ * is decoded. Long runs are processed eight bytes at a time with eight
+ * tables ("slicing-by-8"). The tables are shared; an instance holds only the
+ * running value and belongs to one thread at a time.
+ * 
+ */
+public class CRC8 implements Checksum {
+	private static final int INITIAL = 0xFF;
+
+	/*
+	 * TABLE[0][x] is the CRC of the byte x from a zero register; TABLE[k][x]
+	 * is that CRC followed by k zero bytes.
+	 */
+	private static final int TABLE[][] = new int[8][256];
+
+	static {
+		for (int x = 0; x < 256; x++) {
+			int crc = x;
+			for (int i = 0; i < 8; i++)
+				crc = ((crc & 0x80) != 0) ? ((crc << 1) ^ 0x07) & 0xFF
+						: (crc << 1) & 0xFF;
+			TABLE[0][x] = crc;
+		}
+		for (int k = 1; k < 8; k++)
+			for (int x = 0; x < 256; x++)
+				TABLE[k][x] = TABLE[0][TABLE[k - 1][x]];
+	}
+
+	private int crc = INITIAL;
+
+	/**
+	 * @return the CRC-8 of len bytes of msg from off
+	 */
+	public static int compute(byte[] msg, int off, int len) {
+		return update(INITIAL, msg, off, len);
+	}
+
+	private static int update(int crc, byte[] msg, int off, int len) {
+		int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+		int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+		int end = off + len;
+		for (; off + 8 <= end; off += 8) {
+			crc = t7[crc ^ (msg[off] & 0xFF)] ^ t6[msg[off + 1] & 0xFF]
+					^ t5[msg[off + 2] & 0xFF] ^ t4[msg[off + 3] & 0xFF]
+					^ t3[msg[off + 4] & 0xFF] ^ t2[msg[off + 5] & 0xFF]
+					^ t1[msg[off + 6] & 0xFF] ^ t0[msg[off + 7] & 0xFF];
+		}
+		for (; off < end; off++)
+			crc = t0[crc ^ (msg[off] & 0xFF)];
+		return crc;
+	}
+
+	public void update(int b) {
+		crc = TABLE[0][crc ^ (b & 0xFF)];
+	}
+
+	public void update(byte[] b, int off, int len) {
+		crc = update(crc, b, off, len);
+	}
+
+	/**
+	 * Adds the remaining bytes of the buffer, leaving its position at its
+	 * limit.
+	 */
+	public void update(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			int off = buffer.arrayOffset() + buffer.position();
+			update(buffer.array(), off, buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			while (buffer.hasRemaining())
+				update(buffer.get());
+		}
+	}
+
+	public long getValue() {
+		return crc;
+	}
+
+	public void reset() {
+		crc = INITIAL;
+	}
+}
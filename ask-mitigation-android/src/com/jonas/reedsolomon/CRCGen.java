@@ -48,42 +48,14 @@ public class CRCGen {
 	 * source: http://introcs.cs.princeton.edu/java/51data/CRC16CCITT.java.html
 	 */
 	public static int crc_16_ccitt(byte[] msg, int len) {
-		int crc = 0xFFFF; // initial value
-		int polynomial = 0x1021; // 0001 0000 0010 0001 (0, 5, 12)
-
-		boolean bit, c15;
-		for (int b = 0; b < len; b++) {
-			for (int i = 0; i < 8; i++) {
-				bit = ((msg[b] >> (7 - i) & 1) == 1);
-				c15 = ((crc >> 15 & 1) == 1);
-				crc <<= 1;
-				if (c15 ^ bit)
-					crc ^= polynomial;
-			}
-		}
-		crc &= 0xffff;
-		
-		return crc;
+		/* the same CRC, a byte (or eight) at a time by table lookup */
+		return CRC16.compute(msg, 0, len);
 	}
 	
 	/* Computes the CRC-8-CCITT checksum on array of byte data, length len */
 	public static byte crc_8_ccitt(byte[] msg, int len) {
-		int crc = (byte) 0xFF; // initial value
-		int polynomial = 0x07; // (0, 1, 2) : 0x07 / 0xE0 / 0x83
-
-		boolean bit, c7;
-		for (int b = 0; b < len; b++) {
-			for (int i = 0; i < 8; i++) {
-				bit = ((msg[b] >> (7 - i) & 1) == 1);
-				c7 = ((crc >> 7 & 1) == 1);
-				crc <<= 1;
-				if (c7 ^ bit)
-					crc ^= polynomial;
-			}
-		}
-		crc &= 0xffff;
-
-		return (byte) crc;
+		/* polynomial 0x07, initial value 0xFF, by table lookup */
+		return (byte) CRC8.compute(msg, 0, len);
 	}
 	
 	/* Computes the CRC-CCITT checksum on array of byte data, length len */
@@ -102,7 +74,7 @@ public class CRCGen {
 		int i;
 		data <<= 8;
 		for (i = 8; i > 0; i--) {
-			if (((data ^ accum) & 0x8000) == 1)
+			if (((data ^ accum) & 0x8000) != 0)
 				accum = (((accum << 1) ^ genpoly) & 0xFFFF);
 			else
 				accum = ((accum << 1) & 0xFFFF);
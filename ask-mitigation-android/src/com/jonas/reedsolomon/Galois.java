@@ -42,18 +42,28 @@ public class Galois {
 	 * The high order 1 bit is implicit
 	 * x^8 + x^4 + x^3 + x^2 + 1 
 	 */
-	static int kPPoly = 0x1D;
+	static final int kPPoly = 0x1D;
 	
-	static int gexp[] = new int[512];
-	static int glog[] = new int[256];
-	
-	static void init_galois_tables() {
-		/* initialize the table of powers of alpha */
+	/*
+	 * The tables are built once, when the class is loaded, and never change
+	 * afterwards, so they are shared by every RS and Berlekamp on any thread.
+	 */
+	static final int gexp[] = new int[512];
+	static final int glog[] = new int[256];
+
+	/*
+	 * The full multiplication table: gmul[a][b] is a * b. Row a is the
+	 * multiply-by-a table (see mul_row), 64 KB in all.
+	 */
+	private static final byte gmul[][] = new byte[256][256];
+
+	static {
 		init_exp_table();
+		init_mul_table();
 	}
 	
-	static void init_exp_table() {
-		int i, z;
+	private static void init_exp_table() {
+		int i;
 		int pinit, p1, p2, p3, p4, p5, p6, p7, p8;
 
 		pinit = p2 = p3 = p4 = p5 = p6 = p7 = p8 = 0;
@@ -77,24 +87,34 @@ public class Galois {
 			gexp[i + 255] = gexp[i];
 		}
 
-		for (i = 1; i < 256; i++) {
-			for (z = 0; z < 256; z++) {
-				if (gexp[z] == i) {
-					glog[i] = z;
-					break;
-				}
+		/* invert the powers, keeping the smallest exponent of each element */
+		for (i = 254; i >= 0; i--) {
+			glog[gexp[i]] = i;
+		}
+	}
+
+	private static void init_mul_table() {
+		int a, b;
+		for (a = 1; a < 256; a++) {
+			for (b = 1; b < 256; b++) {
+				gmul[a][b] = (byte) gexp[glog[a] + glog[b]];
 			}
 		}
 	}
 	
-	/* multiplication using logarithms */
+	/* multiplication by table lookup */
 	static int gmult(int a, int b) {
-		int i, j;
-		if (a == 0 || b == 0)
-			return (0);
-		i = glog[a];
-		j = glog[b];
-		return (gexp[i + j]);
+		return gmul[a][b] & 0xFF;
+	}
+
+	/*
+	 * The multiply-by-a table: (mul_row(a)[b] & 0xFF) == gmult(a, b). For
+	 * inner loops that multiply many values by the same constant, such as
+	 * the generator polynomial coefficients. The row is shared, so it must
+	 * not be written to.
+	 */
+	static byte[] mul_row(int a) {
+		return gmul[a];
 	}
 
 	static int ginv(int elt) {
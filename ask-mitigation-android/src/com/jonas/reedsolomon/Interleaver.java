@@ -1,5 +1,9 @@
 package com.jonas.reedsolomon;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Copyright Jonas Michel (jonasrmichel@gmail.com) 2012
  * 
@@ -28,35 +32,155 @@ package com.jonas.reedsolomon;
  * Source code is available at http://code.google.com/p/mobile-acoustic-modems-in-action/
  * 
  * 
- * Simple interleaver that uses a "skip factor"
+ * Block interleaver: the items are laid out in rows of depth rows, one after
+ * the other, and sent a column at a time, so items next to each other on the
+ * air come from different rows. When each row is a Reed-Solomon codeword a
+ * burst of up to depth * (errors a codeword corrects) items is spread thin
+ * enough for every codeword to correct its share.
+ * 
+ * For n items, row i holds ceil((n - i) / depth) of them and its item c is
+ * sent at c * depth + i, so any length works, not only multiples of the
+ * depth. The permutation of each length and depth is worked out once and
+ * shared; an instance holds nothing else and may be used by any thread.
  * 
  */
 public class Interleaver {
 	public static final int kSkipFactor = 4;
 
-	public static void interleave(byte[] items) {
-		int jump = (int) Math.ceil(items.length / kSkipFactor);
-		byte[] result = new byte[items.length];
-		int k = 0;
-		for (int i = 0; i < jump; ++i) {
-			for (int j = i; j < items.length; j += jump) {
-				result[k++] = items[j];
+	private static final Map<Integer, Interleaver> cache = new HashMap<Integer, Interleaver>();
+
+	private final int length;
+	private final int depth;
+
+	/* sent[j] is where item j goes on the air */
+	private final int sent[];
+
+	/* the first item of each cycle of sent, for permuting in place */
+	private final int leaders[];
+
+	/**
+	 * Returns the interleaver for the given length and depth, built the first
+	 * time it is asked for and shared afterwards.
+	 * 
+	 * @param length
+	 *            the number of items, less than 2^23
+	 * @param depth
+	 *            the number of rows, 1 to 255
+	 */
+	public static Interleaver forLength(int length, int depth) {
+		if (length < 0 || length >= 1 << 23 || depth < 1 || depth > 255)
+			throw new IllegalArgumentException("No interleaver of length "
+					+ length + " and depth " + depth);
+
+		Integer key = (length << 8) | depth;
+		synchronized (cache) {
+			Interleaver interleaver = cache.get(key);
+			if (interleaver == null) {
+				interleaver = new Interleaver(length, depth);
+				cache.put(key, interleaver);
 			}
+			return interleaver;
 		}
-		for (int i=0; i<result.length; i++)
-			items[i] = result[i];
 	}
-	
-	public static void deinterleave(byte[] items) {
-		int jump = (int) Math.ceil(items.length / kSkipFactor);
-		byte[] result = new byte[items.length];
-		int k = 0;
-		for (int i = 0; i < jump; ++i) {
-			for (int j = i; j < items.length; j += jump) {
-				result[j] = items[k++];
+
+	private Interleaver(int length, int depth) {
+		this.length = length;
+		this.depth = depth;
+
+		sent = new int[length];
+		int j = 0;
+		for (int i = 0; i < depth; i++)
+			for (int k = i; k < length; k += depth)
+				sent[j++] = k;
+
+		boolean visited[] = new boolean[length];
+		int cycles[] = new int[length];
+		int n = 0;
+		for (j = 0; j < length; j++) {
+			if (visited[j])
+				continue;
+			cycles[n++] = j;
+			for (int k = j; !visited[k]; k = sent[k])
+				visited[k] = true;
+		}
+		leaders = Arrays.copyOf(cycles, n);
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the index of the first item of the row
+	 */
+	public int getRowOffset(int row) {
+		return row * (length / depth) + Math.min(row, length % depth);
+	}
+
+	/**
+	 * @return the number of items in the row, the first length % depth rows
+	 *         holding one more than the rest
+	 */
+	public int getRowLength(int row) {
+		return length / depth + (row < length % depth ? 1 : 0);
+	}
+
+	/**
+	 * Interleaves getLength() items in place.
+	 */
+	public void interleave(byte[] items, int off) {
+		for (int s : leaders) {
+			byte carry = items[off + s];
+			int j = s;
+			do {
+				j = sent[j];
+				byte next = items[off + j];
+				items[off + j] = carry;
+				carry = next;
+			} while (j != s);
+		}
+	}
+
+	/**
+	 * Interleaves getLength() items into another buffer.
+	 */
+	public void interleave(byte[] src, int srcOff, byte[] dst, int dstOff) {
+		for (int j = 0; j < length; j++)
+			dst[dstOff + sent[j]] = src[srcOff + j];
+	}
+
+	/**
+	 * Deinterleaves getLength() items in place.
+	 */
+	public void deinterleave(byte[] items, int off) {
+		for (int s : leaders) {
+			byte first = items[off + s];
+			int j = s;
+			for (int k = sent[s]; k != s; k = sent[k]) {
+				items[off + j] = items[off + k];
+				j = k;
 			}
+			items[off + j] = first;
 		}
-		for (int i=0; i<result.length; i++)
-			items[i] = result[i];
+	}
+
+	/**
+	 * Deinterleaves getLength() items into another buffer.
+	 */
+	public void deinterleave(byte[] src, int srcOff, byte[] dst, int dstOff) {
+		for (int j = 0; j < length; j++)
+			dst[dstOff + j] = src[srcOff + sent[j]];
+	}
+
+	public static void interleave(byte[] items) {
+		forLength(items.length, kSkipFactor).interleave(items, 0);
+	}
+
+	public static void deinterleave(byte[] items) {
+		forLength(items.length, kSkipFactor).deinterleave(items, 0);
 	}
 }
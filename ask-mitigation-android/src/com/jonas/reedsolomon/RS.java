@@ -36,6 +36,16 @@ package com.jonas.reedsolomon;
  */
 
 public class RS {
+	/*
+	 * The codecs of each thread, by number of parity bytes (see forParity).
+	 */
+	private static final ThreadLocal<RS[]> cache = new ThreadLocal<RS[]>() {
+		@Override
+		protected RS[] initialValue() {
+			return new RS[256];
+		}
+	};
+
 	/*
 	 * Below is parityBytes, the only parameter you should have to
 	 * modify.
@@ -75,6 +85,38 @@ public class RS {
 	/* generator polynomial */
 	private int genPoly[];
 
+	/* multiply-by-genPoly[j] tables, for the encoder LFSR */
+	private byte genRows[][];
+
+	/* Encoder shift register */
+	private int LFSR[];
+
+	/* correct_unreliable workspaces: a trial codeword, erasure locations */
+	private byte trial[];
+	private int erasures[];
+	private int byReliability[];
+	private int reliabilityCounts[];
+
+	/**
+	 * Returns a codec with the given number of parity bytes that belongs to
+	 * the calling thread. An RS keeps the state of the last encode or decode,
+	 * so it must not be shared between threads; this hands each thread its
+	 * own, built the first time it is asked for and reused afterwards.
+	 * 
+	 * @param parityBytes
+	 *            the number of parity bytes, at most 254
+	 * @return the calling thread's codec
+	 */
+	public static RS forParity(int parityBytes) {
+		RS[] codecs = cache.get();
+		RS rs = codecs[parityBytes];
+		if (rs == null) {
+			rs = new RS(parityBytes);
+			codecs[parityBytes] = rs;
+		}
+		return rs;
+	}
+
 	public RS(int parityBytes) {
 		this.parityBytes = parityBytes;
 		maxDeg = parityBytes * 2;
@@ -82,15 +124,22 @@ public class RS {
 		pBytes = new int[maxDeg];
 		synBytes = new int[maxDeg];
 		genPoly = new int[maxDeg * 2];
+		LFSR = new int[parityBytes + 1];
+
+		trial = new byte[255];
+		erasures = new int[parityBytes];
+		byReliability = new int[255];
+		reliabilityCounts = new int[257];
 
-		/* Initialize the galois field arithmetic tables */
-		Galois.init_galois_tables();
-		
 		/* Initialize the Berlekamp tables. */
 		berlekamp = new Berlekamp(parityBytes, synBytes);
 
 		/* Compute the encoder generator polynomial */
 		compute_genpoly(parityBytes, genPoly);
+
+		genRows = new byte[parityBytes][];
+		for (int i = 0; i < parityBytes; i++)
+			genRows[i] = Galois.mul_row(genPoly[i]);
 	}
 
 	private void zero_fill_from(byte[] buf, int from, int to) {
@@ -140,11 +189,12 @@ public class RS {
 	public void decode_data(byte[] codeword, int nbytes) {
 		int i, j, sum;
 		for (j = 0; j < parityBytes; j++) {
+			/* Horner's rule at a^(j+1), one table row for every step */
+			byte[] row = Galois.mul_row(Galois.gexp[j + 1]);
 			sum = 0;
 			for (i = 0; i < nbytes; i++) {
 				// !!!: byte-ify
-				sum = (0xFF & (int) codeword[i])
-						^ Galois.gmult(Galois.gexp[j + 1], sum);
+				sum = (0xFF & (int) codeword[i]) ^ (row[sum] & 0xFF);
 			}
 			synBytes[j] = sum;
 		}
@@ -184,7 +234,8 @@ public class RS {
 
 	private void compute_genpoly(int nbytes, int genpoly[]) {
 		int i;
-		int tp[] = new int[256], tp1[] = new int[256];
+		/* Berlekamp's polynomial routines only look at the first maxDeg terms */
+		int tp[] = new int[maxDeg], tp1[] = new int[maxDeg];
 
 		/* multiply (x + a^n) for n = 1 to nbytes */
 		berlekamp.zero_poly(tp1);
@@ -210,7 +261,7 @@ public class RS {
 
 	public void encode_data(byte[] msg, int nbytes, byte[] codeword) {
 		int i;
-		int LFSR[] = new int[parityBytes + 1], dbyte, j;
+		int dbyte, j;
 
 		for (i = 0; i < parityBytes + 1; i++)
 			LFSR[i] = 0;
@@ -219,9 +270,9 @@ public class RS {
 			// !!!: byte-ify
 			dbyte = ((msg[i] ^ LFSR[parityBytes - 1]) & 0xFF);
 			for (j = parityBytes - 1; j > 0; j--) {
-				LFSR[j] = LFSR[j - 1] ^ Galois.gmult(genPoly[j], dbyte);
+				LFSR[j] = LFSR[j - 1] ^ (genRows[j][dbyte] & 0xFF);
 			}
-			LFSR[0] = Galois.gmult(genPoly[0], dbyte);
+			LFSR[0] = genRows[0][dbyte] & 0xFF;
 		}
 
 		for (i = 0; i < parityBytes; i++)
@@ -235,4 +286,85 @@ public class RS {
 		return berlekamp.correct_errors_erasures(codeword, csize, nerasures,
 				erasures);
 	}
+
+	/*
+	 * Corrects a received codeword, using how reliable each of its bytes was
+	 * when the errors alone are too many: the least reliable bytes are
+	 * declared erasures, one more at a time, as an erasure costs one parity
+	 * byte where an error costs two. Each correction is accepted only if the
+	 * corrected codeword has a zero syndrome and, with erasures, a parity byte
+	 * was left unused to check it: each try is another chance to land on a
+	 * wrong codeword.
+	 * 
+	 * reliabilities holds an unsigned byte for each byte of the codeword, the
+	 * lower the less reliable; if it is null only the errors are corrected.
+	 * 
+	 * Returns 1 if the codeword is (now) valid, or 0 if it could not be
+	 * corrected, in which case it is left as it was.
+	 */
+	public int correct_unreliable(byte[] codeword, int csize,
+			byte[] reliabilities) {
+		int i, k, n;
+
+		decode_data(codeword, csize);
+		if (check_syndrome() == 0)
+			return (1);
+		if (try_correction(codeword, csize, 0))
+			return (1);
+		if (reliabilities == null)
+			return (0);
+
+		/* the bytes from least to most reliable, a counting sort */
+		int counts[] = reliabilityCounts;
+		for (i = 0; i < 257; i++)
+			counts[i] = 0;
+		for (i = 0; i < csize; i++)
+			counts[(reliabilities[i] & 0xFF) + 1]++;
+		for (i = 1; i < 257; i++)
+			counts[i] += counts[i - 1];
+		for (i = 0; i < csize; i++)
+			byReliability[counts[reliabilities[i] & 0xFF]++] = i;
+
+		n = Math.min(parityBytes - 1, csize);
+		for (k = 1; k <= n; k++) {
+			erasures[k - 1] = csize - 1 - byReliability[k - 1];
+			if (try_correction(codeword, csize, k))
+				return (1);
+		}
+		return (0);
+	}
+
+	/*
+	 * Corrects a copy of the codeword with the first nerasures of
+	 * erasures[], and copies it back if that gives a valid codeword.
+	 */
+	private boolean try_correction(byte[] codeword, int csize, int nerasures) {
+		int i, errors;
+
+		decode_data(codeword, csize);
+		System.arraycopy(codeword, 0, trial, 0, csize);
+		if (berlekamp.correct_errors_erasures(trial, csize, nerasures,
+				erasures) == 0)
+			return false;
+
+		if (nerasures > 0) {
+			/* the errors found besides the erasures */
+			errors = 0;
+			for (i = 0; i < csize; i++)
+				if (trial[i] != codeword[i])
+					errors++;
+			for (i = 0; i < nerasures; i++)
+				if (trial[csize - 1 - erasures[i]] != codeword[csize - 1 - erasures[i]])
+					errors--;
+			if (2 * errors + nerasures >= parityBytes)
+				return false;
+		}
+
+		decode_data(trial, csize);
+		if (check_syndrome() != 0)
+			return false;
+
+		System.arraycopy(trial, 0, codeword, 0, csize);
+		return true;
+	}
 }
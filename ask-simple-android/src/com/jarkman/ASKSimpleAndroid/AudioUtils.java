@@ -184,14 +184,22 @@ public class AudioUtils {
 
     public static void performFile(File file) 
 	throws IOException {
-	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-	Encoder.encodeStream(new FileInputStream(file), baos);
+	//size the output up front so it is never copied to grow
+	ByteArrayOutputStream baos = 
+	    new ByteArrayOutputStream(Encoder.getEncodedLength((int)file.length()));
+	InputStream input = new FileInputStream(file);
+	try {
+	    Encoder.encodeStream(input, baos);
+	} finally {
+	    input.close();
+	}
 	performData(baos.toByteArray());
     }
     
     public static void performArray(byte[] array) 
 	throws IOException {
-	ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	ByteArrayOutputStream baos = 
+	    new ByteArrayOutputStream(Encoder.getEncodedLength(array.length));
 	Encoder.encodeStream(new ByteArrayInputStream(array), baos);
 	performData(baos.toByteArray());
     }
@@ -37,6 +37,9 @@ public interface Constants {
   // The length, in durations, of the key sequence
   public static final int kDurationsPerKey = 3; 
 
+  // The number of samples the AudioBuffer can hold, a power of two (about 3 seconds)
+  public static final int kAudioBufferCapacity = 1 << 15;
+
   //The frequency used in the initial hail of the key
   public static final int kHailFrequency = 3000;
 
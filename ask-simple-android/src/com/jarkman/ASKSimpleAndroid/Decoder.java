@@ -19,6 +19,11 @@ import java.util.Vector;
  */
 public class Decoder implements Constants {
 
+    // The weakest hail correlation that is accepted as a key sequence
+    private static final double kAcceptedHailSignal = 0.01;
+
+    private static final SlidingDft kHailTracker = new SlidingDft(kHailFrequency, kSamplesPerDuration, kSamplingFrequency);
+
     /**
      * @param signal the audio samples to search
      * @param signalStrengths this will be filled in with the strengths for each frequency (NOTE THIS SIDE EFFECT)
@@ -26,15 +31,25 @@ public class Decoder implements Constants {
      * @return the index in signal of the key sequence, or -1 if it wasn't found (in which case signalStrengths is trashed)
      */
     public static int findKeySequence(byte[] signal, double[] signalStrengths, int granularity){
+	return findKeySequence(signal, 0, signal.length, signalStrengths, granularity);
+    }
+
+    /**
+     * @param signal the array holding the audio samples to search
+     * @param offset the index in signal of the first sample to search
+     * @param length the number of samples to search
+     * @param signalStrengths this will be filled in with the strengths for each frequency (NOTE THIS SIDE EFFECT)
+     * @param granularity a correlation will be determined every granularity samples (lower is slower)
+     * @return the index, relative to offset, of the key sequence, or -1 if it wasn't found
+     */
+    public static int findKeySequence(byte[] signal, int offset, int length, double[] signalStrengths, int granularity){
 	int maxCorrelationIndex = -1;
 	double maxCorrelation = -1;
 	double minSignal = 0.003;
-	double acceptedSignal = 0.01;
 	int i=0;
-	for(i = 0; i <= signal.length - kSamplesPerDuration; i += granularity){ 
+	for(i = 0; i <= length - kSamplesPerDuration; i += granularity){ 
 	    //test the correlation
-	    byte[] partialSignal = ArrayUtils.subarray(signal, i, kSamplesPerDuration);
-	    double corr = complexDetect(partialSignal, Constants.kHailFrequency) /* * 4 */;
+	    double corr = complexDetect(signal, offset + i, kSamplesPerDuration, Constants.kHailFrequency) /* * 4 */;
 	    //	    System.out.println("Correlation at " + i + ":" + corr);
 	    if (corr > maxCorrelation){
 		maxCorrelation = corr;
@@ -46,7 +61,7 @@ public class Decoder implements Constants {
 	}
 
 	//System.out.println("Searched to index:" + i);
-	if (maxCorrelation < acceptedSignal && maxCorrelation > -1){
+	if (maxCorrelation < kAcceptedHailSignal && maxCorrelation > -1){
 	    //System.out.println("Best Correlation:" + maxCorrelation);
 	    maxCorrelationIndex = -1;
 	}
@@ -61,13 +76,42 @@ public class Decoder implements Constants {
 	return maxCorrelationIndex;
     }
 
+    /**
+     * Finds the hail of the key sequence with sample accuracy, following its correlation 
+     * at every position of the search range in a single pass.
+     * @param signal the array holding the audio samples to search
+     * @param offset the index in signal of the first sample to search
+     * @param length the number of samples to search
+     * @param hailStrength hailStrength[0] will be filled in with the strength of the hail at the returned index
+     * @return the index, relative to offset, where the hail is strongest, or -1 if it wasn't found.
+     * If the index is length - kSamplesPerDuration the hail may get stronger past the end of the range.
+     */
+    public static int findHail(byte[] signal, int offset, int length, double[] hailStrength){
+	int index = kHailTracker.findPeak(signal, offset, length, hailStrength);
+	if(hailStrength[0] < kAcceptedHailSignal){
+	    return -1;
+	}
+	return index;
+    }
+
     /**
      * @param startSignals the signal strengths of each of the frequencies
      * @param samples the samples
      * @return the decoded bytes
      */
     public static byte[] decode(double[] startSignals, byte[] samples){
-	return decode(startSignals, getSignalStrengths(samples));
+	return decode(startSignals, samples, 0, samples.length);
+    }
+
+    /**
+     * @param startSignals the signal strengths of each of the frequencies
+     * @param samples the array holding the samples
+     * @param offset the index in samples of the first sample to decode
+     * @param length the number of samples to decode
+     * @return the decoded bytes
+     */
+    public static byte[] decode(double[] startSignals, byte[] samples, int offset, int length){
+	return decode(startSignals, getSignalStrengths(samples, offset, length));
     }
 
     /**
@@ -104,24 +148,26 @@ public class Decoder implements Constants {
 
     /**
      * @param input audio sample array
+     * @param offset the index in input of the first sample
+     * @param length the number of samples to use
      * @return the signal strengths of each frequency in each duration: [signal strength][duration index]
      */
-    private static double[][] getSignalStrengths(byte[] input){
+    private static double[][] getSignalStrengths(byte[] input, int offset, int length){
 	//detect the signal strength of each frequency in each duration
-	int durations = input.length / kSamplesPerDuration;
+	int durations = length / kSamplesPerDuration;
 
 	// rows are durations, cols are bit strengths
 	double[][] signal = new double[kBitsPerByte * kBytesPerDuration][durations]; 
 
 	//for each duration, check each bit for representation in the input
 	for(int i=0; i < durations; i++){
-	    //separate this duration's input into its own array
-	    byte[] durationInput = ArrayUtils.subarray(input, i * kSamplesPerDuration, kSamplesPerDuration);
+	    //this duration's input starts here
+	    int durationOffset = offset + (i * kSamplesPerDuration);
 
 	    //for each bit represented, detect
 	    for(int j = 0; j < kBitsPerByte * kBytesPerDuration; j++){
 		signal[j][i] = 
-		    complexDetect(durationInput, Encoder.getFrequency(j));
+		    complexDetect(input, durationOffset, kSamplesPerDuration, Encoder.getFrequency(j));
 		/*
 		if (j == 0) 
 		  System.out.println("\nsignal[" + j + "][" + i + "]=" + signal [j][i]);
@@ -134,20 +180,29 @@ public class Decoder implements Constants {
     }
 
     public static void getKeySignalStrengths(byte[] signal, double[] signalStrengths){
-	byte[] partialSignal = ArrayUtils.subarray(signal, 0, kSamplesPerDuration);
+	getKeySignalStrengths(ArrayUtils.subarray(signal, 0, 2 * kSamplesPerDuration), 0, signalStrengths);
+    }
+
+    /**
+     * @param signal the array holding the two calibration durations
+     * @param offset the index in signal of the first calibration duration
+     * @param signalStrengths this will be filled in with the strengths for each frequency
+     */
+    public static void getKeySignalStrengths(byte[] signal, int offset, double[] signalStrengths){
 	for(int j = 1; j < kBitsPerByte * kBytesPerDuration; j += 2){
-	    signalStrengths[j] = complexDetect(partialSignal, Encoder.getFrequency(j));
+	    signalStrengths[j] = complexDetect(signal, offset, kSamplesPerDuration, Encoder.getFrequency(j));
 	}
 	
-	byte[] partialSignal2 = ArrayUtils.subarray(signal, kSamplesPerDuration, kSamplesPerDuration);
 	for(int j = 0; j < kBitsPerByte * kBytesPerDuration; j += 2){
-	    signalStrengths[j] = complexDetect(partialSignal2, Encoder.getFrequency(j));
+	    signalStrengths[j] = complexDetect(signal, offset + kSamplesPerDuration, kSamplesPerDuration, Encoder.getFrequency(j));
 	    //System.out.println(signalStrengths[j]);
 	}
     }
 
     /**
      * @param signal audio samples
+     * @param offset the index in signal of the first sample to correlate
+     * @param length the number of samples to correlate
      * @param frequence the frequency to search for in signal
      * @return the strength of the correlation of the frequency in the signal
      */
@@ -245,20 +300,20 @@ public class Decoder implements Constants {
     */
     
     // original implementaiton from ask-simple-java :
-    private static double complexDetect(byte[] signal, double frequency){
+    private static double complexDetect(byte[] signal, int offset, int length, double frequency){
     	double realSum = 0;
     	double imaginarySum = 0;
     	double u = 2 * Math.PI * frequency / kSamplingFrequency;
     	// y = e^(ju) = cos(u) + j * sin(u) 
 
-    	for(int i = 0; i < signal.length; i++){
+    	for(int i = 0; i < length; i++){
     	  //System.out.println("signal[" +i +"]: " +signal[i] + "; convert: " + (signal[i])/(float)Constants.kFloatToByteShift);
-    	    realSum = realSum + (Math.cos(i * u) * (signal[i]/(float)Constants.kFloatToByteShift));
-    	    imaginarySum = imaginarySum + (Math.sin(i * u) * (signal[i]/(float)Constants.kFloatToByteShift));
+    	    realSum = realSum + (Math.cos(i * u) * (signal[offset + i]/(float)Constants.kFloatToByteShift));
+    	    imaginarySum = imaginarySum + (Math.sin(i * u) * (signal[offset + i]/(float)Constants.kFloatToByteShift));
     	}
     	//System.out.println("realSum=" + realSum + "; imSum=" + imaginarySum);
-     	double realAve = realSum/signal.length;
-     	double imaginaryAve = imaginarySum/signal.length;
+     	double realAve = realSum/length;
+     	double imaginaryAve = imaginarySum/length;
 //       	System.out.println("u:" + u + " realAve:" + realAve + " imaginaryAve:" + imaginaryAve 
 //       			   + " \r\nfrequency:" + frequency + " signal.length:" + signal.length
 //       			   + " realSum:" + realSum + " imaginarySum:" + imaginarySum 
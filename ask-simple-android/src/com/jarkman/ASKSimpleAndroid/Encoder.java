@@ -16,8 +16,37 @@ import java.io.*;
  */
 public class Encoder implements Constants {
 
+    // The number of input bytes encodeStream reads from its input at a time
+    private static final int kBytesPerRead = 4096;
+
+    // kTones[b][l] is sample l of the unwindowed sinusoid for bit position b
+    private static final double[][] kTones =
+	new double[kBytesPerDuration * kBitsPerByte][kSamplesPerDuration];
+
+    // kWindow[l] is the smoothWindow gain of sample l (see smoothWindow)
+    private static final double[] kWindow = new double[kSamplesPerDuration];
+
+    private static final byte[] kHailSequence;
+    private static final byte[] kCalibrationSequence;
+
+    static {
+	for(int b = 0; b < kTones.length; b++){
+	    //a sinusoid of getFrequency(b), amplitude kAmplitude and duration kDuration
+	    double innerMultiplier = getFrequency(b) 
+		* (1 / kSamplingFrequency) * 2 * Math.PI;
+	    for(int l = 0; l < kSamplesPerDuration; l++){
+		kTones[b][l] = kAmplitude * Math.cos(innerMultiplier * l);
+	    }
+	}
+	smoothWindow(kWindow);
+	kHailSequence = getHailSequence();
+	kCalibrationSequence = getCalibrationSequence();
+    }
+
     /**
      * encodeStream is the public function of class Encoder.
+     * The tones, the hail and the calibration sequence are computed once, 
+     * so apart from a few buffers per call nothing is allocated.
      * @param input the stream of bytes to encode
      * @param output the stream of audio samples representing the input, 
      *               prefixed with an hail signal and a calibration signal
@@ -31,26 +60,46 @@ public class Encoder implements Constants {
 	
 	//write out the hail and calibration sequences
 	output.write(zeros);
-	output.write(getHailSequence());
-	output.write(getCalibrationSequence());
+	output.write(kHailSequence);
+	output.write(kCalibrationSequence);
 
-	//now write the data
+	//now write the data, kBytesPerDuration bytes to a duration
+	double[] signal = new double[kSamplesPerDuration];
+	byte[] samples = new byte[kSamplesPerDuration];
+	byte[] buff = new byte[kBytesPerRead];
+	int pending = 0;
 	int read = 0;
-	byte[] buff = new byte[kBytesPerDuration];
-	while( (read = input.read(buff)) == kBytesPerDuration){
-	    output.write(Encoder.encodeDuration(buff));
+	while( (read = input.read(buff, pending, buff.length - pending)) > 0){
+	    int available = pending + read;
+	    int whole = available - (available % kBytesPerDuration);
+	    for(int i = 0; i < whole; i += kBytesPerDuration){
+		encodeDuration(buff, i, signal, samples);
+		output.write(samples);
+	    }
+	    pending = available - whole;
+	    System.arraycopy(buff, whole, buff, 0, pending);
 	}
-	if(read > 0){
-	    for(int i=read; i < kBytesPerDuration; i++){
+	if(pending > 0){
+	    for(int i=pending; i < kBytesPerDuration; i++){
 		buff[i] = 0;
 	    }
-	    output.write(Encoder.encodeDuration(buff));
+	    encodeDuration(buff, 0, signal, samples);
+	    output.write(samples);
 	}
 	
 	   System.out.println("encodeStream ends");
 	   
     }
 
+    /**
+     * @param inputLength the number of bytes given to encodeStream
+     * @return the number of audio samples encodeStream writes for them
+     */
+    public static int getEncodedLength(int inputLength){
+	int durations = (inputLength + kBytesPerDuration - 1) / kBytesPerDuration;
+	return (4 + durations) * kSamplesPerDuration;
+    }
+
     /**
      * @param bitPosition the position in the kBytesPerDuration wide byte array for which you want a frequency
      * @return the frequency in which to sound to indicate a 1 for this bitPosition
@@ -67,28 +116,34 @@ public class Encoder implements Constants {
     */
 
     /**
-     * @param input a kBytesPerDuration long array of bytes to encode
-     * @return an array of audio samples of type AudioUtil.kDefaultFormat
+     * @param input an array holding the kBytesPerDuration bytes to encode
+     * @param offset the index in input of the first byte to encode
+     * @param signal a kSamplesPerDuration long scratch array
+     * @param samples receives the audio samples of type AudioUtil.kDefaultFormat
      */
-    private static byte[] encodeDuration(byte[] input){
-	double[] signal = new double[kSamplesPerDuration];
+    private static void encodeDuration(byte[] input, int offset, double[] signal, byte[] samples){
+	for(int l = 0; l < signal.length; l++){
+	    signal[l] = 0;
+	}
 	for(int j = 0; j < kBytesPerDuration; j++){
 	    for(int k = 0; k < kBitsPerByte; k++){
-		if( ((input[j] >> k) & 0x1) == 0 ){ 
+		if( ((input[offset + j] >> k) & 0x1) == 0 ){ 
 		    //no need to go through encoding a zero
 		    continue;
 		}
 
-		//add a sinusoid of getFrequency(j), amplitude kAmplitude and duration kDuration
-		double innerMultiplier = getFrequency((j * kBitsPerByte) + k) 
-		    * (1 / kSamplingFrequency) * 2 * Math.PI;
+		//add the sinusoid of getFrequency(j), amplitude kAmplitude and duration kDuration
+		double[] tone = kTones[(j * kBitsPerByte) + k];
 		for(int l = 0; l < signal.length; l++){
-		    signal[l] = signal[l] + (kAmplitude * Math.cos(innerMultiplier * l)); 
+		    signal[l] = signal[l] + tone[l]; 
 		}
 	    }
 	}
+	for(int l = 0; l < signal.length; l++){
+	    signal[l] = signal[l] * kWindow[l];
+	}
 	
-	return ArrayUtils.getByteArrayFromDoubleArray(smoothWindow(signal));
+	ArrayUtils.getByteArrayFromDoubleArray(signal, samples);
     }
 
     /**
@@ -99,9 +154,9 @@ public class Encoder implements Constants {
 	//add a sinusoid of the hail frequency, amplitude kAmplitude and duration kDuration
 	double innerMultiplier = Constants.kHailFrequency * (1 / kSamplingFrequency) * 2 * Math.PI;
 	for(int l = 0; l < signal.length; l++){
-	  signal[l] = /*kAmplitude **/ Math.cos(innerMultiplier * l); 
+	  signal[l] = /*kAmplitude **/ Math.cos(innerMultiplier * l) * kWindow[l]; 
 	}
-	return ArrayUtils.getByteArrayFromDoubleArray(smoothWindow(signal, 0.3));
+	return ArrayUtils.getByteArrayFromDoubleArray(signal);
     }
 
     /**
@@ -109,22 +164,19 @@ public class Encoder implements Constants {
      */
     private static byte[] getCalibrationSequence(){
 	byte[] results = new byte[2 * kSamplesPerDuration];
- 	byte[] inputBytes1 = new byte[kBytesPerDuration];
- 	byte[] inputBytes2 = new byte[kBytesPerDuration];
+	byte[] inputBytes = new byte[2 * kBytesPerDuration];
 	for(int i=0; i < kBytesPerDuration; i++){
-	    inputBytes1[i] = (byte)0xAA;
-	    inputBytes2[i] = (byte)0x55;
+	    inputBytes[i] = (byte)0xAA;
+	    inputBytes[i + kBytesPerDuration] = (byte)0x55;
 	}
 
-	//encode inputBytes1 and 2 in sequence
-	byte[] partialResult = encodeDuration(inputBytes1 );
-	for(int k = 0; k < kSamplesPerDuration; k++){
-	    results[k] = partialResult[k];
-	}
-	partialResult = encodeDuration(inputBytes2);
-	for(int k = 0; k < kSamplesPerDuration; k++){
-	    results[k + kSamplesPerDuration] = partialResult[k];
-	}
+	//encode 0xAA and 0x55 in sequence
+	double[] signal = new double[kSamplesPerDuration];
+	byte[] partialResult = new byte[kSamplesPerDuration];
+	encodeDuration(inputBytes, 0, signal, partialResult);
+	System.arraycopy(partialResult, 0, results, 0, kSamplesPerDuration);
+	encodeDuration(inputBytes, kBytesPerDuration, signal, partialResult);
+	System.arraycopy(partialResult, 0, results, kSamplesPerDuration, kSamplesPerDuration);
 
 	return results;
     }
@@ -139,39 +191,25 @@ public class Encoder implements Constants {
       *   +--|-------------------|--+---
       *     0.01              0.09  0.1  time
       * 
-      * It is used to smooth the edges of the signal in each duration 
-      *
+      * It is used to smooth the edges of the signal in each duration.
+      * The gains are filled into window once and multiplied into each 
+      * duration; the middle gain is exactly 1 so those samples are untouched.
       */
-     private static double[] smoothWindow(double[] input, double magicScalingNumber){
-	 double[] smoothWindow = new double[input.length];
-	 double minVal = 0;
-	 double maxVal = 0;
-	 int peaks = (int)(input.length * 0.1);
+     private static void smoothWindow(double[] window){
+	 int peaks = (int)(window.length * 0.1);
 	 double steppingValue = 1 / (double)peaks;
-	 for (int i=0; i<smoothWindow.length; i++){
+	 for (int i=0; i<window.length; i++){
 	     if (i < peaks){
-	       smoothWindow[i] = input[i] * (steppingValue * i) /* / magicScalingNumber*/;
-	     } else if ( i > input.length - peaks){
-	       smoothWindow[i] = input[i] * (steppingValue * (input.length - i - 1)) /* / magicScalingNumber */;
+	       window[i] = (steppingValue * i);
+	     } else if ( i > window.length - peaks){
+	       window[i] = (steppingValue * (window.length - i - 1));
 	     } else {
 		 //don't touch the middle values
-	       smoothWindow[i] = input[i] /* / magicScalingNumber */;
+	       window[i] = 1;
 	     }
- 	    if (smoothWindow[i] < minVal){
- 		minVal = smoothWindow[i];
- 	    }
- 	    if(smoothWindow[i] > maxVal){
- 		maxVal = smoothWindow[i];
- 	    }
 	 }
-	 return smoothWindow;
      }
 
-    private static double[] smoothWindow(double[] input){
-	double magicScalingNumber = 0.8;
-	return smoothWindow(input, magicScalingNumber);
-    }
-
     /**
      * This isn't used at the moment, but it does sound nice
      */
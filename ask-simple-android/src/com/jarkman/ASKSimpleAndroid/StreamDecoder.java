@@ -70,29 +70,27 @@ public class StreamDecoder implements Runnable {
 	
 	boolean hasEOF = false;
 	double[] startSignals = new double[Constants.kBitsPerByte * Constants.kBytesPerDuration];
-	boolean notEnoughSamples = true;
-	byte samples[] = null;
+	double[] hailStrength = new double[1];
+	byte samples[] = buffer.getArray(); // the buffer is read in place, at the offsets returned by peek
+	int offset = -1;
+	int length = 0;
 
 	hasKey = false;
 	
 	while(running)
 	{
-	  notEnoughSamples = true;
-	  while (notEnoughSamples) 
-	  {
-	    samples = buffer.read(Constants.kSamplesPerDuration * durationsToRead);
-	    if (samples != null)
-	    	notEnoughSamples = false;
-	    else 
-	    	Thread.yield();
+	  length = Constants.kSamplesPerDuration * durationsToRead;
+	  offset = buffer.awaitSamples(length);
+	  if(offset < 0){ //the buffer was closed, so there is nothing more to decode
+	    break;
 	  }
 	  
 	  if(hasKey)
 	  { //we found the key, so decode this duration
-	    byte[] decoded = Decoder.decode(startSignals, samples);
+	    byte[] decoded = Decoder.decode(startSignals, samples, offset, length);
 	    try {
-	      buffer.delete(samples.length);
-	      deletedSamples += samples.length;
+	      buffer.delete(length);
+	      deletedSamples += length;
 		  out.write(decoded);
 		  
 		  System.out.println("decoded " + decoded.length + " bytes");
@@ -106,67 +104,32 @@ public class StreamDecoder implements Runnable {
 	      System.out.println("Exception while decoding:" + e);
 	      break;
 	    }
-
-	    try{ 
-	      //this provides the audio sampling mechanism a chance to maintain continuity
-	      Thread.sleep(10); 
-	    } catch(InterruptedException e){
-	      System.out.println("Stream Decoding thread interrupted:" + e);
-	      break;
-	    }
 	    continue;
 	  }
 
 	  //we don't have the key, so we are in key detection mode from this point on
-	  int initialGranularity = 400;
-	  int finalGranularity = 20;
-	  //System.out.println("Search Start: " + deletedSamples + " End: " + (deletedSamples + samples.length));
+	  //System.out.println("Search Start: " + deletedSamples + " End: " + (deletedSamples + length));
 	  //System.out.println("Search Time: " + ((float)deletedSamples / Constants.kSamplingFrequency) + " End: " 
-	  //		       + ((float)(deletedSamples + samples.length) / Constants.kSamplingFrequency));
-	  int startIndex = Decoder.findKeySequence(samples, startSignals, initialGranularity);
+	  //		       + ((float)(deletedSamples + length) / Constants.kSamplingFrequency));
+	  int startIndex = Decoder.findHail(samples, offset, length, hailStrength);
+	  if(startIndex == length - Constants.kSamplesPerDuration)
+	  { //the hail may still get stronger past the samples we have, so search again from here
+	    try { buffer.delete(startIndex);} catch (IOException e){}
+	    deletedSamples += startIndex;
+	    continue;
+	  }
 	  if(startIndex > -1)
 	  {
-	    System.out.println("\nRough Start Index: " + (deletedSamples + startIndex));
-	    //System.out.println("Rough Start Time: " 
-	    //	   + (deletedSamples + startIndex) / (float)Constants.kSamplingFrequency);
-
-	    int shiftAmount = startIndex /* - (Constants.kSamplesPerDuration)*/; 
-	    if(shiftAmount < 0){
-	      shiftAmount = 0;
-	    }
-	    System.out.println("Shift amount: " + shiftAmount);
-	    try { buffer.delete(shiftAmount);} catch (IOException e){}
-	    deletedSamples += shiftAmount;
-	    
-	    durationsToRead = Constants.kDurationsPerKey ;
-	    notEnoughSamples = true;
-	    while (notEnoughSamples) {
-	      samples = buffer.read(Constants.kSamplesPerDuration * durationsToRead);
-	      if (samples != null)
-		notEnoughSamples = false;
-	      else Thread.yield();
-	    }
-
-	    //System.out.println("Search Start: " + deletedSamples + " End: " + (deletedSamples + samples.length));
-	    //System.out.println("Search Time: " + ((float)deletedSamples / Constants.kSamplesPerDuration) + " End: " 
-	    //		   + ((float)(deletedSamples + samples.length) / Constants.kSamplingFrequency));
-	    
-	    startIndex = Decoder.findKeySequence(samples, startSignals, finalGranularity);
-	    System.out.println("Refined Start Index: " + (deletedSamples + startIndex));
+	    System.out.println("\nStart Index: " + (deletedSamples + startIndex));
 	    //System.out.println("Start Time: " + 
 	    //	   (deletedSamples + startIndex) / (float)Constants.kSamplingFrequency);
 	    try {
-	      notEnoughSamples = true;
-	      while (notEnoughSamples) {
-		samples = buffer.read(startIndex + (Constants.kSamplesPerDuration * Constants.kDurationsPerKey));
-		if (samples != null)
-		  notEnoughSamples = false;
-		else Thread.yield();
+	      offset = buffer.awaitSamples(startIndex + (Constants.kSamplesPerDuration * Constants.kDurationsPerKey));
+	      if(offset < 0){
+		break;
 	      }
 		  
-	      samples = ArrayUtils.subarray(samples, startIndex + Constants.kSamplesPerDuration, 
-						  2 * Constants.kSamplesPerDuration);
-	      Decoder.getKeySignalStrengths(samples, startSignals);
+	      Decoder.getKeySignalStrengths(samples, offset + startIndex + Constants.kSamplesPerDuration, startSignals);
 	      /*
 		System.out.println(" f(0): " + startSignals[0] + " f(1): " + startSignals[1] +
 		" f(2): " + startSignals[2] + " f(3): " + startSignals[3] +
@@ -184,9 +147,11 @@ public class StreamDecoder implements Runnable {
 	    
 	    durationsToRead = 1;
 	  } else {
+	    //every position of the hail up to here has been searched
+	    int searched = length - Constants.kSamplesPerDuration + 1;
 	    try {
-	      buffer.delete(Constants.kSamplesPerDuration);
-	      deletedSamples += Constants.kSamplesPerDuration;
+	      buffer.delete(searched);
+	      deletedSamples += searched;
 	    } catch (IOException e){}
 	  }
 	}
@@ -196,5 +161,6 @@ public class StreamDecoder implements Runnable {
 	synchronized(runLock){
 	    running = false;
 	}
+	buffer.close(); // wakes the decoding thread if it is waiting for samples
     }
 }
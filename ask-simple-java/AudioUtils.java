@@ -44,6 +44,8 @@ public class AudioUtils {
 	IOException {
 	StreamDecoder sDecoder = new StreamDecoder(out);
 	AudioBuffer aBuffer = sDecoder.getAudioBuffer();
+	//the file can be read much faster than it can be decoded, so wait for room rather than dropping samples
+	aBuffer.setOverflowPolicy(AudioBuffer.kOverflowBlock);
 
 	AudioInputStream audioInputStream = 
 	    AudioSystem.getAudioInputStream(kDefaultFormat, 
@@ -64,6 +66,8 @@ public class AudioUtils {
 	  */
 	    aBuffer.write(audioBytes, 0, numBytesRead);
 	}
+	//the decoder finishes what is left in the buffer and then stops
+	aBuffer.close();
     }
 
     public static void writeWav(File file, byte[] data, AudioFormat format)
@@ -171,11 +175,23 @@ public class AudioUtils {
 	return (SourceDataLine) AudioSystem.getLine(info);
     }
 
+    /**
+     * Encodes the file straight into the wav, a duration at a time, so any 
+     * length of input can be encoded in constant memory.
+     */
     public static void encodeFileToWav(File inputFile, File outputFile)
 	throws IOException {
-	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-	Encoder.encodeStream(new FileInputStream(inputFile), baos);
-	writeWav(outputFile, baos.toByteArray(), kDefaultFormat);
+	InputStream input = new FileInputStream(inputFile);
+	try {
+	    WavWriter wav = new WavWriter(outputFile, kDefaultFormat);
+	    try {
+		Encoder.encodeStream(input, wav);
+	    } finally {
+		wav.close();
+	    }
+	} finally {
+	    input.close();
+	}
     }
 
     public static void performData(byte[] data)
@@ -202,10 +218,58 @@ public class AudioUtils {
 	line.close();
     }
 
+    /**
+     * Plays the encoding of the file as it is produced, rather than encoding
+     * all of it first.
+     */
     public static void performFile(File file) 
 	throws IOException {
-	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-	Encoder.encodeStream(new FileInputStream(file), baos);
-	performData(baos.toByteArray());
+	SourceDataLine line = null;
+	try {
+	    line = getSourceDataLine(kDefaultFormat);
+	    line.open(kDefaultFormat);
+	} catch (LineUnavailableException ex) {
+	    System.out.println("Line Unavailable: " + ex);
+	    return;
+	}
+	line.start();
+	InputStream input = new FileInputStream(file);
+	try {
+	    Encoder.encodeStream(input, new LineOutputStream(line));
+	} finally {
+	    input.close();
+	}
+	line.drain();
+	line.stop();
+	line.close();
+    }
+
+    /**
+     * Writes to a SourceDataLine through a copy, 
+     * since line.write seems to affect the data (see performData).
+     */
+    private static class LineOutputStream extends OutputStream {
+
+	private final SourceDataLine line;
+	private final byte[] copy = new byte[Encoder.kSamplesPerDuration];
+
+	LineOutputStream(SourceDataLine _line){
+	    line = _line;
+	}
+
+	public void write(int b){
+	    copy[0] = (byte)b;
+	    line.write(copy, 0, 1);
+	}
+
+	public void write(byte[] data, int offset, int length){
+	    while(length > 0){
+		int count = Math.min(length, copy.length);
+		System.arraycopy(data, offset, copy, 0, count);
+		line.write(copy, 0, count);
+		offset += count;
+		length -= count;
+	    }
+	}
     }
 }
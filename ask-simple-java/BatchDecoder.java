@@ -0,0 +1,349 @@
+/**
+ * Copyright 2002 by the authors. All rights reserved.
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+
+ */
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes a wav file on the calling thread, for re-decoding recordings offline.
+ * The PCM data of the file is memory mapped and decoded the same way 
+ * StreamDecoder decodes the AudioBuffer, but there is no thread to start and 
+ * no buffer to fill: decode returns once every sample has been looked at.
+ *
+ * The samples are converted to signed bytes a window at a time, so the heap 
+ * used does not depend on the length of the file.
+ *
+ * Once a key sequence is found the durations that follow are independent of 
+ * each other, so they are decoded in batches spread over a ForkJoinPool (the 
+ * common pool, or the pool of the calling task) and written out in order, up 
+ * to the first duration with no signal, as StreamDecoder stops.
+ *
+ * Each call decodes with its own BatchDecoder, so files can be decoded on 
+ * several threads at once (see DirectoryDecoder).
+ *
+ * Only the format the Encoder writes, AudioUtils.kDefaultFormat stored as an 
+ * 8 bit mono wav, is read; anything else is left to AudioUtils.decodeWavFile.
+ */
+public class BatchDecoder {
+
+    // The number of samples converted into the window at a time
+    private static final int kWindowLength = Constants.kAudioBufferCapacity;
+
+    // The number of durations one task converts and decodes
+    private static final int kDurationsPerTask = 16;
+
+    // The most durations decoded at once, across the pool.
+    // Batches start at kDurationsPerTask after each key and double while the 
+    // message goes on, so a short message is not followed by much wasted work.
+    private static final int kMaxDurationsPerBatch = 64 * kDurationsPerTask;
+
+    // The most samples mapped at a time
+    private static final long kMapLength = 1L << 28;
+
+    private final FileChannel channel;
+    private final PrintStream log;
+    private final long dataOffset; // the file position of the first sample
+    private final long dataLength; // the number of samples
+
+    private MappedByteBuffer map = null;
+    private long mapStart = 0;
+    private final byte[] window = new byte[kWindowLength];
+    private byte[] batch = null; // the signed samples of the batch being decoded, grown as batches grow
+    private long windowStart = 0;
+    private int windowLength = 0;
+
+    /**
+     * Decodes the wav file and writes the decoded bytes to out, 
+     * printing where each key sequence starts to System.out
+     * @param inputFile an 8 bit mono wav file sampled at Constants.kSamplingFrequency
+     * @param out the OutputStream which will receive the decoded data
+     * @return the number of samples in the file
+     * @throws UnsupportedAudioFileException if the file is not a wav file in that format
+     */
+    public static long decodeWavFile(File inputFile, OutputStream out)
+	throws UnsupportedAudioFileException,
+	IOException {
+	return decodeWavFile(inputFile, out, System.out);
+    }
+
+    /**
+     * Decodes the wav file and writes the decoded bytes to out
+     * @param inputFile an 8 bit mono wav file sampled at Constants.kSamplingFrequency
+     * @param out the OutputStream which will receive the decoded data
+     * @param log receives where each key sequence starts, or null for nothing
+     * @return the number of samples in the file
+     * @throws UnsupportedAudioFileException if the file is not a wav file in that format
+     */
+    public static long decodeWavFile(File inputFile, OutputStream out, PrintStream log)
+	throws UnsupportedAudioFileException,
+	IOException {
+	RandomAccessFile file = new RandomAccessFile(inputFile, "r");
+	try {
+	    BatchDecoder decoder = new BatchDecoder(file.getChannel(), log);
+	    decoder.decode(out);
+	    return decoder.dataLength;
+	} finally {
+	    file.close();
+	}
+    }
+
+    private BatchDecoder(FileChannel _channel, PrintStream _log)
+	throws UnsupportedAudioFileException,
+	IOException {
+	channel = _channel;
+	log = _log;
+
+	ByteBuffer header = ByteBuffer.allocate(16);
+	header.order(ByteOrder.LITTLE_ENDIAN);
+	if(channel.size() < 12){
+	    throw new UnsupportedAudioFileException("not a wav file");
+	}
+	readFully(header, 0, 12);
+	if(header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157){ // "RIFF", "WAVE"
+	    throw new UnsupportedAudioFileException("not a wav file");
+	}
+
+	//walk the chunks to the data, checking the format on the way
+	boolean hasFormat = false;
+	long position = 12;
+	long size = 0;
+	while(true){
+	    if(position + 8 > channel.size()){
+		throw new UnsupportedAudioFileException("no data chunk");
+	    }
+	    readFully(header, position, 8);
+	    int id = header.getInt(0);
+	    size = header.getInt(4) & 0xFFFFFFFFL;
+	    if(id == 0x61746164){ // "data"
+		break;
+	    }
+	    if(id == 0x20746d66){ // "fmt "
+		readFully(header, position + 8, 16);
+		int encoding = header.getShort(0);
+		int channels = header.getShort(2);
+		int sampleRate = header.getInt(4);
+		int bits = header.getShort(14);
+		if(encoding != 1 || channels != 1 || bits != 8 
+		   || sampleRate != (int)Constants.kSamplingFrequency){
+		    throw new UnsupportedAudioFileException("not " + AudioUtils.kDefaultFormat);
+		}
+		hasFormat = true;
+	    }
+	    position += 8 + size + (size & 1); //chunks are padded to an even length
+	}
+	if(!hasFormat){
+	    throw new UnsupportedAudioFileException("no fmt chunk before the data");
+	}
+	dataOffset = position + 8;
+	//a recording cut short may claim more data than there is
+	dataLength = Math.min(size, channel.size() - dataOffset);
+    }
+
+    private void readFully(ByteBuffer buffer, long position, int length)
+	throws IOException {
+	buffer.clear();
+	buffer.limit(length);
+	while(buffer.hasRemaining()){
+	    if(channel.read(buffer, position + buffer.position()) < 0){
+		throw new EOFException();
+	    }
+	}
+    }
+
+    /**
+     * Makes the samples in [start, start + length) available in the window,
+     * converted from the unsigned bytes of the wav to the signed bytes the Decoder expects.
+     * @return the offset of sample start in the window, or -1 if the file holds fewer samples
+     */
+    private int window(long start, int length)
+	throws IOException {
+	if(start + length > dataLength){
+	    return -1;
+	}
+	if(start >= windowStart && start + length <= windowStart + windowLength){
+	    return (int)(start - windowStart);
+	}
+
+	windowStart = start;
+	windowLength = (int)Math.min(window.length, dataLength - start);
+	ByteBuffer view = map(start, windowLength);
+	view.get(window, 0, windowLength);
+	toSigned(window, 0, windowLength);
+	return 0;
+    }
+
+    /**
+     * @return a view of the mapped samples, positioned at sample start, 
+     *         with at least length samples remaining
+     */
+    private ByteBuffer map(long start, int length)
+	throws IOException {
+	if(map == null || start < mapStart || start + length > mapStart + map.capacity()){
+	    mapStart = start;
+	    map = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + mapStart, 
+			      Math.min(kMapLength, dataLength - mapStart));
+	}
+	ByteBuffer view = map.duplicate();
+	view.position((int)(start - mapStart));
+	return view;
+    }
+
+    private static void toSigned(byte[] samples, int offset, int length){
+	for(int i = offset; i < offset + length; i++){
+	    samples[i] = (byte)(samples[i] ^ 0x80);
+	}
+    }
+
+    /**
+     * Decodes durations consecutive durations from sample start, 
+     * in segments of kDurationsPerTask durations spread over the ForkJoinPool
+     * @return the decoded bytes, kBytesPerDuration to a duration, in order
+     */
+    private byte[] decodeDurations(double[] startSignals, long start, int durations)
+	throws IOException {
+	ByteBuffer view = map(start, durations * Constants.kSamplesPerDuration);
+	if(batch == null || batch.length < durations * Constants.kSamplesPerDuration){
+	    batch = new byte[durations * Constants.kSamplesPerDuration];
+	}
+	byte[] decoded = new byte[durations * Constants.kBytesPerDuration];
+	new DecodeSegment(startSignals, view, decoded, 0, durations).invoke();
+	return decoded;
+    }
+
+    /**
+     * Converts and decodes the durations [from, to) of a batch, 
+     * splitting the range until each task has at most kDurationsPerTask.
+     * The tasks use disjoint parts of the batch array and of the result.
+     */
+    private class DecodeSegment extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final double[] startSignals;
+	private final ByteBuffer view; // positioned at the first sample of the batch
+	private final byte[] decoded;
+	private final int from;
+	private final int to;
+
+	DecodeSegment(double[] _startSignals, ByteBuffer _view, byte[] _decoded, int _from, int _to){
+	    startSignals = _startSignals;
+	    view = _view;
+	    decoded = _decoded;
+	    from = _from;
+	    to = _to;
+	}
+
+	protected void compute(){
+	    if(to - from > kDurationsPerTask){
+		int middle = (from + to) >>> 1;
+		invokeAll(new DecodeSegment(startSignals, view, decoded, from, middle), 
+			  new DecodeSegment(startSignals, view, decoded, middle, to));
+		return;
+	    }
+	    int offset = from * Constants.kSamplesPerDuration;
+	    int length = (to - from) * Constants.kSamplesPerDuration;
+	    ByteBuffer segment = view.duplicate();
+	    segment.position(view.position() + offset);
+	    segment.get(batch, offset, length);
+	    toSigned(batch, offset, length);
+	    byte[] bytes = Decoder.decode(startSignals, batch, offset, length);
+	    System.arraycopy(bytes, 0, decoded, from * Constants.kBytesPerDuration, bytes.length);
+	}
+    }
+
+    /**
+     * The same state machine as StreamDecoder.run, with the window in place of the AudioBuffer
+     */
+    private void decode(OutputStream out)
+	throws IOException {
+	int durationsToRead = Constants.kDurationsPerKey;
+	long deletedSamples = 0;
+	boolean hasKey = false;
+	double[] startSignals = new double[Constants.kBitsPerByte * Constants.kBytesPerDuration];
+	double[] hailStrength = new double[1];
+	int durationsPerBatch = kDurationsPerTask;
+	int offset = -1;
+	int length = 0;
+
+	while(true){
+	  length = Constants.kSamplesPerDuration * durationsToRead;
+	  offset = window(deletedSamples, length);
+	  if(offset < 0){ //the file is used up
+	    break;
+	  }
+	  if(hasKey){ //we found the key, so decode a batch of durations
+	    int durations = (int)Math.min(durationsPerBatch, 
+					  (dataLength - deletedSamples) / Constants.kSamplesPerDuration);
+	    byte[] decoded = decodeDurations(startSignals, deletedSamples, durations);
+	    //the message ends at the first duration with no signal, and that duration is output too
+	    int used = 0;
+	    boolean ended = false;
+	    while(used < durations && !ended){
+	      ended = decoded[used * Constants.kBytesPerDuration] == 0;
+	      used++;
+	    }
+	    deletedSamples += used * Constants.kSamplesPerDuration;
+	    out.write(decoded, 0, used * Constants.kBytesPerDuration);
+	    if(ended){ //we are recieving no signal, so go back to key detection mode
+	      hasKey = false;
+	      durationsToRead = Constants.kDurationsPerKey;
+	    } else {
+	      //the message goes on, so decode more of it at once next time
+	      durationsPerBatch = Math.min(2 * durationsPerBatch, kMaxDurationsPerBatch);
+	    }
+	    continue;
+	  }
+
+	  //we don't have the key, so we are in key detection mode from this point on
+	  int startIndex = Decoder.findHail(window, offset, length, hailStrength);
+	  if(startIndex == length - Constants.kSamplesPerDuration){
+	    //the hail may still get stronger past these samples, so search again from here
+	    deletedSamples += startIndex;
+	    continue;
+	  }
+	  if(startIndex > -1){
+	    if(log != null){
+	      log.println("\nStart Index: " + (deletedSamples + startIndex));
+	    }
+	    offset = window(deletedSamples, startIndex + (Constants.kSamplesPerDuration * Constants.kDurationsPerKey));
+	    if(offset < 0){
+	      break;
+	    }
+	    Decoder.getKeySignalStrengths(window, offset + startIndex + Constants.kSamplesPerDuration, startSignals);
+	    deletedSamples += startIndex + (Constants.kSamplesPerDuration * Constants.kDurationsPerKey);
+	    hasKey = true;
+	    durationsToRead = 1;
+	    durationsPerBatch = kDurationsPerTask;
+	  } else {
+	    //every position of the hail up to here has been searched
+	    deletedSamples += length - Constants.kSamplesPerDuration + 1;
+	  }
+	}
+	out.flush();
+    }
+}
@@ -29,11 +29,58 @@ import java.util.Date;
 
 /**
  * This class contains the signal processing functions.
+ * They keep no state between calls, apart from the detector setting,
+ * so several threads can decode at once.
  *
  * @author CVL
  */
 public class Decoder implements Constants {
 
+    // The ways the Decoder can measure the strength of a frequency
+    public static final int kDetectorComplex = 0;  //complexDetect, one frequency at a time
+    public static final int kDetectorGoertzel = 1; //a GoertzelBank, all the frequencies in one pass
+
+    // The index of the hail frequency in kBank, which follows the bit frequencies
+    private static final int kHailIndex = kBitsPerByte * kBytesPerDuration;
+
+    private static final GoertzelBank kBank = new GoertzelBank(getBankFrequencies(), kSamplingFrequency);
+
+    private static volatile int detector = kDetectorGoertzel;
+
+    // The weakest hail correlation that is accepted as a key sequence
+    private static final double kAcceptedHailSignal = 0.01;
+
+    private static final SlidingDft kHailTracker = new SlidingDft(kHailFrequency, kSamplesPerDuration, kSamplingFrequency);
+
+    /**
+     * @param _detector kDetectorComplex or kDetectorGoertzel
+     */
+    public static void setDetector(int _detector){
+	if(_detector != kDetectorComplex && _detector != kDetectorGoertzel){
+	    throw new IllegalArgumentException("Unknown detector " + _detector);
+	}
+	detector = _detector;
+    }
+
+    /**
+     * @return the detector in use, kDetectorComplex or kDetectorGoertzel
+     */
+    public static int getDetector(){
+	return detector;
+    }
+
+    /**
+     * @return the frequencies of each bit, followed by the hail frequency
+     */
+    private static double[] getBankFrequencies(){
+	double[] frequencies = new double[kHailIndex + 1];
+	for(int j = 0; j < kHailIndex; j++){
+	    frequencies[j] = Encoder.getFrequency(j);
+	}
+	frequencies[kHailIndex] = kHailFrequency;
+	return frequencies;
+    }
+
     /**
      * @param signal the audio samples to search
      * @param signalStrengths this will be filled in with the strengths for each frequency (NOTE THIS SIDE EFFECT)
@@ -41,15 +88,25 @@ public class Decoder implements Constants {
      * @return the index in signal of the key sequence, or -1 if it wasn't found (in which case signalStrengths is trashed)
      */
     public static int findKeySequence(byte[] signal, double[] signalStrengths, int granularity){
+	return findKeySequence(signal, 0, signal.length, signalStrengths, granularity);
+    }
+
+    /**
+     * @param signal the array holding the audio samples to search
+     * @param offset the index in signal of the first sample to search
+     * @param length the number of samples to search
+     * @param signalStrengths this will be filled in with the strengths for each frequency (NOTE THIS SIDE EFFECT)
+     * @param granularity a correlation will be determined every granularity samples (lower is slower)
+     * @return the index, relative to offset, of the key sequence, or -1 if it wasn't found
+     */
+    public static int findKeySequence(byte[] signal, int offset, int length, double[] signalStrengths, int granularity){
 	int maxCorrelationIndex = -1;
 	double maxCorrelation = -1;
 	double minSignal = 0.003;
-	double acceptedSignal = 0.01;
 	int i=0;
-	for(i = 0; i <= signal.length - kSamplesPerDuration; i += granularity){ 
+	for(i = 0; i <= length - kSamplesPerDuration; i += granularity){ 
 	    //test the correlation
-	    byte[] partialSignal = ArrayUtils.subarray(signal, i, kSamplesPerDuration);
-	    double corr = complexDetect(partialSignal, Constants.kHailFrequency) /* * 4 */;
+	    double corr = detectHail(signal, offset + i) /* * 4 */;
 	    //	    System.out.println("Correlation at " + i + ":" + corr);
 	    if (corr > maxCorrelation){
 		maxCorrelation = corr;
@@ -61,7 +118,7 @@ public class Decoder implements Constants {
 	}
 
 	//System.out.println("Searched to index:" + i);
-	if (maxCorrelation < acceptedSignal && maxCorrelation > -1){
+	if (maxCorrelation < kAcceptedHailSignal && maxCorrelation > -1){
 	    //System.out.println("Best Correlation:" + maxCorrelation);
 	    maxCorrelationIndex = -1;
 	}
@@ -76,13 +133,42 @@ public class Decoder implements Constants {
 	return maxCorrelationIndex;
     }
 
+    /**
+     * Finds the hail of the key sequence with sample accuracy, following its correlation 
+     * at every position of the search range in a single pass.
+     * @param signal the array holding the audio samples to search
+     * @param offset the index in signal of the first sample to search
+     * @param length the number of samples to search
+     * @param hailStrength hailStrength[0] will be filled in with the strength of the hail at the returned index
+     * @return the index, relative to offset, where the hail is strongest, or -1 if it wasn't found.
+     * If the index is length - kSamplesPerDuration the hail may get stronger past the end of the range.
+     */
+    public static int findHail(byte[] signal, int offset, int length, double[] hailStrength){
+	int index = kHailTracker.findPeak(signal, offset, length, hailStrength);
+	if(hailStrength[0] < kAcceptedHailSignal){
+	    return -1;
+	}
+	return index;
+    }
+
     /**
      * @param startSignals the signal strengths of each of the frequencies
      * @param samples the samples
      * @return the decoded bytes
      */
     public static byte[] decode(double[] startSignals, byte[] samples){
-	return decode(startSignals, getSignalStrengths(samples));
+	return decode(startSignals, samples, 0, samples.length);
+    }
+
+    /**
+     * @param startSignals the signal strengths of each of the frequencies
+     * @param samples the array holding the samples
+     * @param offset the index in samples of the first sample to decode
+     * @param length the number of samples to decode
+     * @return the decoded bytes
+     */
+    public static byte[] decode(double[] startSignals, byte[] samples, int offset, int length){
+	return decode(startSignals, getSignalStrengths(samples, offset, length));
     }
 
     /**
@@ -119,24 +205,27 @@ public class Decoder implements Constants {
 
     /**
      * @param input audio sample array
+     * @param offset the index in input of the first sample
+     * @param length the number of samples to use
      * @return the signal strengths of each frequency in each duration: [signal strength][duration index]
      */
-    private static double[][] getSignalStrengths(byte[] input){
+    private static double[][] getSignalStrengths(byte[] input, int offset, int length){
 	//detect the signal strength of each frequency in each duration
-	int durations = input.length / kSamplesPerDuration;
+	int durations = length / kSamplesPerDuration;
 
 	// rows are durations, cols are bit strengths
 	double[][] signal = new double[kBitsPerByte * kBytesPerDuration][durations]; 
+	double[] strengths = new double[kHailIndex + 1];
 
 	//for each duration, check each bit for representation in the input
 	for(int i=0; i < durations; i++){
-	    //separate this duration's input into its own array
-	    byte[] durationInput = ArrayUtils.subarray(input, i * kSamplesPerDuration, kSamplesPerDuration);
+	    //this duration's input starts here
+	    int durationOffset = offset + (i * kSamplesPerDuration);
 
-	    //for each bit represented, detect
+	    //detect every bit represented
+	    detectBits(input, durationOffset, strengths);
 	    for(int j = 0; j < kBitsPerByte * kBytesPerDuration; j++){
-		signal[j][i] = 
-		    complexDetect(durationInput, Encoder.getFrequency(j));
+		signal[j][i] = strengths[j];
 		/*
 		if (j == 0) 
 		  System.out.println("\nsignal[" + j + "][" + i + "]=" + signal [j][i]);
@@ -149,37 +238,76 @@ public class Decoder implements Constants {
     }
 
     public static void getKeySignalStrengths(byte[] signal, double[] signalStrengths){
-	byte[] partialSignal = ArrayUtils.subarray(signal, 0, kSamplesPerDuration);
+	getKeySignalStrengths(ArrayUtils.subarray(signal, 0, 2 * kSamplesPerDuration), 0, signalStrengths);
+    }
+
+    /**
+     * @param signal the array holding the two calibration durations
+     * @param offset the index in signal of the first calibration duration
+     * @param signalStrengths this will be filled in with the strengths for each frequency
+     */
+    public static void getKeySignalStrengths(byte[] signal, int offset, double[] signalStrengths){
+	double[] strengths = new double[kHailIndex + 1];
+	detectBits(signal, offset, strengths);
 	for(int j = 1; j < kBitsPerByte * kBytesPerDuration; j += 2){
-	    signalStrengths[j] = complexDetect(partialSignal, Encoder.getFrequency(j));
+	    signalStrengths[j] = strengths[j];
 	}
 	
-	byte[] partialSignal2 = ArrayUtils.subarray(signal, kSamplesPerDuration, kSamplesPerDuration);
+	detectBits(signal, offset + kSamplesPerDuration, strengths);
 	for(int j = 0; j < kBitsPerByte * kBytesPerDuration; j += 2){
-	    signalStrengths[j] = complexDetect(partialSignal2, Encoder.getFrequency(j));
+	    signalStrengths[j] = strengths[j];
 	    //System.out.println(signalStrengths[j]);
 	}
     }
 
     /**
      * @param signal audio samples
+     * @param offset the index in signal of the first of kSamplesPerDuration samples to measure
+     * @param strengths this will be filled in with the strength of each bit frequency
+     */
+    private static void detectBits(byte[] signal, int offset, double[] strengths){
+	if(detector == kDetectorGoertzel){
+	    kBank.detect(signal, offset, kSamplesPerDuration, 0, kHailIndex, strengths);
+	    return;
+	}
+	for(int j = 0; j < kHailIndex; j++){
+	    strengths[j] = complexDetect(signal, offset, kSamplesPerDuration, Encoder.getFrequency(j));
+	}
+    }
+
+    /**
+     * @param signal audio samples
+     * @param offset the index in signal of the first of kSamplesPerDuration samples to measure
+     * @return the strength of the hail frequency
+     */
+    private static double detectHail(byte[] signal, int offset){
+	if(detector == kDetectorGoertzel){
+	    return kBank.detect(signal, offset, kSamplesPerDuration, kHailIndex);
+	}
+	return complexDetect(signal, offset, kSamplesPerDuration, Constants.kHailFrequency);
+    }
+
+    /**
+     * @param signal audio samples
+     * @param offset the index in signal of the first sample to correlate
+     * @param length the number of samples to correlate
      * @param frequence the frequency to search for in signal
      * @return the strength of the correlation of the frequency in the signal
      */
-    private static double complexDetect(byte[] signal, double frequency){
+    private static double complexDetect(byte[] signal, int offset, int length, double frequency){
 	double realSum = 0;
 	double imaginarySum = 0;
 	double u = 2 * Math.PI * frequency / kSamplingFrequency;
 	// y = e^(ju) = cos(u) + j * sin(u) 
 
-	for(int i = 0; i < signal.length; i++){
+	for(int i = 0; i < length; i++){
 	  //System.out.println("signal[" +i +"]: " +signal[i] + "; convert: " + (signal[i])/(float)Constants.kFloatToByteShift);
-	    realSum = realSum + (Math.cos(i * u) * (signal[i]/(float)Constants.kFloatToByteShift));
-	    imaginarySum = imaginarySum + (Math.sin(i * u) * (signal[i]/(float)Constants.kFloatToByteShift));
+	    realSum = realSum + (Math.cos(i * u) * (signal[offset + i]/(float)Constants.kFloatToByteShift));
+	    imaginarySum = imaginarySum + (Math.sin(i * u) * (signal[offset + i]/(float)Constants.kFloatToByteShift));
 	}
 	//System.out.println("realSum=" + realSum + "; imSum=" + imaginarySum);
- 	double realAve = realSum/signal.length;
- 	double imaginaryAve = imaginarySum/signal.length;
+ 	double realAve = realSum/length;
+ 	double imaginaryAve = imaginarySum/length;
 //   	System.out.println("u:" + u + " realAve:" + realAve + " imaginaryAve:" + imaginaryAve 
 //   			   + " \r\nfrequency:" + frequency + " signal.length:" + signal.length
 //   			   + " realSum:" + realSum + " imaginarySum:" + imaginarySum 
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2002 by the authors. All rights reserved.
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+
+ */
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes every wav file under a directory, several at a time, on a ForkJoinPool.
+ * Each file is decoded by BatchDecoder on one of the pool's threads, and what it
+ * decodes to is written to a .txt file of the same name. A line is reported for
+ * each file as it finishes, then a summary of the whole run.
+ */
+public class DirectoryDecoder {
+
+    private final File inputDirectory;
+    private final File outputDirectory;
+    private final PrintStream report;
+    private final File[] files;
+    private final long[] samples; // the samples in each file, or -1 if it could not be decoded
+
+    /**
+     * Decodes the wav files under inputDirectory and reports on them
+     * @param inputDirectory the directory to search for wav files, including its subdirectories
+     * @param outputDirectory where the .txt files go, in the same tree as the wav files; 
+     *                        null to put each next to its wav file
+     * @param parallelism the most files decoded at once
+     * @param report receives a line for each file and the summary
+     * @return the number of files that could not be decoded
+     */
+    public static int decodeDirectory(File inputDirectory, File outputDirectory, 
+				      int parallelism, PrintStream report)
+	throws IOException {
+	if(!inputDirectory.isDirectory()){
+	    throw new FileNotFoundException(inputDirectory + " is not a directory");
+	}
+	List<File> found = new ArrayList<File>();
+	findWavFiles(inputDirectory, found);
+	File[] files = found.toArray(new File[found.size()]);
+	Arrays.sort(files);
+
+	DirectoryDecoder decoder = new DirectoryDecoder(inputDirectory, 
+							outputDirectory == null ? inputDirectory : outputDirectory, 
+							files, report);
+	long start = System.nanoTime();
+	ForkJoinPool pool = new ForkJoinPool(parallelism);
+	try {
+	    pool.invoke(decoder.new Decode(0, files.length));
+	} finally {
+	    pool.shutdown();
+	}
+	return decoder.summarize(System.nanoTime() - start);
+    }
+
+    private static void findWavFiles(File directory, List<File> found)
+	throws IOException {
+	File[] entries = directory.listFiles();
+	if(entries == null){
+	    throw new IOException("Cannot list " + directory);
+	}
+	for(int i = 0; i < entries.length; i++){
+	    if(entries[i].isDirectory()){
+		findWavFiles(entries[i], found);
+	    } else if(entries[i].getName().toLowerCase().endsWith(".wav")){
+		found.add(entries[i]);
+	    }
+	}
+    }
+
+    private DirectoryDecoder(File _inputDirectory, File _outputDirectory, 
+			     File[] _files, PrintStream _report){
+	inputDirectory = _inputDirectory;
+	outputDirectory = _outputDirectory;
+	files = _files;
+	report = _report;
+	samples = new long[files.length];
+    }
+
+    /**
+     * Decodes the files in [from, to), splitting the range until there is one file to a task
+     */
+    private class Decode extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int from;
+	private final int to;
+
+	Decode(int _from, int _to){
+	    from = _from;
+	    to = _to;
+	}
+
+	protected void compute(){
+	    if(to - from > 1){
+		int middle = (from + to) >>> 1;
+		invokeAll(new Decode(from, middle), new Decode(middle, to));
+	    } else if(to > from){
+		decodeFile(from);
+	    }
+	}
+    }
+
+    private void decodeFile(int index){
+	File file = files[index];
+	long start = System.nanoTime();
+	File output = null;
+	try {
+	    output = getOutputFile(file);
+	    OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+	    try {
+		samples[index] = BatchDecoder.decodeWavFile(file, out, null);
+	    } finally {
+		out.close();
+	    }
+	    report.println(file + ": " + (samples[index] / Constants.kSamplingFrequency) + " s of audio in " 
+			   + ((System.nanoTime() - start) / 1000000) + " ms to " + output);
+	} catch (Exception e){
+	    samples[index] = -1;
+	    if(output != null){
+		output.delete(); //don't leave a partial result behind
+	    }
+	    report.println(file + ": FAILED: " + e);
+	}
+    }
+
+    /**
+     * @return the file named like the wav file, with .txt for .wav, in the output tree
+     */
+    private File getOutputFile(File file)
+	throws IOException {
+	String name = file.getName();
+	name = name.substring(0, name.length() - ".wav".length()) + ".txt";
+	String inputPath = inputDirectory.getCanonicalPath();
+	String parentPath = file.getParentFile().getCanonicalPath();
+	File parent = new File(outputDirectory, parentPath.substring(inputPath.length()));
+	if(!parent.mkdirs() && !parent.isDirectory()){ //another thread may have made it
+	    throw new IOException("Cannot create " + parent);
+	}
+	return new File(parent, name);
+    }
+
+    /**
+     * Reports the totals of the run
+     * @return the number of files that could not be decoded
+     */
+    private int summarize(long nanos){
+	int failures = 0;
+	long totalSamples = 0;
+	for(int i = 0; i < samples.length; i++){
+	    if(samples[i] < 0){
+		failures++;
+	    } else {
+		totalSamples += samples[i];
+	    }
+	}
+	double seconds = nanos / 1e9;
+	double audioSeconds = totalSamples / Constants.kSamplingFrequency;
+	report.println("Decoded " + (files.length - failures) + " of " + files.length + " files, " 
+		       + failures + " failed, in " + seconds + " s");
+	report.println("  " + (files.length / seconds) + " files/s, " 
+		       + (audioSeconds / seconds) + " audio s/s (" + audioSeconds + " s of audio)");
+	return failures;
+    }
+}
@@ -86,6 +86,53 @@ public class Main {
 	    System.out.println("IO Error reading " + args[1] + ":" + e);
 	  }
 	}
+	else if("-batch".equals(args[0])) {
+
+	  //decodes the file named in args[1] on this thread and prints it to System.out
+	  
+	  if(args.length < 2){
+	    printUsage();
+	    System.exit(0);
+	  }
+
+	  File inputFile = new File(args[1]);
+	  if(!inputFile.exists()){
+	    System.out.println("Cannot find file " + args[1]);
+	    System.exit(0);
+	  }
+	  try {
+	    try {
+	      BatchDecoder.decodeWavFile(inputFile, System.out);
+	    } catch (javax.sound.sampled.UnsupportedAudioFileException e){
+	      //not the format BatchDecoder maps, so let AudioSystem convert it
+	      AudioUtils.decodeWavFile(inputFile, System.out);
+	    }
+	  } catch (javax.sound.sampled.UnsupportedAudioFileException e){
+	    System.out.println("Error reading " + args[1] + ":" + e);
+	  } catch (IOException e){
+	    System.out.println("IO Error reading " + args[1] + ":" + e);
+	  }
+	}
+	else if("-decode-dir".equals(args[0])) {
+
+	  //decodes every wav file under the directory args[1], into args[2] if it is given
+	  
+	  if(args.length < 2){
+	    printUsage();
+	    System.exit(0);
+	  }
+
+	  File outputDirectory = args.length > 2 ? new File(args[2]) : null;
+	  int failures = 0;
+	  try {
+	    failures = DirectoryDecoder.decodeDirectory(new File(args[1]), outputDirectory, 
+							Runtime.getRuntime().availableProcessors(), System.out);
+	  } catch (IOException e){
+	    System.out.println("IO Error reading " + args[1] + ":" + e);
+	    System.exit(1);
+	  }
+	  System.exit(failures == 0 ? 0 : 1);
+	}
 	else if("-hardware".equals(args[0])) {
 	  //this is a little utility to show what hardware the JVM finds
 	  
@@ -129,6 +176,8 @@ public class Main {
     public static void printUsage(){
 	System.out.println("usage: dv.Main -hardware : displays audio hardware info");
 	System.out.println("usage: dv.Main -decode <file.wav> : decodes the wav file");
+	System.out.println("usage: dv.Main -batch <file.wav> : decodes the wav file on this thread, for recordings");
+	System.out.println("usage: dv.Main -decode-dir <dir> [<outputDir>] : decodes every wav file under dir, several at once, to .txt files");
 	System.out.println("usage: dv.Main -listen : listens on the microphone for audio bits");
 	System.out.println("usage: dv.Main <inputFile.txt> : plays the encoded file");
 	System.out.println("usage: dv.Main <input.txt> <output.wav> : encodes input.txt into output.wav");
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2002 by the authors. All rights reserved.
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+
+ */
+
+import javax.sound.sampled.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * An OutputStream that writes audio samples to a WAVE file as they arrive.
+ * The RIFF header is written first with placeholder sizes and patched when 
+ * the stream is closed, and the samples go through a fixed size buffer, so 
+ * memory use does not depend on the length of the audio.
+ *
+ * 8 bit samples are stored unsigned and 16 bit samples little endian, as WAVE
+ * requires. For AudioUtils.kDefaultFormat the file is the same, byte for byte,
+ * as the one AudioUtils.writeWav produces from the same samples.
+ */
+public class WavWriter extends OutputStream {
+
+    // The length of the canonical PCM WAVE header
+    private static final int kHeaderLength = 44;
+
+    // The most sample bytes the 32 bit sizes in the header can describe
+    private static final long kMaxDataLength = 0xFFFFFFFFL - (kHeaderLength - 8);
+
+    // The number of bytes buffered before they are written to the file
+    private static final int kBufferLength = 1 << 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int bytesPerSample;
+    private final boolean flipSign; // 8 bit signed samples are stored unsigned
+    private final boolean swapBytes; // 16 bit big endian samples are stored little endian
+    private long dataLength = 0;
+    private int pendingByte = -1; // the first half of a 16 bit sample split across writes
+    private boolean closed = false;
+
+    /**
+     * @param outputFile the file to write, replaced if it exists
+     * @param format the format of the samples that will be written, 8 or 16 bit PCM
+     */
+    public WavWriter(File outputFile, AudioFormat format)
+	throws IOException {
+	AudioFormat.Encoding encoding = format.getEncoding();
+	int bits = format.getSampleSizeInBits();
+	boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(encoding);
+	boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+	if(!((bits == 8 && (signed || unsigned)) || (bits == 16 && signed))){
+	    throw new IllegalArgumentException("Unsupported WAVE format: " + format);
+	}
+	bytesPerSample = bits / 8;
+	flipSign = bits == 8 && signed;
+	swapBytes = bits == 16 && format.isBigEndian();
+
+	file = new RandomAccessFile(outputFile, "rw");
+	file.setLength(0);
+	channel = file.getChannel();
+	buffer = ByteBuffer.allocateDirect(kBufferLength);
+	buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+	//the sizes are filled in by close()
+	int channels = format.getChannels();
+	int sampleRate = (int)format.getSampleRate();
+	buffer.putInt(0x46464952);                   // "RIFF"
+	buffer.putInt(0);                            // RIFF chunk size
+	buffer.putInt(0x45564157);                   // "WAVE"
+	buffer.putInt(0x20746d66);                   // "fmt "
+	buffer.putInt(16);                           // fmt chunk size
+	buffer.putShort((short)1);                   // PCM
+	buffer.putShort((short)channels);
+	buffer.putInt(sampleRate);
+	buffer.putInt(sampleRate * channels * bytesPerSample); // byte rate
+	buffer.putShort((short)(channels * bytesPerSample));    // block align
+	buffer.putShort((short)bits);
+	buffer.putInt(0x61746164);                   // "data"
+	buffer.putInt(0);                            // data chunk size
+    }
+
+    /**
+     * @return the number of sample bytes written so far
+     */
+    public long getDataLength(){
+	return dataLength;
+    }
+
+    public void write(int b)
+	throws IOException {
+	checkWrite(1);
+	put((byte)b);
+	dataLength++;
+    }
+
+    public void write(byte[] data, int offset, int length)
+	throws IOException {
+	checkWrite(length);
+	int end = offset + length;
+	for(int i = offset; i < end; i++){
+	    put(data[i]);
+	}
+	dataLength += length;
+    }
+
+    /**
+     * Writes the buffered samples to the file.
+     */
+    public void flush()
+	throws IOException {
+	if(!closed){
+	    drain();
+	}
+    }
+
+    /**
+     * Writes the remaining samples and fills in the sizes in the header.
+     * A big endian 16 bit sample left with only its high byte written is
+     * completed with a zero low byte, which the sizes count.
+     */
+    public void close()
+	throws IOException {
+	if(closed){
+	    return;
+	}
+	closed = true;
+	try {
+	    if(pendingByte >= 0){
+		putRaw((byte)0);
+		putRaw((byte)pendingByte);
+		pendingByte = -1;
+		dataLength++;
+	    }
+	    drain();
+	    ByteBuffer size = ByteBuffer.allocate(4);
+	    size.order(ByteOrder.LITTLE_ENDIAN);
+	    size.putInt(0, (int)(kHeaderLength - 8 + dataLength));
+	    channel.write(size, 4);
+	    size.clear();
+	    size.putInt(0, (int)dataLength);
+	    channel.write(size, kHeaderLength - 4);
+	} finally {
+	    file.close();
+	}
+    }
+
+    private void checkWrite(int length)
+	throws IOException {
+	if(closed){
+	    throw new IOException("WavWriter is closed");
+	}
+	if(dataLength + length > kMaxDataLength){
+	    throw new IOException("A WAVE file cannot hold more than " + kMaxDataLength + " bytes of samples");
+	}
+    }
+
+    private void put(byte b)
+	throws IOException {
+	if(flipSign){
+	    b = (byte)(b ^ 0x80);
+	} else if(swapBytes){
+	    //hold the high byte until the low one arrives
+	    if(pendingByte < 0){
+		pendingByte = b & 0xFF;
+		return;
+	    }
+	    putRaw(b);
+	    b = (byte)pendingByte;
+	    pendingByte = -1;
+	}
+	putRaw(b);
+    }
+
+    private void putRaw(byte b)
+	throws IOException {
+	if(!buffer.hasRemaining()){
+	    drain();
+	}
+	buffer.put(b);
+    }
+
+    private void drain()
+	throws IOException {
+	buffer.flip();
+	while(buffer.hasRemaining()){
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+}
@@ -0,0 +1,320 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import com.jarkman.ASKSimpleAndroid.Constants;
+import com.jarkman.ASKSimpleAndroid.Decoder;
+import com.jarkman.ASKSimpleAndroid.Encoder;
+
+/**
+ * Compares the two ways the StreamDecoders have acquired the key sequence:
+ * the coarse (400) then fine (20) findKeySequence search, and findHail's
+ * sliding DFT. Each runs the search loop of its StreamDecoder over captures
+ * made of a background with an encoded message mixed in at a random offset,
+ * and the comparison prints the CPU time each took per second of capture
+ * searched and how far the start index it found was from the hail.
+ * <p>
+ * The backgrounds are Gaussian noise and the recordings in cricket/*.wav,
+ * which have no hail of their own; each recording is also searched alone,
+ * to count the hails found where there is none.
+ * <p>
+ * CPU time is measured with ThreadMXBean, after a warmup round, so it
+ * leaves out the time the thread was descheduled. JMH measures the two
+ * searches on a single window in AskSimpleJavaBenchmark.
+ * <p>
+ * Usage: java -cp benchmarks.jar
+ * com.jonas.digitalvoices.benchmarks.AcquisitionComparison [&lt;cricket
+ * directory&gt; [&lt;trials&gt;]]
+ */
+public class AcquisitionComparison {
+
+	private static final int kSearchLength = Constants.kSamplesPerDuration
+			* Constants.kDurationsPerKey;
+
+	// the standard deviation of the noise background, and of the noise added
+	// over the recordings, in byte sample steps
+	private static final double kNoiseLevel = 12;
+	private static final double kRecordingNoiseLevel = 3;
+
+	// the seconds of background before and after the message
+	private static final double kLeadSeconds = 3;
+
+	// a start index further than this from the hail is counted as a miss
+	private static final int kMissDistance = Constants.kSamplesPerDuration / 2;
+
+	private static final ThreadMXBean kThreads = ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * A way of acquiring the key sequence.
+	 */
+	private interface Search {
+		/**
+		 * @return the index in capture of the key sequence, or -1 if it
+		 *         wasn't found
+		 */
+		int acquire(byte[] capture);
+	}
+
+	/** The search loop of the StreamDecoders before findHail */
+	private static final Search kTwoPass = new Search() {
+		private final double[] startSignals = new double[Constants.kBitsPerByte
+				* Constants.kBytesPerDuration];
+
+		public int acquire(byte[] capture) {
+			int searched = 0;
+			while (searched + kSearchLength <= capture.length) {
+				int startIndex = Decoder.findKeySequence(capture, searched,
+						kSearchLength, startSignals, 400);
+				if (startIndex > -1) {
+					searched += startIndex;
+					if (searched + kSearchLength > capture.length)
+						return -1;
+					startIndex = Decoder.findKeySequence(capture, searched,
+							kSearchLength, startSignals, 20);
+					return startIndex < 0 ? -1 : searched + startIndex;
+				}
+				searched += Constants.kSamplesPerDuration;
+			}
+			return -1;
+		}
+
+		@Override
+		public String toString() {
+			return "two-pass";
+		}
+	};
+
+	/** The search loop of the StreamDecoders with findHail */
+	private static final Search kSliding = new Search() {
+		private final double[] hailStrength = new double[1];
+
+		public int acquire(byte[] capture) {
+			int searched = 0;
+			while (searched + kSearchLength <= capture.length) {
+				int startIndex = Decoder.findHail(capture, searched,
+						kSearchLength, hailStrength);
+				if (startIndex == kSearchLength - Constants.kSamplesPerDuration) {
+					searched += startIndex;
+					continue;
+				}
+				if (startIndex > -1)
+					return searched + startIndex;
+				searched += kSearchLength - Constants.kSamplesPerDuration + 1;
+			}
+			return -1;
+		}
+
+		@Override
+		public String toString() {
+			return "sliding";
+		}
+	};
+
+	private static final Search[] kSearches = { kTwoPass, kSliding };
+
+	/**
+	 * What a search made of the captures of one background.
+	 */
+	private static class Result {
+		long cpuNanos = 0;
+		long samples = 0;
+		long errors = 0; // the sum of the distances to the hail, of the hits
+		int hits = 0;
+		int misses = 0;
+		int falseHails = 0; // found in captures with no hail
+
+		void add(int found, int hail) {
+			int error = Math.abs(found - hail);
+			if (hail < 0) {
+				if (found >= 0)
+					falseHails++;
+			} else if (found < 0 || error > kMissDistance) {
+				misses++;
+			} else {
+				hits++;
+				errors += error;
+			}
+		}
+	}
+
+	/**
+	 * @param hails
+	 *            the index of the hail in each capture, or -1 if it has none
+	 */
+	private static Result run(Search search, List<byte[]> captures,
+			List<Integer> hails) {
+		Result result = new Result();
+		for (int i = 0; i < captures.size(); i++) {
+			byte[] capture = captures.get(i);
+			long start = kThreads.getCurrentThreadCpuTime();
+			int found = search.acquire(capture);
+			result.cpuNanos += kThreads.getCurrentThreadCpuTime() - start;
+			// a search stops once it has found a hail
+			result.samples += found < 0 ? capture.length : Math.min(
+					capture.length, found + kSearchLength);
+			result.add(found, hails.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Mixes the encoding into the background at offset and adds noise,
+	 * clipping to the range of a byte sample.
+	 */
+	private static byte[] mix(byte[] background, byte[] encoding, int offset,
+			double noiseLevel, Random random) {
+		byte[] capture = background.clone();
+		for (int i = 0; i < capture.length; i++) {
+			double x = capture[i] + (random.nextGaussian() * noiseLevel);
+			int j = i - offset;
+			if (j >= 0 && j < encoding.length)
+				x += encoding[j];
+			capture[i] = (byte) Math.max(-128,
+					Math.min(127, Math.round(x)));
+		}
+		return capture;
+	}
+
+	/**
+	 * @return background repeated to at least length samples
+	 */
+	private static byte[] loop(byte[] background, int length) {
+		byte[] looped = new byte[Math.max(length, background.length)];
+		for (int i = 0; i < looped.length; i += background.length)
+			System.arraycopy(background, 0, looped, i,
+					Math.min(background.length, looped.length - i));
+		return looped;
+	}
+
+	/**
+	 * @return the recording as signed 8 bit samples at
+	 *         Constants.kSamplingFrequency
+	 */
+	private static byte[] readRecording(File file)
+			throws UnsupportedAudioFileException, IOException {
+		AudioInputStream in = AudioSystem.getAudioInputStream(file);
+		float rate = in.getFormat().getSampleRate();
+		AudioInputStream signed = AudioSystem.getAudioInputStream(
+				new AudioFormat(rate, 8, 1, true, false), in);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = signed.read(buffer)) > 0)
+			out.write(buffer, 0, read);
+		signed.close();
+		byte[] samples = out.toByteArray();
+
+		// the recordings are at the sampling frequency or a whole fraction of it
+		int repeat = (int) Math.round(Constants.kSamplingFrequency / rate);
+		if (repeat <= 1)
+			return samples;
+		byte[] resampled = new byte[samples.length * repeat];
+		for (int i = 0; i < resampled.length; i++)
+			resampled[i] = samples[i / repeat];
+		return resampled;
+	}
+
+	private static byte[] encode(byte[] text) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Encoder.encodeStream(new ByteArrayInputStream(text), out);
+		return out.toByteArray();
+	}
+
+	private static void print(String background, List<byte[]> captures,
+			List<Integer> hails) {
+		for (Search search : kSearches) {
+			Result result = run(search, captures, hails);
+			double seconds = result.samples / Constants.kSamplingFrequency;
+			System.out.printf("%-16s %-9s %10.3f %6d %6d %10s%n", background,
+					search, result.cpuNanos / 1e6 / seconds, result.hits,
+					result.misses, result.hits == 0 ? "-" : String.format(
+							"%.1f", (double) result.errors / result.hits));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File directory = new File(args.length > 0 ? args[0] : "../cricket");
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		byte[] encoding = encode(Messages.kShort.getBytes("US-ASCII"));
+		// the encoding starts with a duration of silence, then the hail
+		int hailOffset = Constants.kSamplesPerDuration;
+		int lead = (int) (kLeadSeconds * Constants.kSamplingFrequency);
+
+		List<String> names = new ArrayList<String>();
+		List<byte[]> backgrounds = new ArrayList<byte[]>();
+		names.add("noise");
+		backgrounds.add(new byte[2 * lead + encoding.length]);
+		File[] recordings = directory.listFiles();
+		if (recordings != null) {
+			Arrays.sort(recordings);
+			for (File recording : recordings) {
+				if (recording.getName().endsWith(".wav")) {
+					names.add(recording.getName());
+					backgrounds.add(loop(readRecording(recording), 2 * lead
+							+ encoding.length));
+				}
+			}
+		}
+
+		// the same captures for each search, and a round to warm up the JIT
+		Random random = new Random(1);
+		List<List<byte[]>> captures = new ArrayList<List<byte[]>>();
+		List<List<Integer>> hails = new ArrayList<List<Integer>>();
+		for (int b = 0; b < backgrounds.size(); b++) {
+			byte[] background = backgrounds.get(b);
+			double noiseLevel = b == 0 ? kNoiseLevel : kRecordingNoiseLevel;
+			List<byte[]> mixed = new ArrayList<byte[]>();
+			List<Integer> hail = new ArrayList<Integer>();
+			for (int trial = 0; trial < trials; trial++) {
+				int offset = random.nextInt(background.length
+						- encoding.length);
+				mixed.add(mix(background, encoding, offset, noiseLevel, random));
+				hail.add(offset + hailOffset);
+			}
+			captures.add(mixed);
+			hails.add(hail);
+		}
+		for (int b = 0; b < backgrounds.size(); b++)
+			for (Search search : kSearches)
+				run(search, captures.get(b), hails.get(b));
+
+		System.out.printf("%d captures a background, CPU time in ms a second of capture searched%n",
+				trials);
+		System.out.printf("%-16s %-9s %10s %6s %6s %10s%n", "background",
+				"search", "cpu", "hits", "misses", "error");
+		for (int b = 0; b < backgrounds.size(); b++)
+			print(names.get(b), captures.get(b), hails.get(b));
+
+		System.out.println();
+		System.out.println("the recordings alone, where any hail found is false");
+		System.out.printf("%-16s %-9s %10s %6s%n", "recording", "search",
+				"cpu", "false");
+		for (int b = 1; b < backgrounds.size(); b++) {
+			List<byte[]> alone = Arrays.asList(backgrounds.get(b));
+			List<Integer> none = Arrays.asList(-1);
+			for (Search search : kSearches) {
+				Result result = run(search, alone, none);
+				double seconds = result.samples / Constants.kSamplingFrequency;
+				System.out.printf("%-16s %-9s %10.3f %6d%n", names.get(b),
+						search, result.cpuNanos / 1e6 / seconds,
+						result.falseHails);
+			}
+		}
+	}
+}
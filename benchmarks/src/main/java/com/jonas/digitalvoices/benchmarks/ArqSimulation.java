@@ -0,0 +1,180 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.jonas.digitalvoices.modem.ArqReceiver;
+import com.jonas.digitalvoices.modem.ArqSender;
+import com.jonas.digitalvoices.modem.Constants;
+import com.jonas.digitalvoices.modem.FrameDecoder;
+import com.jonas.digitalvoices.modem.FrameEncoder;
+import com.jonas.digitalvoices.modem.FrameHeader;
+
+/**
+ * Simulates sending a message over a channel that flips each bit of a
+ * transmission with a given probability, and prints the goodput of the
+ * modem's selective-repeat ARQ against sending the whole message again until
+ * it arrives intact. A transmission whose header is hit is lost.
+ * <p>
+ * Time is counted in durations: each transmission takes its hail and a
+ * duration a byte, and each turn of the link Constants.kSetupJitter more. A
+ * lost FEEDBACK costs the sender its timeout. Resending the whole message is
+ * charged a turnaround but no reply, which flatters it.
+ * <p>
+ * Usage: java -cp benchmarks.jar
+ * com.jonas.digitalvoices.benchmarks.ArqSimulation [&lt;message length&gt;
+ * [&lt;trials&gt;]]
+ */
+public class ArqSimulation {
+
+	private static final double[] kBitErrorRates = { 0, 1e-4, 3e-4, 1e-3,
+			2e-3, 3e-3, 5e-3, 1e-2 };
+
+	// the attempts at sending the whole message before it is given up on
+	private static final int kMaxAttempts = 50;
+
+	private final Random random;
+	private final double bitErrorRate;
+
+	private ArqSimulation(Random random, double bitErrorRate) {
+		this.random = random;
+		this.bitErrorRate = bitErrorRate;
+	}
+
+	/**
+	 * @return the durations the transmission takes to play
+	 */
+	private static int durations(FrameEncoder frame) {
+		int bytes = frame.getHeader().getFrameLength();
+		return 1 + Constants.kDurationsPerHail
+				+ (bytes + Constants.kBytesPerDuration - 1)
+				/ Constants.kBytesPerDuration;
+	}
+
+	/**
+	 * @return the transmission as the other side decodes it, or null if it
+	 *         was lost
+	 */
+	private FrameDecoder transmit(FrameEncoder frame) {
+		byte[] data = frame.toByteArray();
+		for (int i = 0; i < data.length; i++)
+			for (int bit = 0; bit < 8; bit++)
+				if (random.nextDouble() < bitErrorRate)
+					data[i] ^= 1 << bit;
+
+		// the receiver drops a header its CRC rejects, and one hit past its
+		// CRC would have it decode the wrong bytes
+		FrameHeader header;
+		try {
+			header = FrameHeader.parse(data, 0, data.length);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (header == null
+				|| !Arrays.equals(header.toByteArray(), frame.getHeader()
+						.toByteArray()))
+			return null;
+
+		FrameDecoder decoder = new FrameDecoder(header);
+		decoder.write(data, null, header.getLength(), data.length
+				- header.getLength());
+		return decoder;
+	}
+
+	/**
+	 * @param counts
+	 *            the transmissions made are added to counts[0], and 1 to
+	 *            counts[1] if the message was delivered
+	 * @return the durations taken to deliver the message by ARQ, or for the
+	 *         sender to give up
+	 */
+	private long sendArq(byte[] message, int[] counts) {
+		ArqSender sender = new ArqSender(random.nextInt(256), (byte) 0xFF,
+				message, true);
+		ArqReceiver receiver = new ArqReceiver();
+		long time = 0;
+		FrameEncoder frame;
+		while ((frame = sender.nextTransmission()) != null) {
+			time += durations(frame);
+			FrameDecoder data = transmit(frame);
+			FrameEncoder feedback = data == null ? null : receiver
+					.received(data);
+			FrameDecoder heard = feedback == null ? null : transmit(feedback);
+			if (heard != null && sender.received(heard)) {
+				time += Constants.kSetupJitter + durations(feedback);
+			} else {
+				time += sender.getTimeout();
+				sender.timedOut();
+			}
+		}
+		counts[0] += sender.getTransmissionCount();
+
+		if (sender.isComplete()) {
+			if (!receiver.isComplete()
+					|| !Arrays.equals(receiver.getMessage(), message))
+				throw new IllegalStateException("ARQ delivered a wrong message");
+			counts[1]++;
+		}
+		return time;
+	}
+
+	/**
+	 * @param counts
+	 *            as for sendArq
+	 * @return the durations taken to deliver the message whole, with FEC,
+	 *         interleaving and a CRC-16 as ModemService sends it, or to give
+	 *         up on it
+	 */
+	private long sendWhole(byte[] message, int[] counts) {
+		byte flags = (byte) ~((1 << Constants.FEC_FLAG_BIT)
+				| (1 << Constants.INTERLEAVE_FLAG_BIT)
+				| (1 << Constants.CHECKSUM_FLAG_BIT)
+				| (1 << Constants.CRC16_FLAG_BIT));
+		FrameEncoder frame = new FrameEncoder(new FrameHeader(flags,
+				message.length), message);
+		long time = 0;
+		for (int attempt = 0; attempt < kMaxAttempts; attempt++) {
+			time += durations(frame) + Constants.kSetupJitter;
+			counts[0]++;
+			FrameDecoder data = transmit(frame);
+			if (data != null && data.getInvalidBlockCount() == 0
+					&& data.isChecksumValid()) {
+				counts[1]++;
+				break;
+			}
+		}
+		return time;
+	}
+
+	public static void main(String[] args) {
+		int length = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		byte[] message = new byte[length];
+		new Random(1).nextBytes(message);
+
+		System.out.printf("%d byte message, %d trials, goodput in bytes a second%n",
+				length, trials);
+		System.out.printf("%8s %10s %8s %10s %8s%n", "BER", "ARQ", "sent",
+				"whole", "sent");
+		for (double bitErrorRate : kBitErrorRates) {
+			ArqSimulation simulation = new ArqSimulation(new Random(2),
+					bitErrorRate);
+			long arqTime = 0, wholeTime = 0;
+			int[] arq = { 0, 0 }, whole = { 0, 0 };
+			for (int trial = 0; trial < trials; trial++) {
+				arqTime += simulation.sendArq(message, arq);
+				wholeTime += simulation.sendWhole(message, whole);
+			}
+			System.out.printf("%8.0e %10.3f %8.1f %10.3f %8.1f%n",
+					bitErrorRate, goodput(arq[1] * (long) length, arqTime),
+					(double) arq[0] / trials,
+					goodput(whole[1] * (long) length, wholeTime),
+					(double) whole[0] / trials);
+		}
+	}
+
+	private static double goodput(long bytes, long durations) {
+		return durations == 0 ? 0 : bytes / (durations * Constants.kDuration);
+	}
+}
@@ -0,0 +1,97 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jarkman.ASKSimpleAndroid.Constants;
+import com.jarkman.ASKSimpleAndroid.Decoder;
+import com.jarkman.ASKSimpleAndroid.Encoder;
+
+/**
+ * Benchmarks the ask-simple-android Encoder and Decoder, which run at 11025
+ * Hz so that the decoder keeps up on a phone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AskSimpleAndroidBenchmark {
+
+	@Param({ "short", "long" })
+	public String message;
+
+	private byte[] text;
+	private byte[] audio;
+	private double[] startSignals;
+	private double[] hailStrength = new double[1];
+	private int dataOffset;
+	private int dataLength;
+
+	@Setup
+	public void setUp() throws IOException {
+		text = ("short".equals(message) ? Messages.kShort : Messages.kLong)
+				.getBytes("US-ASCII");
+		audio = encode(text);
+
+		int length = Constants.kSamplesPerDuration * Constants.kDurationsPerKey;
+		int rough = Decoder.findKeySequence(audio, 0, length, hailStrength, 400);
+		if (rough < 0)
+			throw new IllegalStateException("no key sequence in the encoding");
+		int keyIndex = rough
+				+ Decoder.findKeySequence(audio, rough, length, hailStrength, 20);
+		startSignals = new double[Constants.kBitsPerByte
+				* Constants.kBytesPerDuration];
+		Decoder.getKeySignalStrengths(audio, keyIndex
+				+ Constants.kSamplesPerDuration, startSignals);
+		dataOffset = keyIndex + length;
+		dataLength = ((audio.length - dataOffset) / Constants.kSamplesPerDuration)
+				* Constants.kSamplesPerDuration;
+	}
+
+	private static byte[] encode(byte[] text) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Encoder.encodeStream(new ByteArrayInputStream(text), out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] encodeStream(RealTime realTime) throws IOException {
+		byte[] samples = encode(text);
+		realTime.add(samples.length, Constants.kSamplingFrequency);
+		return samples;
+	}
+
+	@Benchmark
+	public byte[] decode(RealTime realTime) {
+		byte[] decoded = Decoder.decode(startSignals, audio, dataOffset,
+				dataLength);
+		realTime.add(dataLength, Constants.kSamplingFrequency);
+		return decoded;
+	}
+
+	@Benchmark
+	public int findKeySequence(RealTime realTime) {
+		int length = Constants.kSamplesPerDuration * Constants.kDurationsPerKey;
+		int rough = Decoder.findKeySequence(audio, 0, length, hailStrength, 400);
+		int refined = Decoder.findKeySequence(audio, rough, length,
+				hailStrength, 20);
+		realTime.add(2 * length, Constants.kSamplingFrequency);
+		return rough + refined;
+	}
+}
@@ -0,0 +1,162 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the ask-simple-java Encoder and Decoder.
+ *
+ * ask-simple-java lives in the default package, which code in a package
+ * cannot name, so its classes are looked up by name and called through
+ * method handles. invokeExact on a constant handle costs next to nothing
+ * next to a duration of signal processing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AskSimpleJavaBenchmark {
+
+	private static final MethodHandle ENCODE_STREAM;
+	private static final MethodHandle DECODE;
+	private static final MethodHandle FIND_KEY_SEQUENCE;
+	private static final MethodHandle FIND_HAIL;
+	private static final MethodHandle GET_KEY_SIGNAL_STRENGTHS;
+	private static final MethodHandle SET_DETECTOR;
+	private static final double kSamplingFrequency;
+	private static final int kSamplesPerDuration;
+	private static final int kDurationsPerKey;
+	private static final int kSignalStrengths;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> encoder = Class.forName("Encoder");
+			Class<?> decoder = Class.forName("Decoder");
+			Class<?> constants = Class.forName("Constants");
+			ENCODE_STREAM = lookup.findStatic(encoder, "encodeStream",
+					MethodType.methodType(void.class, InputStream.class,
+							OutputStream.class));
+			DECODE = lookup.findStatic(decoder, "decode", MethodType
+					.methodType(byte[].class, double[].class, byte[].class,
+							int.class, int.class));
+			FIND_KEY_SEQUENCE = lookup.findStatic(decoder, "findKeySequence",
+					MethodType.methodType(int.class, byte[].class, int.class,
+							int.class, double[].class, int.class));
+			FIND_HAIL = lookup.findStatic(decoder, "findHail", MethodType
+					.methodType(int.class, byte[].class, int.class, int.class,
+							double[].class));
+			GET_KEY_SIGNAL_STRENGTHS = lookup.findStatic(decoder,
+					"getKeySignalStrengths", MethodType.methodType(void.class,
+							byte[].class, int.class, double[].class));
+			SET_DETECTOR = lookup.findStatic(decoder, "setDetector",
+					MethodType.methodType(void.class, int.class));
+			kSamplingFrequency = constants.getField("kSamplingFrequency")
+					.getDouble(null);
+			kSamplesPerDuration = constants.getField("kSamplesPerDuration")
+					.getInt(null);
+			kDurationsPerKey = constants.getField("kDurationsPerKey").getInt(
+					null);
+			kSignalStrengths = constants.getField("kBitsPerByte").getInt(null)
+					* constants.getField("kBytesPerDuration").getInt(null);
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/** Decoder.kDetectorComplex (0) or Decoder.kDetectorGoertzel (1) */
+	@Param({ "0", "1" })
+	public int detector;
+
+	@Param({ "short", "long" })
+	public String message;
+
+	private byte[] text;
+	private byte[] audio;
+	private double[] startSignals;
+	private double[] hailStrength = new double[1];
+	private int dataOffset;
+	private int dataLength;
+
+	@Setup
+	public void setUp() throws Throwable {
+		SET_DETECTOR.invokeExact(detector);
+		text = ("short".equals(message) ? Messages.kShort : Messages.kLong)
+				.getBytes("US-ASCII");
+		audio = encode(text);
+
+		int keyIndex = (int) FIND_HAIL.invokeExact(audio, 0,
+				kSamplesPerDuration * kDurationsPerKey, hailStrength);
+		if (keyIndex < 0)
+			throw new IllegalStateException("no key sequence in the encoding");
+		startSignals = new double[kSignalStrengths];
+		GET_KEY_SIGNAL_STRENGTHS.invokeExact(audio, keyIndex
+				+ kSamplesPerDuration, startSignals);
+		dataOffset = keyIndex + (kSamplesPerDuration * kDurationsPerKey);
+		dataLength = ((audio.length - dataOffset) / kSamplesPerDuration)
+				* kSamplesPerDuration;
+	}
+
+	private static byte[] encode(byte[] text) throws Throwable {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ENCODE_STREAM.invokeExact((InputStream) new ByteArrayInputStream(text),
+				(OutputStream) out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] encodeStream(RealTime realTime) throws Throwable {
+		byte[] samples = encode(text);
+		realTime.add(samples.length, kSamplingFrequency);
+		return samples;
+	}
+
+	@Benchmark
+	public byte[] decode(RealTime realTime) throws Throwable {
+		byte[] decoded = (byte[]) DECODE.invokeExact(startSignals, audio,
+				dataOffset, dataLength);
+		realTime.add(dataLength, kSamplingFrequency);
+		return decoded;
+	}
+
+	/** The coarse then fine search StreamDecoder used before findHail */
+	@Benchmark
+	public int findKeySequence(RealTime realTime) throws Throwable {
+		int length = kSamplesPerDuration * kDurationsPerKey;
+		int rough = (int) FIND_KEY_SEQUENCE.invokeExact(audio, 0, length,
+				hailStrength, 400);
+		int refined = (int) FIND_KEY_SEQUENCE.invokeExact(audio, rough,
+				length, hailStrength, 20);
+		realTime.add(2 * length, kSamplingFrequency);
+		return rough + refined;
+	}
+
+	@Benchmark
+	public int findHail(RealTime realTime) throws Throwable {
+		int length = kSamplesPerDuration * kDurationsPerKey;
+		int index = (int) FIND_HAIL.invokeExact(audio, 0, length,
+				hailStrength);
+		realTime.add(length, kSamplingFrequency);
+		return index;
+	}
+}
@@ -0,0 +1,76 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jonas.reedsolomon.CRC16;
+import com.jonas.reedsolomon.CRC32C;
+import com.jonas.reedsolomon.CRC8;
+import com.jonas.reedsolomon.CRCGen;
+
+/**
+ * Benchmarks the checksums the modem can append to a message.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrcBenchmark {
+
+	/** The message length in bytes */
+	@Param({ "32", "255" })
+	public int length;
+
+	private byte[] msg;
+
+	@Setup
+	public void setUp() {
+		msg = new byte[length];
+		new Random(42).nextBytes(msg);
+	}
+
+	@Benchmark
+	public byte crc_8_ccitt() {
+		return CRCGen.crc_8_ccitt(msg, msg.length);
+	}
+
+	@Benchmark
+	public int crc_16_ccitt() {
+		return CRCGen.crc_16_ccitt(msg, msg.length);
+	}
+
+	/** The bit-at-a-time CRC-16 table lookup replaced, for comparison */
+	@Benchmark
+	public int crc_ccitt() {
+		return CRCGen.crc_ccitt(msg, msg.length);
+	}
+
+	@Benchmark
+	public int crc8() {
+		return CRC8.compute(msg, 0, msg.length);
+	}
+
+	@Benchmark
+	public int crc16() {
+		return CRC16.compute(msg, 0, msg.length);
+	}
+
+	@Benchmark
+	public int crc32c() {
+		return CRC32C.compute(msg, 0, msg.length);
+	}
+}
@@ -0,0 +1,95 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jonas.CricketAndroid.Constants;
+import com.jonas.CricketAndroid.Decoder;
+import com.jonas.CricketAndroid.Encoder;
+import com.jonas.CricketAndroid.Huffman;
+import com.jonas.CricketAndroid.SymbolBuffer;
+
+/**
+ * Benchmarks the cricket-android frame Encoder and Decoder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CricketBenchmark {
+
+	private SymbolBuffer symbols;
+	private SymbolBuffer decoded = new SymbolBuffer();
+	private byte[] audio;
+	private byte[] encoded;
+	private double hailStrength;
+	private int framesOffset;
+	private int frames;
+
+	@Setup
+	public void setUp() throws IOException {
+		symbols = Huffman.huffencode(Messages.kLong);
+		audio = encode(symbols);
+
+		double[] signalStrength = new double[1];
+		int hailIndex = Decoder.findHail(audio, 0, Constants.kSamplesPerFrame,
+				signalStrength);
+		if (hailIndex < 0)
+			throw new IllegalStateException("no hail in the encoding");
+		hailStrength = signalStrength[0];
+		framesOffset = hailIndex + Constants.kSamplesPerDuration;
+		frames = symbols.size() / Constants.kSymbolsPerFrame;
+		encoded = new byte[Encoder.getCricketLength(symbols)];
+	}
+
+	private static byte[] encode(SymbolBuffer symbols)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Encoder.encodeCricket(symbols, out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] encodeCricket(RealTime realTime) throws IOException {
+		byte[] samples = encode(symbols);
+		realTime.add(samples.length, Constants.kSamplingFrequency);
+		return samples;
+	}
+
+	/** Encodes into a preallocated array, copying the cached frames */
+	@Benchmark
+	public byte[] encodeCricketArray(RealTime realTime) {
+		int length = Encoder.encodeCricket(symbols, encoded, 0);
+		realTime.add(length, Constants.kSamplingFrequency);
+		return encoded;
+	}
+
+	/** Decodes every frame of the message */
+	@Benchmark
+	public int decodeFrame(RealTime realTime) {
+		decoded.clear();
+		for (int i = 0; i < frames; i++) {
+			Decoder.decodeFrame(hailStrength, audio, framesOffset
+					+ (i * Constants.kSamplesPerFrame),
+					Constants.kSamplesPerFrame, decoded);
+		}
+		realTime.add(frames * Constants.kSamplesPerFrame,
+				Constants.kSamplingFrequency);
+		return decoded.size();
+	}
+}
@@ -0,0 +1,89 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jonas.digitalvoices.modem.Constants;
+import com.jonas.digitalvoices.modem.FrameDecoder;
+import com.jonas.digitalvoices.modem.FrameEncoder;
+import com.jonas.digitalvoices.modem.FrameHeader;
+
+/**
+ * Benchmarks the modem's block framing: a payload with FEC, interleaving and
+ * a CRC-16, split into RS(255, k) blocks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+
+	/** The payload length in bytes */
+	@Param({ "200", "4000" })
+	public int length;
+
+	private FrameHeader header;
+	private byte[] payload;
+	private byte[] frame;
+	private byte[] corrupted;
+
+	@Setup
+	public void setUp() {
+		byte flags = (byte) ~((1 << Constants.FEC_FLAG_BIT)
+				| (1 << Constants.INTERLEAVE_FLAG_BIT)
+				| (1 << Constants.CHECKSUM_FLAG_BIT)
+				| (1 << Constants.CRC16_FLAG_BIT));
+		header = new FrameHeader(flags, length);
+		Random random = new Random(42);
+		payload = new byte[length];
+		random.nextBytes(payload);
+		frame = new FrameEncoder(header, payload).toByteArray();
+
+		// a burst in every group, as long as interleaving corrects
+		corrupted = frame.clone();
+		int burst = Constants.INTERLEAVE_DEPTH * Constants.FEC_ERRORS;
+		for (int group = 0; group < header.getGroupCount(); group++) {
+			int at = header.getLength() + header.getGroupOffset(group);
+			for (int i = 0; i < Math.min(burst, header.getGroupLength(group)); i++)
+				corrupted[at + i] ^= 1 + random.nextInt(255);
+		}
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return new FrameEncoder(header, payload).toByteArray();
+	}
+
+	/** Decodes an intact frame, a group at a time */
+	@Benchmark
+	public boolean decode() {
+		return decode(frame);
+	}
+
+	/** Decodes a frame with a burst of errors in every group */
+	@Benchmark
+	public boolean decodeCorrupted() {
+		return decode(corrupted);
+	}
+
+	private boolean decode(byte[] data) {
+		FrameDecoder decoder = new FrameDecoder(header);
+		decoder.write(data, null, header.getLength(), data.length
+				- header.getLength());
+		return decoder.isChecksumValid();
+	}
+}
@@ -0,0 +1,77 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jonas.CricketAndroid.Constants;
+import com.jonas.CricketAndroid.Huffman;
+import com.jonas.CricketAndroid.HuffmanDecoder;
+import com.jonas.CricketAndroid.SymbolBuffer;
+
+/**
+ * Benchmarks the cricket quaternary Huffman code.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HuffmanBenchmark {
+
+	@Param({ "short", "long" })
+	public String message;
+
+	private String text;
+	private SymbolBuffer symbols;
+	private SymbolBuffer encoded = new SymbolBuffer();
+	private HuffmanDecoder decoder = new HuffmanDecoder();
+	private StringBuilder decoded = new StringBuilder();
+
+	@Setup
+	public void setUp() {
+		// the cricket code only has lower case letters, space and '.'
+		text = ("short".equals(message) ? "hello world. this is a test."
+				: Messages.kLong);
+		symbols = Huffman.huffencode(text);
+	}
+
+	@Benchmark
+	public SymbolBuffer huffencode() {
+		return Huffman.huffencode(text);
+	}
+
+	@Benchmark
+	public String huffdecode() {
+		return Huffman.huffdecode(symbols);
+	}
+
+	/** Encodes into a buffer that is reused */
+	@Benchmark
+	public SymbolBuffer encode() {
+		encoded.clear();
+		Huffman.CRICKET.encode(text, encoded);
+		return encoded;
+	}
+
+	/** Decodes a frame of symbols at a time, as StreamDecoder does */
+	@Benchmark
+	public int decodeFrames() {
+		decoded.setLength(0);
+		for (int i = 0; i < symbols.size(); i += Constants.kSymbolsPerFrame)
+			decoder.write(symbols, i, i + Constants.kSymbolsPerFrame, decoded);
+		decoder.reset();
+		return decoded.length();
+	}
+}
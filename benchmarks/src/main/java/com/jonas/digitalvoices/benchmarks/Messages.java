@@ -0,0 +1,18 @@
+package com.jonas.digitalvoices.benchmarks;
+
+/**
+ * The text the benchmarks encode, compress and decode.
+ */
+final class Messages {
+
+	/** A short message, about what a user types into the modem. */
+	static final String kShort = "Hello world! This is a test.";
+
+	/** A longer English message, lower case so the cricket Huffman code covers it. */
+	static final String kLong = "the quick brown fox jumps over the lazy dog and then "
+			+ "the dog wakes up and chases the fox all the way back to the woods "
+			+ "where they both fall asleep under an old oak tree";
+
+	private Messages() {
+	}
+}
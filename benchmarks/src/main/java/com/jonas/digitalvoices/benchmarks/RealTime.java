@@ -0,0 +1,35 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the seconds of audio a benchmark has processed. JMH reports the
+ * counter as a rate, so in throughput mode "audioSeconds" is the real-time
+ * factor: seconds of audio processed per second of (single threaded) CPU
+ * time. A codec has to stay above 1 to keep up with the microphone.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RealTime {
+
+	public double audioSeconds;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		audioSeconds = 0;
+	}
+
+	/**
+	 * @param samples
+	 *            the number of samples processed
+	 * @param samplingFrequency
+	 *            the sampling frequency of the samples
+	 */
+	public void add(int samples, double samplingFrequency) {
+		audioSeconds += samples / samplingFrequency;
+	}
+}
@@ -0,0 +1,124 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jonas.reedsolomon.Interleaver;
+import com.jonas.reedsolomon.RS;
+
+/**
+ * Benchmarks the Reed-Solomon code the modem uses for forward error
+ * correction.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReedSolomonBenchmark {
+
+	/** The number of parity bytes; the modem uses 2 * FEC_ERRORS = 8 */
+	@Param({ "8", "32" })
+	public int parityBytes;
+
+	/** The message length in bytes */
+	@Param({ "32", "200" })
+	public int length;
+
+	private RS rs;
+	private byte[] msg;
+	private byte[] codeword;
+	private byte[] corrupted;
+	private byte[] unreliable;
+	private byte[] reliabilities;
+	private byte[] scratch;
+
+	@Setup
+	public void setUp() {
+		rs = new RS(parityBytes);
+		Random random = new Random(42);
+		msg = new byte[length];
+		random.nextBytes(msg);
+		codeword = new byte[length + parityBytes];
+		rs.encode_data(msg, length, codeword);
+
+		// as many errors as the code can correct
+		corrupted = codeword.clone();
+		for (int i = 0; i < parityBytes / 2; i++) {
+			corrupted[(i * codeword.length) / (parityBytes / 2)] ^= 1 + random
+					.nextInt(255);
+		}
+
+		// one error more than the code can correct, but the decoder was
+		// unsure of every byte in error
+		unreliable = corrupted.clone();
+		unreliable[codeword.length - 1] ^= 1 + random.nextInt(255);
+		reliabilities = new byte[codeword.length];
+		for (int i = 0; i < codeword.length; i++)
+			reliabilities[i] = (byte) (unreliable[i] == codeword[i] ? 200 + random
+					.nextInt(56) : random.nextInt(100));
+		scratch = new byte[codeword.length];
+	}
+
+	/** What ModemService paid per message before it used RS.forParity */
+	@Benchmark
+	public RS newRS() {
+		return new RS(parityBytes);
+	}
+
+	@Benchmark
+	public RS forParity() {
+		return RS.forParity(parityBytes);
+	}
+
+	@Benchmark
+	public byte[] encode_data() {
+		rs.encode_data(msg, length, scratch);
+		return scratch;
+	}
+
+	/** Computes the syndrome of an intact codeword */
+	@Benchmark
+	public int decode_data() {
+		rs.decode_data(codeword, codeword.length);
+		return rs.check_syndrome();
+	}
+
+	/** Computes the syndrome of a corrupted codeword, then corrects it */
+	@Benchmark
+	public byte[] correct_errors_erasures() {
+		System.arraycopy(corrupted, 0, scratch, 0, scratch.length);
+		rs.decode_data(scratch, scratch.length);
+		rs.correct_errors_erasures(scratch, scratch.length, 0, null);
+		return scratch;
+	}
+
+	/** Corrects too many errors by declaring the least reliable bytes erased */
+	@Benchmark
+	public byte[] correct_unreliable() {
+		System.arraycopy(unreliable, 0, scratch, 0, scratch.length);
+		rs.correct_unreliable(scratch, scratch.length, reliabilities);
+		return scratch;
+	}
+
+	/** Interleaves a codeword's worth of bytes in place, four rows deep */
+	@Benchmark
+	public byte[] interleave() {
+		Interleaver.forLength(scratch.length, Interleaver.kSkipFactor)
+				.interleave(scratch, 0);
+		return scratch;
+	}
+}
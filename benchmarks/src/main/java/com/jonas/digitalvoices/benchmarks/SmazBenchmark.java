@@ -0,0 +1,61 @@
+package com.jonas.digitalvoices.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.icedrake.jsmaz.Smaz;
+
+/**
+ * Benchmarks the Smaz short string compression used by the modem.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmazBenchmark {
+
+	@Param({ "short", "long" })
+	public String message;
+
+	private Smaz smaz = new Smaz();
+	private String text;
+	private byte[] bytes;
+	private byte[] compressed;
+
+	@Setup
+	public void setUp() {
+		text = "short".equals(message) ? Messages.kShort : Messages.kLong;
+		bytes = text.getBytes(StandardCharsets.US_ASCII);
+		compressed = smaz.compress(text);
+	}
+
+	@Benchmark
+	public byte[] compress() {
+		return smaz.compress(text);
+	}
+
+	/** The byte[] overload the modem calls */
+	@Benchmark
+	public byte[] compressBytes() {
+		return smaz.compress(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public String decompress() {
+		return smaz.decompress(compressed);
+	}
+}
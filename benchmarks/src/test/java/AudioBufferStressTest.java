@@ -0,0 +1,165 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Pushes an hour of samples through the ask-simple-java AudioBuffer from a
+ * writer thread to a reader thread, under each overflow and wait policy.
+ * <p>
+ * The samples come in chunks of kChunk that each start with their number and
+ * carry a pattern made from it, and both sides move kChunk at a time, so the
+ * head of the buffer stays on a chunk boundary even when the writer drops the
+ * oldest samples. The reader can then tell each chunk it sees, and check that
+ * none came out of order and that every one missing is accounted for: by
+ * nothing when the writer blocks, by the dropped samples and at most the
+ * windows read while samples were being dropped, when it drops the oldest,
+ * and by the writes it was refused when overflows are reported.
+ */
+public class AudioBufferStressTest {
+
+	private static final int kChunk = 1024;
+
+	// an hour of capture at the sampling frequency
+	private static final int kChunks = (int) (Constants.kSamplingFrequency * 3600 / kChunk);
+
+	private static final int[] kWaitPolicies = { AudioBuffer.kWaitSpin,
+			AudioBuffer.kWaitYield, AudioBuffer.kWaitPark };
+
+	/**
+	 * What the reader saw of a run.
+	 */
+	private static class Run {
+		long chunksSeen = 0;   // whole chunks, in order
+		long chunksTorn = 0;   // chunks that may have been overwritten as they were read
+		long chunksMissed = 0; // chunk numbers skipped over
+		long chunksRefused = 0;
+		long droppedSamples = 0;
+	}
+
+	@Test
+	public void blockingLosesNothing() throws Exception {
+		for (int waitPolicy : kWaitPolicies) {
+			Run run = run(AudioBuffer.kOverflowBlock, waitPolicy);
+			assertEquals(kChunks, run.chunksSeen);
+			assertEquals(0, run.chunksMissed);
+			assertEquals(0, run.chunksTorn);
+			assertEquals(0, run.droppedSamples);
+		}
+	}
+
+	@Test
+	public void droppingOldestReportsWhatIsLost() throws Exception {
+		for (int waitPolicy : kWaitPolicies) {
+			Run run = run(AudioBuffer.kOverflowDropOldest, waitPolicy);
+			assertEquals(0, run.droppedSamples % kChunk);
+			// a torn window may itself have been dropped
+			assertTrue(run.chunksMissed >= run.droppedSamples / kChunk);
+			assertTrue(run.chunksMissed <= run.droppedSamples / kChunk
+					+ run.chunksTorn);
+			assertEquals(kChunks, run.chunksSeen + run.chunksMissed);
+			assertTrue(run.chunksSeen > 0);
+		}
+	}
+
+	@Test
+	public void reportingOverflowsLosesOnlyRefusedWrites() throws Exception {
+		for (int waitPolicy : kWaitPolicies) {
+			Run run = run(AudioBuffer.kOverflowReport, waitPolicy);
+			assertEquals(run.chunksRefused, run.chunksMissed);
+			assertEquals(0, run.chunksTorn);
+			assertEquals(0, run.droppedSamples);
+			assertEquals(kChunks, run.chunksSeen + run.chunksMissed);
+			assertTrue(run.chunksSeen > 0);
+		}
+	}
+
+	private static Run run(int overflowPolicy, int waitPolicy) throws Exception {
+		final AudioBuffer buffer = new AudioBuffer(
+				Constants.kAudioBufferCapacity, overflowPolicy);
+		buffer.setWaitPolicy(waitPolicy);
+		final Run run = new Run();
+		final Throwable[] failure = new Throwable[1];
+
+		Thread writer = new Thread("writer") {
+			@Override
+			public void run() {
+				byte[] chunk = new byte[kChunk];
+				try {
+					for (int c = 0; c < kChunks; c++) {
+						fill(chunk, c);
+						try {
+							buffer.write(chunk);
+						} catch (IOException e) {
+							if (buffer.isClosed())
+								throw e;
+							run.chunksRefused++;
+						}
+					}
+				} catch (Throwable t) {
+					failure[0] = t;
+				} finally {
+					buffer.close();
+				}
+			}
+		};
+		writer.start();
+
+		byte[] samples = buffer.getArray();
+		byte[] chunk = new byte[kChunk];
+		long next = 0;
+		while (true) {
+			long dropped = buffer.getDroppedSamples();
+			int offset = buffer.awaitSamples(kChunk);
+			if (offset < 0)
+				break;
+			System.arraycopy(samples, offset, chunk, 0, kChunk);
+			buffer.delete(kChunk);
+
+			// the writer may overwrite a window once it has dropped it
+			if (buffer.getDroppedSamples() != dropped) {
+				run.chunksTorn++;
+				continue;
+			}
+
+			int c = check(chunk);
+			assertTrue("chunk " + c + " after " + (next - 1), c >= next);
+			run.chunksMissed += c - next;
+			run.chunksSeen++;
+			next = c + 1;
+		}
+		writer.join();
+		if (failure[0] != null)
+			throw new AssertionError(failure[0]);
+
+		run.chunksMissed += kChunks - next;
+		run.droppedSamples = buffer.getDroppedSamples();
+		assertEquals(0, buffer.size());
+		return run;
+	}
+
+	private static void fill(byte[] chunk, int c) {
+		chunk[0] = (byte) (c >>> 24);
+		chunk[1] = (byte) (c >>> 16);
+		chunk[2] = (byte) (c >>> 8);
+		chunk[3] = (byte) c;
+		for (int i = 4; i < chunk.length; i++)
+			chunk[i] = (byte) (c * 31 + i * 7);
+	}
+
+	/**
+	 * @return the number of the chunk, or -1 if it is not one whole chunk
+	 */
+	private static int check(byte[] chunk) {
+		int c = ((chunk[0] & 0xFF) << 24) | ((chunk[1] & 0xFF) << 16)
+				| ((chunk[2] & 0xFF) << 8) | (chunk[3] & 0xFF);
+		if (c < 0 || c >= kChunks)
+			return -1;
+		for (int i = 4; i < chunk.length; i++)
+			if (chunk[i] != (byte) (c * 31 + i * 7))
+				return -1;
+		return c;
+	}
+}
@@ -0,0 +1,224 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the ask-simple-java AudioBuffer as a single thread uses it, and the
+ * StreamDecoder reading it in place over a long capture.
+ */
+public class AudioBufferTest {
+
+	// the number of samples the MicrophoneListener typically writes at once
+	private static final int kChunk = 1024;
+
+	/**
+	 * The buffer AudioBuffer replaced, a byte stream that read() copies the
+	 * front of. Its delete(n) dropped n - 1 samples from the front and one
+	 * from the end; this one drops the n it was asked to.
+	 */
+	private static class ByteStreamBuffer {
+		private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+		void write(byte[] input, int offset, int length) {
+			baos.write(input, offset, length);
+		}
+
+		byte[] read(int n) {
+			if (baos.size() < n)
+				return null;
+			return Arrays.copyOf(baos.toByteArray(), n);
+		}
+
+		void delete(int n) {
+			byte[] all = baos.toByteArray();
+			baos.reset();
+			if (n < all.length)
+				baos.write(all, n, all.length - n);
+		}
+
+		int size() {
+			return baos.size();
+		}
+	}
+
+	@Test
+	public void peekAndDeleteMatchTheByteStream() throws IOException {
+		Random random = new Random(1);
+		AudioBuffer buffer = new AudioBuffer(1 << 12,
+				AudioBuffer.kOverflowReport);
+		ByteStreamBuffer old = new ByteStreamBuffer();
+		byte[] input = new byte[buffer.getCapacity()];
+		int peeks = 0;
+
+		for (int step = 0; step < 20000; step++) {
+			int free = buffer.getCapacity() - buffer.size();
+			if (random.nextBoolean() && free > 0) {
+				int length = 1 + random.nextInt(Math.min(free, kChunk));
+				random.nextBytes(input);
+				buffer.write(input, 0, length);
+				old.write(input, 0, length);
+			} else {
+				int n = random.nextInt(buffer.getCapacity() + 1);
+				int offset = buffer.peek(n);
+				byte[] expected = old.read(n);
+				if (expected == null) {
+					assertEquals(-1, offset);
+					assertNull(buffer.read(n));
+				} else {
+					assertTrue(offset >= 0);
+					assertArrayEquals(expected, Arrays.copyOfRange(
+							buffer.getArray(), offset, offset + n));
+					assertArrayEquals(expected, buffer.read(n));
+					peeks++;
+				}
+
+				int deleted = random.nextInt(n + 1);
+				buffer.delete(deleted);
+				old.delete(deleted);
+			}
+			assertEquals(old.size(), buffer.size());
+		}
+		assertTrue(peeks > 1000);
+	}
+
+	/**
+	 * The writer drops the oldest samples, including some of a window the
+	 * reader has peeked, before the reader deletes the window: the delete
+	 * counts from where the reader was, so it takes only what is left of the
+	 * window and none of the samples after it.
+	 */
+	@Test
+	public void deleteAfterDropKeepsUnreadSamples() throws IOException {
+		AudioBuffer buffer = new AudioBuffer(1 << 12,
+				AudioBuffer.kOverflowDropOldest);
+		int capacity = buffer.getCapacity();
+		// each sample is the low byte of its place in the stream
+		byte[] input = new byte[capacity + 256];
+		for (int i = 0; i < input.length; i++)
+			input[i] = (byte) i;
+		long written = 0;
+		buffer.write(input, 0, capacity);
+		written += capacity;
+
+		for (int dropped : new int[] { 0, 100, kChunk, kChunk + 100, 3000 }) {
+			int offset = buffer.peek(kChunk);
+			byte first = buffer.getArray()[offset];
+			buffer.write(input, (int) (written & 0xFF), dropped);
+			written += dropped;
+			buffer.delete(kChunk);
+
+			int deleted = Math.max(kChunk, dropped);
+			assertEquals(capacity + dropped - deleted, buffer.size());
+			// the first sample left is the one after the window, or after the drop
+			offset = buffer.peek(1);
+			assertEquals((byte) (first + deleted), buffer.getArray()[offset]);
+
+			int free = capacity - buffer.size();
+			buffer.write(input, (int) (written & 0xFF), free);
+			written += free;
+		}
+		assertEquals(100 + kChunk + (kChunk + 100) + 3000,
+				buffer.getDroppedSamples());
+
+		// deletes in a row without a peek count on from each other
+		buffer.peek(1);
+		buffer.delete(10);
+		buffer.write(input, 0, 5);
+		buffer.delete(10);
+		assertEquals(capacity - 15, buffer.size());
+	}
+
+	/**
+	 * A capture of several minutes with a message at the end: the writer
+	 * waits on the decoder, so the backlog never outgrows the capacity the
+	 * buffer started with, where the byte stream grew without bound and
+	 * copied the whole of it for each duration. The decoder keeps reading the
+	 * one backing array, and finds the message after all the noise.
+	 */
+	@Test
+	public void longCaptureDoesNotGrowTheBacklog() throws Exception {
+		int minutes = 10;
+		int samplesPerMinute = (int) Constants.kSamplingFrequency * 60;
+		byte[] message = "the backlog stays flat".getBytes("US-ASCII");
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		Encoder.encodeStream(new ByteArrayInputStream(message), encoded);
+
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		StreamDecoder decoder = new StreamDecoder(synchronizedStream(decoded));
+		AudioBuffer buffer = decoder.getAudioBuffer();
+		buffer.setOverflowPolicy(AudioBuffer.kOverflowBlock);
+		byte[] samples = buffer.getArray();
+		int capacity = buffer.getCapacity();
+
+		// background noise, which the writer waits on the decoder to search
+		Random random = new Random(2);
+		byte[] noise = new byte[kChunk];
+		int maxBacklog = 0;
+		for (int minute = 0; minute < minutes; minute++) {
+			for (int written = 0; written < samplesPerMinute; written += kChunk) {
+				for (int i = 0; i < noise.length; i++)
+					noise[i] = (byte) (random.nextInt(9) - 4);
+				buffer.write(noise);
+				maxBacklog = Math.max(maxBacklog, buffer.size());
+			}
+			assertEquals(capacity, buffer.getCapacity());
+			assertTrue(samples == buffer.getArray());
+		}
+		buffer.write(encoded.toByteArray());
+		buffer.write(new byte[Constants.kSamplesPerDuration
+				* Constants.kDurationsPerKey]);
+		buffer.close();
+
+		assertEquals(0, buffer.getDroppedSamples());
+		assertTrue(maxBacklog + " of " + capacity, maxBacklog <= capacity);
+
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!contains(toByteArray(decoded), message)
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertTrue(new String(toByteArray(decoded), "US-ASCII"),
+				contains(toByteArray(decoded), message));
+	}
+
+	private static OutputStream synchronizedStream(final ByteArrayOutputStream out) {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+				synchronized (out) {
+					out.write(b);
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				synchronized (out) {
+					out.write(b, off, len);
+				}
+			}
+		};
+	}
+
+	private static byte[] toByteArray(ByteArrayOutputStream out) {
+		synchronized (out) {
+			return out.toByteArray();
+		}
+	}
+
+	private static boolean contains(byte[] data, byte[] pattern) {
+		for (int i = 0; i + pattern.length <= data.length; i++)
+			if (Arrays.equals(pattern,
+					Arrays.copyOfRange(data, i, i + pattern.length)))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,65 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+
+/**
+ * Checks the three ASK encoders against the audio the encoders before the
+ * cached bit tones made: the SHA-256 of the encoding of all 256 byte values,
+ * in order, taken from the baseline sources.
+ */
+public class EncoderTest {
+
+	private static final byte[] kAllBytes = new byte[256];
+
+	static {
+		for (int i = 0; i < kAllBytes.length; i++)
+			kAllBytes[i] = (byte) i;
+	}
+
+	@Test
+	public void askSimpleJavaMatchesTheOldEncoder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Encoder.encodeStream(new ByteArrayInputStream(kAllBytes), out);
+		assertEquals(Encoder.getEncodedLength(kAllBytes.length), out.size());
+		assertEquals(
+				"778cd256114d14725d64c042cbd0d546f33fec50d789e207d1d21859069cc166",
+				sha256(out.toByteArray()));
+	}
+
+	@Test
+	public void askSimpleAndroidMatchesTheOldEncoder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		com.jarkman.ASKSimpleAndroid.Encoder.encodeStream(
+				new ByteArrayInputStream(kAllBytes), out);
+		assertEquals(com.jarkman.ASKSimpleAndroid.Encoder
+				.getEncodedLength(kAllBytes.length), out.size());
+		assertEquals(
+				"cb6a7bf8d7adba2d3b68798f32ca5641d0651f3d984e39552d97654ed0270d7c",
+				sha256(out.toByteArray()));
+	}
+
+	@Test
+	public void modemMatchesTheOldEncoder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		com.jonas.digitalvoices.modem.Encoder.encodeStream(
+				new ByteArrayInputStream(kAllBytes), out);
+		assertEquals(com.jonas.digitalvoices.modem.Encoder
+				.getEncodedLength(kAllBytes.length), out.size());
+		assertEquals(
+				"cf25bf0632ce27bbb049c4a9c567737c0e909b5940cd90135f401d05c69c0deb",
+				sha256(out.toByteArray()));
+	}
+
+	private static String sha256(byte[] data)
+			throws NoSuchAlgorithmException {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}
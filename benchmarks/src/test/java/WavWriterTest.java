@@ -0,0 +1,187 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the ask-simple-java WavWriter against AudioUtils.writeWav, which
+ * writes the whole of the audio at once through AudioSystem.
+ */
+public class WavWriterTest {
+
+	// the length of the canonical PCM WAVE header
+	private static final int kHeaderLength = 44;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Random random = new Random(1);
+
+	/**
+	 * Up to several of WavWriter's 64 KB buffers of samples, written in
+	 * pieces of random sizes, some a byte at a time.
+	 */
+	@Test
+	public void matchesWriteWavForTheDefaultFormat() throws Exception {
+		int[] lengths = { 0, 1, 2, 1000, 65535, 65536, 65537, 200000 };
+		for (int length : lengths) {
+			byte[] samples = new byte[length];
+			random.nextBytes(samples);
+
+			File expected = folder.newFile();
+			AudioUtils.writeWav(expected, samples, AudioUtils.kDefaultFormat);
+			File actual = folder.newFile();
+			write(actual, AudioUtils.kDefaultFormat, samples);
+
+			assertArrayEquals("" + length, Files.readAllBytes(expected.toPath()),
+					Files.readAllBytes(actual.toPath()));
+		}
+	}
+
+	@Test
+	public void closeFillsInTheHeaderSizes() throws Exception {
+		byte[] samples = new byte[100001];
+		random.nextBytes(samples);
+		File file = folder.newFile();
+		WavWriter wav = new WavWriter(file, AudioUtils.kDefaultFormat);
+		wav.write(samples, 0, 50000);
+		wav.flush();
+		wav.write(samples, 50000, samples.length - 50000);
+		assertEquals(samples.length, wav.getDataLength());
+		wav.close();
+		wav.close();
+
+		ByteBuffer header = header(file);
+		assertEquals(kHeaderLength + samples.length, file.length());
+		assertEquals(kHeaderLength - 8 + samples.length, header.getInt(4));
+		assertEquals(samples.length, header.getInt(kHeaderLength - 4));
+		assertEquals(8, header.getShort(34)); // bits per sample
+		assertEquals(1, header.getShort(32)); // block align
+	}
+
+	@Test(expected = IOException.class)
+	public void refusesWritesAfterClose() throws Exception {
+		WavWriter wav = new WavWriter(folder.newFile(),
+				AudioUtils.kDefaultFormat);
+		wav.close();
+		wav.write(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesFormatsItCannotStore() throws Exception {
+		new WavWriter(folder.newFile(), new AudioFormat(
+				AudioFormat.Encoding.PCM_FLOAT, 22050, 32, 1, 4, 22050, false));
+	}
+
+	/**
+	 * writeWav counted each byte of 16 bit audio as a frame; the sizes
+	 * WavWriter writes count bytes, and AudioSystem reads the samples back
+	 * little endian whichever order they were written in, including samples
+	 * split across writes.
+	 */
+	@Test
+	public void sixteenBitSizesCountBytes() throws Exception {
+		int frames = 70001;
+		byte[] samples = new byte[2 * frames];
+		random.nextBytes(samples);
+		for (boolean bigEndian : new boolean[] { false, true }) {
+			AudioFormat format = new AudioFormat(22050, 16, 1, true,
+					bigEndian);
+			File file = folder.newFile();
+			write(file, format, samples);
+
+			ByteBuffer header = header(file);
+			assertEquals(kHeaderLength + samples.length, file.length());
+			assertEquals(kHeaderLength - 8 + samples.length, header.getInt(4));
+			assertEquals(samples.length, header.getInt(kHeaderLength - 4));
+			assertEquals(16, header.getShort(34));
+			assertEquals(2, header.getShort(32));
+			assertEquals(22050 * 2, header.getInt(28)); // byte rate
+
+			AudioInputStream in = AudioSystem.getAudioInputStream(file);
+			assertEquals(frames, in.getFrameLength());
+			assertEquals(false, in.getFormat().isBigEndian());
+			byte[] read = readAll(in);
+			byte[] expected = samples.clone();
+			if (bigEndian)
+				for (int i = 0; i < expected.length; i += 2) {
+					expected[i] = samples[i + 1];
+					expected[i + 1] = samples[i];
+				}
+			assertArrayEquals(expected, read);
+		}
+	}
+
+	/**
+	 * A big endian 16 bit stream that ends half way through a sample has the
+	 * sample finished with a zero low byte, and the sizes count what was
+	 * written.
+	 */
+	@Test
+	public void closeFinishesAHalfSample() throws Exception {
+		byte[] samples = { 0x12, 0x34, 0x56 };
+		AudioFormat format = new AudioFormat(22050, 16, 1, true, true);
+		File file = folder.newFile();
+		WavWriter wav = new WavWriter(file, format);
+		wav.write(samples, 0, samples.length);
+		wav.close();
+		assertEquals(samples.length + 1, wav.getDataLength());
+
+		ByteBuffer header = header(file);
+		assertEquals(kHeaderLength + 4, file.length());
+		assertEquals(kHeaderLength - 8 + 4, header.getInt(4));
+		assertEquals(4, header.getInt(kHeaderLength - 4));
+		assertArrayEquals(new byte[] { 0x34, 0x12, 0, 0x56 },
+				readAll(AudioSystem.getAudioInputStream(file)));
+	}
+
+	/**
+	 * Writes the samples to a WavWriter in pieces of random sizes.
+	 */
+	private void write(File file, AudioFormat format, byte[] samples)
+			throws IOException {
+		WavWriter wav = new WavWriter(file, format);
+		int written = 0;
+		while (written < samples.length) {
+			if (random.nextInt(8) == 0) {
+				wav.write(samples[written++]);
+				continue;
+			}
+			int length = Math.min(samples.length - written,
+					random.nextInt(3000));
+			wav.write(samples, written, length);
+			written += length;
+		}
+		wav.close();
+	}
+
+	private static ByteBuffer header(File file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		return ByteBuffer.wrap(bytes, 0, kHeaderLength).order(
+				ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static byte[] readAll(AudioInputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			out.write(buffer, 0, read);
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,135 @@
+package com.github.icedrake.jsmaz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the compiled codebook lookup against output of the compress that
+ * searched the codebook strings, from compress(String) and from a slice of a
+ * byte array, the verbatim runs at and past the longest, and UTF-8 text.
+ */
+public class SmazTest {
+
+	private final Smaz smaz = new Smaz();
+
+	private final Random random = new Random(1);
+
+	/** Output of the old compress */
+	private static final String[] kSentences = { "This is a small string",
+			"the end", "not-a-g00d-Exampl333",
+			"this is an example of what works very well with smaz",
+			"1000 numbers 2000 will 10 20 30 compress very little",
+			"http://programming.reddit.com" };
+	private static final byte[][] kCompressed = {
+			{ -2, 84, 76, 56, -84, 62, -83, -104, 62, -61, 70 },
+			{ 1, -85, 61 },
+			{ -124, -52, 4, -52, 59, -1, 2, 48, 48, 24, -52, -2, 69, -6, 4, 45,
+					60, 22, -1, 3, 51, 51, 51 },
+			{ -101, 56, -84, 41, 2, -6, 4, 45, 60, 87, 32, 0, -62, -121, 65,
+					42, -2, 107, 23, -25, 71, -111, -104, -13, -29, 10, -83,
+					-37 },
+			{ -1, 4, 49, 48, 48, 48, -20, 38, 45, 92, -35, 0, -1, 4, 50, 48, 48,
+					48, -13, -104, 0, -1, 2, 49, 48, 0, -1, 2, 50, 48, 0, -1, 2,
+					51, 48, -95, 45, 60, 33, -90, 0, -25, 71, -105, 3, 3, 87 },
+			{ 67, 60, 115, 59, -126, 45, 45, 70, 110, 33, 24, -127, 3, -3 } };
+
+	@Test
+	public void compressesAsBefore() throws Exception {
+		for (int i = 0; i < kSentences.length; i++) {
+			String sentence = kSentences[i];
+			assertArrayEquals(sentence, kCompressed[i], smaz.compress(sentence));
+
+			byte[] ascii = sentence.getBytes("US-ASCII");
+			byte[] padded = new byte[ascii.length + 10];
+			random.nextBytes(padded);
+			System.arraycopy(ascii, 0, padded, 3, ascii.length);
+			assertArrayEquals(sentence, kCompressed[i],
+					smaz.compress(padded, 3, ascii.length));
+
+			assertEquals(sentence, smaz.decompress(kCompressed[i]));
+		}
+		assertEquals(0, smaz.compress("").length);
+	}
+
+	/**
+	 * compress(byte[], int, int) gives what compress(String) does, on random
+	 * ASCII, some of it words the codebook has.
+	 */
+	@Test
+	public void bytesCompressLikeTheString() throws Exception {
+		String[] words = { "the ", "of", " and ", "that", "which", "http://",
+				".com", "e, ", " it" };
+		for (int trial = 0; trial < 1000; trial++) {
+			StringBuilder text = new StringBuilder();
+			for (int n = random.nextInt(60); n > 0; n--) {
+				if (random.nextBoolean())
+					text.append((char) random.nextInt(128));
+				else
+					text.append(words[random.nextInt(words.length)]);
+			}
+			String string = text.toString();
+			byte[] ascii = string.getBytes("US-ASCII");
+			assertArrayEquals(string, smaz.compress(string),
+					smaz.compress(ascii, 0, ascii.length));
+		}
+	}
+
+	/**
+	 * A run of 255 bytes the codebook does not have goes out as one verbatim
+	 * run. A run of 256 used to as well, its length written as 0, which
+	 * decompressed to nothing; it is now a run of 255 and an escaped byte.
+	 */
+	@Test
+	public void writesTheLongestVerbatimRuns() {
+		assertArrayEquals(verbatim(255, 255), smaz.compress(run(255), 0, 255));
+		byte[] split = Arrays.copyOf(verbatim(255, 255), 259);
+		split[257] = (byte) 254;
+		split[258] = '1';
+		assertArrayEquals(split, smaz.compress(run(256), 0, 256));
+
+		for (int length = 250; length < 520; length++)
+			assertEquals(new String(run(length)),
+					smaz.decompress(smaz.compress(run(length), 0, length)));
+	}
+
+	/**
+	 * Text other than ASCII is compressed as UTF-8, its bytes always
+	 * verbatim.
+	 */
+	@Test
+	public void passesUtf8Through() throws Exception {
+		String text = "Gr\u00fc\u00dfe aus K\u00f6ln, \u6771\u4eac \u2192 ok";
+		byte[] compressed = { -2, 71, 12, -1, 4, -61, -68, -61, -97, -68, -92,
+				0, -1, 3, 75, -61, -74, 22, 9, 36, -1, 6, -26, -99, -79, -28,
+				-70, -84, 0, -1, 3, -30, -122, -110, 29, -2, 107 };
+		assertArrayEquals(compressed, smaz.compress(text));
+		byte[] utf8 = text.getBytes("UTF-8");
+		assertArrayEquals(compressed, smaz.compress(utf8, 0, utf8.length));
+		assertEquals(text, smaz.decompress(compressed));
+	}
+
+	/**
+	 * @return the digit 1, which starts no codebook entry, length times
+	 */
+	private static byte[] run(int length) {
+		byte[] run = new byte[length];
+		Arrays.fill(run, (byte) '1');
+		return run;
+	}
+
+	/**
+	 * @return a verbatim run of the digit 1 with the given length byte
+	 */
+	private static byte[] verbatim(int lengthByte, int length) {
+		byte[] verbatim = new byte[2 + length];
+		verbatim[0] = (byte) 255;
+		verbatim[1] = (byte) lengthByte;
+		System.arraycopy(run(length), 0, verbatim, 2, length);
+		return verbatim;
+	}
+}
@@ -0,0 +1,122 @@
+package com.jonas.CricketAndroid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Decodes frames of the recordings in cricket/ and checks the symbols
+ * against those the decoder gave before it worked from energy sums,
+ * including a frame whose phases tie, which has to be broken as the 2-norms
+ * broke it.
+ */
+public class DecoderTest {
+
+	private static final String[] kRecordings = { "aeiou", "cricket",
+			"cricket1", "triplet" };
+
+	/**
+	 * SHA-256 of the symbols the old decodeFrame gave for a frame at every
+	 * kStep samples of each recording, at each of kStrengths in turn
+	 */
+	private static final String[] kSymbolDigests = {
+			"f0086e99841f27d8db4eb45bbf3b78b92cc78e381c5c5772f9cd9242268b2e0a",
+			"6aa7e37e520e0377cde3621597dbbd48cad233d52c88ef5165c7b92aef72eda8",
+			"03cc7ba807b9c65384c97086285ed63b14ea8d4ab78c6dffa819cdacd4229c53",
+			"c642492dc71ab98ab71376d67943f2f8b63bc91891f4139e6c2dce2e1bb03db7" };
+
+	private static final double[] kStrengths = { 0.05, 0.3, 1.0 };
+
+	private static final int kStep = 53;
+
+	@Test
+	public void decodesTheRecordingsAsBefore() throws Exception {
+		for (int i = 0; i < kRecordings.length; i++) {
+			byte[] samples = read(kRecordings[i]);
+			StringBuilder symbols = new StringBuilder();
+			SymbolBuffer frame = new SymbolBuffer();
+			for (double strength : kStrengths) {
+				for (int offset = 0; offset + Constants.kSamplesPerFrame <= samples.length; offset += kStep) {
+					frame.clear();
+					Decoder.decodeFrame(strength, samples, offset,
+							Constants.kSamplesPerFrame, frame);
+					for (int k = 0; k < frame.size(); k++)
+						symbols.append(frame.get(k));
+				}
+			}
+			assertEquals(kRecordings[i], kSymbolDigests[i],
+					sha256(symbols.toString().getBytes("US-ASCII")));
+		}
+	}
+
+	/**
+	 * Two phases of this frame have the same energy, and the old 2-norms, by
+	 * their rounding, chose the later one, phase 3.
+	 */
+	@Test
+	public void breaksATieAsBefore() throws Exception {
+		byte[] samples = read("aeiou");
+		SymbolBuffer frame = Decoder.decodeFrame(0.3, Arrays.copyOfRange(
+				samples, 5035, 5035 + Constants.kSamplesPerFrame));
+		assertEquals(4, frame.size());
+		assertEquals(3, frame.get(0));
+		assertEquals(2, frame.get(1));
+		assertEquals(2, frame.get(2));
+		assertEquals(2, frame.get(3));
+	}
+
+	@Test
+	public void decodesEveryFrameTheEncoderMakes() {
+		for (double strength : new double[] { 0.3, 0.5 }) {
+			for (int symbols = 0; symbols < 256; symbols++) {
+				SymbolBuffer frame = Decoder.decodeFrame(strength,
+						Encoder.getFrame(symbols));
+				for (int k = 0; k < Constants.kSymbolsPerFrame; k++)
+					assertEquals(((symbols >>> (2 * k)) & 3) + 1, frame.get(k));
+			}
+		}
+	}
+
+	/**
+	 * @return the samples of cricket/name.wav as signed bytes, the high byte
+	 *         of 16-bit samples
+	 */
+	private static byte[] read(String name) throws IOException {
+		byte[] wav = Files.readAllBytes(new File("../cricket", name + ".wav")
+				.toPath());
+		int bits = 8;
+		for (int chunk = 12; chunk + 8 <= wav.length;) {
+			String id = new String(wav, chunk, 4, "US-ASCII");
+			int size = (wav[chunk + 4] & 0xFF) | (wav[chunk + 5] & 0xFF) << 8
+					| (wav[chunk + 6] & 0xFF) << 16 | (wav[chunk + 7] & 0xFF) << 24;
+			if (id.equals("fmt "))
+				bits = wav[chunk + 22] & 0xFF;
+			if (id.equals("data")) {
+				int start = chunk + 8;
+				size = Math.min(size, wav.length - start);
+				byte[] samples = new byte[bits == 8 ? size : size / 2];
+				for (int i = 0; i < samples.length; i++)
+					samples[i] = bits == 8 ? (byte) ((wav[start + i] & 0xFF) - 128)
+							: wav[start + 2 * i + 1];
+				return samples;
+			}
+			chunk += 8 + size + (size & 1);
+		}
+		throw new IOException("no data in " + name + ".wav");
+	}
+
+	private static String sha256(byte[] data)
+			throws NoSuchAlgorithmException {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}
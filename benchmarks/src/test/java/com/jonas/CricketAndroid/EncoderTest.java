@@ -0,0 +1,106 @@
+package com.jonas.CricketAndroid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the cached cricket frames against audio the encoder rendered for
+ * each message before, and the array encoding against the stream one.
+ */
+public class EncoderTest {
+
+	/**
+	 * SHA-256 of what the old encodeCricket wrote for all 256 frames in
+	 * order, the hails and leading silence included
+	 */
+	private static final String kAllFramesDigest = "d0d932d05769914c1d5f4d8a2f39e5ee6098cc32086c765b85f49218e78bacec";
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void rendersEveryFrameAsBefore() throws Exception {
+		SymbolBuffer symbols = new SymbolBuffer();
+		for (int frame = 0; frame < 256; frame++)
+			for (int j = 0; j < Constants.kSymbolsPerFrame; j++)
+				symbols.add(((frame >>> (2 * j)) & 3) + 1);
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		Encoder.encodeCricket(symbols, stream);
+		byte[] encoded = stream.toByteArray();
+		assertEquals(kAllFramesDigest, sha256(encoded));
+		assertEquals(Encoder.getCricketLength(symbols), encoded.length);
+
+		// the frames follow the silence and the hail, a duration each
+		int offset = 2 * Constants.kSamplesPerDuration;
+		for (int frame = 0; frame < 256; frame++) {
+			byte[] samples = Encoder.getFrame(frame);
+			assertEquals(Constants.kSamplesPerFrame, samples.length);
+			assertArrayEquals(Arrays.copyOfRange(encoded, offset, offset
+					+ samples.length), samples);
+			assertSame(samples, Encoder.getFrame(frame));
+			offset += samples.length;
+		}
+	}
+
+	/**
+	 * encodeCricket into an array writes what it writes to a stream, and
+	 * getCricketLength bytes of it, leaving the rest of the array alone.
+	 */
+	@Test
+	public void encodesIntoAnArrayAsIntoAStream() throws Exception {
+		for (int trial = 0; trial < 20; trial++) {
+			SymbolBuffer symbols = new SymbolBuffer();
+			int frames = random.nextInt(40);
+			for (int i = 0; i < frames * Constants.kSymbolsPerFrame; i++)
+				symbols.add(1 + random.nextInt(4));
+
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			Encoder.encodeCricket(symbols, stream);
+			byte[] expected = stream.toByteArray();
+
+			int length = Encoder.getCricketLength(symbols);
+			assertEquals(expected.length, length);
+			byte[] array = new byte[length + 10];
+			Arrays.fill(array, (byte) 7);
+			assertEquals(length, Encoder.encodeCricket(symbols, array, 3));
+			assertArrayEquals(expected, Arrays.copyOfRange(array, 3, 3 + length));
+			for (int i : new int[] { 0, 1, 2, length + 3, array.length - 1 })
+				assertEquals(7, array[i]);
+		}
+	}
+
+	@Test
+	public void refusesPartFrames() throws Exception {
+		SymbolBuffer symbols = new SymbolBuffer();
+		for (int i = 0; i < 6; i++)
+			symbols.add(1 + i % 4);
+		try {
+			Encoder.getCricketLength(symbols);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			Encoder.encodeCricket(symbols, new ByteArrayOutputStream());
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private static String sha256(byte[] data)
+			throws NoSuchAlgorithmException {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}
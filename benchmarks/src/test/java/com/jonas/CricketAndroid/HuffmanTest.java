@@ -0,0 +1,165 @@
+package com.jonas.CricketAndroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Round trips through the cricket Huffman code: Huffman.huffencode and
+ * encode, then Huffman.decode and a HuffmanDecoder fed the symbols a piece
+ * at a time.
+ */
+public class HuffmanTest {
+
+	private static final String kCricketCharacters = " abcdefghijklmnopqrstuvwxyz.";
+
+	private final Random random = new Random(1);
+
+	/**
+	 * The old huffdecode stopped with three symbols left, dropping the code
+	 * words in them; every character must come through as the last of a
+	 * message, whether or not the message is padded.
+	 */
+	@Test
+	public void decodesTheLastSymbols() {
+		for (char c : kCricketCharacters.toCharArray()) {
+			for (String text : new String[] { "" + c, "a" + c, "the end" + c,
+					"" + c + c + c }) {
+				SymbolBuffer symbols = new SymbolBuffer();
+				assertEquals(0, Huffman.CRICKET.encode(text, symbols));
+				assertEquals(Huffman.CRICKET.encodedLength(text), symbols.size());
+				assertEquals(text, Huffman.CRICKET.decode(symbols));
+
+				Huffman.CRICKET.pad(symbols);
+				assertEquals(0, symbols.size() % Constants.kSymbolsPerFrame);
+				assertEquals(text, Huffman.CRICKET.decode(symbols));
+
+				assertEquals(text, Huffman.huffdecode(Huffman.huffencode(text)));
+			}
+		}
+	}
+
+	/**
+	 * Every ASCII character a code has no word for goes as an escape and a
+	 * four symbol literal, in a code made for the message and sent in its
+	 * header, and in a code given to the decoder.
+	 */
+	@Test
+	public void escapesCharactersWithoutCodeWords() {
+		StringBuilder ascii = new StringBuilder();
+		for (char c = 0; c < Huffman.ESCAPE; c++)
+			ascii.append(c);
+		String text = "the cricket chirps " + ascii + " and chirps again";
+
+		SymbolBuffer encoded = Huffman.huffencode(text);
+		assertEquals(Constants.kAdaptiveHuffmanTable,
+				~encoded.window(0) & 0xFF);
+		assertEquals(text, Huffman.huffdecode(encoded));
+
+		// four code words and an escape, which the rest of ASCII goes through
+		int[] codeLengths = new int[Huffman.ESCAPE + 1];
+		codeLengths[' '] = 1;
+		codeLengths['e'] = 2;
+		codeLengths['t'] = 2;
+		codeLengths['s'] = 3;
+		codeLengths[Huffman.ESCAPE] = 3;
+		Huffman code = new Huffman(codeLengths);
+		SymbolBuffer symbols = new SymbolBuffer();
+		assertEquals(0, code.encode(text, symbols));
+		assertEquals(code.encodedLength(text), symbols.size());
+		assertEquals(text, code.decode(symbols));
+
+		// the CRICKET code has no escape, so it leaves the others out
+		SymbolBuffer cricket = new SymbolBuffer();
+		assertEquals(Huffman.ESCAPE - kCricketCharacters.length(),
+				Huffman.CRICKET.encode(ascii, cricket));
+		assertEquals(-1, Huffman.CRICKET.encodedLength(ascii));
+		assertEquals(" .abcdefghijklmnopqrstuvwxyz",
+				Huffman.CRICKET.decode(cricket));
+	}
+
+	/**
+	 * Messages fed to a HuffmanDecoder in pieces of random sizes, each in a
+	 * SymbolBuffer of its own as frames arrive, so code words, escapes and
+	 * their literals, and the header and its table are cut off at every
+	 * place, including across the 16 symbol words of a buffer.
+	 */
+	@Test
+	public void decodesPiecesSplitAcrossBuffers() {
+		String alphabet = kCricketCharacters + "ABCXYZ0123456789,;!?\n\t~";
+		HuffmanDecoder decoder = new HuffmanDecoder();
+		for (int trial = 0; trial < 2000; trial++) {
+			StringBuilder text = new StringBuilder();
+			int length = random.nextInt(60);
+			// half of the messages fit the CRICKET code, the others need one of
+			// their own
+			boolean cricket = random.nextBoolean();
+			for (int i = 0; i < length; i++)
+				text.append(cricket ? kCricketCharacters.charAt(random
+						.nextInt(kCricketCharacters.length())) : alphabet
+						.charAt(random.nextInt(alphabet.length())));
+
+			SymbolBuffer encoded = Huffman.huffencode(text.toString());
+			StringBuilder decoded = new StringBuilder();
+			int from = 0;
+			while (from < encoded.size()) {
+				int to = Math.min(encoded.size(), from + 1 + random.nextInt(20));
+				SymbolBuffer piece = new SymbolBuffer(1);
+				piece.addAll(encoded, from, to);
+				if (random.nextBoolean()) {
+					decoder.write(piece, decoded);
+				} else {
+					// a piece in the middle of a bigger buffer
+					SymbolBuffer around = new SymbolBuffer();
+					int before = random.nextInt(17);
+					for (int i = 0; i < before; i++)
+						around.add(1 + random.nextInt(4));
+					around.addAll(piece, 0, piece.size());
+					around.add(1 + random.nextInt(4));
+					decoder.write(around, before, before + piece.size(),
+							decoded);
+				}
+				from = to;
+			}
+			assertEquals(text.toString(), decoded.toString());
+			assertTrue(decoder.getCode() != null);
+			decoder.reset();
+		}
+	}
+
+	/**
+	 * addAll and window against get, from and to every place in the 16
+	 * symbol words of a buffer.
+	 */
+	@Test
+	public void symbolBufferCopiesAcrossWords() {
+		SymbolBuffer source = new SymbolBuffer(1);
+		for (int i = 0; i < 100; i++)
+			source.add(1 + random.nextInt(4));
+		for (int trial = 0; trial < 5000; trial++) {
+			SymbolBuffer target = new SymbolBuffer(1);
+			int prefix = random.nextInt(33);
+			for (int i = 0; i < prefix; i++)
+				target.add(1 + (i & 3));
+			int from = random.nextInt(source.size() + 1);
+			int to = from + random.nextInt(source.size() - from + 1);
+			target.addAll(source, from, to);
+
+			assertEquals(prefix + to - from, target.size());
+			for (int i = 0; i < prefix; i++)
+				assertEquals(1 + (i & 3), target.get(i));
+			for (int i = from; i < to; i++)
+				assertEquals(source.get(i), target.get(prefix + i - from));
+			for (int i = 0; i < target.size(); i++) {
+				int window = target.window(i);
+				for (int k = 0; k < 4; k++) {
+					int expected = i + k < target.size() ? target.get(i + k) - 1 : 0;
+					assertEquals(expected, (window >>> (2 * k)) & 3);
+				}
+			}
+		}
+	}
+}
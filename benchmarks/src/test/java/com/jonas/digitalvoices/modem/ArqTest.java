@@ -0,0 +1,296 @@
+package com.jonas.digitalvoices.modem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Runs ARQ sessions between an ArqSender and an ArqReceiver over a channel
+ * that flips each bit of a transmission with a given probability and drops
+ * whole transmissions, as ArqSimulation does, and over one that damages
+ * chosen transmissions in the ways the FEC can miss.
+ */
+public class ArqTest {
+
+	private static final double[] kBitErrorRates = { 0, 1e-4, 1e-3 };
+
+	private static final double kDropRate = 0.1;
+
+	private final Random random = new Random(1);
+
+	/**
+	 * What the sender should make of the FEEDBACK it has heard: the latest
+	 * stands for the segments it covers and those before its base.
+	 */
+	private static class Acknowledged {
+		final boolean[] segments;
+
+		Acknowledged(int segmentCount) {
+			segments = new boolean[segmentCount];
+		}
+
+		void heard(ArqPdu feedback) {
+			for (int segment = 0; segment < segments.length; segment++)
+				if (segment < feedback.base || feedback.covers(segment))
+					segments[segment] = !feedback.isMarked(segment);
+		}
+
+		int base() {
+			int base = 0;
+			while (base < segments.length && segments[base])
+				base++;
+			return base;
+		}
+	}
+
+	/**
+	 * Messages of random lengths, each delivered whole through the noise and
+	 * the drops, with every DATA carrying just the segments of its window the
+	 * sender has not had acknowledged.
+	 */
+	@Test
+	public void deliversOnlyWhatIsMissing() {
+		int resends = 0;
+		for (double bitErrorRate : kBitErrorRates) {
+			for (int trial = 0; trial < 30; trial++) {
+				byte[] message = new byte[trial == 0 ? 0 : random.nextInt(3000)];
+				random.nextBytes(message);
+				ArqSender sender = new ArqSender(trial, (byte) 0xFF, message,
+						true);
+				ArqReceiver receiver = new ArqReceiver();
+				Acknowledged acknowledged = new Acknowledged(
+						sender.getSegmentCount());
+				boolean[] sent = new boolean[sender.getSegmentCount()];
+
+				FrameEncoder frame;
+				while ((frame = sender.nextTransmission()) != null) {
+					boolean[] carried = check(frame, message, acknowledged);
+					for (int segment = 0; segment < sent.length; segment++) {
+						if (carried[segment] && sent[segment])
+							resends++;
+						sent[segment] |= carried[segment];
+					}
+
+					FrameDecoder data = transmit(frame, bitErrorRate);
+					FrameEncoder feedback = data == null ? null : receiver
+							.received(data);
+					FrameDecoder heard = feedback == null ? null : transmit(
+							feedback, bitErrorRate);
+					if (heard != null && sender.received(heard))
+						acknowledged.heard(ArqPdu.parse(heard.getPayload()));
+					else
+						sender.timedOut();
+				}
+
+				String session = bitErrorRate + " " + message.length;
+				assertTrue(session, sender.isComplete());
+				assertFalse(session, sender.hasFailed());
+				assertTrue(session, receiver.isComplete());
+				assertArrayEquals(session, message, receiver.getMessage());
+			}
+		}
+		assertTrue(resends > 0);
+	}
+
+	/**
+	 * A FEEDBACK the FEC cannot correct, and one it corrects to the wrong
+	 * bytes, are both refused; the sender times out and sends the window
+	 * again, and the session goes on.
+	 */
+	@Test
+	public void recoversFromACorruptedFeedback() {
+		byte[] message = new byte[2000];
+		random.nextBytes(message);
+		ArqSender sender = new ArqSender(7, (byte) 0xFF, message, true);
+		ArqReceiver receiver = new ArqReceiver();
+		Acknowledged acknowledged = new Acknowledged(sender.getSegmentCount());
+
+		FrameEncoder first = sender.nextTransmission();
+		boolean[] window = check(first, message, acknowledged);
+		FrameEncoder feedback = receiver.received(clean(first));
+		assertNotNull(feedback);
+
+		// too many bytes wrong for the FEC to correct
+		byte[] data = feedback.toByteArray();
+		for (int i = feedback.getHeader().getLength(); i < data.length; i += 2)
+			data[i] ^= 0x5A;
+		FrameDecoder uncorrectable = new FrameDecoder(feedback.getHeader());
+		uncorrectable.write(data, null, feedback.getHeader().getLength(),
+				data.length - feedback.getHeader().getLength());
+		assertTrue(uncorrectable.getInvalidBlockCount() > 0);
+		assertFalse(sender.received(uncorrectable));
+
+		// blocks that pass their FEC with a byte of the PDU wrong
+		byte[] payload = clean(feedback).getPayload();
+		payload[payload.length / 2] ^= 0x01;
+		FrameDecoder miscorrected = clean(new FrameEncoder(
+				feedback.getHeader(), payload));
+		assertEquals(0, miscorrected.getInvalidBlockCount());
+		assertFalse(sender.received(miscorrected));
+
+		sender.timedOut();
+		FrameEncoder again = sender.nextTransmission();
+		assertArrayEquals(window, check(again, message, acknowledged));
+		feedback = receiver.received(clean(again));
+		FrameDecoder heard = clean(feedback);
+		assertTrue(sender.received(heard));
+		acknowledged.heard(ArqPdu.parse(heard.getPayload()));
+
+		finish(sender, receiver, message, acknowledged);
+		assertEquals(3, sender.getTransmissionCount());
+	}
+
+	/**
+	 * A segment whose blocks pass their FEC with a byte wrong gets past the
+	 * checks on each transmission, but not the CRC of the whole message: the
+	 * receiver drops every segment and marks them all missing, and the
+	 * sender sends all of them again.
+	 */
+	@Test
+	public void recoversFromAWrongMessageCrc() {
+		byte[] message = new byte[500];
+		random.nextBytes(message);
+		ArqSender sender = new ArqSender(9, (byte) 0xFF, message, true);
+		ArqReceiver receiver = new ArqReceiver();
+		Acknowledged acknowledged = new Acknowledged(sender.getSegmentCount());
+		assertTrue(sender.getSegmentCount() <= Constants.ARQ_WINDOW);
+
+		FrameEncoder first = sender.nextTransmission();
+		boolean[] all = check(first, message, acknowledged);
+		byte[] payload = clean(first).getPayload();
+		payload[ArqPdu.parse(payload).length + 100] ^= 0x01;
+		FrameEncoder feedback = receiver.received(clean(new FrameEncoder(
+				first.getHeader(), payload)));
+		assertFalse(receiver.isComplete());
+
+		FrameDecoder heard = clean(feedback);
+		ArqPdu pdu = ArqPdu.parse(heard.getPayload());
+		assertEquals(0, pdu.base);
+		for (int segment = 0; segment < sender.getSegmentCount(); segment++)
+			assertTrue(pdu.isMarked(segment));
+		assertTrue(sender.received(heard));
+		acknowledged.heard(pdu);
+		assertFalse(sender.isComplete());
+
+		FrameEncoder again = sender.nextTransmission();
+		assertArrayEquals(all, check(again, message, acknowledged));
+		heard = clean(receiver.received(clean(again)));
+		assertTrue(sender.received(heard));
+		acknowledged.heard(ArqPdu.parse(heard.getPayload()));
+		finish(sender, receiver, message, acknowledged);
+		assertEquals(2, sender.getTransmissionCount());
+	}
+
+	/**
+	 * With no FEEDBACK at all, the sender makes Constants.ARQ_MAX_RETRIES
+	 * transmissions and gives up.
+	 */
+	@Test
+	public void givesUpAfterTheRetries() {
+		ArqSender sender = new ArqSender(1, (byte) 0xFF, new byte[1000], true);
+		while (sender.nextTransmission() != null)
+			sender.timedOut();
+		assertTrue(sender.hasFailed());
+		assertFalse(sender.isComplete());
+		assertEquals(Constants.ARQ_MAX_RETRIES, sender.getTransmissionCount());
+		assertNull(sender.nextTransmission());
+	}
+
+	/**
+	 * Checks that a DATA carries, in order, the segments of its window the
+	 * sender has not had acknowledged, and nothing else.
+	 *
+	 * @return the segments it carries
+	 */
+	private static boolean[] check(FrameEncoder frame, byte[] message,
+			Acknowledged acknowledged) {
+		byte[] payload = clean(frame).getPayload();
+		ArqPdu pdu = ArqPdu.parse(payload);
+		assertEquals(ArqPdu.DATA, pdu.type);
+		assertEquals(message.length, pdu.messageLength);
+		assertEquals(acknowledged.base(), pdu.base);
+
+		boolean[] carried = new boolean[acknowledged.segments.length];
+		int at = pdu.length;
+		for (int segment = 0; segment < carried.length; segment++) {
+			boolean expected = segment >= pdu.base
+					&& segment < pdu.base + Constants.ARQ_WINDOW
+					&& !acknowledged.segments[segment];
+			carried[segment] = pdu.isMarked(segment);
+			assertEquals("segment " + segment, expected, carried[segment]);
+			if (carried[segment]) {
+				int from = segment * pdu.segmentLength;
+				int to = Math.min(message.length, from + pdu.segmentLength);
+				assertArrayEquals(Arrays.copyOfRange(message, from, to),
+						Arrays.copyOfRange(payload, at, at + to - from));
+				at += to - from;
+			}
+		}
+		assertEquals(payload.length, at);
+		return carried;
+	}
+
+	/**
+	 * Delivers the rest of the message over a clean channel.
+	 */
+	private static void finish(ArqSender sender, ArqReceiver receiver,
+			byte[] message, Acknowledged acknowledged) {
+		FrameEncoder frame;
+		while ((frame = sender.nextTransmission()) != null) {
+			check(frame, message, acknowledged);
+			FrameDecoder heard = clean(receiver.received(clean(frame)));
+			assertTrue(sender.received(heard));
+			acknowledged.heard(ArqPdu.parse(heard.getPayload()));
+		}
+		assertTrue(sender.isComplete());
+		assertTrue(receiver.isComplete());
+		assertArrayEquals(message, receiver.getMessage());
+	}
+
+	/**
+	 * @return the transmission as the other side decodes it, or null if it
+	 *         was dropped or its header was hit
+	 */
+	private FrameDecoder transmit(FrameEncoder frame, double bitErrorRate) {
+		if (random.nextDouble() < kDropRate)
+			return null;
+		byte[] data = frame.toByteArray();
+		for (int i = 0; i < data.length; i++)
+			for (int bit = 0; bit < 8; bit++)
+				if (random.nextDouble() < bitErrorRate)
+					data[i] ^= 1 << bit;
+		return decode(frame.getHeader(), data);
+	}
+
+	/**
+	 * @return the transmission decoded as it was sent
+	 */
+	private static FrameDecoder clean(FrameEncoder frame) {
+		return decode(frame.getHeader(), frame.toByteArray());
+	}
+
+	private static FrameDecoder decode(FrameHeader sent, byte[] data) {
+		FrameHeader header;
+		try {
+			header = FrameHeader.parse(data, 0, data.length);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (header == null
+				|| !Arrays.equals(header.toByteArray(), sent.toByteArray()))
+			return null;
+
+		FrameDecoder decoder = new FrameDecoder(header);
+		decoder.write(data, null, header.getLength(), data.length
+				- header.getLength());
+		return decoder;
+	}
+}
@@ -0,0 +1,139 @@
+package com.jonas.digitalvoices.modem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.jonas.reedsolomon.CRC8;
+
+/**
+ * Tests FrameHeader as the StreamDecoder parses it, from the bytes decoded
+ * so far after a hail, which may be a true one or noise.
+ */
+public class FrameHeaderTest {
+
+	private static final byte[] kFlags = { (byte) 0xFF, 0, (byte) 0x5A,
+			(byte) ~((1 << Constants.FEC_FLAG_BIT)
+					| (1 << Constants.INTERLEAVE_FLAG_BIT)) };
+
+	private static final int[] kLengths = { 0, 1, 127, 128, 300, 16383,
+			16384, Constants.MAX_PAYLOAD };
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void parsesWhatItSends() {
+		for (byte flags : kFlags) {
+			for (int length = 0; length <= Constants.MAX_PAYLOAD; length++) {
+				FrameHeader header = new FrameHeader(flags, length);
+				byte[] bytes = header.toByteArray();
+				assertEquals(header.getLength(), bytes.length);
+				assertTrue(bytes.length <= FrameHeader.MAX_LENGTH);
+
+				FrameHeader parsed = FrameHeader.parse(bytes, 0, bytes.length);
+				assertEquals(flags, parsed.getFlags());
+				assertEquals(length, parsed.getPayloadLength());
+				assertTrue(parsed.getBlockCount() <= Constants.MAX_BLOCKS);
+			}
+		}
+	}
+
+	@Test
+	public void waitsForTheWholeHeader() {
+		for (byte flags : kFlags) {
+			for (int length : kLengths) {
+				byte[] bytes = new FrameHeader(flags, length).toByteArray();
+				for (int received = 0; received < bytes.length; received++)
+					assertNull(FrameHeader.parse(bytes, 0, received));
+			}
+		}
+	}
+
+	/**
+	 * A bit flipped in the flags, the length or the CRC of a header is
+	 * always caught; one that moves the end of the length is caught unless
+	 * the bytes after it happen to match, about one time in 256.
+	 */
+	@Test
+	public void rejectsFlippedBits() {
+		int moved = 0, accepted = 0;
+		for (byte flags : kFlags) {
+			for (int length : kLengths) {
+				byte[] sent = new FrameHeader(flags, length).toByteArray();
+				for (int bit = 0; bit < 8 * sent.length; bit++) {
+					for (int trial = 0; trial < 100; trial++) {
+						// the header and what was decoded after it
+						byte[] received = new byte[2 * FrameHeader.MAX_LENGTH];
+						random.nextBytes(received);
+						System.arraycopy(sent, 0, received, 0, sent.length);
+						received[bit / 8] ^= 1 << (bit % 8);
+
+						boolean endMoved = bit / 8 > 0
+								&& bit / 8 < sent.length - 1 && bit % 8 == 7;
+						if (endMoved)
+							moved++;
+						try {
+							FrameHeader.parse(received, 0, received.length);
+							if (!endMoved)
+								fail("flipped bit " + bit + " of " + length);
+							accepted++;
+						} catch (IllegalArgumentException e) {
+						}
+					}
+				}
+			}
+		}
+		assertTrue(accepted + " of " + moved, accepted < moved / 100);
+	}
+
+	/**
+	 * After a false hail, the noise decoded seldom passes for a header, and
+	 * never for one longer than a receiver can decode.
+	 */
+	@Test
+	public void rejectsNoise() {
+		int trials = 100000, accepted = 0;
+		byte[] noise = new byte[FrameHeader.MAX_LENGTH];
+		for (int trial = 0; trial < trials; trial++) {
+			random.nextBytes(noise);
+			try {
+				FrameHeader header = FrameHeader.parse(noise, 0, noise.length);
+				assertTrue(header.getPayloadLength() <= Constants.MAX_PAYLOAD);
+				accepted++;
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		assertTrue(accepted + " of " + trials, accepted < trials / 100);
+	}
+
+	@Test
+	public void rejectsLengthsPastTheLastBlock() {
+		try {
+			new FrameHeader((byte) 0xFF, Constants.MAX_PAYLOAD + 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		// the longest length three bytes hold, with a CRC that matches
+		byte[] bytes = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 0 };
+		bytes[4] = (byte) CRC8.compute(bytes, 0, 4);
+		try {
+			FrameHeader.parse(bytes, 0, bytes.length);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		bytes = new FrameHeader((byte) 0xFF, Constants.MAX_PAYLOAD)
+				.toByteArray();
+		assertArrayEquals(bytes, FrameHeader.parse(
+				Arrays.copyOf(bytes, bytes.length + 1), 0, bytes.length + 1)
+				.toByteArray());
+	}
+}
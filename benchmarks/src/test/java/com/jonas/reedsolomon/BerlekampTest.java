@@ -0,0 +1,135 @@
+package com.jonas.reedsolomon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Corrects random codewords with errors and erasures through the Chien
+ * search, which stops once it has as many roots as Lambda has degree, with
+ * codecs reused from RS.forParity.
+ */
+public class BerlekampTest {
+
+	private final Random random = new Random(1);
+
+	/**
+	 * @return a random codeword of up to 255 bytes, shortened as the modem's
+	 *         last block is
+	 */
+	private byte[] codeword(RS rs, int parityBytes) {
+		byte[] message = new byte[1 + random.nextInt(255 - parityBytes)];
+		random.nextBytes(message);
+		byte[] codeword = new byte[message.length + parityBytes];
+		rs.encode_data(message, message.length, codeword);
+		return codeword;
+	}
+
+	/**
+	 * Damages distinct bytes of the codeword: the first erasures of them are
+	 * erasures, the rest errors, which always change the byte.
+	 *
+	 * @return the erasure locations, counted from the end as
+	 *         correct_errors_erasures takes them
+	 */
+	private int[] damage(byte[] codeword, int errors, int erasures) {
+		int[] order = new int[codeword.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		for (int i = 0; i < errors + erasures; i++) {
+			int j = i + random.nextInt(order.length - i);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+
+		int[] locations = new int[erasures];
+		for (int i = 0; i < erasures; i++) {
+			locations[i] = codeword.length - 1 - order[i];
+			// an erasure may or may not be wrong
+			codeword[order[i]] = (byte) random.nextInt(256);
+		}
+		for (int i = erasures; i < errors + erasures; i++)
+			codeword[order[i]] ^= 1 + random.nextInt(255);
+		return locations;
+	}
+
+	@Test
+	public void correctsUpToTheParity() {
+		for (int parityBytes = 2; parityBytes <= 32; parityBytes++) {
+			RS rs = RS.forParity(parityBytes);
+			for (int trial = 0; trial < 50; trial++) {
+				byte[] sent = codeword(rs, parityBytes);
+				byte[] received = sent.clone();
+				int erasures = random.nextInt(parityBytes + 1);
+				int errors = random.nextInt((parityBytes - erasures) / 2 + 1);
+				int[] locations = damage(received, errors, erasures);
+
+				rs.decode_data(received, received.length);
+				if (rs.check_syndrome() != 0)
+					assertEquals(1, rs.correct_errors_erasures(received,
+							received.length, erasures, locations));
+				assertArrayEquals(parityBytes + " parity bytes, " + errors
+						+ " errors, " + erasures + " erasures", sent, received);
+			}
+		}
+	}
+
+	/**
+	 * More errors than the parity can correct mostly leave Lambda with fewer
+	 * roots than its degree, once the search has run out of field elements;
+	 * those codewords are refused, and untouched. Any the decoder does accept
+	 * must at least be codewords.
+	 */
+	@Test
+	public void refusesTooManyErrors() {
+		int refused = 0;
+		for (int parityBytes = 2; parityBytes <= 32; parityBytes += 2) {
+			RS rs = RS.forParity(parityBytes);
+			for (int trial = 0; trial < 50; trial++) {
+				byte[] received = codeword(rs, parityBytes);
+				int errors = parityBytes / 2 + 1
+						+ random.nextInt(parityBytes / 2);
+				damage(received, Math.min(errors, received.length), 0);
+				byte[] damaged = received.clone();
+
+				rs.decode_data(received, received.length);
+				if (rs.check_syndrome() == 0)
+					continue;
+				if (rs.correct_errors_erasures(received, received.length, 0,
+						null) == 0) {
+					assertArrayEquals(damaged, received);
+					refused++;
+				} else {
+					rs.decode_data(received, received.length);
+					assertEquals(0, rs.check_syndrome());
+				}
+			}
+		}
+		assertTrue(refused > 0);
+	}
+
+	@Test
+	public void forParityKeepsACodecForEachThread() throws Exception {
+		final RS[] other = new RS[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				other[0] = RS.forParity(8);
+			}
+		};
+		thread.start();
+		thread.join();
+
+		RS rs = RS.forParity(8);
+		assertSame(rs, RS.forParity(8));
+		assertNotSame(rs, RS.forParity(9));
+		assertNotSame(rs, other[0]);
+	}
+}
@@ -0,0 +1,181 @@
+package com.jonas.reedsolomon;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import org.junit.Test;
+
+/**
+ * Checks the table-driven CRCs against the standard check values and the
+ * bitwise code they replaced, and each way of feeding them bytes against the
+ * others.
+ */
+public class CRCTest {
+
+	private static final byte[] kCheck = { '1', '2', '3', '4', '5', '6', '7',
+			'8', '9' };
+
+	private final Random random = new Random(1);
+
+	/** The bitwise CRC-8 of CRCGen.crc_8_ccitt before the tables */
+	private static int bitwiseCrc8(byte[] msg, int off, int len) {
+		int crc = 0xFF;
+		for (int b = off; b < off + len; b++) {
+			for (int i = 0; i < 8; i++) {
+				boolean bit = ((msg[b] >> (7 - i) & 1) == 1);
+				boolean c7 = ((crc >> 7 & 1) == 1);
+				crc <<= 1;
+				if (c7 ^ bit)
+					crc ^= 0x07;
+			}
+		}
+		return crc & 0xFF;
+	}
+
+	/** The bitwise CRC-16 of CRCGen.crc_16_ccitt before the tables */
+	private static int bitwiseCrc16(byte[] msg, int off, int len) {
+		int crc = 0xFFFF;
+		for (int b = off; b < off + len; b++) {
+			for (int i = 0; i < 8; i++) {
+				boolean bit = ((msg[b] >> (7 - i) & 1) == 1);
+				boolean c15 = ((crc >> 15 & 1) == 1);
+				crc <<= 1;
+				if (c15 ^ bit)
+					crc ^= 0x1021;
+			}
+		}
+		return crc & 0xFFFF;
+	}
+
+	/** CRC-32C a bit at a time, reflected */
+	private static int bitwiseCrc32c(byte[] msg, int off, int len) {
+		int crc = 0xFFFFFFFF;
+		for (int b = off; b < off + len; b++) {
+			crc ^= msg[b] & 0xFF;
+			for (int i = 0; i < 8; i++)
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+		}
+		return ~crc;
+	}
+
+	@Test
+	public void matchesTheCheckValues() {
+		assertEquals(0xFB, CRC8.compute(kCheck, 0, kCheck.length));
+		assertEquals(0xFB, bitwiseCrc8(kCheck, 0, kCheck.length));
+		assertEquals((byte) 0xFB, CRCGen.crc_8_ccitt(kCheck, kCheck.length));
+
+		// CRC-16/CCITT-FALSE
+		assertEquals(0x29B1, CRC16.compute(kCheck, 0, kCheck.length));
+		assertEquals(0x29B1, CRCGen.crc_16_ccitt(kCheck, kCheck.length));
+
+		assertEquals(0xE3069283, CRC32C.compute(kCheck, 0, kCheck.length));
+		CRC32C crc32c = new CRC32C();
+		crc32c.update(kCheck, 0, kCheck.length);
+		assertEquals(0xE3069283L, crc32c.getValue());
+	}
+
+	/**
+	 * crc_ccitt tested its feedback bit with == 1, which never held, and
+	 * returned 0 for any message; it now computes CRC-16/XMODEM.
+	 */
+	@Test
+	public void crcCcittIsXmodem() {
+		assertEquals(0x31C3, CRCGen.crc_ccitt(kCheck, kCheck.length));
+		assertEquals(0, CRCGen.crc_ccitt(new byte[0], 0));
+		assertEquals(0x1021, CRCGen.crc_ccitt(new byte[] { 1 }, 1));
+	}
+
+	@Test
+	public void crc8MatchesTheBitwiseCode() {
+		for (int trial = 0; trial < 2000; trial++) {
+			byte[] msg = message();
+			int off = random.nextInt(msg.length + 1);
+			int len = random.nextInt(msg.length - off + 1);
+			int expected = bitwiseCrc8(msg, off, len);
+			assertEquals(expected, CRC8.compute(msg, off, len));
+			assertFeeds(new CRC8(), expected, msg, off, len);
+		}
+	}
+
+	@Test
+	public void crc16MatchesTheBitwiseCode() {
+		for (int trial = 0; trial < 2000; trial++) {
+			byte[] msg = message();
+			int off = random.nextInt(msg.length + 1);
+			int len = random.nextInt(msg.length - off + 1);
+			int expected = bitwiseCrc16(msg, off, len);
+			assertEquals(expected, CRC16.compute(msg, off, len));
+			assertFeeds(new CRC16(), expected, msg, off, len);
+		}
+	}
+
+	@Test
+	public void crc32cMatchesTheBitwiseCode() {
+		for (int trial = 0; trial < 2000; trial++) {
+			byte[] msg = message();
+			int off = random.nextInt(msg.length + 1);
+			int len = random.nextInt(msg.length - off + 1);
+			int expected = bitwiseCrc32c(msg, off, len);
+			assertEquals(expected, CRC32C.compute(msg, off, len));
+			assertFeeds(new CRC32C(), expected & 0xFFFFFFFFL, msg, off, len);
+		}
+	}
+
+	/**
+	 * @return up to 300 random bytes, so both the eight byte steps and the
+	 *         bytes left over are covered
+	 */
+	private byte[] message() {
+		byte[] msg = new byte[random.nextInt(300)];
+		random.nextBytes(msg);
+		return msg;
+	}
+
+	/**
+	 * Feeds the bytes to the checksum a byte at a time, in array pieces of
+	 * random sizes, from a heap buffer that starts inside its array, and from
+	 * a direct buffer, each after a reset.
+	 */
+	private void assertFeeds(Checksum checksum, long expected, byte[] msg,
+			int off, int len) {
+		checksum.reset();
+		for (int i = off; i < off + len; i++)
+			checksum.update(msg[i]);
+		assertEquals(expected, checksum.getValue());
+
+		checksum.reset();
+		for (int at = off; at < off + len;) {
+			int piece = Math.min(off + len - at, random.nextInt(20));
+			checksum.update(msg, at, piece);
+			at += piece;
+		}
+		assertEquals(expected, checksum.getValue());
+
+		ByteBuffer heap = ByteBuffer.wrap(msg, off, len).slice();
+		checksum.reset();
+		update(checksum, heap);
+		assertEquals(expected, checksum.getValue());
+		assertEquals(heap.limit(), heap.position());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(len + 3);
+		direct.position(3);
+		direct.put(msg, off, len);
+		direct.position(3);
+		checksum.reset();
+		update(checksum, direct);
+		assertEquals(expected, checksum.getValue());
+		assertEquals(direct.limit(), direct.position());
+	}
+
+	private static void update(Checksum checksum, ByteBuffer buffer) {
+		if (checksum instanceof CRC8)
+			((CRC8) checksum).update(buffer);
+		else if (checksum instanceof CRC16)
+			((CRC16) checksum).update(buffer);
+		else
+			((CRC32C) checksum).update(buffer);
+	}
+}
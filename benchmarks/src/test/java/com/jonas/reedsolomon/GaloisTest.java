@@ -0,0 +1,100 @@
+package com.jonas.reedsolomon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the GF(256) tables against arithmetic done the long way, and the RS
+ * encoder, whose LFSR multiplies through the table rows, against parity the
+ * log and exp tables gave before.
+ */
+public class GaloisTest {
+
+	/**
+	 * @return a * b, shifting and reducing by the field polynomial
+	 */
+	private static int multiply(int a, int b) {
+		int product = 0;
+		for (; b != 0; b >>= 1) {
+			if ((b & 1) != 0)
+				product ^= a;
+			a <<= 1;
+			if ((a & 0x100) != 0)
+				a ^= 0x100 | Galois.kPPoly;
+		}
+		return product;
+	}
+
+	@Test
+	public void logsInvertTheExponents() {
+		for (int a = 1; a < 256; a++) {
+			assertTrue(Galois.glog[a] < 255);
+			assertEquals(a, Galois.gexp[Galois.glog[a]]);
+		}
+		for (int i = 0; i < 255; i++) {
+			assertEquals(i, Galois.glog[Galois.gexp[i]]);
+			assertEquals(Galois.gexp[i], Galois.gexp[i + 255]);
+			assertEquals(multiply(Galois.gexp[i], 2), Galois.gexp[i + 1]);
+		}
+	}
+
+	/**
+	 * Every product in the table, against the logarithms and against shift
+	 * and add.
+	 */
+	@Test
+	public void multipliesEveryPair() {
+		for (int a = 0; a < 256; a++) {
+			byte[] row = Galois.mul_row(a);
+			for (int b = 0; b < 256; b++) {
+				int expected = a == 0 || b == 0 ? 0 : Galois.gexp[Galois.glog[a]
+						+ Galois.glog[b]];
+				assertEquals(a + " * " + b, expected, Galois.gmult(a, b));
+				assertEquals(a + " * " + b, multiply(a, b), Galois.gmult(a, b));
+				assertEquals(expected, row[b] & 0xFF);
+			}
+			if (a > 0)
+				assertEquals(1, Galois.gmult(a, Galois.ginv(a)));
+		}
+	}
+
+	/**
+	 * Parity from the RS encoder before the multiplication table.
+	 */
+	@Test
+	public void encodesKnownParity() throws Exception {
+		assertParity("123456789".getBytes("US-ASCII"), new byte[] {
+				(byte) 0xD2, (byte) 0x8C, (byte) 0x82, (byte) 0xC7,
+				(byte) 0xA9, (byte) 0x91, (byte) 0xA2, (byte) 0xF0 });
+
+		byte[] message = new byte[223];
+		new Random(1).nextBytes(message);
+		assertParity(message, new byte[] { (byte) 0x3B, (byte) 0x27,
+				(byte) 0xB1, (byte) 0x0E, (byte) 0x5B, (byte) 0xE4,
+				(byte) 0x2D, (byte) 0xD3, (byte) 0x97, (byte) 0x46,
+				(byte) 0x62, (byte) 0x53, (byte) 0xFE, (byte) 0x12,
+				(byte) 0xC5, (byte) 0xDF, (byte) 0x07, (byte) 0x78,
+				(byte) 0x1C, (byte) 0xD9, (byte) 0x42, (byte) 0x37,
+				(byte) 0xC1, (byte) 0x93, (byte) 0x18, (byte) 0xEF,
+				(byte) 0x50, (byte) 0x4D, (byte) 0x30, (byte) 0xD9,
+				(byte) 0x56, (byte) 0x79 });
+	}
+
+	private static void assertParity(byte[] message, byte[] parity) {
+		RS rs = new RS(parity.length);
+		byte[] codeword = new byte[message.length + parity.length];
+		rs.encode_data(message, message.length, codeword);
+		assertArrayEquals(message, Arrays.copyOf(codeword, message.length));
+		assertArrayEquals(parity, Arrays.copyOfRange(codeword,
+				message.length, codeword.length));
+
+		rs.decode_data(codeword, codeword.length);
+		assertEquals(0, rs.check_syndrome());
+	}
+}
@@ -0,0 +1,140 @@
+package com.jonas.reedsolomon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the block interleaver on lengths that are and are not multiples of
+ * the depth: the rows FrameEncoder and FrameDecoder take their codewords
+ * from, the order on the air, and the in-place and buffer to buffer
+ * permutations against each other.
+ */
+public class InterleaverTest {
+
+	private static final int[] kDepths = { 1, 2, 3, 4, 7, 16, 100, 255 };
+
+	private final Random random = new Random(1);
+
+	/**
+	 * The interleaver before the block interleaver, which took the items a
+	 * quarter of the length apart.
+	 */
+	private static void skipInterleave(byte[] items) {
+		int jump = (int) Math.ceil(items.length / Interleaver.kSkipFactor);
+		byte[] result = new byte[items.length];
+		int k = 0;
+		for (int i = 0; i < jump; ++i) {
+			for (int j = i; j < items.length; j += jump) {
+				result[k++] = items[j];
+			}
+		}
+		for (int i = 0; i < result.length; i++)
+			items[i] = result[i];
+	}
+
+	private static int[] lengths(int depth) {
+		return new int[] { 0, 1, depth - 1, depth, depth + 1, 2 * depth,
+				3 * depth + 2, 255 * depth, 255 * depth - 7 };
+	}
+
+	@Test
+	public void rowsCoverTheItemsInOrder() {
+		for (int depth : kDepths) {
+			for (int length : lengths(depth)) {
+				Interleaver interleaver = Interleaver.forLength(length, depth);
+				int offset = 0;
+				for (int row = 0; row < depth; row++) {
+					assertEquals(offset, interleaver.getRowOffset(row));
+					int rowLength = interleaver.getRowLength(row);
+					// row i holds ceil((length - i) / depth) items
+					assertEquals(Math.max(0, (length - row + depth - 1) / depth),
+							rowLength);
+					offset += rowLength;
+				}
+				assertEquals(length, offset);
+			}
+		}
+	}
+
+	/**
+	 * Item c of row i goes on the air at c * depth + i.
+	 */
+	@Test
+	public void sendsTheRowsAColumnAtATime() {
+		for (int depth : kDepths) {
+			for (int length : lengths(depth)) {
+				Interleaver interleaver = Interleaver.forLength(length, depth);
+				byte[] items = items(length);
+				byte[] sent = new byte[length + 5];
+				interleaver.interleave(items, 0, sent, 5);
+				for (int row = 0; row < depth; row++)
+					for (int c = 0; c < interleaver.getRowLength(row); c++)
+						assertEquals(items[interleaver.getRowOffset(row) + c],
+								sent[5 + c * depth + row]);
+			}
+		}
+	}
+
+	@Test
+	public void inPlaceMatchesBufferToBuffer() {
+		for (int depth : kDepths) {
+			for (int length : lengths(depth)) {
+				Interleaver interleaver = Interleaver.forLength(length, depth);
+				byte[] items = items(length);
+
+				byte[] buffered = new byte[length];
+				interleaver.interleave(items, 0, buffered, 0);
+				byte[] inPlace = new byte[length + 3];
+				System.arraycopy(items, 0, inPlace, 3, length);
+				interleaver.interleave(inPlace, 3);
+				assertArrayEquals(buffered, Arrays.copyOfRange(inPlace, 3,
+						3 + length));
+
+				byte[] back = new byte[length];
+				interleaver.deinterleave(buffered, 0, back, 0);
+				assertArrayEquals(items, back);
+				interleaver.deinterleave(inPlace, 3);
+				assertArrayEquals(items, Arrays.copyOfRange(inPlace, 3,
+						3 + length));
+			}
+		}
+	}
+
+	/**
+	 * The static methods keep the old order when the length is a multiple of
+	 * kSkipFactor, and round trip any length.
+	 */
+	@Test
+	public void keepsTheSkipOrderForMultiplesOfFour() {
+		for (int length = 0; length <= 1024; length++) {
+			byte[] items = items(length);
+			byte[] interleaved = items.clone();
+			Interleaver.interleave(interleaved);
+			if (length % Interleaver.kSkipFactor == 0) {
+				byte[] skipped = items.clone();
+				skipInterleave(skipped);
+				assertArrayEquals("" + length, skipped, interleaved);
+			}
+			Interleaver.deinterleave(interleaved);
+			assertArrayEquals(items, interleaved);
+		}
+		assertSame(Interleaver.forLength(255, 4), Interleaver.forLength(255, 4));
+	}
+
+	/**
+	 * @return distinct items where the length allows, so a misplaced one shows
+	 */
+	private byte[] items(int length) {
+		byte[] items = new byte[length];
+		random.nextBytes(items);
+		for (int i = 0; i < Math.min(length, 256); i++)
+			items[i] = (byte) i;
+		return items;
+	}
+}
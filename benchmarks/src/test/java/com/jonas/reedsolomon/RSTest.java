@@ -0,0 +1,174 @@
+package com.jonas.reedsolomon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests RS.correct_unreliable: errors-only correction, erasing the least
+ * reliable bytes when that is not enough, and its rule for accepting a
+ * correction, a zero syndrome and a parity byte left over to check it.
+ */
+public class RSTest {
+
+	private static final int[] kParities = { 4, 8, 16, 32 };
+
+	// reliabilities of the bytes received well and of those received badly
+	private static final int kReliable = 200;
+	private static final int kUnreliable = 20;
+
+	private final Random random = new Random(1);
+
+	private byte[] codeword(RS rs, int parityBytes) {
+		byte[] message = new byte[1 + random.nextInt(255 - parityBytes)];
+		random.nextBytes(message);
+		byte[] codeword = new byte[message.length + parityBytes];
+		rs.encode_data(message, message.length, codeword);
+		return codeword;
+	}
+
+	/**
+	 * Changes errors distinct bytes of the codeword, and gives each of them
+	 * a low reliability if marked, a high one otherwise; the other bytes are
+	 * reliable.
+	 */
+	private byte[] damage(byte[] codeword, int errors, boolean marked) {
+		byte[] reliabilities = new byte[codeword.length];
+		for (int i = 0; i < reliabilities.length; i++)
+			reliabilities[i] = (byte) (kReliable + random.nextInt(50));
+		int done = 0;
+		while (done < errors) {
+			int i = random.nextInt(codeword.length);
+			if ((reliabilities[i] & 0xFF) < kReliable)
+				continue;
+			codeword[i] ^= 1 + random.nextInt(255);
+			reliabilities[i] = (byte) (marked ? random.nextInt(kUnreliable)
+					: kReliable - 1);
+			done++;
+		}
+		return reliabilities;
+	}
+
+	@Test
+	public void correctsErrorsUpToHalfTheParity() {
+		for (int parityBytes : kParities) {
+			RS rs = RS.forParity(parityBytes);
+			for (int trial = 0; trial < 200; trial++) {
+				byte[] sent = codeword(rs, parityBytes);
+				byte[] received = sent.clone();
+				byte[] reliabilities = damage(received,
+						random.nextInt(parityBytes / 2 + 1), random.nextBoolean());
+				assertEquals(1, rs.correct_unreliable(received,
+						received.length, reliabilities));
+				assertArrayEquals(sent, received);
+			}
+		}
+	}
+
+	/**
+	 * With the errors among the least reliable bytes, up to parity - 1 of
+	 * them are corrected: all but one parity byte as erasures, and a byte
+	 * left to check the correction, unless errors-only correction found
+	 * another codeword first.
+	 */
+	@Test
+	public void correctsUnreliableErrorsPastHalfTheParity() {
+		for (int parityBytes : kParities) {
+			RS rs = RS.forParity(parityBytes);
+			for (int errors = parityBytes / 2 + 1; errors < parityBytes; errors++) {
+				for (int trial = 0; trial < 20; trial++) {
+					byte[] sent = codeword(rs, parityBytes);
+					if (sent.length < errors)
+						continue;
+					byte[] received = sent.clone();
+					byte[] reliabilities = damage(received, errors, true);
+
+					// too many for errors-only correction, which is tried
+					// first and may land on another codeword; that one is kept
+					byte[] errorsOnly = received.clone();
+					boolean miscorrected = rs.correct_unreliable(errorsOnly,
+							errorsOnly.length, null) == 1;
+					assertFalse(Arrays.equals(sent, errorsOnly));
+
+					assertEquals(parityBytes + " parity bytes, " + errors
+							+ " errors", 1, rs.correct_unreliable(received,
+							received.length, reliabilities));
+					assertArrayEquals(miscorrected ? errorsOnly : sent, received);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Codewords past what the parity can correct, their errors marked
+	 * reliable or not: any correction accepted is a codeword, and a codeword
+	 * that is refused comes back as it was. With 4 parity bytes, errors-only
+	 * correction alone takes about a sixth of such words to some codeword, so
+	 * the rate is counted from 8.
+	 */
+	@Test
+	public void leavesUncorrectableCodewordsAsTheyWere() {
+		int refused = 0, trials = 0;
+		for (int parityBytes : new int[] { 8, 16, 32 }) {
+			RS rs = RS.forParity(parityBytes);
+			for (int trial = 0; trial < 200; trial++) {
+				byte[] received = codeword(rs, parityBytes);
+				int errors = Math.min(received.length, parityBytes
+						+ random.nextInt(parityBytes));
+				byte[] reliabilities = damage(received, errors,
+						random.nextBoolean());
+				byte[] damaged = received.clone();
+
+				trials++;
+				if (rs.correct_unreliable(received, received.length,
+						reliabilities) == 0) {
+					assertArrayEquals(damaged, received);
+					refused++;
+				} else {
+					rs.decode_data(received, received.length);
+					assertEquals(0, rs.check_syndrome());
+				}
+			}
+		}
+		assertTrue(refused + " of " + trials, refused > trials * 97 / 100);
+	}
+
+	/**
+	 * Without reliabilities only the errors are corrected, up to half the
+	 * parity, whatever the errors are.
+	 */
+	@Test
+	public void nullReliabilitiesCorrectErrorsOnly() {
+		for (int parityBytes : kParities) {
+			RS rs = RS.forParity(parityBytes);
+			for (int trial = 0; trial < 100; trial++) {
+				byte[] sent = codeword(rs, parityBytes);
+				byte[] received = sent.clone();
+				damage(received, random.nextInt(parityBytes / 2 + 1), true);
+				assertEquals(1, rs.correct_unreliable(received,
+						received.length, null));
+				assertArrayEquals(sent, received);
+
+				received = sent.clone();
+				damage(received, Math.min(received.length,
+						parityBytes / 2 + 1), true);
+				byte[] damaged = received.clone();
+				if (rs.correct_unreliable(received, received.length, null) == 0)
+					assertArrayEquals(damaged, received);
+				else
+					assertEquals(0, check(rs, received));
+			}
+		}
+	}
+
+	private static int check(RS rs, byte[] codeword) {
+		rs.decode_data(codeword, codeword.length);
+		return rs.check_syndrome();
+	}
+}
@@ -74,9 +74,19 @@ public class ArrayUtils {
      * Note!: This doesn't handle cast/conversion issues, so don't use this unless you understand the code
      */
     public static double[] getDoubleArrayfromByteArray(byte[] sequence) {
-    	double[] result = new double[sequence.length];
+    	return getDoubleArrayfromByteArray(sequence, 0, sequence.length);
+    }
+    
+    /**
+     * @param sequence the array of bytes to convert
+     * @param offset the index in sequence of the first byte to convert
+     * @param length the number of bytes to convert
+     * @return new array of doubles
+     */
+    public static double[] getDoubleArrayfromByteArray(byte[] sequence, int offset, int length) {
+    	double[] result = new double[length];
     	for (int i = 0; i < result.length; i++) {
-    		result[i] = (double)(sequence[i]/(double)Constants.kFloatToByteShift);
+    		result[i] = (double)(sequence[offset + i]/(double)Constants.kFloatToByteShift);
     	}
     	return result;
     }
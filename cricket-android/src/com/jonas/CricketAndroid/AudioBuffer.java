@@ -6,77 +6,353 @@ package com.jonas.CricketAndroid;
  * Author: Cristina V Lopes
  */
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A thread safe buffer for audio samples
- * NOTE: This has no hard limits for memory usage
+ * A fixed capacity ring buffer for audio samples, shared by exactly one writer
+ * (the MicrophoneListener) and one reader (the StreamDecoder).
+ * Every sample is mirrored into the second half of the backing array, so any
+ * window of up to getCapacity() samples starting at the read position is
+ * contiguous in getArray(). peek() hands out the index of such a window
+ * instead of copying it, which keeps the cost of reading a duration constant
+ * no matter how large the backlog gets.
+ *
+ * The two sides do not lock each other out: the writer publishes samples by
+ * advancing the volatile tail, and the reader frees them by advancing head.
+ * A reader that has to wait for samples does so according to the wait policy,
+ * by default parking until the writer publishes more samples or the buffer is
+ * closed, so an idle decoder does not use the CPU.
  *
  * @author CVL
  */
 public class AudioBuffer {
-    private ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    private Object lock = new Object();
 
-    public AudioBuffer(){};
+    // What write() does when there is not enough room for the new samples
+    public static final int kOverflowBlock = 0;      //wait until the reader deletes enough samples
+    public static final int kOverflowDropOldest = 1; //discard the oldest samples to make room
+    public static final int kOverflowReport = 2;     //write nothing and throw an IOException
+
+    // How a thread waits for samples (or for room) in awaitSamples() and write()
+    public static final int kWaitSpin = 0;  //busy wait, lowest latency, burns a core
+    public static final int kWaitYield = 1; //busy wait, but give up the processor on every check
+    public static final int kWaitPark = 2;  //sleep until the other side wakes us up
+
+    // A parked thread rechecks the buffer at least this often (10 ms), in case a wake up is missed
+    private static final long kMaxParkNanos = 10000000L;
+
+    private final byte[] samples;  // 2 * capacity long, the second half mirrors the first
+    private final int capacity;    // always a power of two
+    private final int mask;
+    // number of samples deleted since the buffer was created, advanced by the reader 
+    // (and by the writer under kOverflowDropOldest)
+    private final AtomicLong head = new AtomicLong();
+    // where the reader's last peek or delete left head, reader only
+    private long readHead = 0;
+    private volatile long tail = 0;   // number of samples written since the buffer was created, writer only
+    private volatile long droppedSamples = 0; // writer only
+    private volatile int overflowPolicy;
+    private volatile int waitPolicy = kWaitPark;
+    private volatile boolean closed = false;
+    private volatile Thread waitingReader = null;
+    private volatile Thread waitingWriter = null;
+
+    public AudioBuffer(){
+      this(Constants.kAudioBufferCapacity, kOverflowDropOldest);
+    }
+
+    /**
+     * @param minCapacity the minimum number of samples the buffer must hold, rounded up to a power of two
+     * @param _overflowPolicy one of kOverflowBlock, kOverflowDropOldest or kOverflowReport
+     */
+    public AudioBuffer(int minCapacity, int _overflowPolicy){
+      int c = 1;
+      while(c < minCapacity){
+	c <<= 1;
+      }
+      capacity = c;
+      mask = capacity - 1;
+      samples = new byte[2 * capacity];
+      setOverflowPolicy(_overflowPolicy);
+    }
+
+    /**
+     * @param _overflowPolicy one of kOverflowBlock, kOverflowDropOldest or kOverflowReport
+     */
+    public void setOverflowPolicy(int _overflowPolicy){
+      if(_overflowPolicy < kOverflowBlock || _overflowPolicy > kOverflowReport){
+	throw new IllegalArgumentException("Unknown overflow policy " + _overflowPolicy);
+      }
+      overflowPolicy = _overflowPolicy;
+      wake(waitingWriter);
+    }
+
+    /**
+     * @param _waitPolicy one of kWaitSpin, kWaitYield or kWaitPark
+     */
+    public void setWaitPolicy(int _waitPolicy){
+      if(_waitPolicy < kWaitSpin || _waitPolicy > kWaitPark){
+	throw new IllegalArgumentException("Unknown wait policy " + _waitPolicy);
+      }
+      waitPolicy = _waitPolicy;
+      wake(waitingReader);
+      wake(waitingWriter);
+    }
 
     /**
      * @param input an array to write to the end of the buffer
      */
-    public synchronized void write(byte[] input)
+    public void write(byte[] input)
       throws IOException {
-      baos.write(input);
+      write(input, 0, input.length);
     }
 
     /**
+     * Only one thread may write to the buffer.
+     * Unless the overflow policy is kOverflowBlock this never waits for the reader.
      * @param input the source array
      * @param offset the offset into the array from which to start copying
      * @param length the length to copy
      */
-    public synchronized void write(byte[] input, int offset, int length)
+    public void write(byte[] input, int offset, int length)
       throws IOException {
-      baos.write(input, offset, length);
+      if(closed){
+	throw new IOException("AudioBuffer is closed");
+      }
+      if(overflowPolicy == kOverflowReport && length > capacity - size()){
+	throw new IOException("AudioBuffer overflow: " + length + " samples written with only " 
+			      + (capacity - size()) + " free");
+      }
+      while(length > 0){
+	int free = capacity - size();
+	int n = Math.min(length, capacity);
+	if(free < n){
+	  if(overflowPolicy == kOverflowDropOldest){
+	    dropOldest(n - free);
+	  } else if(free == 0){
+	    awaitRoom();
+	    continue;
+	  } else {
+	    n = free;
+	  }
+	}
+	copyIn(input, offset, n);
+	offset += n;
+	length -= n;
+      }
+    }
+
+    /**
+     * Makes room for the writer by advancing head, racing the reader's deletes
+     */
+    private void dropOldest(int n){
+      long target = tail + n - capacity;
+      long h;
+      while((h = head.get()) < target){
+	if(head.compareAndSet(h, target)){
+	  droppedSamples += target - h;
+	  return;
+	}
+      }
+    }
+
+    /**
+     * Waits for the reader to delete samples, for the kOverflowBlock policy
+     */
+    private void awaitRoom()
+      throws IOException {
+      waitingWriter = Thread.currentThread();
+      try {
+	while(size() == capacity && overflowPolicy == kOverflowBlock){
+	  if(closed){
+	    throw new IOException("AudioBuffer is closed");
+	  }
+	  pause();
+	  if(Thread.interrupted()){
+	    throw new InterruptedIOException("Interrupted while waiting for space in the AudioBuffer");
+	  }
+	}
+      } finally {
+	waitingWriter = null;
+      }
+    }
+
+    /**
+     * Copies length samples to the tail of the ring, and to its mirror image, then publishes them
+     */
+    private void copyIn(byte[] input, int offset, int length){
+      long t = tail;
+      int index = (int)(t & mask);
+      int first = Math.min(length, capacity - index);
+      System.arraycopy(input, offset, samples, index, first);
+      System.arraycopy(input, offset, samples, index + capacity, first);
+      if(length > first){
+	System.arraycopy(input, offset + first, samples, 0, length - first);
+	System.arraycopy(input, offset + first, samples, capacity, length - first);
+      }
+      tail = t + length; // the volatile write makes the copied samples visible to the reader
+      wake(waitingReader);
     }
     
+    /**
+     * @param n the number of samples to look at (nondestructively)
+     * @return if the buffer.size >= n, the index in getArray() of the first of n contiguous samples, otherwise -1
+     *
+     * NOTE: THIS DOES NOT REMOVE BYTES FROM THE BUFFER. The window stays valid until 
+     * it is deleted, unless the kOverflowDropOldest policy has to overwrite it.
+     */
+    public int peek(int n){
+      if(n > capacity){
+	throw new IllegalArgumentException("Cannot peek " + n + " samples from an AudioBuffer of capacity " + capacity);
+      }
+      long h = head.get();
+      readHead = h;
+      if(tail - h < n){
+	return -1;
+      }
+      return (int)(h & mask);
+    }
+
+    /**
+     * Waits, according to the wait policy, until n samples can be peeked.
+     * Only the reading thread may call this.
+     * @param n the number of samples to wait for
+     * @return the index in getArray() of the first of n contiguous samples, 
+     * or -1 if the buffer was closed (or the thread interrupted) before n samples were available
+     */
+    public int awaitSamples(int n){
+      int offset = peek(n);
+      if(offset >= 0){
+	return offset;
+      }
+      waitingReader = Thread.currentThread();
+      try {
+	while((offset = peek(n)) < 0){
+	  if(closed){
+	    //the last samples may have been written just before the buffer was closed
+	    return peek(n);
+	  }
+	  if(Thread.currentThread().isInterrupted()){
+	    return -1;
+	  }
+	  pause();
+	}
+	return offset;
+      } finally {
+	waitingReader = null;
+      }
+    }
+
+    /**
+     * Waits once according to the wait policy
+     */
+    private void pause(){
+      switch(waitPolicy){
+      case kWaitSpin:
+	break;
+      case kWaitYield:
+	Thread.yield();
+	break;
+      default:
+	LockSupport.parkNanos(this, kMaxParkNanos);
+      }
+    }
+
+    /**
+     * @param thread a thread that may be parked on this buffer, or null
+     */
+    private void wake(Thread thread){
+      if(thread != null){
+	LockSupport.unpark(thread);
+      }
+    }
+
+    /**
+     * @return the backing array of the buffer, to be indexed with the results of peek()
+     */
+    public byte[] getArray(){
+      return samples;
+    }
+
     /**
      * @param n the number of bytes to try to read (nondestructively)
-     * @return if the buffer.size >= n, return the requested byte array, otherwise null
+     * @return if the buffer.size >= n, return a copy of the requested bytes, otherwise null
      *
      * NOTE: THIS DOES NOT REMOVE BYTES FROM THE BUFFER
      */
-    public synchronized byte[] read(int n){
-      if(baos.size() < n){
+    public byte[] read(int n){
+      int offset = peek(n);
+      if(offset < 0){
 	return null;
       }
-      byte[] result = ArrayUtils.subarray(baos.toByteArray(), 0, n);
+      byte[] result = new byte[n];
+      System.arraycopy(samples, offset, result, 0, n);
       return result;
     }
 
     /**
-     * @param n the number of bytes to remove from the buffer. 
+     * Only the reading thread may delete samples.
+     * @param n the number of bytes to remove from the buffer, counted from where
+     * the last peek (or delete) left the reader. Samples the kOverflowDropOldest
+     * policy has dropped since then count among them, so the reader never loses
+     * samples it has not looked at.
      * If n > buffer.size, it has the same effect as n = buffer.size.
      */
-    public synchronized void delete(int n)
+    public void delete(int n)
       throws IOException {
       if(n <= 0){
 	return;
       }
-      if(baos.size() < n){
-	baos.reset();
-	return;
-      }
-      byte[] buff = ArrayUtils.subarray(baos.toByteArray(), n - 1, baos.size() - n);
-      baos.reset();
-      baos.write(buff);
+      long target = readHead + n;
+      long h;
+      do {
+	h = head.get();
+	if(h >= target){
+	  readHead = h;
+	  return;
+	}
+      } while(!head.compareAndSet(h, Math.min(target, tail)));
+      readHead = Math.min(target, tail);
+      wake(waitingWriter);
+    }
+
+    /**
+     * Marks the end of the stream: writes fail from now on, and a reader waiting 
+     * for more samples than are left is woken up and gets -1.
+     */
+    public void close(){
+      closed = true;
+      wake(waitingReader);
+      wake(waitingWriter);
+    }
+
+    /**
+     * @return true if close() has been called
+     */
+    public boolean isClosed(){
+      return closed;
     }
 
     /**
      * @return the current size of the buffer
      */
-    public synchronized int size(){
-      int size = 0;
-      size = baos.size();
-      return size;
+    public int size(){
+      return (int)(tail - head.get());
+    }
+
+    /**
+     * @return the maximum number of samples the buffer can hold
+     */
+    public int getCapacity(){
+      return capacity;
+    }
+
+    /**
+     * @return the number of samples discarded by the kOverflowDropOldest policy
+     */
+    public long getDroppedSamples(){
+      return droppedSamples;
     }
 }
@@ -11,7 +11,6 @@ package com.jonas.CricketAndroid;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 
 
 /**
@@ -29,7 +28,7 @@ public class AudioUtils {
     }
 
     public static void performString(String string) throws IOException {
-    	ArrayList<Integer> huffencoded = Huffman.huffencode(string);
+    	SymbolBuffer huffencoded = Huffman.huffencode(string);
     	ByteArrayOutputStream baos = new ByteArrayOutputStream();
     	Encoder.encodeCricket(huffencoded, baos);
     	performData(baos.toByteArray());
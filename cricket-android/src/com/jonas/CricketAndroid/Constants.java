@@ -25,6 +25,9 @@ public interface Constants {
   // The length, in durations, of the key sequence
   public static final int kDurationsPerKey = 3; 
 
+  // The number of samples the AudioBuffer can hold, a power of two (about 3 seconds)
+  public static final int kAudioBufferCapacity = 1 << 16;
+
   //The frequency used in the initial hail of the key
   public static final int kHailFrequency = 3000;
 
@@ -38,6 +41,16 @@ public interface Constants {
   // The chirping frequency
   public static final int kFrequency = 4184;
   
+  // The number of base-4 symbols a frame carries (one phase, three chirps)
+  public static final int kSymbolsPerFrame = 4;
+  
+  // The Huffman codes a message may name in its first frame: add a class
+  // written by HuffmanTrainer at the end, never reorder
+  public static final Huffman[] kHuffmanTables = { Huffman.CRICKET };
+  
+  // The name of a Huffman code made for the message and sent after the name
+  public static final int kAdaptiveHuffmanTable = 255;
+  
   // The length in milliseconds of a frame
   public static final int kFrameLength = 420; // ms
   
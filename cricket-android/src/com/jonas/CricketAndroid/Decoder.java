@@ -8,8 +8,6 @@ package com.jonas.CricketAndroid;
  */
 
 
-import java.util.ArrayList;
-
 /**
  * This class contains the signal processing functions.
  *
@@ -17,6 +15,8 @@ import java.util.ArrayList;
  */
 public class Decoder implements Constants {
 
+    private static final SlidingDft kHailTracker = new SlidingDft(kHailFrequency, kSamplesPerDuration, kSamplingFrequency);
+
     /**
      * @param signal the audio samples to search
      * @param signalStrengths this will be filled in with the strengths for each frequency (NOTE THIS SIDE EFFECT)
@@ -24,15 +24,26 @@ public class Decoder implements Constants {
      * @return the index in signal of the key sequence, or -1 if it wasn't found (in which case signalStrengths is trashed)
      */
     public static int findKeySequence(byte[] signal, double[] signalStrength, int granularity){
+	return findKeySequence(signal, 0, signal.length, signalStrength, granularity);
+    }
+
+    /**
+     * @param signal the array holding the audio samples to search
+     * @param offset the index in signal of the first sample to search
+     * @param length the number of samples to search
+     * @param signalStrengths this will be filled in with the strengths for each frequency (NOTE THIS SIDE EFFECT)
+     * @param granularity a correlation will be determined every granularity samples (lower is slower)
+     * @return the index, relative to offset, of the key sequence, or -1 if it wasn't found
+     */
+    public static int findKeySequence(byte[] signal, int offset, int length, double[] signalStrength, int granularity){
 	int maxCorrelationIndex = -1;
 	double maxCorrelation = -1;
 	double minSignal = 0.003;
 	//double acceptedSignal = 0.01;
 	int i=0;
-	for(i = 0; i <= signal.length - kSamplesPerDuration; i += granularity){ 
+	for(i = 0; i <= length - kSamplesPerDuration; i += granularity){ 
 	    //test the correlation
-	    byte[] partialSignal = ArrayUtils.subarray(signal, i, kSamplesPerDuration);
-	    double corr = complexDetect(partialSignal, Constants.kHailFrequency) /* * 4 */;
+	    double corr = complexDetect(signal, offset + i, kSamplesPerDuration, Constants.kHailFrequency) /* * 4 */;
 	    //	    System.out.println("Correlation at " + i + ":" + corr);
 	    if (corr > maxCorrelation){
 		maxCorrelation = corr;
@@ -64,34 +75,77 @@ public class Decoder implements Constants {
 	return maxCorrelationIndex;
     }
 
+    /**
+     * Finds the hail with sample accuracy, following its correlation at every
+     * position of the search range in a single pass.
+     * @param signal the array holding the audio samples to search
+     * @param offset the index in signal of the first sample to search
+     * @param length the number of samples to search
+     * @param signalStrength signalStrength[0] will be filled in with the strength of the hail at the returned index
+     * @return the index, relative to offset, where the hail is strongest, or -1 if it wasn't found.
+     * If the index is length - kSamplesPerDuration the hail may get stronger past the end of the range.
+     */
+    public static int findHail(byte[] signal, int offset, int length, double[] signalStrength){
+	int index = kHailTracker.findPeak(signal, offset, length, signalStrength);
+	if (signalStrength[0] < Constants.kKeyDetectionThreshold)
+	    return -1;
+	return index;
+    }
+
     /**
      * 
      * @param signalStrength the signal strength of the chirp frequency
      * @param samples the audio samples to be decoded
-     * @return array list of decoded integers
+     * @return the decoded symbols
      */
-    public static ArrayList<Integer> decodeFrame(double signalStrength, byte[] samples) {
-    	ArrayList<Integer> output = new ArrayList<Integer>();
-    	int winner = 0;
-    	double maxpower = 0;
-    	double signal[] = ArrayUtils.getDoubleArrayfromByteArray(samples);
-    	
-    	// normalize samples <wrt> signalStrength
-    	Decoder.normalize(signal, signalStrength);
+    public static SymbolBuffer decodeFrame(double signalStrength, byte[] samples) {
+    	SymbolBuffer output = new SymbolBuffer(kSymbolsPerFrame);
+    	decodeFrame(signalStrength, samples, 0, samples.length, output);
+    	return output;
+    }
+
+    /**
+     * 
+     * @param signalStrength the signal strength of the chirp frequency
+     * @param samples the array holding the audio samples to be decoded
+     * @param offset the index in samples of the first sample of the frame
+     * @param length the number of samples in the frame
+     * @param output the kSymbolsPerFrame decoded symbols are appended to this
+     */
+    public static void decodeFrame(double signalStrength, byte[] samples, int offset, int length, SymbolBuffer output) {
+    	// the sums of the squares of the samples, so the energy of any stretch
+    	// is a subtraction; past length the frame reads as silence
+    	long[] energy = kEnergy.get();
+    	long sum = 0;
+    	for (int i = 0; i < length && i < kFrameReach; i++) {
+    		int sample = samples[offset + i];
+    		sum += sample * sample;
+    		energy[i + 1] = sum;
+    	}
+    	for (int i = length; i < kFrameReach; i++)
+    		energy[i + 1] = sum;
     	
-    	// first symbol
+    	// first symbol: the phase whose three packets have the most energy.
+    	// The samples are all scaled by signalStrength, so the energies of the
+    	// bytes order the phases as their 2-norms do, but for a tie, which the
+    	// 2-norms break by their rounding
+    	int winner = 1; // a silent frame reads as the first phase
+    	long maxenergy = 0;
+    	double maxpower = Double.NaN;
     	for (int k = 1; k <=4; k++) {
-    		int beginning = (int) Math.round(Constants.kSamplingFrequency * (k-1) * (2*Constants.kPacketLength + 1.5*Constants.kSilenceLength) / 1000);
-    		if (beginning + Constants.kThreePacketSamples > signal.length) {
-    			// pad with enough zeros to make a frame
-    			double[] signal_padded = new double[beginning + Constants.kThreePacketSamples];
-    			// copy samples into padded array
-    			System.arraycopy(signal, 0, signal_padded, 0, signal.length);
-    			signal = signal_padded;
-    		}
-    		double power = Decoder.norm(ArrayUtils.getSlice(signal, beginning, (beginning + Constants.kThreePacketSamples)));
-    		if (power > maxpower) {
-    			maxpower = power;
+    		int beginning = getPhaseBeginning(k);
+    		long power = energy[beginning + Constants.kThreePacketSamples] - energy[beginning];
+    		if (power == maxenergy && power > 0) {
+    			if (Double.isNaN(maxpower))
+    				maxpower = norm(samples, offset, length, getPhaseBeginning(winner), Constants.kThreePacketSamples, signalStrength, 1);
+    			double tied = norm(samples, offset, length, beginning, Constants.kThreePacketSamples, signalStrength, 1);
+    			if (tied > maxpower) {
+    				maxpower = tied;
+    				winner = k;
+    			}
+    		} else if (power > maxenergy) {
+    			maxenergy = power;
+    			maxpower = Double.NaN;
     			winner = k;
     		}
     	}
@@ -99,12 +153,23 @@ public class Decoder implements Constants {
     	
     	// second symbol, we need the position of the three packets
     	double amplitude, width;
-    	int beginning = (int) Math.round(Constants.kSamplingFrequency * (winner-1) * (2*Constants.kPacketLength + 1.5*Constants.kSilenceLength) / 1000);
+    	int beginning = getPhaseBeginning(winner);
     	for (int jj = 1; jj < 4; jj++) {
-    		double[] currframe = ArrayUtils.getSlice(signal, (beginning + Constants.kSilencePacketSamples*(jj-1)), (beginning + Constants.kSilencePacketSamples*jj));
-    		amplitude = Decoder.absMax(currframe);
-    		Decoder.normalize(currframe, amplitude);
-    		width = Decoder.norm(currframe);
+    		int packet = beginning + Constants.kSilencePacketSamples*(jj-1);
+    		int peak = 0;
+    		for (int i = packet; i < packet + Constants.kSilencePacketSamples && i < length; i++)
+    			peak = Math.max(peak, Math.abs(samples[offset + i]));
+    		amplitude = (peak / (double) Constants.kFloatToByteShift) / signalStrength;
+    		
+    		// the width is the 2-norm of the packet scaled to its peak, so
+    		// width^2 is its energy over peak^2, unless that is too close to
+    		// the threshold to tell from how the 2-norm rounds
+    		long packetEnergy = energy[packet + Constants.kSilencePacketSamples] - energy[packet];
+    		double threshold = Constants.kThreshWidth * Constants.kThreshWidth * peak * peak;
+    		if (Math.abs(packetEnergy - threshold) > threshold * 1e-9)
+    			width = Math.sqrt(packetEnergy / (double) peak / peak);
+    		else
+    			width = norm(samples, offset, length, packet, Constants.kSilencePacketSamples, signalStrength, amplitude);
     		if (width < Constants.kThreshWidth) {
     			if (amplitude < Constants.kThreshAmplitude)
     				output.add(2);
@@ -117,24 +182,57 @@ public class Decoder implements Constants {
     				output.add(3);
     		}
     	}
-    	return output;
+    }
+
+    /**
+     * @param phase the first symbol of a frame, 1 to 4
+     * @return the index in the frame of the first of its three packets
+     */
+    private static int getPhaseBeginning(int phase) {
+    	return (int) Math.round(Constants.kSamplingFrequency * (phase-1) * (2*Constants.kPacketLength + 1.5*Constants.kSilenceLength) / 1000);
+    }
+
+    // the samples the packets of every phase reach (three packets are a
+    // sample longer than kThreePacketSamples)
+    private static final int kFrameReach = getPhaseBeginning(4) + 3 * Constants.kSilencePacketSamples;
+
+    // the energy sums decodeFrame works in, one array for each thread
+    private static final ThreadLocal<long[]> kEnergy = new ThreadLocal<long[]>() {
+    	@Override
+    	protected long[] initialValue() {
+    		return new long[kFrameReach + 1];
+    	}
+    };
+
+    /**
+     * The 2-norm of a stretch of a frame scaled by signalStrength and then by
+     * amplitude, summed as decodeFrame once did for every stretch, to break
+     * ties the same way.
+     */
+    private static double norm(byte[] samples, int offset, int length, int begin, int count, double signalStrength, double amplitude) {
+    	double sum = 0;
+    	for (int i = begin; i < begin + count; i++) {
+    		double sample = i < length ? (double)(samples[offset + i]/(double)Constants.kFloatToByteShift) / signalStrength : 0;
+    		sum += Math.pow(sample / amplitude, 2);
+    	}
+    	return Math.sqrt(sum);
     }
 
     // original implementation from ask-simple-java :
-    private static double complexDetect(byte[] signal, double frequency){
+    private static double complexDetect(byte[] signal, int offset, int length, double frequency){
     	double realSum = 0;
     	double imaginarySum = 0;
     	double u = 2 * Math.PI * frequency / kSamplingFrequency;
     	// y = e^(ju) = cos(u) + j * sin(u) 
 
-    	for(int i = 0; i < signal.length; i++){
+    	for(int i = 0; i < length; i++){
     	  //System.out.println("signal[" +i +"]: " +signal[i] + "; convert: " + (signal[i])/(float)Constants.kFloatToByteShift);
-    	    realSum = realSum + (Math.cos(i * u) * (signal[i]/(float)Constants.kFloatToByteShift));
-    	    imaginarySum = imaginarySum + (Math.sin(i * u) * (signal[i]/(float)Constants.kFloatToByteShift));
+    	    realSum = realSum + (Math.cos(i * u) * (signal[offset + i]/(float)Constants.kFloatToByteShift));
+    	    imaginarySum = imaginarySum + (Math.sin(i * u) * (signal[offset + i]/(float)Constants.kFloatToByteShift));
     	}
     	//System.out.println("realSum=" + realSum + "; imSum=" + imaginarySum);
-     	double realAve = realSum/signal.length;
-     	double imaginaryAve = imaginarySum/signal.length;
+     	double realAve = realSum/length;
+     	double imaginaryAve = imaginarySum/length;
 //       	System.out.println("u:" + u + " realAve:" + realAve + " imaginaryAve:" + imaginaryAve 
 //       			   + " \r\nfrequency:" + frequency + " signal.length:" + signal.length
 //       			   + " realSum:" + realSum + " imaginarySum:" + imaginarySum 
@@ -143,31 +241,4 @@ public class Decoder implements Constants {
     	return Math.sqrt( (realAve * realAve) + (imaginaryAve * imaginaryAve) );
         }
     
-    private static void normalize(double[] signal, double value) {
-    	// normalize samples <wrt> value
-    	for (int i = 0; i < signal.length; i++) {
-    		signal[i] = signal[i] / value;
-    	}
-    }
-    
-    private static double norm(double[] signal) {
-    	double sum = 0;
-    	// calculate 2-norm
-    	for (int i = 0; i < signal.length; i++) {
-    		//sum += Math.pow(signal[i], 2);
-    		sum += Math.pow(signal[i], 2);
-    	}
-    	return Math.sqrt(sum);
-    }
-    
-    private static double absMax(double[] signal) {
-    	double abs, maxvalue = 0;
-    	for (int i = 0; i < signal.length; i++) {
-    		abs = Math.abs(signal[i]);
-    		if (abs > maxvalue)
-    			maxvalue = abs;
-    	}
-    	return maxvalue;
-    }
-    
 }
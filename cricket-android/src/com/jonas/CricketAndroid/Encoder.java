@@ -10,7 +10,7 @@ package com.jonas.CricketAndroid;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Encoder.
@@ -18,35 +18,100 @@ import java.util.ArrayList;
  */
 public class Encoder implements Constants {
 
+    // the audio of the hail that starts and ends a message
+    private static final byte[] kHailSequence = getHailSequence();
+
+    // the audio of each of the 256 frames, indexed by its four symbols packed
+    // as in a SymbolBuffer: a frame is rendered the first time it is sent and
+    // kept, read-only, after that
+    private static final byte[][] kFrames = new byte[1 << (2 * kSymbolsPerFrame)][];
+
     /**
      * encodeCricket is the public function of class Encoder.
-     * @param input the ArrayList of integers to encode
+     * @param input the symbols to encode, padded out to whole frames (see Huffman.pad)
      * @param output the stream of audio samples representing the input, 
      *               pre- and post-fixed with an hail signal
      */
-    public static void encodeCricket(ArrayList<Integer> input, OutputStream output) throws IOException {
+    public static void encodeCricket(SymbolBuffer input, OutputStream output) throws IOException {
+    	checkFrames(input);
     	System.out.println("encodeCricket starts");
     	
     	byte[] zeros = new byte[kSamplesPerDuration];
     	
     	// write out the initial hail sequence
     	output.write(zeros);
-    	output.write(Encoder.getHailSequence());
+    	output.write(kHailSequence);
     	
     	// now write the data
-    	int info[] = new int[4];
-    	for (int i = 0; i < input.size() - 3; i+=4) {
-    		for (int j = 0; j < 4; j++)
-    			info[j] = input.get(i+j);
-    		output.write(Encoder.createPacket(info));
-    	}
+    	for (int i = 0; i < input.size(); i += kSymbolsPerFrame)
+    		output.write(getFrame(input.window(i)));
     	
     	// write out the closing hail sequence
-    	output.write(Encoder.getHailSequence());
+    	output.write(kHailSequence);
     	
     	System.out.println("encodeCricket ends");
     }
 
+    /**
+     * Encodes into an array, as encodeCricket(SymbolBuffer, OutputStream) does into a stream.
+     * @param input the symbols to encode, padded out to whole frames (see Huffman.pad)
+     * @param output the array to write the audio samples to
+     * @param offset the index in output of the first sample
+     * @return the number of samples written, getCricketLength(input)
+     */
+    public static int encodeCricket(SymbolBuffer input, byte[] output, int offset) {
+    	checkFrames(input);
+    	int start = offset;
+    	
+    	Arrays.fill(output, offset, offset + kSamplesPerDuration, (byte) 0);
+    	offset += kSamplesPerDuration;
+    	System.arraycopy(kHailSequence, 0, output, offset, kHailSequence.length);
+    	offset += kHailSequence.length;
+    	
+    	for (int i = 0; i < input.size(); i += kSymbolsPerFrame) {
+    		byte[] frame = getFrame(input.window(i));
+    		System.arraycopy(frame, 0, output, offset, frame.length);
+    		offset += frame.length;
+    	}
+    	
+    	System.arraycopy(kHailSequence, 0, output, offset, kHailSequence.length);
+    	offset += kHailSequence.length;
+    	return offset - start;
+    }
+
+    /**
+     * @param input symbols padded out to whole frames
+     * @return the number of audio samples encodeCricket makes of input
+     */
+    public static int getCricketLength(SymbolBuffer input) {
+    	checkFrames(input);
+    	return kSamplesPerDuration + 2 * kHailSequence.length
+    			+ (input.size() / kSymbolsPerFrame) * kSamplesPerFrame;
+    }
+
+    private static void checkFrames(SymbolBuffer input) {
+    	if (input.size() % kSymbolsPerFrame != 0)
+    		throw new IllegalArgumentException(input.size() + " symbols are not whole frames");
+    }
+
+    /**
+     * @param symbols the four symbols of a frame, packed as in a SymbolBuffer
+     * @return the audio samples of the frame, which must not be changed
+     */
+    static byte[] getFrame(int symbols) {
+    	synchronized (kFrames) {
+    		byte[] frame = kFrames[symbols];
+    		if (frame == null) {
+    			int info[] = new int[kSymbolsPerFrame];
+    			for (int j = 0; j < kSymbolsPerFrame; j++)
+    				info[j] = ((symbols >>> (2 * j)) & 3) + 1;
+    			frame = createPacket(info);
+    			kFrames[symbols] = frame;
+    		}
+    		return frame;
+    	}
+    }
+
     /**
      * @return audio samples for a duration of the hail frequency, Constants.kHailFrequency
      */
@@ -131,15 +196,15 @@ public class Encoder implements Constants {
      * @return byte array of audio samples representing the info integers
      */
     private static byte[] createPacket(int[] info) {
-    	ArrayList<Double> packet = new ArrayList<Double>();
+    	// every phase leaves room for the three chirps in the frame
+    	double signal[] = new double[Constants.kSamplesPerFrame];
+    	int position;
     	int packetlength, silencelength, packetsamples, silencesamples;
     	double amplitude;
     	
     	// info[0] determines the phase of this packet
     	int zeros_prefix = (int) Math.round(Constants.kSamplingFrequency * (info[0]-1) * (2 * Constants.kShortSize + 1.5 * Constants.kLongSize)/1000);
-    	for (int i = 0; i < zeros_prefix; i++) {
-    		packet.add(0.0);
-    	}
+    	position = zeros_prefix;
     	
     	// info[1,2,3] are encoded to chirp (amplitude,length) pairs
     	for (int k = 1; k < 4; k++) {
@@ -173,34 +238,17 @@ public class Encoder implements Constants {
     		packetsamples = (int) Math.round((Constants.kSamplingFrequency * packetlength) / 1000);
     		silencesamples = (int) Math.round((Constants.kSamplingFrequency * silencelength) / 1000);
     		
-    		double time[] = new double[packetsamples];
-    		for (int t = 0; t < packetsamples; t++) {
-    			time[t] = t * (((double) packetlength) / (packetsamples*1000));
-    		}
-    		
     		double smallpacket[] = new double[packetsamples];
     		for (int t = 0; t < packetsamples; t++) {
-    			smallpacket[t] = amplitude * Math.sin(2 * Math.PI * time[t] * Constants.kFrequency);
+    			double time = t * (((double) packetlength) / (packetsamples*1000));
+    			smallpacket[t] = amplitude * Math.sin(2 * Math.PI * time * Constants.kFrequency);
     		}
     		
-    		for (int i = 0; i < silencesamples; i++) {
-    			packet.add(0.0);
-    		}
+    		position += silencesamples;
     		
     		double smoothsmallpacket[] = smoothWindow(smallpacket);
-    		for (int i = 0; i < smoothsmallpacket.length; i++) {
-    			packet.add(smoothsmallpacket[i]);
-    		}
-    	}
-    	
-    	int zeros_suffix = (Constants.kSamplesPerFrame - packet.size());
-    	for (int i = 0; i < zeros_suffix; i++) {
-    		packet.add(0.0);
-    	}
-    	
-    	double signal[] = new double[packet.size()];
-    	for (int i = 0; i < signal.length; i++) {
-    		signal[i] = packet.get(i);
+    		System.arraycopy(smoothsmallpacket, 0, signal, position, smoothsmallpacket.length);
+    		position += smoothsmallpacket.length;
     	}
     	
     	// convert to bytes
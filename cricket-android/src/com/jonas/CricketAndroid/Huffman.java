@@ -6,213 +6,477 @@ package com.jonas.CricketAndroid;
  * Author: Jonas Michel
  */
 
-import java.util.ArrayList;
-
+/**
+ * A prefix code from characters to words of one to four base-4 symbols, the
+ * symbols a cricket frame carries four at a time.
+ * <p>
+ * Each character's code word is kept packed as in a SymbolBuffer. Decoding
+ * looks the next four symbols up in a table of all 256 of their values,
+ * which gives the character whose code word they start with and its length,
+ * so every character takes one probe whatever its length.
+ * <p>
+ * A canonical code, made from code lengths alone, may have an escape code
+ * word. The escape is followed by four symbols holding any ASCII character
+ * the code has no word for. A canonical code whose other words are all for
+ * printable characters can be described in a few symbols (see writeTable).
+ * <p>
+ * A message starts with a frame naming its code: the code's index in
+ * kHuffmanTables, or kAdaptiveHuffmanTable for a code made for the message,
+ * whose table follows. The index is sent inverted, so the cricket code is
+ * named by "4444", which a receiver older than the header takes for four
+ * spaces.
+ *
+ * @author jrm
+ */
 public class Huffman implements Constants {
 
+	/** The longest code word, in symbols */
+	public static final int MAX_LENGTH = 4;
+
+	/** The index of the escape among the code lengths of a canonical code */
+	public static final int ESCAPE = 128;
+
+	/** The symbols after an escape that hold the character */
+	public static final int ESCAPE_LITERAL = 4;
+
+	/** The symbols of the frame naming the code of a message */
+	public static final int HEADER_LENGTH = kSymbolsPerFrame;
+
+	// the characters writeTable can describe, in groups of 16 from ' '
+	private static final int FIRST_PRINTABLE = 32;
+	private static final int LAST_PRINTABLE = 126;
+	private static final int TABLE_GROUPS = 6;
+
+	/** The code the cricket has always chirped: {'a'-'z',' ','.'} */
+	public static final Huffman CRICKET = new Huffman(
+			" abcdefghijklmnopqrstuvwxyz.".toCharArray(),
+			new String[] { "4", "14", "2442", "113", "112", "12", "243", "232",
+					"34", "22", "2422", "2444", "111", "241", "31", "21",
+					"231", "2423", "33", "32", "13", "114", "2443", "233",
+					"2421", "2441", "2424", "234" });
+
+	// code word and length of each ASCII character and of the escape, length
+	// 0 if it has none
+	private final int[] codes = new int[ESCAPE + 1];
+	private final byte[] lengths = new byte[ESCAPE + 1];
+
+	// character (or ESCAPE) and code word length for each value of the next
+	// four symbols, length 0 if they start no code word
+	private final char[] windowChars = new char[256];
+	private final byte[] windowLengths = new byte[256];
+
+	// symbols that start no whole code word, to pad out a frame with
+	private final int padding;
+
+	// whether the code was made from code lengths
+	private final boolean canonical;
+
 	/**
-	 * @param input string consisting of {'a'-'z',' ','.'}
-	 * @return list of huffman-encoded integers
-	 */
-	public static ArrayList<Integer> huffencode(String input) {
-		ArrayList<Integer> output = new ArrayList<Integer>();
-		for (int i = 0; i < input.length(); i++) {
-			switch (input.charAt(i)) {
-			case ' ': output.add(4);
-				break;
-			case 'a': output.add(1); output.add(4);
-				break;
-			case 'b': output.add(2); output.add(4); output.add(4); output.add(2);
-				break;
-			case 'c': output.add(1); output.add(1); output.add(3);
-				break;
-			case 'd': output.add(1); output.add(1); output.add(2);
-				break;
-			case 'e': output.add(1); output.add(2);
-				break;
-			case 'f': output.add(2); output.add(4); output.add(3);
-				break;
-			case 'g': output.add(2); output.add(3); output.add(2);
-				break;
-			case 'h': output.add(3); output.add(4);
-				break;
-			case 'i': output.add(2); output.add(2);
-				break;
-			case 'j': output.add(2); output.add(4); output.add(2); output.add(2);
-				break;
-			case 'k': output.add(2); output.add(4); output.add(4); output.add(4);
-				break;
-			case 'l': output.add(1); output.add(1); output.add(1);
-				break;
-			case 'm': output.add(2); output.add(4); output.add(1);
-				break;
-			case 'n': output.add(3); output.add(1);
-				break;
-			case 'o': output.add(2); output.add(1);
-				break;
-			case 'p': output.add(2); output.add(3); output.add(1);
-				break;
-			case 'q': output.add(2); output.add(4); output.add(2); output.add(3);
-				break;
-			case 'r': output.add(3); output.add(3);
-				break;
-			case 's': output.add(3); output.add(2);
-				break;
-			case 't': output.add(1); output.add(3);
-				break;
-			case 'u': output.add(1); output.add(1); output.add(4);
-				break;
-			case 'v': output.add(2); output.add(4); output.add(4); output.add(3);
-				break;
-			case 'w': output.add(2); output.add(3); output.add(3);
-				break;
-			case 'x': output.add(2); output.add(4); output.add(2); output.add(1);
-				break;
-			case 'y': output.add(2); output.add(4); output.add(4); output.add(1);
-				break;
-			case 'z': output.add(2); output.add(4); output.add(2); output.add(4);
-				break;
-			case '.': output.add(2); output.add(3); output.add(4);
-				break;
-			default: System.out.println("ERROR: Character not recognized!!");
-				break;
-					
+	 * @param characters the ASCII characters of the code
+	 * @param codewords the code word of each character, as a string of the
+	 *            digits 1 to 4
+	 * @throws IllegalArgumentException if the code words are not a prefix code
+	 *             of up to MAX_LENGTH symbols with at least one MAX_LENGTH
+	 *             long, or a character is repeated or not ASCII
+	 */
+	public Huffman(char[] characters, String[] codewords) {
+		if (characters.length != codewords.length)
+			throw new IllegalArgumentException(characters.length + " characters but "
+					+ codewords.length + " code words");
+
+		for (int i = 0; i < characters.length; i++) {
+			char c = characters[i];
+			String codeword = codewords[i];
+			int length = codeword.length();
+			if (c >= ESCAPE || lengths[c] != 0)
+				throw new IllegalArgumentException("bad or repeated character '" + c + "'");
+			if (length < 1 || length > MAX_LENGTH)
+				throw new IllegalArgumentException("code word " + codeword + " for '" + c
+						+ "' is not 1 to " + MAX_LENGTH + " symbols long");
+
+			int bits = 0;
+			for (int k = 0; k < length; k++) {
+				int symbol = codeword.charAt(k) - '0';
+				if (symbol < 1 || symbol > 4)
+					throw new IllegalArgumentException("code word " + codeword + " for '" + c
+							+ "' is not made of the symbols 1 to 4");
+				bits |= (symbol - 1) << (k << 1);
 			}
+			addCode(c, bits, length);
 		}
-		return output;
+		padding = findPadding();
+		canonical = false;
 	}
-	
+
 	/**
-	 * @param input list of huffman-encoded integers
-	 * @return decoded string
+	 * Makes the canonical code with the given code lengths: code words are
+	 * handed out in order of length, then of character with the escape last,
+	 * each the base-4 number after the one before.
+	 *
+	 * @param codeLengths the length of the code word of each ASCII character
+	 *            and, at index ESCAPE, of the escape, 0 for none
+	 * @throws IllegalArgumentException if a length is over MAX_LENGTH, the
+	 *             lengths do not fit in a prefix code, or the code has
+	 *             neither an escape nor a word MAX_LENGTH long
 	 */
-	public static String huffdecode(ArrayList<Integer> input) {
-		StringBuilder output = new StringBuilder();
-		int i = 0;
-		while (i < input.size() - 3) {
-			switch (input.get(i)) {
-			case 4: output.append(' ');
-				i += 1;
-				break;
-			case 3:
-				switch (input.get(i+1)) {
-				case 1: output.append('n');
-					break;
-				case 2: output.append('s');
-					break;
-				case 3: output.append('r');
-					break;
-				case 4: output.append('h');
-					break;
-				default: System.out.println("ERROR inside case 3");
-					break;
-				}
-				i += 2;
-				break;
-			case 2:
-				switch (input.get(i+1)) {
-				case 1: output.append('o');
-					i += 2;
-					break;
-				case 2: output.append('i');
-					i += 2;
-					break;
-				case 3:
-					switch (input.get(i+2)) {
-					case 1: output.append('p');
-						break;
-					case 2: output.append('g');
-						break;
-					case 3: output.append('w');
-						break;
-					case 4: output.append('.');
-						break;
-					default: System.out.println("ERROR inside case 2,3");
-						break;
-					}
-					i += 3;
-					break;
-				case 4:
-					switch (input.get(i+2)) {
-					case 1: output.append('m');
-						i += 3;
-						break;
-					case 2:
-						switch (input.get(i+3)) {
-						case 1: output.append('x');
-							break;
-						case 2: output.append('j');
-							break;
-						case 3: output.append('q');
-							break;
-						case 4: output.append('z');
-							break;
-						default: System.out.println("ERROR inside case 2,4,2");
-							break;
-						}
-						i += 4;
-						break;
-					case 3: output.append('f');
-						i += 3;
-						break;
-					case 4:
-						switch (input.get(i+3)) {
-						case 1: output.append('y');
-							break;
-						case 2: output.append('b');
-							break;
-						case 3: output.append('v');
-							break;
-						case 4: output.append('k');
-							break;
-						default: System.out.println("ERROR inside case 2,4,4");
-							break;
-						}
-						i += 4;
-						break;
-					default: System.out.println("ERROR inside case 2,4");
-						break;
-					}
-					break;
-				default: System.out.println("ERROR inside case 2");
-					break;
-				}
-				break;
-				
-			case 1:
-				switch (input.get(i+1)) {
-				case 1:
-					switch (input.get(i+2)) {
-					case 1: output.append('l');
-						break;
-					case 2: output.append('d');
-						break;
-					case 3: output.append('c');
-						break;
-					case 4: output.append('u');
-						break;
-					default: System.out.println("ERROR inside case 1,1");
-						break;
-					}
-					i += 3;
-					break;
-				case 2: output.append('e');
-					i += 2;
-					break;
-				case 3: output.append('t');
-					i += 2;
-					break;
-				case 4: output.append('a');
-					i += 2;
+	public Huffman(int[] codeLengths) {
+		if (codeLengths.length != ESCAPE + 1)
+			throw new IllegalArgumentException(codeLengths.length + " code lengths, not " + (ESCAPE + 1));
+		for (int c = 0; c <= ESCAPE; c++) {
+			if (codeLengths[c] < 0 || codeLengths[c] > MAX_LENGTH)
+				throw new IllegalArgumentException("code length " + codeLengths[c] + " for " + c
+						+ " is not 0 to " + MAX_LENGTH);
+		}
+
+		// the next code word, as a base-4 number MAX_LENGTH digits long
+		int next = 0;
+		for (int length = 1; length <= MAX_LENGTH; length++) {
+			for (int c = 0; c <= ESCAPE; c++) {
+				if (codeLengths[c] != length)
+					continue;
+				if (next >= 1 << (MAX_LENGTH << 1))
+					throw new IllegalArgumentException("the code lengths do not fit in a prefix code");
+
+				// the word is the top length digits of next, first digit first
+				int bits = 0;
+				for (int k = 0; k < length; k++)
+					bits |= ((next >>> ((MAX_LENGTH - 1 - k) << 1)) & 3) << (k << 1);
+				addCode(c, bits, length);
+				next += 1 << ((MAX_LENGTH - length) << 1);
+			}
+		}
+		padding = findPadding();
+		canonical = true;
+	}
+
+	private void addCode(int c, int bits, int length) {
+		codes[c] = bits;
+		lengths[c] = (byte) length;
+
+		// every window that starts with the code word decodes to c
+		for (int rest = 0; rest < 1 << ((MAX_LENGTH - length) << 1); rest++) {
+			int window = bits | (rest << (length << 1));
+			if (windowLengths[window] != 0)
+				throw new IllegalArgumentException("code words for " + (int) windowChars[window]
+						+ " and " + c + " are not prefix-free");
+			windowChars[window] = (char) c;
+			windowLengths[window] = (byte) length;
+		}
+	}
+
+	private int findPadding() {
+		// fewer than MAX_LENGTH symbols from the start of an escape and its
+		// literal, or of a longest code word, are no whole code word
+		if (lengths[ESCAPE] != 0)
+			return codes[ESCAPE];
+		for (int c = 0; c < ESCAPE; c++) {
+			if (lengths[c] == MAX_LENGTH)
+				return codes[c];
+		}
+		throw new IllegalArgumentException("the code has no escape and no code word " + MAX_LENGTH
+				+ " symbols long, so frames cannot be padded");
+	}
+
+	/**
+	 * @param c
+	 * @return whether c has a code word, or can be escaped
+	 */
+	public boolean canEncode(char c) {
+		return c < ESCAPE && (lengths[c] != 0 || lengths[ESCAPE] != 0);
+	}
+
+	/**
+	 * @param text
+	 * @return the number of symbols encode gives for text, or -1 if it has a
+	 *         character this code cannot encode
+	 */
+	public int encodedLength(CharSequence text) {
+		int total = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (!canEncode(c))
+				return -1;
+			total += lengths[c] != 0 ? lengths[c] : lengths[ESCAPE] + ESCAPE_LITERAL;
+		}
+		return total;
+	}
+
+	/**
+	 * Appends the code words of a text to a buffer. A character without a
+	 * code word is escaped if the code has an escape, and left out if not.
+	 *
+	 * @param text
+	 * @param output
+	 * @return the number of characters left out
+	 */
+	public int encode(CharSequence text, SymbolBuffer output) {
+		int skipped = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < ESCAPE && lengths[c] != 0) {
+				output.append(codes[c], lengths[c]);
+			} else if (canEncode(c)) {
+				output.append(codes[ESCAPE], lengths[ESCAPE]);
+				output.append(c, ESCAPE_LITERAL);
+			} else {
+				skipped++;
+			}
+		}
+		return skipped;
+	}
+
+	/**
+	 * Pads a buffer out to a whole number of frames with the start of an
+	 * escape or of a longest code word, which decodes to nothing.
+	 *
+	 * @param output
+	 */
+	public void pad(SymbolBuffer output) {
+		int missing = (kSymbolsPerFrame - output.size() % kSymbolsPerFrame) % kSymbolsPerFrame;
+		if (missing > 0)
+			output.append(padding & ((1 << (missing << 1)) - 1), missing);
+	}
+
+	/**
+	 * Decodes symbols up to the start of a code word that is cut off by the
+	 * end of the range. A run of four symbols that starts no code word, which
+	 * only an incomplete code has, is stepped over one symbol at a time, and
+	 * an escaped value that is not ASCII is left out.
+	 *
+	 * @param input
+	 * @param from the index of the first symbol to decode
+	 * @param to the index past the last symbol to decode
+	 * @param output the characters are appended to this
+	 * @return the index of the first symbol not decoded, to if the range ends
+	 *         with a whole code word
+	 */
+	public int decode(SymbolBuffer input, int from, int to, StringBuilder output) {
+		int i = from;
+		while (i < to) {
+			int window = input.window(i);
+			int left = to - i;
+			if (left < MAX_LENGTH) {
+				// the window reads past the range, so only a code word inside
+				// it counts, and anything else may yet be completed
+				window &= (1 << (left << 1)) - 1;
+				if (windowLengths[window] == 0 || windowLengths[window] > left)
 					break;
-				default: System.out.println("ERROR inside case 1");
+			}
+			int length = windowLengths[window];
+			if (length == 0) {
+				i++;
+				continue;
+			}
+			char c = windowChars[window];
+			if (c == ESCAPE) {
+				if (left < length + ESCAPE_LITERAL)
 					break;
-				}
-				break;
-			default: System.out.println("ERROR: Number not recognized!!");
-				break;
+				int literal = input.window(i + length);
+				if (literal < ESCAPE)
+					output.append((char) literal);
+				i += length + ESCAPE_LITERAL;
+				continue;
+			}
+			output.append(c);
+			i += length;
+		}
+		return i;
+	}
+
+	/**
+	 * @param input symbols in this code, with no header
+	 * @return the text of the whole code words in input
+	 */
+	public String decode(SymbolBuffer input) {
+		StringBuilder output = new StringBuilder(input.size() / 2);
+		decode(input, 0, input.size(), output);
+		return output.toString();
+	}
+
+	/**
+	 * @return whether writeTable can describe this code: it is canonical, has
+	 *         an escape, and its other words are all for printable characters
+	 */
+	public boolean canWriteTable() {
+		if (!canonical || lengths[ESCAPE] == 0)
+			return false;
+		for (int c = 0; c < ESCAPE; c++) {
+			if (lengths[c] != 0 && (c < FIRST_PRINTABLE || c > LAST_PRINTABLE))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Appends a description of the code, from which readTable makes it again:
+	 * six bits saying which groups of 16 characters from ' ' have code words,
+	 * sixteen bits for each of those groups saying which of its characters
+	 * do, then the length less one of each of those characters and of the
+	 * escape, a symbol each.
+	 *
+	 * @param output
+	 * @throws IllegalStateException if canWriteTable() is not true
+	 */
+	public void writeTable(SymbolBuffer output) {
+		if (!canWriteTable())
+			throw new IllegalStateException("the code cannot be written as a table");
+		appendBits(output, groups(), TABLE_GROUPS);
+		for (int g = 0; g < TABLE_GROUPS; g++) {
+			int members = 0;
+			for (int k = 0; k < 16; k++) {
+				int c = FIRST_PRINTABLE + (g << 4) + k;
+				if (c <= LAST_PRINTABLE && lengths[c] != 0)
+					members |= 1 << k;
+			}
+			if (members != 0)
+				appendBits(output, members, 16);
+		}
+		for (int c = FIRST_PRINTABLE; c <= LAST_PRINTABLE; c++) {
+			if (lengths[c] != 0)
+				output.append(lengths[c] - 1, 1);
+		}
+		output.append(lengths[ESCAPE] - 1, 1);
+	}
+
+	/**
+	 * @return the number of symbols writeTable gives
+	 */
+	public int tableLength() {
+		int characters = 0;
+		for (int c = FIRST_PRINTABLE; c <= LAST_PRINTABLE; c++) {
+			if (lengths[c] != 0)
+				characters++;
+		}
+		return TABLE_GROUPS / 2 + 8 * Integer.bitCount(groups()) + characters + 1;
+	}
+
+	private int groups() {
+		int groups = 0;
+		for (int c = FIRST_PRINTABLE; c <= LAST_PRINTABLE; c++) {
+			if (lengths[c] != 0)
+				groups |= 1 << ((c - FIRST_PRINTABLE) >>> 4);
+		}
+		return groups;
+	}
+
+	private static void appendBits(SymbolBuffer output, int bits, int count) {
+		for (int k = 0; k < count; k += 2 * MAX_LENGTH) {
+			int symbols = Math.min(MAX_LENGTH, (count - k + 1) >>> 1);
+			output.append((bits >>> k) & ((1 << (symbols << 1)) - 1), symbols);
+		}
+	}
+
+	private static int readBits(SymbolBuffer input, int from, int count) {
+		int bits = 0;
+		for (int k = 0; k < count; k += 2)
+			bits |= (input.get(from + (k >>> 1)) - 1) << k;
+		return bits & ((1 << count) - 1);
+	}
+
+	/**
+	 * @param input
+	 * @param from the index of the first symbol of a table from writeTable
+	 * @param to the index past the last symbol received so far
+	 * @return the number of symbols in the table, or -1 if too few have been
+	 *         received to tell
+	 */
+	public static int tableLength(SymbolBuffer input, int from, int to) {
+		int length = TABLE_GROUPS / 2;
+		if (to - from < length)
+			return -1;
+		length += 8 * Integer.bitCount(readBits(input, from, TABLE_GROUPS));
+		if (to - from < length)
+			return -1;
+		int characters = 0;
+		for (int k = TABLE_GROUPS / 2; k < length; k += 8)
+			characters += Integer.bitCount(readBits(input, from + k, 16));
+		return length + characters + 1;
+	}
+
+	/**
+	 * @param input
+	 * @param from the index of the first symbol of a whole table from
+	 *            writeTable
+	 * @return the code the table describes
+	 * @throws IllegalArgumentException if the table does not describe a code
+	 */
+	public static Huffman readTable(SymbolBuffer input, int from) {
+		int[] codeLengths = new int[ESCAPE + 1];
+		int groups = readBits(input, from, TABLE_GROUPS);
+		int i = from + TABLE_GROUPS / 2;
+		int[] members = new int[TABLE_GROUPS];
+		for (int g = 0; g < TABLE_GROUPS; g++) {
+			if ((groups & (1 << g)) != 0) {
+				members[g] = readBits(input, i, 16);
+				i += 8;
+			}
+		}
+		for (int c = FIRST_PRINTABLE; c < ESCAPE; c++) {
+			int g = (c - FIRST_PRINTABLE) >>> 4;
+			if ((members[g] & (1 << ((c - FIRST_PRINTABLE) & 15))) == 0)
+				continue;
+			if (c > LAST_PRINTABLE)
+				throw new IllegalArgumentException("the table has a code word for DEL");
+			codeLengths[c] = input.get(i++);
+		}
+		codeLengths[ESCAPE] = input.get(i);
+		return new Huffman(codeLengths);
+	}
+
+	/**
+	 * Picks the code that sends a text in the fewest symbols, table
+	 * included: the first of the fewest among kHuffmanTables that encode all
+	 * of it, unless a code made for the text takes fewer still.
+	 *
+	 * @param text
+	 * @param adaptive the code made for the text
+	 * @return the index in kHuffmanTables of the code, or
+	 *         kAdaptiveHuffmanTable
+	 */
+	public static int chooseTable(CharSequence text, Huffman adaptive) {
+		int best = kAdaptiveHuffmanTable;
+		int bestLength = Integer.MAX_VALUE;
+		for (int id = 0; id < kHuffmanTables.length; id++) {
+			int length = kHuffmanTables[id].encodedLength(text);
+			if (length >= 0 && length < bestLength) {
+				best = id;
+				bestLength = length;
 			}
 		}
+		if (adaptive.tableLength() + adaptive.encodedLength(text) < bestLength)
+			best = kAdaptiveHuffmanTable;
+		return best;
+	}
+
+	/**
+	 * @param input string of ASCII characters; {'a'-'z',' ','.'} take the
+	 *            fewest symbols
+	 * @return huffman-encoded symbols, headed by the frame naming the code
+	 *         and padded out to whole frames
+	 */
+	public static SymbolBuffer huffencode(String input) {
+		Huffman adaptive = HuffmanTrainer.train(input);
+		int id = chooseTable(input, adaptive);
+		Huffman code = id == kAdaptiveHuffmanTable ? adaptive : kHuffmanTables[id];
+
+		SymbolBuffer output = new SymbolBuffer(3 * input.length() + 2 * kSymbolsPerFrame);
+		output.append(~id & 0xFF, HEADER_LENGTH);
+		if (id == kAdaptiveHuffmanTable)
+			code.writeTable(output);
+		if (code.encode(input, output) > 0)
+			System.out.println("ERROR: Character not recognized!!");
+		code.pad(output);
+		return output;
+	}
+
+	/**
+	 * @param input huffman-encoded symbols, headed by the frame naming the
+	 *            code
+	 * @return decoded string
+	 */
+	public static String huffdecode(SymbolBuffer input) {
+		StringBuilder output = new StringBuilder(input.size() / 2);
+		new HuffmanDecoder().write(input, output);
 		return output.toString();
 	}
 }
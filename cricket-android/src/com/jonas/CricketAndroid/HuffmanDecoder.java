@@ -0,0 +1,160 @@
+package com.jonas.CricketAndroid;
+
+/**
+ * Copyright 2012 by the authors. All rights reserved.
+ */
+
+/**
+ * Decodes symbols as they are received, for instance a frame at a time,
+ * holding on to a code word that is cut off between one call and the next.
+ * Unless it is given a code, it first reads the frame naming the code of the
+ * message, and the table of a code made for the message.
+ */
+public class HuffmanDecoder implements Constants {
+
+	// the code given, or null to read it from the header
+	private final Huffman given;
+
+	// the code of the message, null until the header has been read
+	private Huffman code;
+
+	// the header received so far
+	private final SymbolBuffer header = new SymbolBuffer(Huffman.HEADER_LENGTH);
+
+	// whether the header names a code this decoder does not know
+	private boolean unknown = false;
+
+	// the symbols of a code word not yet complete: fewer than an escape and
+	// its literal
+	private final SymbolBuffer pending = new SymbolBuffer(2 * (Huffman.MAX_LENGTH + Huffman.ESCAPE_LITERAL));
+
+	/**
+	 * Makes a decoder for messages headed by the frame naming their code
+	 */
+	public HuffmanDecoder() {
+		this(null);
+	}
+
+	/**
+	 * @param code the code the symbols are in, which they are not headed by,
+	 *            or null to read it from the header
+	 */
+	public HuffmanDecoder(Huffman code) {
+		this.given = code;
+		this.code = code;
+	}
+
+	/**
+	 * Decodes the symbols, and any held on to from before, up to the start of
+	 * a code word they cut off.
+	 *
+	 * @param symbols
+	 * @param from the index of the first symbol to decode
+	 * @param to the index past the last symbol to decode
+	 * @param output the characters are appended to this
+	 */
+	public void write(SymbolBuffer symbols, int from, int to, StringBuilder output) {
+		if (code == null) {
+			if (unknown)
+				return;
+			header.addAll(symbols, from, to);
+			int end = readHeader();
+			if (end < 0)
+				return;
+			// the rest of the header buffer is the start of the text
+			decode(header, end, header.size(), output);
+			header.clear();
+			return;
+		}
+		decode(symbols, from, to, output);
+	}
+
+	/**
+	 * @param symbols
+	 * @param output the characters are appended to this
+	 */
+	public void write(SymbolBuffer symbols, StringBuilder output) {
+		write(symbols, 0, symbols.size(), output);
+	}
+
+	private void decode(SymbolBuffer symbols, int from, int to, StringBuilder output) {
+		if (pending.size() > 0) {
+			// complete the code word held on to, then carry on in place
+			int held = pending.size();
+			pending.addAll(symbols, from, Math.min(from + Huffman.MAX_LENGTH + Huffman.ESCAPE_LITERAL, to));
+			int end = code.decode(pending, 0, pending.size(), output);
+			if (end == 0)
+				return; // still cut off, by the end of the range
+			from += end - held;
+		}
+		int end = code.decode(symbols, from, to, output);
+		pending.clear();
+		pending.addAll(symbols, end, to);
+	}
+
+	/**
+	 * Sets the code once the header is whole.
+	 *
+	 * @return the index in header past its end, or -1 if it is not whole
+	 */
+	private int readHeader() {
+		if (header.size() < Huffman.HEADER_LENGTH)
+			return -1;
+		int id = ~header.window(0) & 0xFF;
+		if (id == kAdaptiveHuffmanTable) {
+			int length = Huffman.tableLength(header, Huffman.HEADER_LENGTH, header.size());
+			if (length < 0 || header.size() < Huffman.HEADER_LENGTH + length)
+				return -1;
+			try {
+				code = Huffman.readTable(header, Huffman.HEADER_LENGTH);
+			} catch (IllegalArgumentException e) {
+				System.out.println("ERROR: Bad code table: " + e.getMessage());
+				unknown = true;
+				return -1;
+			}
+			return Huffman.HEADER_LENGTH + length;
+		}
+		if (id >= kHuffmanTables.length) {
+			System.out.println("ERROR: Code " + id + " not recognized!!");
+			unknown = true;
+			return -1;
+		}
+		code = kHuffmanTables[id];
+		return Huffman.HEADER_LENGTH;
+	}
+
+	/**
+	 * @return the code of the message, null if the header has not been read
+	 *         yet
+	 */
+	public Huffman getCode() {
+		return code;
+	}
+
+	/**
+	 * @return whether the header names a code this decoder does not know, so
+	 *         nothing more of the message can be decoded
+	 */
+	public boolean isUnknownCode() {
+		return unknown;
+	}
+
+	/**
+	 * @return whether no symbols are held on to, which is the case at the end
+	 *         of a message that was not cut off
+	 */
+	public boolean isComplete() {
+		return pending.size() == 0 && header.size() == 0;
+	}
+
+	/**
+	 * Drops any symbols held on to, such as the padding of the last frame of
+	 * a message, ready for the next message
+	 */
+	public void reset() {
+		pending.clear();
+		header.clear();
+		unknown = false;
+		code = given;
+	}
+}
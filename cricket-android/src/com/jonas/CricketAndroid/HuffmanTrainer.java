@@ -0,0 +1,233 @@
+package com.jonas.CricketAndroid;
+
+/**
+ * Copyright 2012 by the authors. All rights reserved.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes canonical Huffman codes for the cricket from character counts: from
+ * the text of one message, to send ahead of it, or from a corpus of
+ * messages, as a class to add to kHuffmanTables.
+ * <p>
+ * Usage: HuffmanTrainer &lt;corpus&gt; &lt;class name&gt; [&lt;package&gt;]
+ * <p>
+ * The corpus has a message a line. The class is written to standard output,
+ * how many symbols it saves to standard error.
+ */
+public class HuffmanTrainer {
+
+	/**
+	 * Works out the lengths of a quaternary Huffman code: the four least
+	 * frequent characters are joined into one again and again, with
+	 * characters of no count to make up the last four. While a code word
+	 * comes out longer than Huffman.MAX_LENGTH the counts are halved, which
+	 * in the end makes them all the same and the code as even as it can be.
+	 *
+	 * @param counts the count of each ASCII character and, at index
+	 *            Huffman.ESCAPE, of the characters to escape
+	 * @return the code lengths for Huffman(int[]): one for each character with
+	 *         a count, and for the escape always
+	 */
+	public static int[] codeLengths(long[] counts) {
+		long[] weights = counts.clone();
+		while (true) {
+			int[] lengths = huffmanLengths(weights);
+			int longest = 0;
+			for (int c = 0; c <= Huffman.ESCAPE; c++)
+				longest = Math.max(longest, lengths[c]);
+			if (longest <= Huffman.MAX_LENGTH)
+				return lengths;
+			for (int c = 0; c <= Huffman.ESCAPE; c++)
+				weights[c] = (weights[c] + 1) / 2;
+		}
+	}
+
+	private static int[] huffmanLengths(long[] weights) {
+		// the leaves, then the dummies, then the nodes that join them
+		int leaves = 0;
+		for (int c = 0; c <= Huffman.ESCAPE; c++) {
+			if (weights[c] > 0 || c == Huffman.ESCAPE)
+				leaves++;
+		}
+		int dummies = leaves == 1 ? 3 : (3 - (leaves - 1) % 3) % 3;
+		int nodes = leaves + dummies + (leaves + dummies - 1) / 3;
+		long[] weight = new long[nodes];
+		int[] symbol = new int[nodes];
+		int[] parent = new int[nodes];
+		boolean[] joined = new boolean[nodes];
+
+		int n = 0;
+		for (int c = 0; c <= Huffman.ESCAPE; c++) {
+			if (weights[c] > 0 || c == Huffman.ESCAPE) {
+				weight[n] = weights[c];
+				symbol[n++] = c;
+			}
+		}
+		for (int k = 0; k < dummies; k++)
+			symbol[n++] = -1;
+
+		// join the four lightest, the earliest first among equals
+		while (n < nodes) {
+			long sum = 0;
+			for (int k = 0; k < 4; k++) {
+				int lightest = -1;
+				for (int m = 0; m < n; m++) {
+					if (!joined[m] && (lightest < 0 || weight[m] < weight[lightest]))
+						lightest = m;
+				}
+				joined[lightest] = true;
+				parent[lightest] = n;
+				sum += weight[lightest];
+			}
+			weight[n] = sum;
+			symbol[n++] = -1;
+		}
+
+		int[] lengths = new int[Huffman.ESCAPE + 1];
+		for (int m = 0; m < leaves; m++) {
+			int depth = 0;
+			for (int p = m; p != nodes - 1; p = parent[p])
+				depth++;
+			lengths[symbol[m]] = depth;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Makes a code for one message: its printable characters get code words
+	 * and anything else is escaped, so the code can be written as a table.
+	 *
+	 * @param text
+	 * @return the code
+	 */
+	public static Huffman train(CharSequence text) {
+		long[] counts = new long[Huffman.ESCAPE + 1];
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= ' ' && c < 127)
+				counts[c]++;
+			else if (c < Huffman.ESCAPE)
+				counts[Huffman.ESCAPE]++;
+		}
+		return new Huffman(codeLengths(counts));
+	}
+
+	/**
+	 * @param messages
+	 * @param code
+	 * @return the number of symbols the messages take in the code, or -1 if
+	 *         the code cannot encode one of them
+	 */
+	public static long encodedLength(List<String> messages, Huffman code) {
+		long total = 0;
+		for (String message : messages) {
+			int length = code.encodedLength(message);
+			if (length < 0)
+				return -1;
+			total += length;
+		}
+		return total;
+	}
+
+	/**
+	 * Writes the source of a class holding a code.
+	 *
+	 * @param out
+	 * @param codeLengths the code lengths of the code
+	 * @param packageName
+	 * @param className
+	 * @param comment the doc comment of the class
+	 */
+	public static void writeClass(PrintStream out, int[] codeLengths, String packageName,
+			String className, String comment) {
+		out.println("package " + packageName + ";");
+		out.println();
+		if (!packageName.equals(HuffmanTrainer.class.getPackage().getName())) {
+			out.println("import " + Huffman.class.getName() + ";");
+			out.println();
+		}
+		out.println("/**");
+		StringBuilder line = new StringBuilder(" *");
+		for (String word : comment.split(" ")) {
+			if (line.length() + 1 + word.length() > 80) {
+				out.println(line);
+				line.setLength(0);
+				line.append(" *");
+			}
+			line.append(' ').append(word);
+		}
+		out.println(line);
+		out.println(" */");
+		out.println("public final class " + className + " {");
+		out.println();
+		out.println("\t// the code length of each ASCII character, then of the escape");
+		out.println("\tpublic static final Huffman CODE = new Huffman(new int[] {");
+		for (int c = 0; c <= Huffman.ESCAPE; c += 16) {
+			line.setLength(0);
+			line.append("\t\t\t");
+			for (int k = c; k < Math.min(c + 16, Huffman.ESCAPE + 1); k++)
+				line.append(codeLengths[k]).append(k < Huffman.ESCAPE ? ", " : " });");
+			out.println(line.toString().replaceAll(" +$", ""));
+		}
+		out.println();
+		out.println("\tprivate " + className + "() {");
+		out.println("\t}");
+		out.println("}");
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: HuffmanTrainer <corpus> <class name> [<package>]");
+			System.exit(1);
+		}
+		String packageName = args.length > 2 ? args[2] : HuffmanTrainer.class.getPackage().getName();
+
+		List<String> messages = new ArrayList<String>();
+		long[] counts = new long[Huffman.ESCAPE + 1];
+		long length = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), "US-ASCII"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0)
+					continue;
+				messages.add(line);
+				length += line.length();
+				for (int i = 0; i < line.length(); i++) {
+					if (line.charAt(i) < Huffman.ESCAPE)
+						counts[line.charAt(i)]++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (messages.isEmpty()) {
+			System.err.println(args[0] + " has no messages");
+			System.exit(1);
+		}
+
+		// leave room to escape what the corpus does not have
+		counts[Huffman.ESCAPE] = 1;
+		int[] codeLengths = codeLengths(counts);
+		long trained = encodedLength(messages, new Huffman(codeLengths));
+		long cricket = encodedLength(messages, Huffman.CRICKET);
+
+		String report = String.format("%d messages, %d characters: %d symbols (%.2f a character)",
+				messages.size(), length, trained, (double) trained / length);
+		if (cricket >= 0)
+			report += String.format(", against %d (%.2f) in the cricket code", cricket, (double) cricket / length);
+		writeClass(System.out, codeLengths, packageName, args[1], "A cricket Huffman code made by HuffmanTrainer from "
+				+ new File(args[0]).getName() + ". " + report.substring(0, 1).toUpperCase() + report.substring(1) + ".");
+		System.err.println(report);
+		System.err.printf("%.2f frames a message%n", (double) trained / messages.size() / Constants.kSymbolsPerFrame);
+	}
+}
@@ -9,7 +9,6 @@ package com.jonas.CricketAndroid;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 
 
 /**
@@ -32,7 +31,9 @@ public class StreamDecoder implements Runnable {
 	private OutputStream out = null;
 	boolean hasKey = false;
 	
-	private ArrayList<Integer> huffsequence;
+	private SymbolBuffer frameSymbols = new SymbolBuffer(Constants.kSymbolsPerFrame);
+	private HuffmanDecoder huffdecoder = new HuffmanDecoder();
+	private StringBuilder decoded = new StringBuilder();
 
 	/**
 	 * This creates and starts the decoding Thread
@@ -41,7 +42,6 @@ public class StreamDecoder implements Runnable {
 	 */
 	public StreamDecoder(OutputStream _out) {
 		out = _out;
-		huffsequence = new ArrayList<Integer>();
 		myThread = new Thread(this, kThreadName);
 		myThread.start();
 	}
@@ -76,40 +76,35 @@ public class StreamDecoder implements Runnable {
 
 		double signalStrength_begin[] = new double[1];
 		double signalStrength_end[] = new double[1];
-		boolean notEnoughSamples = true;
 		//byte samples[] = null;
 		
-		byte samples[] = null;
+		byte samples[] = buffer.getArray(); // the buffer is read in place, at
+											// the offsets returned by peek
+		int offset = -1;
 
 		hasKey = false;
 
 		while (running) {
-			notEnoughSamples = true;
-			while (notEnoughSamples) {
-				// grab enough samples to make a key
-				samples = buffer.read(Constants.kSamplesPerFrame);
-				
-				if (samples != null)
-					notEnoughSamples = false;
-				else
-					Thread.yield();
+			// grab enough samples to make a key
+			offset = buffer.awaitSamples(Constants.kSamplesPerFrame);
+			if (offset < 0) {
+				// the buffer was closed, so there is nothing more to decode
+				break;
 			}
 
 			/* START DECODING */
 			if (hasKey) {
-				int eot = Decoder.findKeySequence(ArrayUtils.subarray(samples, 0, Constants.kSamplesPerDuration), signalStrength_end, Constants.kKeyDetectionGranularityFine);
+				int eot = Decoder.findKeySequence(samples, offset, Constants.kSamplesPerDuration, signalStrength_end, Constants.kKeyDetectionGranularityFine);
 				if (eot > -1) {
 					try{
 						// delete these samples
 						buffer.delete(eot + Constants.kSamplesPerDuration);
 						deletedSamples += eot + Constants.kSamplesPerDuration;
 						
-						// decode the huffman sequence
-						String decoded = Huffman.huffdecode(huffsequence) + "\n";
-						huffsequence.clear();
-						
-						// display the text
-						out.write(decoded.getBytes());
+						// the text was displayed as it was decoded, what is
+						// left is the padding of the last frame
+						huffdecoder.reset();
+						out.write('\n');
 					} catch (IOException e) { 
 					}
 					
@@ -118,9 +113,18 @@ public class StreamDecoder implements Runnable {
 					continue;
 				}
 				
-				// grab enough samples to make a frame
-				samples = buffer.read(Constants.kSamplesPerFrame);
-				huffsequence.addAll(Decoder.decodeFrame(signalStrength_begin[0], samples));
+				// the samples already peeked make a frame
+				frameSymbols.clear();
+				Decoder.decodeFrame(signalStrength_begin[0], samples, offset, Constants.kSamplesPerFrame, frameSymbols);
+				
+				// display the characters the frame completes
+				decoded.setLength(0);
+				huffdecoder.write(frameSymbols, decoded);
+				try {
+					for (int i = 0; i < decoded.length(); i++)
+						out.write(decoded.charAt(i));
+				} catch (IOException e) {
+				}
 				
 				// delete these samples
 				try {
@@ -128,14 +132,6 @@ public class StreamDecoder implements Runnable {
 					deletedSamples += Constants.kSamplesPerFrame;
 				} catch (IOException e) { 
 				}
-
-				try {
-					// this provides the audio sampling mechanism a chance to maintain continuity
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					System.out.println("Stream Decoding thread interrupted:" + e);
-					break;
-				}
 				continue;
 			}
 			/* END DECODING */
@@ -148,38 +144,31 @@ public class StreamDecoder implements Runnable {
 			// Constants.kSamplingFrequency) + " End: "
 			// + ((float)(deletedSamples + samples.length) /
 			// Constants.kSamplingFrequency));
-			int startIndex = Decoder.findKeySequence(samples, signalStrength_begin, Constants.kKeyDetectionGranularityCoarse);
-			if (startIndex > -1) {
-				// found key using coarse detection
+			int startIndex = Decoder.findHail(samples, offset, Constants.kSamplesPerFrame, signalStrength_begin);
+			if (startIndex == Constants.kSamplesPerFrame - Constants.kSamplesPerDuration) {
+				// the hail may still get stronger past the samples we have, so search again from here
 				try {
 					buffer.delete(startIndex);
 				} catch (IOException e) {
 				}
 				deletedSamples += startIndex;
-				
-				// now find key using fine detection
-				notEnoughSamples = true;
-				while (notEnoughSamples) {
-					samples= buffer.read(Constants.kSamplesPerFrame);
-					if (samples != null)
-						notEnoughSamples = false;
-					else
-						Thread.yield();
-				}
-				startIndex = Decoder.findKeySequence(samples, signalStrength_begin, Constants.kKeyDetectionGranularityFine);
-				
-				// found key using fine detection
+				continue;
+			}
+			if (startIndex > -1) {
+				// found key, skip past the hail
 				try {
 					buffer.delete(startIndex + Constants.kSamplesPerDuration);
 				} catch (IOException e) {
 				}
-				deletedSamples += startIndex;
+				deletedSamples += startIndex + Constants.kSamplesPerDuration;
 				
 				hasKey = true;
 			} else {
+				// every position of the hail up to here has been searched
+				int searched = Constants.kSamplesPerFrame - Constants.kSamplesPerDuration + 1;
 				try {
-					buffer.delete(Constants.kSamplesPerDuration);
-					deletedSamples += (Constants.kSamplesPerDuration);
+					buffer.delete(searched);
+					deletedSamples += searched;
 				} catch (IOException e) { 
 				}
 			}
@@ -190,5 +179,6 @@ public class StreamDecoder implements Runnable {
 		synchronized (runLock) {
 			running = false;
 		}
+		buffer.close(); // wakes the decoding thread if it is waiting for samples
 	}
 }
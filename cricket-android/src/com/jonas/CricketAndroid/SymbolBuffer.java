@@ -0,0 +1,109 @@
+package com.jonas.CricketAndroid;
+
+/**
+ * Copyright 2012 by the authors. All rights reserved.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A growable sequence of the base-4 symbols (1 to 4) a cricket frame carries,
+ * packed two bits to a symbol, sixteen symbols to an int. Symbol i is kept as
+ * i - 1 in bits 2*(i % 16) and up of word i / 16, so a run of symbols reads
+ * as a little-endian number in base 4.
+ */
+public class SymbolBuffer {
+
+	private int[] words;
+	private int size = 0;
+
+	public SymbolBuffer() {
+		this(64);
+	}
+
+	/**
+	 * @param capacity the number of symbols to make room for
+	 */
+	public SymbolBuffer(int capacity) {
+		// one word more than needed, so window() can always read a pair
+		words = new int[(capacity >>> 4) + 2];
+	}
+
+	/**
+	 * @return the number of symbols in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Empties the buffer, keeping its storage
+	 */
+	public void clear() {
+		Arrays.fill(words, 0, (size >>> 4) + 1, 0);
+		size = 0;
+	}
+
+	/**
+	 * @param index
+	 * @return the symbol at index, 1 to 4
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		return ((words[index >>> 4] >>> ((index & 15) << 1)) & 3) + 1;
+	}
+
+	/**
+	 * @param symbol the symbol to append, 1 to 4
+	 */
+	public void add(int symbol) {
+		if (symbol < 1 || symbol > 4)
+			throw new IllegalArgumentException("not a base-4 symbol: " + symbol);
+		append(symbol - 1, 1);
+	}
+
+	/**
+	 * Appends the symbols of another buffer
+	 *
+	 * @param symbols
+	 * @param from the index of the first symbol to append
+	 * @param to the index past the last symbol to append
+	 */
+	public void addAll(SymbolBuffer symbols, int from, int to) {
+		for (; from + 4 <= to; from += 4)
+			append(symbols.window(from), 4);
+		if (from < to)
+			append(symbols.window(from) & ((1 << ((to - from) << 1)) - 1), to - from);
+	}
+
+	/**
+	 * Appends up to four symbols at once.
+	 *
+	 * @param bits the symbols less one, packed as in the buffer, with nothing
+	 *            set above them
+	 * @param count the number of symbols in bits, 1 to 4
+	 */
+	void append(int bits, int count) {
+		int end = size + count;
+		if ((end >>> 4) + 2 > words.length)
+			words = Arrays.copyOf(words, Math.max(2 * words.length, (end >>> 4) + 2));
+		int word = size >>> 4;
+		int shift = (size & 15) << 1;
+		words[word] |= bits << shift;
+		if (shift + (count << 1) > 32)
+			words[word + 1] |= bits >>> (32 - shift);
+		size = end;
+	}
+
+	/**
+	 * @param index the index of the first symbol, less than size()
+	 * @return the four symbols from index packed into eight bits, each less
+	 *         one; positions past the end of the buffer read as zero
+	 */
+	int window(int index) {
+		int word = index >>> 4;
+		long pair = (words[word] & 0xFFFFFFFFL) | ((long) words[word + 1] << 32);
+		return (int) (pair >>> ((index & 15) << 1)) & 0xFF;
+	}
+}